@@ -0,0 +1,85 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.MinioClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MinioClientPool 获取客户端的并发争用基准测试
+ *
+ * 客户端在预热时创建并缓存，测量的是缓存命中路径与负载均衡选择在1~64线程下的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MinioClientPoolBenchmark {
+    MinioConfig config;
+
+    @Setup
+    public void setup() {
+        config = new MinioConfig();
+        MinioClientPool.getClient(config);
+        MinioClientPool.getBalancer(config).selectClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        MinioClientPool.clearCache();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public MinioClient getClient_1() {
+        return MinioClientPool.getClient(config);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public MinioClient getClient_4() {
+        return MinioClientPool.getClient(config);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public MinioClient getClient_16() {
+        return MinioClientPool.getClient(config);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public MinioClient getClient_64() {
+        return MinioClientPool.getClient(config);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public MinioClient selectClient_1() {
+        return MinioClientPool.getBalancer(config).selectClient();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public MinioClient selectClient_16() {
+        return MinioClientPool.getBalancer(config).selectClient();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public MinioClient selectClient_64() {
+        return MinioClientPool.getBalancer(config).selectClient();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import org.moqui.context.ExecutionContextFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MinioConfig 构造与快照获取基准测试
+ *
+ * 无ExecutionContextFactory时配置来自系统属性与环境变量，测量解析、校验与复制的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MinioConfigBenchmark {
+    MinioConfig config;
+
+    @Setup
+    public void setup() {
+        config = new MinioConfig();
+        MinioConfig.getInstance(null);
+    }
+
+    @Benchmark
+    public MinioConfig constructDefaults() {
+        return new MinioConfig();
+    }
+
+    @Benchmark
+    public MinioConfig constructFromProperties() {
+        return new MinioConfig((ExecutionContextFactory) null);
+    }
+
+    @Benchmark
+    public MinioConfig forEndpoint() {
+        return config.forEndpoint("http://minio-2:9000");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public MinioConfig getInstance() {
+        return MinioConfig.getInstance(null);
+    }
+}
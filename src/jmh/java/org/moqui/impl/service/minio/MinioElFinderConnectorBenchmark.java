@@ -0,0 +1,118 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.Xml;
+import io.minio.messages.Item;
+import io.minio.messages.ListBucketResultV2;
+import io.minio.messages.Prefix;
+import org.moqui.context.ExecutionContextFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MinioElFinderConnector 纯计算路径基准测试
+ *
+ * 覆盖hash/unhash/getLocation，以及getFiles中列举结果到elFinder文件信息的转换（不访问MinIO）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MinioElFinderConnectorBenchmark {
+    private static final String BUCKET = "bench-bucket";
+    private static final String SUB_DIR = "docs/2024";
+
+    @Param({"100", "1000"})
+    int itemCount;
+
+    MinioElFinderConnector connector;
+    String path;
+    String hashed;
+    List<Item> rootItems;
+    List<Item> subItems;
+
+    @Setup
+    public void setup() throws Exception {
+        connector = new MinioElFinderConnector((ExecutionContextFactory) null, BUCKET);
+        path = SUB_DIR + "/报告-季度汇总.pdf";
+        hashed = connector.hash(path);
+        rootItems = parseListing("", itemCount);
+        subItems = parseListing(SUB_DIR + "/", itemCount);
+    }
+
+    /**
+     * 构造ListObjectsV2响应XML并按SDK解析，得到与真实列举一致的Item（九成文件、一成子目录）
+     */
+    private static List<Item> parseListing(String prefix, int count) throws Exception {
+        StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+                .append("<Name>").append(BUCKET).append("</Name><Prefix>").append(prefix).append("</Prefix>")
+                .append("<KeyCount>").append(count).append("</KeyCount><MaxKeys>1000</MaxKeys><Delimiter>/</Delimiter>")
+                .append("<IsTruncated>false</IsTruncated>");
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                xml.append("<CommonPrefixes><Prefix>").append(prefix).append("dir-").append(i).append("/</Prefix></CommonPrefixes>");
+            } else {
+                xml.append("<Contents><Key>").append(prefix).append("file-").append(i).append(".txt</Key>")
+                        .append("<LastModified>2024-05-01T08:00:00.000Z</LastModified>")
+                        .append("<ETag>\"d41d8cd98f00b204e9800998ecf8427e\"</ETag>")
+                        .append("<Size>").append(1024L * i).append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+            }
+        }
+        xml.append("</ListBucketResult>");
+
+        ListBucketResultV2 result = Xml.unmarshal(ListBucketResultV2.class, xml.toString());
+        List<Item> items = new ArrayList<>(result.contents());
+        for (Prefix commonPrefix : result.commonPrefixes()) items.add(commonPrefix.toItem());
+        return items;
+    }
+
+    @Benchmark
+    public String hash() {
+        return connector.hash(path);
+    }
+
+    @Benchmark
+    public String unhash() {
+        return MinioElFinderConnector.unhash(hashed);
+    }
+
+    @Benchmark
+    public String getLocation() {
+        return connector.getLocation(hashed);
+    }
+
+    @Benchmark
+    public void convertRootListing(Blackhole bh) {
+        convert("", rootItems, bh);
+    }
+
+    @Benchmark
+    public void convertSubDirectoryListing(Blackhole bh) {
+        convert(SUB_DIR, subItems, bh);
+    }
+
+    private void convert(String objectName, List<Item> items, Blackhole bh) {
+        List<Map<String, Object>> files = new ArrayList<>(items.size());
+        List<Map<String, Object>> pendingDirInfos = new ArrayList<>();
+        List<String> pendingDirPrefixes = new ArrayList<>();
+        connector.addItemInfos(objectName, items, files, pendingDirInfos, pendingDirPrefixes);
+        bh.consume(files);
+        bh.consume(pendingDirPrefixes);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 针对选定端点异步客户端执行的MinIO调用
+ *
+ * 调用应立即返回未完成的future，不在调用线程上等待网络交互；
+ * 遇到可重试错误时调用会被再次执行，上传所用的输入流应在调用内部创建
+ */
+@FunctionalInterface
+public interface MinioAsyncCallable<T> {
+    CompletableFuture<T> call(MinioExtendedAsyncClient client) throws Exception;
+}
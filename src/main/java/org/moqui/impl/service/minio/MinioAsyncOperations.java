@@ -0,0 +1,131 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.messages.Item;
+import org.moqui.context.ExecutionContextFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * MinIO异步操作接口
+ *
+ * 基于 {@link MinioExtendedAsyncClient}，各方法立即返回future，网络交互由OkHttp的Dispatcher线程完成，
+ * 批量服务和界面可以同时发起大量存储调用而无需为每个调用占用一个线程；
+ * 调用与同步接口一样经过负载均衡、熔断与重试
+ *
+ * 通过 ec.getTool("MinioAsync", MinioAsyncOperations.class) 获取
+ */
+public class MinioAsyncOperations {
+    private final ExecutionContextFactory ecf;
+
+    public MinioAsyncOperations(ExecutionContextFactory ecf) {
+        this.ecf = ecf;
+    }
+
+    /**
+     * 上传对象
+     *
+     * @param bucketName 存储桶名称
+     * @param objectName 对象名称
+     * @param data 对象内容
+     * @param contentType 内容类型，可为null
+     * @return 上传结果
+     */
+    public CompletableFuture<ObjectWriteResponse> upload(String bucketName, String objectName, byte[] data, String contentType) {
+        return MinioClientPool.executeAsync(ecf, "putObject", bucketName, client -> {
+            PutObjectArgs.Builder builder = PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .stream(new ByteArrayInputStream(data), data.length, -1);
+            if (contentType != null) builder.contentType(contentType);
+            return client.putObject(builder.build());
+        }).thenApply(response -> {
+            MinioMetrics.recordBytesOut("putObject", bucketName, data.length);
+            return response;
+        });
+    }
+
+    /**
+     * 下载对象的完整内容
+     *
+     * @param bucketName 存储桶名称
+     * @param objectName 对象名称
+     * @return 对象内容
+     */
+    public CompletableFuture<byte[]> download(String bucketName, String objectName) {
+        return MinioClientPool.executeAsync(ecf, "getObject", bucketName, client ->
+                client.getObject(GetObjectArgs.builder().bucket(bucketName).object(objectName).build())
+                        .thenApply(MinioAsyncOperations::readFully)).thenApply(content -> {
+            MinioMetrics.recordBytesIn("getObject", bucketName, content.length);
+            return content;
+        });
+    }
+
+    /**
+     * 获取对象元数据
+     *
+     * @param bucketName 存储桶名称
+     * @param objectName 对象名称
+     * @return 对象元数据
+     */
+    public CompletableFuture<StatObjectResponse> stat(String bucketName, String objectName) {
+        return MinioClientPool.executeAsync(ecf, "statObject", bucketName, client ->
+                client.statObject(StatObjectArgs.builder().bucket(bucketName).object(objectName).build()));
+    }
+
+    /**
+     * 列举对象
+     *
+     * @param bucketName 存储桶名称
+     * @param prefix 对象前缀，可为null
+     * @param recursive 是否递归列举
+     * @return 对象列表
+     */
+    public CompletableFuture<List<Item>> list(String bucketName, String prefix, boolean recursive) {
+        return MinioClientPool.executeAsync(ecf, "listObjects", bucketName, client ->
+                client.listAllObjects(bucketName, prefix, recursive));
+    }
+
+    /**
+     * 删除对象
+     *
+     * @param bucketName 存储桶名称
+     * @param objectName 对象名称
+     * @return 删除完成时完成
+     */
+    public CompletableFuture<Void> delete(String bucketName, String objectName) {
+        return MinioClientPool.executeAsync(ecf, "removeObject", bucketName, client ->
+                client.removeObject(RemoveObjectArgs.builder().bucket(bucketName).object(objectName).build()));
+    }
+
+    private static byte[] readFully(GetObjectResponse response) {
+        try (GetObjectResponse body = response) {
+            return body.readAllBytes();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+}
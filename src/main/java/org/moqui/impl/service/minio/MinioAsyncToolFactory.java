@@ -0,0 +1,60 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.ToolFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MinIO异步操作工具工厂
+ *
+ * 客户端、配置与后台任务由 {@link MinioToolFactory} 管理，这里只提供共享的 {@link MinioAsyncOperations}
+ */
+public class MinioAsyncToolFactory implements ToolFactory<MinioAsyncOperations> {
+    private static final Logger logger = LoggerFactory.getLogger(MinioAsyncToolFactory.class);
+    public static final String TOOL_NAME = "MinioAsync";
+
+    private MinioAsyncOperations asyncOperations;
+
+    public MinioAsyncToolFactory() {}
+
+    @Override
+    public String getName() {
+        return TOOL_NAME;
+    }
+
+    @Override
+    public void init(ExecutionContextFactory ecf) {
+        this.asyncOperations = new MinioAsyncOperations(ecf);
+        logger.info("MinIO Async Tool Factory initialized");
+    }
+
+    @Override
+    public void preFacadeInit(ExecutionContextFactory ecf) { }
+
+    @Override
+    public MinioAsyncOperations getInstance(Object... parameters) {
+        if (asyncOperations == null) {
+            throw new IllegalStateException("MinioAsyncToolFactory not initialized properly");
+        }
+        return asyncOperations;
+    }
+
+    @Override
+    public void destroy() {
+        asyncOperations = null;
+    }
+}
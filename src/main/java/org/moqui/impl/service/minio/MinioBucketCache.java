@@ -0,0 +1,261 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.BucketExistsArgs;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.cache.Cache;
+import javax.transaction.Synchronization;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 存储桶元数据缓存
+ *
+ * 基于Moqui CacheFacade缓存 moqui.minio.Bucket 记录、MinIO中的存在性与 BucketConfig 配置，
+ * 过期时间等在MoquiConf.xml的cache-list中配置；缓存类型为distributed，
+ * 部署了分布式缓存（如moqui-hazelcast）时各节点共享缓存，失效操作在整个集群生效。
+ * 存储桶的创建、更新、删除以及统计值变化后需调用 {@link #invalidate(ExecutionContextFactory, String)}；
+ * BucketConfig 的创建、更新、删除由 EECA 调用 {@link #invalidateAfterCommit(ExecutionContext, String)}
+ *
+ * 另有存储桶列表的近似总数缓存（minio.bucket.count），按查询条件缓存count结果，
+ * 在过期时间内可能与实际数量不一致；存储桶创建或删除后调用 {@link #invalidateCounts(ExecutionContextFactory)}
+ */
+public class MinioBucketCache {
+    private static final Logger logger = LoggerFactory.getLogger(MinioBucketCache.class);
+
+    public static final String CACHE_NAME = "minio.bucket.metadata";
+    public static final String COUNT_CACHE_NAME = "minio.bucket.count";
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder loadFailures = new LongAdder();
+    private static final LongAdder invalidations = new LongAdder();
+    private static final LongAdder countHits = new LongAdder();
+    private static final LongAdder countMisses = new LongAdder();
+
+    /**
+     * 缓存的存储桶元数据（可序列化，用于分布式缓存）
+     */
+    public static final class BucketMetadata implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, Object> bucket;
+        private final boolean existsInMinio;
+        private final HashMap<String, String> config;
+        private final long loadedTime;
+
+        BucketMetadata(Map<String, Object> bucket, boolean existsInMinio, Map<String, String> config) {
+            this.bucket = new HashMap<>(bucket);
+            this.existsInMinio = existsInMinio;
+            this.config = new HashMap<>(config);
+            this.loadedTime = System.currentTimeMillis();
+        }
+
+        public Map<String, Object> getBucket() { return Collections.unmodifiableMap(bucket); }
+        public Object get(String fieldName) { return bucket.get(fieldName); }
+        public String getString(String fieldName) {
+            Object value = bucket.get(fieldName);
+            return value != null ? value.toString() : null;
+        }
+        public boolean isExistsInMinio() { return existsInMinio; }
+        public Map<String, String> getConfig() { return Collections.unmodifiableMap(config); }
+        public long getLoadedTime() { return loadedTime; }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cache<String, BucketMetadata> getCache(ExecutionContextFactory ecf) {
+        return (Cache<String, BucketMetadata>) (Cache) ecf.getCache().getCache(CACHE_NAME);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cache<String, Long> getCountCache(ExecutionContextFactory ecf) {
+        return (Cache<String, Long>) (Cache) ecf.getCache().getCache(COUNT_CACHE_NAME);
+    }
+
+    /**
+     * 获取存储桶列表的近似总数，未缓存时执行counter并缓存结果
+     *
+     * @param countKey 由查询条件组成的缓存键
+     * @param counter 精确计数
+     */
+    public static long getApproximateCount(ExecutionContextFactory ecf, String countKey, LongSupplier counter) {
+        Cache<String, Long> cache = getCountCache(ecf);
+        Long count = cache.get(countKey);
+        if (count != null) {
+            countHits.increment();
+            return count;
+        }
+        countMisses.increment();
+        long exactCount = counter.getAsLong();
+        cache.put(countKey, exactCount);
+        return exactCount;
+    }
+
+    /**
+     * 缓存精确计数结果（调用方已执行精确count时刷新近似值）
+     */
+    public static void putCount(ExecutionContextFactory ecf, String countKey, long count) {
+        try {
+            getCountCache(ecf).put(countKey, count);
+        } catch (Exception e) {
+            logger.warn("缓存存储桶数量失败: " + countKey, e);
+        }
+    }
+
+    /**
+     * 清空存储桶列表的近似总数缓存
+     */
+    public static void invalidateCounts(ExecutionContextFactory ecf) {
+        try {
+            getCountCache(ecf).removeAll();
+        } catch (Exception e) {
+            logger.warn("清除存储桶数量缓存失败", e);
+        }
+    }
+
+    /**
+     * 获取存储桶元数据，未缓存时从数据库与MinIO加载
+     *
+     * @return 元数据；数据库中无此存储桶记录时返回null
+     * @throws Exception 检查MinIO存在性失败时抛出（不缓存）
+     */
+    public static BucketMetadata get(ExecutionContext ec, String bucketId) throws Exception {
+        Cache<String, BucketMetadata> cache = getCache(ec.getFactory());
+        BucketMetadata metadata = cache.get(bucketId);
+        if (metadata != null) {
+            hits.increment();
+            return metadata;
+        }
+        misses.increment();
+
+        EntityValue bucketRecord = ec.getEntity().find("moqui.minio.Bucket")
+                .condition("bucketId", bucketId).disableAuthz().one();
+        if (bucketRecord == null) return null;
+
+        Map<String, String> config = new LinkedHashMap<>();
+        for (EntityValue configValue : ec.getEntity().find("moqui.minio.BucketConfig")
+                .condition("bucketId", bucketId).orderBy("configKey").disableAuthz().list()) {
+            config.put(configValue.getString("configKey"), configValue.getString("configValue"));
+        }
+
+        boolean exists;
+        try {
+            exists = MinioClientPool.execute(ec.getFactory(), "bucketExists", bucketId, client -> client.bucketExists(
+                    BucketExistsArgs.builder().bucket(bucketId).build()));
+        } catch (Exception e) {
+            loadFailures.increment();
+            throw e;
+        }
+
+        metadata = new BucketMetadata(bucketRecord.getMap(), exists, config);
+        cache.put(bucketId, metadata);
+        return metadata;
+    }
+
+    /**
+     * 仅查询缓存中的存在性，不加载（可在任务执行器线程上调用）
+     *
+     * @return 缓存的存在性；未缓存时返回null
+     */
+    public static Boolean peekExists(ExecutionContextFactory ecf, String bucketId) {
+        BucketMetadata metadata = getCache(ecf).get(bucketId);
+        if (metadata == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return metadata.isExistsInMinio();
+    }
+
+    /**
+     * 检查存储桶在MinIO中是否存在，优先使用缓存；数据库中无记录的存储桶直接检查MinIO
+     */
+    public static boolean bucketExists(ExecutionContext ec, String bucketId) throws Exception {
+        BucketMetadata metadata = get(ec, bucketId);
+        if (metadata != null) return metadata.isExistsInMinio();
+        return MinioClientPool.execute(ec.getFactory(), "bucketExists", bucketId, client -> client.bucketExists(
+                BucketExistsArgs.builder().bucket(bucketId).build()));
+    }
+
+    /**
+     * 使存储桶缓存失效
+     */
+    public static void invalidate(ExecutionContextFactory ecf, String bucketId) {
+        if (bucketId == null) return;
+        try {
+            getCache(ecf).remove(bucketId);
+            invalidations.increment();
+        } catch (Exception e) {
+            logger.warn("清除存储桶缓存失败: " + bucketId, e);
+        }
+    }
+
+    /**
+     * 在事务中修改存储桶记录或配置后调用：立即失效，事务结束后再失效一次，
+     * 避免提交前其他请求以旧值重新加载缓存
+     */
+    public static void invalidateAfterCommit(ExecutionContext ec, String bucketId) {
+        ExecutionContextFactory ecf = ec.getFactory();
+        invalidate(ecf, bucketId);
+        TransactionFacade tf = ec.getTransaction();
+        if (!tf.isTransactionInPlace()) return;
+        tf.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() { }
+
+            @Override
+            public void afterCompletion(int status) {
+                invalidate(ecf, bucketId);
+            }
+        });
+    }
+
+    /**
+     * 清空所有存储桶缓存
+     */
+    public static void invalidateAll(ExecutionContextFactory ecf) {
+        getCache(ecf).removeAll();
+        invalidations.increment();
+    }
+
+    /**
+     * 获取缓存命中统计
+     */
+    public static Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cacheName", CACHE_NAME);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("loadFailures", loadFailures.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("countHits", countHits.sum());
+        stats.put("countMisses", countMisses.sum());
+        return stats;
+    }
+}
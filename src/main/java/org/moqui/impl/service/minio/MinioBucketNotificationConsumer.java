@@ -0,0 +1,472 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.CloseableIterator;
+import io.minio.ListenBucketNotificationArgs;
+import io.minio.Result;
+import io.minio.messages.Event;
+import io.minio.messages.NotificationRecords;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 存储桶事件通知消费者
+ *
+ * 接收MinIO的对象创建/删除事件，按存储桶批量对照对象台账（moqui.minio.BucketObject）写入 moqui.minio.Bucket，
+ * 使直接写入MinIO（其他应用、mc等）的变更也能及时反映到使用量统计，无需扫描。
+ * 事件来源由 minio.notificationSource 配置：
+ * listen 为按存储桶调用 listenBucketNotification 订阅（每个存储桶一个长轮询任务，经 {@link MinioTaskExecutor} 在虚拟线程上运行，
+ * 断开后自动重连；同时订阅的存储桶数受 minio.notificationMaxSubscriptions 限制，超出的存储桶由后台聚合扫描校准），
+ * MinIO 将每个事件发送给每个订阅者，集群中只有持有 moqui.minio.NotificationLease 租约的节点订阅，避免事件被重复计入；
+ * webhook 为MinIO notify_webhook 推送到REST接口后调用 {@link #enqueue(String, String, String, long)}。
+ *
+ * 本组件的上传/删除照常按台账记录使用量，台账中ETag一致的创建事件与台账中已没有记录的删除事件视为已计入而跳过；
+ * 其他来源的写入按台账中的原大小计算覆盖与删除（删除事件不带对象大小），并同步更新台账。
+ * 台账中没有记录的对象被删除时大小未知，与并发写入造成的偏差一起由后台聚合扫描校准
+ */
+public class MinioBucketNotificationConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(MinioBucketNotificationConsumer.class);
+
+    static final String[] SUBSCRIBED_EVENTS = { "s3:ObjectCreated:*", "s3:ObjectRemoved:*" };
+    /** 产生新对象版本的创建事件；PutRetention、PutLegalHold、PutTagging 等只修改元数据，不计入 */
+    static final Set<String> CREATED_EVENTS = new HashSet<>(Arrays.asList(
+            "s3:ObjectCreated:Put", "s3:ObjectCreated:Post", "s3:ObjectCreated:Copy",
+            "s3:ObjectCreated:CompleteMultipartUpload"));
+    static final Set<String> REMOVED_EVENTS = new HashSet<>(Arrays.asList(
+            "s3:ObjectRemoved:Delete", "s3:ObjectRemoved:DeleteMarkerCreated"));
+
+    private static final long RECONNECT_DELAY_MS = 5000L;
+    static final String LEASE_NAME = "listen";
+    /** 租约有效期为订阅同步间隔的倍数，持有节点连续错过两次续约后由其他节点接管 */
+    static final int LEASE_INTERVALS = 3;
+    /** 待写入事件上限，超出时丢弃（由后台聚合扫描校准），避免数据库不可用时无限堆积 */
+    private static final int MAX_PENDING_EVENTS = 100000;
+
+    private static volatile MinioBucketNotificationConsumer instance;
+
+    private final ExecutionContextFactory ecf;
+    private final String source;
+    private final long leaseDuration;
+    private final int maxSubscriptions;
+    private final String nodeId = resolveHostName() + ":" + UUID.randomUUID();
+    private volatile boolean leader = false;
+    private final ConcurrentLinkedQueue<PendingChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
+    private final Object flushLock = new Object();
+    private volatile boolean running = true;
+
+    private final LongAdder receivedEvents = new LongAdder();
+    private final LongAdder ignoredEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder appliedEvents = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private volatile int unsubscribedBuckets = 0;
+
+    private static final class PendingChange {
+        final String bucketId;
+        final String objectName;
+        final boolean created;
+        final long objectSize;
+        final String etag;
+
+        PendingChange(String bucketId, String objectName, boolean created, long objectSize, String etag) {
+            this.bucketId = bucketId;
+            this.objectName = objectName;
+            this.created = created;
+            this.objectSize = objectSize;
+            this.etag = etag;
+        }
+    }
+
+    private MinioBucketNotificationConsumer(ExecutionContextFactory ecf, MinioConfig config) {
+        this.ecf = ecf;
+        this.source = config.getNotificationSource();
+        this.leaseDuration = config.getNotificationSubscribeInterval() * LEASE_INTERVALS;
+        this.maxSubscriptions = config.getNotificationMaxSubscriptions();
+    }
+
+    /**
+     * 按配置启动消费者，替换已有消费者；minio.notificationSource 为 none 时只停止已有消费者
+     */
+    public static void start(ExecutionContextFactory ecf, MinioConfig config) {
+        synchronized (MinioBucketNotificationConsumer.class) {
+            stop();
+            if (!config.isNotificationsEnabled()) return;
+
+            MinioBucketNotificationConsumer consumer = new MinioBucketNotificationConsumer(ecf, config);
+            consumer.scheduledTasks.add(MinioScheduler.scheduleWithFixedDelay("notification-flush",
+                    consumer::flush, config.getNotificationFlushInterval()));
+            if ("listen".equals(consumer.source)) {
+                consumer.scheduledTasks.add(MinioScheduler.scheduleWithFixedDelay("notification-subscribe",
+                        consumer::syncSubscriptions, config.getNotificationSubscribeInterval()));
+                // 首次同步涉及数据库与MinIO调用，在任务执行器上运行，调度器线程只用于定时触发
+                MinioTaskExecutor.submit(() -> {
+                    consumer.syncSubscriptions();
+                    return null;
+                });
+            }
+            instance = consumer;
+            logger.info("MinIO bucket notification consumer started: source={}", consumer.source);
+        }
+    }
+
+    /**
+     * 停止消费者：关闭订阅并写入剩余事件
+     */
+    public static void stop() {
+        synchronized (MinioBucketNotificationConsumer.class) {
+            MinioBucketNotificationConsumer consumer = instance;
+            if (consumer == null) return;
+            instance = null;
+            consumer.running = false;
+            for (ScheduledFuture<?> task : consumer.scheduledTasks) task.cancel(false);
+            for (Subscription subscription : consumer.subscriptions.values()) subscription.close();
+            consumer.subscriptions.clear();
+            if (consumer.leader) consumer.releaseLease();
+            try {
+                consumer.flush();
+            } catch (Exception e) {
+                logger.warn("停止时写入存储桶事件失败，丢弃 {} 个事件", consumer.pendingCount.get(), e);
+            }
+            logger.info("MinIO bucket notification consumer stopped");
+        }
+    }
+
+    /**
+     * 是否由事件维护使用量（启用时上传/删除服务不直接调整统计）
+     */
+    public static boolean isActive() {
+        return instance != null;
+    }
+
+    /**
+     * 是否接收webhook推送的事件
+     */
+    public static boolean acceptsWebhook() {
+        MinioBucketNotificationConsumer consumer = instance;
+        return consumer != null && "webhook".equals(consumer.source);
+    }
+
+    /**
+     * 加入一个事件，等待下次批量写入
+     *
+     * @param bucketId 存储桶
+     * @param objectName 对象名称（已解码）
+     * @param eventName 事件名称，如 s3:ObjectCreated:Put
+     * @param objectSize 对象大小，未知时为0
+     * @param etag 对象ETag，未知时为null
+     * @return 事件是否被接受（消费者未启动或事件类型不计入时返回false）
+     */
+    public static boolean enqueue(String bucketId, String objectName, String eventName, long objectSize, String etag) {
+        MinioBucketNotificationConsumer consumer = instance;
+        if (consumer == null) return false;
+        return consumer.accept(bucketId, objectName, eventName, objectSize, etag);
+    }
+
+    private boolean accept(String bucketId, String objectName, String eventName, long objectSize, String etag) {
+        receivedEvents.increment();
+        boolean created;
+        if (CREATED_EVENTS.contains(eventName)) {
+            created = true;
+        } else if (REMOVED_EVENTS.contains(eventName)) {
+            created = false;
+        } else {
+            ignoredEvents.increment();
+            return false;
+        }
+        if (bucketId == null || objectName == null) {
+            ignoredEvents.increment();
+            return false;
+        }
+        if (pendingCount.incrementAndGet() > MAX_PENDING_EVENTS) {
+            pendingCount.decrementAndGet();
+            droppedEvents.increment();
+            return false;
+        }
+        pendingChanges.add(new PendingChange(bucketId, objectName, created, Math.max(0L, objectSize), etag));
+        return true;
+    }
+
+    /**
+     * 将待写入事件按存储桶合并，每个存储桶在独立事务中按顺序对照台账后更新一次统计；
+     * 失败的存储桶事件放回队列等待下次写入
+     */
+    void flush() {
+        synchronized (flushLock) {
+            if (pendingChanges.isEmpty()) return;
+            Map<String, List<PendingChange>> eventsByBucket = new LinkedHashMap<>();
+            PendingChange pending;
+            while ((pending = pendingChanges.poll()) != null) {
+                pendingCount.decrementAndGet();
+                eventsByBucket.computeIfAbsent(pending.bucketId, key -> new ArrayList<>()).add(pending);
+            }
+
+            ExecutionContext ec = ecf.getExecutionContext();
+            try {
+                for (Map.Entry<String, List<PendingChange>> entry : eventsByBucket.entrySet()) {
+                    String bucketId = entry.getKey();
+                    List<PendingChange> events = entry.getValue();
+                    try {
+                        MinioBucketUsageAggregator.runInTransaction(ec, "写入存储桶事件失败", () -> {
+                            List<MinioBucketUsageAggregator.ObjectChange> changes = new ArrayList<>(events.size());
+                            for (PendingChange event : events) {
+                                MinioBucketUsageAggregator.ObjectChange change = event.created
+                                        ? MinioObjectLedger.applyCreatedEvent(ec, bucketId, event.objectName, event.objectSize, event.etag)
+                                        : MinioObjectLedger.applyRemovedEvent(ec, bucketId, event.objectName);
+                                if (change != null) changes.add(change);
+                            }
+                            if (!changes.isEmpty()) MinioBucketUsageAggregator.recordObjectChanges(ec, bucketId, changes);
+                        });
+                        appliedEvents.add(events.size());
+                    } catch (Exception e) {
+                        flushFailures.increment();
+                        logger.warn("写入存储桶 {} 的 {} 个事件失败，下次重试", bucketId, events.size(), e);
+                        pendingCount.addAndGet(events.size());
+                        pendingChanges.addAll(events);
+                    }
+                }
+                flushes.increment();
+            } finally {
+                ec.destroy();
+            }
+        }
+    }
+
+    /**
+     * 持有租约时按存储桶ID顺序订阅未删除的存储桶（最多 maxSubscriptions 个），取消其余存储桶的订阅；
+     * 未持有租约时关闭本节点的订阅
+     */
+    void syncSubscriptions() {
+        if (!running) return;
+        Set<String> bucketIds = new HashSet<>();
+        int bucketCount = 0;
+        ExecutionContext ec = ecf.getExecutionContext();
+        try {
+            boolean wasLeader = leader;
+            leader = acquireLease(ec);
+            if (leader != wasLeader) logger.info("存储桶事件订阅租约{}: {}", leader ? "已获得" : "已失去", nodeId);
+            if (!leader) {
+                subscriptions.values().forEach(Subscription::close);
+                subscriptions.clear();
+                return;
+            }
+            for (EntityValue bucket : ec.getEntity().find("moqui.minio.Bucket")
+                    .condition("status", "!=", "DELETED")
+                    .selectField("bucketId").orderBy("bucketId").disableAuthz().list()) {
+                bucketCount++;
+                if (bucketIds.size() < maxSubscriptions) bucketIds.add(bucket.getString("bucketId"));
+            }
+        } finally {
+            ec.destroy();
+        }
+        int unsubscribed = bucketCount - bucketIds.size();
+        if (unsubscribed > 0 && unsubscribedBuckets != unsubscribed) {
+            logger.warn("存储桶数 {} 超出事件订阅上限 {}，{} 个存储桶不订阅，由后台聚合扫描校准", bucketCount, maxSubscriptions, unsubscribed);
+        }
+        unsubscribedBuckets = unsubscribed;
+
+        for (String bucketId : bucketIds) {
+            subscriptions.computeIfAbsent(bucketId, key -> {
+                Subscription subscription = new Subscription(key);
+                subscription.start();
+                return subscription;
+            });
+        }
+        subscriptions.entrySet().removeIf(entry -> {
+            if (bucketIds.contains(entry.getKey())) return false;
+            entry.getValue().close();
+            return true;
+        });
+    }
+
+    /**
+     * 获取或续约订阅租约（独立事务提交）
+     *
+     * @return 本节点是否持有租约
+     */
+    private boolean acquireLease(ExecutionContext ec) {
+        try {
+            return MinioMultipartUploads.runInNewTransaction(ec, "获取事件订阅租约失败", () -> {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                Timestamp expireDate = new Timestamp(now.getTime() + leaseDuration);
+                EntityValue lease = ec.getEntity().find("moqui.minio.NotificationLease")
+                        .condition("leaseName", LEASE_NAME).forUpdate(true).disableAuthz().one();
+                if (lease == null) {
+                    ec.getEntity().makeValue("moqui.minio.NotificationLease")
+                            .set("leaseName", LEASE_NAME)
+                            .set("ownerId", nodeId)
+                            .set("expireDate", expireDate)
+                            .create();
+                    return true;
+                }
+                Timestamp currentExpire = lease.getTimestamp("expireDate");
+                if (!nodeId.equals(lease.getString("ownerId")) && currentExpire != null && currentExpire.after(now)) return false;
+                lease.set("ownerId", nodeId).set("expireDate", expireDate).update();
+                return true;
+            });
+        } catch (Exception e) {
+            // 其他节点同时创建租约等情况：本轮不订阅，下次同步时重试
+            logger.warn("获取存储桶事件订阅租约失败: {}", MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+            return false;
+        }
+    }
+
+    /**
+     * 停止时释放租约，其他节点下次同步时即可接管
+     */
+    private void releaseLease() {
+        leader = false;
+        ExecutionContext ec = ecf.getExecutionContext();
+        try {
+            MinioMultipartUploads.runInNewTransaction(ec, "释放事件订阅租约失败", () -> {
+                ec.getEntity().find("moqui.minio.NotificationLease")
+                        .condition("leaseName", LEASE_NAME)
+                        .condition("ownerId", nodeId).disableAuthz()
+                        .updateAll(Collections.singletonMap("expireDate", new Timestamp(System.currentTimeMillis())));
+                return null;
+            });
+        } catch (Exception e) {
+            logger.warn("释放存储桶事件订阅租约失败", e);
+        } finally {
+            ec.destroy();
+        }
+    }
+
+    private static String resolveHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * 单个存储桶的 listenBucketNotification 订阅，连接断开后等待一段时间重新订阅
+     */
+    private final class Subscription implements Runnable {
+        private final String bucketId;
+        private volatile Thread thread;
+        private volatile boolean open = true;
+        private volatile CloseableIterator<Result<NotificationRecords>> iterator;
+
+        Subscription(String bucketId) {
+            this.bucketId = bucketId;
+        }
+
+        void start() { MinioTaskExecutor.startLongRunning("MinioNotify-" + bucketId, this); }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (open && running) {
+                try {
+                    iterator = MinioClientPool.getClient(ecf).listenBucketNotification(
+                            ListenBucketNotificationArgs.builder()
+                                    .bucket(bucketId)
+                                    .prefix("")
+                                    .suffix("")
+                                    .events(SUBSCRIBED_EVENTS)
+                                    .build());
+                    logger.debug("已订阅存储桶事件: {}", bucketId);
+                    while (open && running && iterator.hasNext()) {
+                        NotificationRecords records = iterator.next().get();
+                        for (Event event : records.events()) {
+                            accept(bucketId, event.objectName(), String.valueOf(event.eventType()), event.objectSize(), event.etag());
+                        }
+                    }
+                } catch (Exception e) {
+                    if (!open || !running) break;
+                    logger.warn("存储桶 {} 事件订阅中断，{}ms 后重新订阅: {}", bucketId, RECONNECT_DELAY_MS,
+                            MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+                } finally {
+                    closeIterator();
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        void close() {
+            open = false;
+            closeIterator();
+            Thread current = thread;
+            if (current != null) current.interrupt();
+        }
+
+        private void closeIterator() {
+            CloseableIterator<Result<NotificationRecords>> current = iterator;
+            iterator = null;
+            if (current == null) return;
+            try {
+                current.close();
+            } catch (Exception e) {
+                logger.debug("关闭存储桶 {} 事件订阅失败", bucketId, e);
+            }
+        }
+    }
+
+    /**
+     * 获取消费者统计
+     */
+    public static Map<String, Object> getStats() {
+        MinioBucketNotificationConsumer consumer = instance;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("source", consumer != null ? consumer.source : "none");
+        if (consumer == null) return stats;
+        if ("listen".equals(consumer.source)) {
+            stats.put("nodeId", consumer.nodeId);
+            stats.put("leader", consumer.leader);
+        }
+        stats.put("subscriptions", consumer.subscriptions.size());
+        if ("listen".equals(consumer.source)) {
+            stats.put("maxSubscriptions", consumer.maxSubscriptions);
+            stats.put("unsubscribedBuckets", consumer.unsubscribedBuckets);
+        }
+        stats.put("pendingEvents", consumer.pendingCount.get());
+        stats.put("receivedEvents", consumer.receivedEvents.sum());
+        stats.put("ignoredEvents", consumer.ignoredEvents.sum());
+        stats.put("droppedEvents", consumer.droppedEvents.sum());
+        stats.put("appliedEvents", consumer.appliedEvents.sum());
+        stats.put("flushes", consumer.flushes.sum());
+        stats.put("flushFailures", consumer.flushFailures.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 存储桶使用量累加器
+ *
+ * 上传/删除产生的使用量增量先记录在内存中（每个存储桶一组LongAdder，并发记录无锁竞争），
+ * 按 minio.usageFlushInterval 将每个存储桶的增量合并为一次 moqui.minio.Bucket 更新，停止时写入剩余增量；
+ * 上传请求不再逐个锁定存储桶记录。读取使用量时调用 {@link #getUsedStorage(String, Long)} 等方法合并尚未写入的增量。
+ * 为调整进行中扫描的累计值，每个存储桶按对象名称合并保留最多 {@link #MAX_PENDING_OBJECTS} 个对象的增量，
+ * 超出后不再按对象保留，写入时进行中的扫描从头重新开始；内存占用不随请求量或数据库不可用的时长增长。
+ * 增量只保存在本节点内存中，进程异常退出时未写入的部分由后台聚合扫描校准
+ */
+public class MinioBucketUsageAccumulator {
+    private static final Logger logger = LoggerFactory.getLogger(MinioBucketUsageAccumulator.class);
+
+    /** 每个存储桶按对象保留增量的上限 */
+    static final int MAX_PENDING_OBJECTS = 10000;
+
+    private static final Map<String, PendingUsage> pendingUsage = new ConcurrentHashMap<>();
+    private static final Object flushLock = new Object();
+    private static volatile ExecutionContextFactory ecf;
+    private static volatile ScheduledFuture<?> flushTask;
+
+    private static final LongAdder recordedChanges = new LongAdder();
+    private static final LongAdder flushedChanges = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder flushFailures = new LongAdder();
+    private static final LongAdder scanRestarts = new LongAdder();
+
+    /**
+     * 单个存储桶尚未写入的增量：合计值用于写入统计，按对象合并的增量只用于调整进行中扫描的累计值
+     */
+    private static final class PendingUsage {
+        final LongAdder fileDelta = new LongAdder();
+        final LongAdder sizeDelta = new LongAdder();
+        final ConcurrentHashMap<String, ObjectDelta> objects = new ConcurrentHashMap<>();
+        final AtomicBoolean objectsOverflowed = new AtomicBoolean();
+    }
+
+    private static final class ObjectDelta {
+        final AtomicLong fileDelta = new AtomicLong();
+        final AtomicLong sizeDelta = new AtomicLong();
+    }
+
+    /**
+     * 启动定时写入，替换已有的定时任务
+     */
+    public static void start(ExecutionContextFactory factory, MinioConfig config) {
+        synchronized (flushLock) {
+            if (flushTask != null) flushTask.cancel(false);
+            ecf = factory;
+            flushTask = MinioScheduler.scheduleWithFixedDelay("usage-flush", MinioBucketUsageAccumulator::flush,
+                    config.getUsageFlushInterval());
+        }
+    }
+
+    /**
+     * 停止定时写入并写入剩余增量
+     */
+    public static void stop() {
+        synchronized (flushLock) {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            try {
+                flush();
+            } catch (Exception e) {
+                logger.warn("停止时写入存储桶使用量增量失败", e);
+            }
+        }
+    }
+
+    /**
+     * 记录对象变更，等待下次批量写入
+     *
+     * @param fileDelta 文件数变化（新增为1，删除为-1，覆盖为0）
+     * @param sizeDelta 占用空间变化（字节）
+     */
+    public static void record(String bucketId, String objectName, long fileDelta, long sizeDelta) {
+        if (fileDelta == 0L && sizeDelta == 0L) return;
+        PendingUsage pending = pendingUsage.get(bucketId);
+        if (pending == null) pending = pendingUsage.computeIfAbsent(bucketId, key -> new PendingUsage());
+        pending.fileDelta.add(fileDelta);
+        pending.sizeDelta.add(sizeDelta);
+        addObjectDelta(pending, objectName, fileDelta, sizeDelta);
+        recordedChanges.increment();
+    }
+
+    /**
+     * 按对象合并增量；对象数达到上限时只标记，不再新增对象
+     */
+    private static void addObjectDelta(PendingUsage pending, String objectName, long fileDelta, long sizeDelta) {
+        ObjectDelta delta = pending.objects.get(objectName);
+        if (delta == null) {
+            if (pending.objects.size() >= MAX_PENDING_OBJECTS) {
+                pending.objectsOverflowed.set(true);
+                return;
+            }
+            delta = pending.objects.computeIfAbsent(objectName, key -> new ObjectDelta());
+        }
+        delta.fileDelta.addAndGet(fileDelta);
+        delta.sizeDelta.addAndGet(sizeDelta);
+    }
+
+    /**
+     * 已写入的占用空间加上尚未写入的增量
+     */
+    public static long getUsedStorage(String bucketId, Long persistedStorage) {
+        PendingUsage pending = pendingUsage.get(bucketId);
+        long persisted = persistedStorage != null ? persistedStorage : 0L;
+        return pending != null ? Math.max(0L, persisted + pending.sizeDelta.sum()) : persisted;
+    }
+
+    /**
+     * 已写入的文件数加上尚未写入的增量
+     */
+    public static long getFileCount(String bucketId, Long persistedCount) {
+        PendingUsage pending = pendingUsage.get(bucketId);
+        long persisted = persistedCount != null ? persistedCount : 0L;
+        return pending != null ? Math.max(0L, persisted + pending.fileDelta.sum()) : persisted;
+    }
+
+    /**
+     * 将各存储桶的增量在独立事务中写入，每个存储桶更新一次；失败的存储桶增量保留到下次写入
+     */
+    static void flush() {
+        synchronized (flushLock) {
+            ExecutionContextFactory factory = ecf;
+            if (factory == null || pendingUsage.isEmpty()) return;
+
+            ExecutionContext ec = null;
+            try {
+                for (Map.Entry<String, PendingUsage> entry : pendingUsage.entrySet()) {
+                    PendingUsage pending = entry.getValue();
+                    if (pending.fileDelta.sum() == 0L && pending.sizeDelta.sum() == 0L && pending.objects.isEmpty()) continue;
+                    if (ec == null) ec = factory.getExecutionContext();
+                    try {
+                        write(ec, entry.getKey(), pending);
+                    } catch (Exception e) {
+                        logger.warn("写入存储桶 {} 的使用量增量失败，下次重试", entry.getKey(), e);
+                    }
+                }
+                flushes.increment();
+            } finally {
+                if (ec != null) ec.destroy();
+            }
+        }
+    }
+
+    /**
+     * 立即写入单个存储桶的增量（使用量扫描完成前调用，使扫描结果覆盖的变更不会在覆盖后再次计入）
+     *
+     * @return 是否因按对象保留的增量超出上限而重新开始了进行中的扫描
+     * @throws RuntimeException 写入失败时抛出，增量保留到下次写入
+     */
+    static boolean flush(ExecutionContext ec, String bucketId) {
+        synchronized (flushLock) {
+            PendingUsage pending = pendingUsage.get(bucketId);
+            if (pending == null) return false;
+            return write(ec, bucketId, pending);
+        }
+    }
+
+    /**
+     * 取出按对象合并的增量与当前合计值，在独立事务中写入；成功后从合计值中扣除已写入部分，失败时放回按对象的增量
+     *
+     * @return 是否重新开始了进行中的扫描
+     */
+    private static boolean write(ExecutionContext ec, String bucketId, PendingUsage pending) {
+        List<MinioBucketUsageAggregator.ObjectChange> changes = new ArrayList<>(pending.objects.size());
+        for (String objectName : pending.objects.keySet()) {
+            ObjectDelta delta = pending.objects.remove(objectName);
+            if (delta == null) continue;
+            changes.add(new MinioBucketUsageAggregator.ObjectChange(objectName, delta.fileDelta.get(), delta.sizeDelta.get()));
+        }
+        boolean overflowed = pending.objectsOverflowed.getAndSet(false);
+        long fileDelta = pending.fileDelta.sum();
+        long sizeDelta = pending.sizeDelta.sum();
+
+        boolean restarted;
+        try {
+            restarted = MinioBucketUsageAggregator.callInTransaction(ec, "写入存储桶使用量增量失败",
+                    () -> MinioBucketUsageAggregator.recordUsageChanges(ec, bucketId, fileDelta, sizeDelta, changes, overflowed));
+        } catch (RuntimeException e) {
+            flushFailures.increment();
+            for (MinioBucketUsageAggregator.ObjectChange change : changes) {
+                addObjectDelta(pending, change.objectName, change.fileDelta, change.sizeDelta);
+            }
+            if (overflowed) pending.objectsOverflowed.set(true);
+            throw e;
+        }
+        // 写入成功后从待写入增量中扣除，读取时不重复计算；写入期间新记录的增量保留
+        pending.fileDelta.add(-fileDelta);
+        pending.sizeDelta.add(-sizeDelta);
+        flushedChanges.add(changes.size());
+        if (restarted) scanRestarts.increment();
+        return restarted;
+    }
+
+    /**
+     * 获取累加器统计
+     */
+    public static Map<String, Object> getStats() {
+        long pendingObjects = 0L;
+        int overflowedBuckets = 0;
+        for (PendingUsage pending : pendingUsage.values()) {
+            pendingObjects += pending.objects.size();
+            if (pending.objectsOverflowed.get()) overflowedBuckets++;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingBuckets", pendingUsage.size());
+        stats.put("pendingObjects", pendingObjects);
+        stats.put("overflowedBuckets", overflowedBuckets);
+        stats.put("recordedChanges", recordedChanges.sum());
+        stats.put("flushedChanges", flushedChanges.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("flushFailures", flushFailures.sum());
+        stats.put("scanRestarts", scanRestarts.sum());
+        return stats;
+    }
+}
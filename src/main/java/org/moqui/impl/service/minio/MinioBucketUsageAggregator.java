@@ -0,0 +1,343 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.ListObjectsArgs;
+import io.minio.Result;
+import io.minio.messages.Item;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 存储桶使用量聚合
+ *
+ * 上传/删除的增量经 {@link MinioBucketUsageAccumulator} 合并后批量调整 moqui.minio.Bucket 的 usedStorage 与 fileCount；
+ * 后台任务分页扫描每个存储桶进行校准，每页提交一次断点（moqui.minio.BucketUsageScan），
+ * 单次运行达到对象数上限后停止，下次运行从断点继续，扫描完成时写入统计值与statsAsOfDate。
+ * 扫描进行中发生的变更：断点之后的对象由扫描本身计入，断点之前的对象同时调整扫描中的累计值；
+ * 完成时先写入本节点累加器中该存储桶尚未写入的增量，其他节点的增量在扫描完成后写入时可能重复计入，由下一轮扫描校准；
+ * 累加器未能按对象保留全部增量时进行中的扫描被重新开始，下次运行从头扫描
+ */
+public class MinioBucketUsageAggregator {
+    private static final Logger logger = LoggerFactory.getLogger(MinioBucketUsageAggregator.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int DEFAULT_MAX_OBJECTS_PER_BUCKET = 200000;
+
+    /**
+     * 单次聚合运行的汇总
+     */
+    public static final class AggregateSummary {
+        public int scannedBuckets;
+        public int completedBuckets;
+        public int failedBuckets;
+        public long scannedObjects;
+    }
+
+    /**
+     * 对所有未删除的存储桶执行一轮聚合扫描，每个存储桶最多扫描maxObjectsPerBucket个对象
+     * 需在事务外调用（服务定义transaction="ignore"），每页断点单独提交
+     */
+    public static AggregateSummary aggregate(ExecutionContext ec, int maxObjectsPerBucket, int pageSize) {
+        if (pageSize <= 0) pageSize = DEFAULT_PAGE_SIZE;
+        if (maxObjectsPerBucket <= 0) maxObjectsPerBucket = DEFAULT_MAX_OBJECTS_PER_BUCKET;
+
+        AggregateSummary summary = new AggregateSummary();
+        EntityList buckets = ec.getEntity().find("moqui.minio.Bucket")
+                .condition("status", "!=", "DELETED")
+                .selectField("bucketId").orderBy("bucketId").disableAuthz().list();
+        for (EntityValue bucket : buckets) {
+            String bucketId = bucket.getString("bucketId");
+            summary.scannedBuckets++;
+            try {
+                long[] progress = scanBucket(ec, bucketId, maxObjectsPerBucket, pageSize);
+                summary.scannedObjects += progress[0];
+                if (progress[1] == 1L) summary.completedBuckets++;
+            } catch (Exception e) {
+                summary.failedBuckets++;
+                logger.warn("存储桶使用量扫描失败: " + bucketId, MinioExceptionUtils.unwrap(e));
+                recordScanError(ec, bucketId, e);
+            }
+        }
+        logger.info("存储桶使用量聚合完成: 存储桶{}个，完成{}个，失败{}个，扫描对象{}个",
+                summary.scannedBuckets, summary.completedBuckets, summary.failedBuckets, summary.scannedObjects);
+        return summary;
+    }
+
+    /**
+     * 从断点继续扫描单个存储桶
+     *
+     * @return [本次扫描对象数, 是否完成(1/0)]
+     */
+    static long[] scanBucket(ExecutionContext ec, String bucketId, int maxObjects, int pageSize) throws Exception {
+        EntityValue scan = ec.getEntity().find("moqui.minio.BucketUsageScan")
+                .condition("bucketId", bucketId).disableAuthz().one();
+        String checkpoint = scan != null ? scan.getString("lastObjectName") : null;
+        if (scan == null || scan.getTimestamp("scanStartedDate") == null) startScan(ec, bucketId);
+
+        long scanned = 0L;
+        while (scanned < maxObjects) {
+            String startAfter = checkpoint;
+            int limit = (int) Math.min(pageSize, maxObjects - scanned);
+            List<Item> page = MinioClientPool.execute(ec.getFactory(), "listObjects", bucketId, client -> {
+                ListObjectsArgs.Builder builder = ListObjectsArgs.builder()
+                        .bucket(bucketId)
+                        .recursive(true)
+                        .maxKeys(limit);
+                if (startAfter != null) builder.startAfter(startAfter);
+                List<Item> items = new ArrayList<>(limit);
+                // 只读取一页，避免迭代器继续请求下一页
+                Iterator<Result<Item>> iterator = client.listObjects(builder.build()).iterator();
+                while (items.size() < limit && iterator.hasNext()) items.add(iterator.next().get());
+                return items;
+            });
+
+            long pageFiles = 0L;
+            long pageBytes = 0L;
+            for (Item item : page) {
+                if (item.isDir()) continue;
+                pageFiles++;
+                pageBytes += item.size();
+            }
+            scanned += page.size();
+
+            if (page.size() < limit) {
+                // 本节点尚未写入的增量先写入（断点之前的对象同时调整扫描累计值），否则会在扫描结果覆盖统计后再次计入
+                if (MinioBucketUsageAccumulator.flush(ec, bucketId) || !completeScan(ec, bucketId, pageFiles, pageBytes)) {
+                    logger.info("存储桶 {} 扫描期间的变更超出按对象记录的上限，下次从头重新扫描", bucketId);
+                    return new long[] { scanned, 0L };
+                }
+                return new long[] { scanned, 1L };
+            }
+            checkpoint = page.get(page.size() - 1).objectName();
+            if (!saveCheckpoint(ec, bucketId, checkpoint, pageFiles, pageBytes)) {
+                logger.info("存储桶 {} 扫描期间的变更超出按对象记录的上限，下次从头重新扫描", bucketId);
+                return new long[] { scanned, 0L };
+            }
+        }
+        logger.info("存储桶 {} 使用量扫描到达单次上限，下次从 {} 之后继续", bucketId, checkpoint);
+        return new long[] { scanned, 0L };
+    }
+
+    /**
+     * 单个对象的使用量变化
+     */
+    public static final class ObjectChange {
+        public final String objectName;
+        public final long fileDelta;
+        public final long sizeDelta;
+
+        public ObjectChange(String objectName, long fileDelta, long sizeDelta) {
+            this.objectName = objectName;
+            this.fileDelta = fileDelta;
+            this.sizeDelta = sizeDelta;
+        }
+    }
+
+    /**
+     * 上传或删除对象后增量调整统计
+     *
+     * @param fileDelta 文件数变化（新增为1，删除为-1，覆盖为0）
+     * @param sizeDelta 占用空间变化（字节）
+     */
+    public static void recordObjectChange(ExecutionContext ec, String bucketId, String objectName, long fileDelta, long sizeDelta) {
+        if (fileDelta == 0L && sizeDelta == 0L) return;
+        recordObjectChanges(ec, bucketId, Collections.singletonList(new ObjectChange(objectName, fileDelta, sizeDelta)));
+    }
+
+    /**
+     * 批量调整同一存储桶的统计，存储桶记录与扫描断点各只更新一次
+     */
+    public static void recordObjectChanges(ExecutionContext ec, String bucketId, List<ObjectChange> changes) {
+        long fileDelta = 0L;
+        long sizeDelta = 0L;
+        for (ObjectChange change : changes) {
+            fileDelta += change.fileDelta;
+            sizeDelta += change.sizeDelta;
+        }
+        recordUsageChanges(ec, bucketId, fileDelta, sizeDelta, changes, false);
+    }
+
+    /**
+     * 按合计值调整存储桶统计，按对象的增量只用于调整进行中扫描的累计值
+     *
+     * @param changes 按对象合并的增量
+     * @param changesIncomplete 部分对象的增量未保留（超出上限），进行中的扫描无法按对象调整，改为从头重新扫描
+     * @return 是否重新开始了进行中的扫描
+     */
+    static boolean recordUsageChanges(ExecutionContext ec, String bucketId, long fileDelta, long sizeDelta,
+                                      List<ObjectChange> changes, boolean changesIncomplete) {
+        if (fileDelta != 0L || sizeDelta != 0L) {
+            EntityValue bucket = ec.getEntity().find("moqui.minio.Bucket")
+                    .condition("bucketId", bucketId).forUpdate(true).disableAuthz().one();
+            if (bucket == null) return false;
+            bucket.set("usedStorage", Math.max(0L, longValue(bucket, "usedStorage") + sizeDelta));
+            bucket.set("fileCount", Math.max(0L, longValue(bucket, "fileCount") + fileDelta));
+            bucket.set("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
+            bucket.update();
+            MinioBucketCache.invalidate(ec.getFactory(), bucketId);
+        } else if (!changesIncomplete) {
+            return false;
+        }
+
+        // 扫描已越过的对象，扫描本身不会再计入这些变更
+        EntityValue scan = ec.getEntity().find("moqui.minio.BucketUsageScan")
+                .condition("bucketId", bucketId).forUpdate(true).disableAuthz().one();
+        if (scan == null || scan.getTimestamp("scanStartedDate") == null) return false;
+        String checkpoint = scan.getString("lastObjectName");
+        if (checkpoint == null) return false;
+        if (changesIncomplete) {
+            scan.set("lastObjectName", null);
+            scan.set("scannedFileCount", 0L);
+            scan.set("scannedStorage", 0L);
+            scan.set("scanStartedDate", null);
+            scan.update();
+            return true;
+        }
+        long scannedFileDelta = 0L;
+        long scannedSizeDelta = 0L;
+        for (ObjectChange change : changes) {
+            if (change.objectName.compareTo(checkpoint) > 0) continue;
+            scannedFileDelta += change.fileDelta;
+            scannedSizeDelta += change.sizeDelta;
+        }
+        if (scannedFileDelta == 0L && scannedSizeDelta == 0L) return false;
+        scan.set("scannedFileCount", Math.max(0L, longValue(scan, "scannedFileCount") + scannedFileDelta));
+        scan.set("scannedStorage", Math.max(0L, longValue(scan, "scannedStorage") + scannedSizeDelta));
+        scan.update();
+        return false;
+    }
+
+    private static void startScan(ExecutionContext ec, String bucketId) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        runInTransaction(ec, "开始存储桶使用量扫描失败", () -> ec.getEntity().makeValue("moqui.minio.BucketUsageScan")
+                .set("bucketId", bucketId)
+                .set("lastObjectName", null)
+                .set("scannedFileCount", 0L)
+                .set("scannedStorage", 0L)
+                .set("scanStartedDate", now)
+                .set("lastCheckpointDate", now)
+                .set("lastErrorMessage", null)
+                .createOrUpdate());
+    }
+
+    /**
+     * @return 是否已保存；扫描已被 {@link #recordUsageChanges} 重新开始时返回false
+     */
+    private static boolean saveCheckpoint(ExecutionContext ec, String bucketId, String lastObjectName, long pageFiles, long pageBytes) {
+        return callInTransaction(ec, "保存存储桶使用量扫描断点失败", () -> {
+            // 在数据库当前值上累加，保留扫描期间recordObjectChange的调整
+            EntityValue scan = ec.getEntity().find("moqui.minio.BucketUsageScan")
+                    .condition("bucketId", bucketId).forUpdate(true).disableAuthz().one();
+            if (scan == null || scan.getTimestamp("scanStartedDate") == null) return false;
+            scan.set("lastObjectName", lastObjectName);
+            scan.set("scannedFileCount", longValue(scan, "scannedFileCount") + pageFiles);
+            scan.set("scannedStorage", longValue(scan, "scannedStorage") + pageBytes);
+            scan.set("lastCheckpointDate", new Timestamp(System.currentTimeMillis()));
+            scan.update();
+            return true;
+        });
+    }
+
+    /**
+     * @return 是否已完成；扫描已被 {@link #recordUsageChanges} 重新开始时返回false
+     */
+    private static boolean completeScan(ExecutionContext ec, String bucketId, long pageFiles, long pageBytes) {
+        return callInTransaction(ec, "完成存储桶使用量扫描失败", () -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            EntityValue scan = ec.getEntity().find("moqui.minio.BucketUsageScan")
+                    .condition("bucketId", bucketId).forUpdate(true).disableAuthz().one();
+            if (scan == null || scan.getTimestamp("scanStartedDate") == null) return false;
+            long fileCount = longValue(scan, "scannedFileCount") + pageFiles;
+            long usedStorage = longValue(scan, "scannedStorage") + pageBytes;
+
+            EntityValue bucket = ec.getEntity().find("moqui.minio.Bucket")
+                    .condition("bucketId", bucketId).forUpdate(true).disableAuthz().one();
+            if (bucket != null) {
+                bucket.set("fileCount", fileCount);
+                bucket.set("usedStorage", usedStorage);
+                bucket.set("statsAsOfDate", now);
+                bucket.update();
+                MinioBucketCache.invalidate(ec.getFactory(), bucketId);
+            }
+
+            scan.set("lastObjectName", null);
+            scan.set("scannedFileCount", 0L);
+            scan.set("scannedStorage", 0L);
+            scan.set("scanStartedDate", null);
+            scan.set("lastCheckpointDate", now);
+            scan.set("lastCompletedDate", now);
+            scan.set("lastErrorMessage", null);
+            scan.update();
+            logger.info("存储桶 {} 使用量扫描完成: 文件{}个，占用{}字节", bucketId, fileCount, usedStorage);
+            return true;
+        });
+    }
+
+    private static void recordScanError(ExecutionContext ec, String bucketId, Exception e) {
+        try {
+            runInTransaction(ec, "记录存储桶使用量扫描错误失败", () -> {
+                EntityValue scan = ec.getEntity().find("moqui.minio.BucketUsageScan")
+                        .condition("bucketId", bucketId).disableAuthz().one();
+                if (scan == null) return;
+                scan.set("lastErrorMessage", MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+                scan.update();
+            });
+        } catch (Exception recordError) {
+            logger.warn("记录存储桶使用量扫描错误失败: " + bucketId, recordError);
+        }
+    }
+
+    /**
+     * 在独立事务中执行（调用方不在事务中时开启并提交）
+     */
+    static void runInTransaction(ExecutionContext ec, String rollbackMessage, Runnable work) {
+        callInTransaction(ec, rollbackMessage, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * 在独立事务中执行并返回结果
+     */
+    static <T> T callInTransaction(ExecutionContext ec, String rollbackMessage, Supplier<T> work) {
+        TransactionFacade tf = ec.getTransaction();
+        boolean beganTransaction = tf.begin(null);
+        try {
+            T result = work.get();
+            tf.commit(beganTransaction);
+            return result;
+        } catch (RuntimeException e) {
+            tf.rollback(beganTransaction, rollbackMessage, e);
+            throw e;
+        }
+    }
+
+    private static long longValue(EntityValue value, String fieldName) {
+        Long fieldValue = value.getLong(fieldName);
+        return fieldValue != null ? fieldValue : 0L;
+    }
+}
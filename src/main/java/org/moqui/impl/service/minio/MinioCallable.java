@@ -0,0 +1,28 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.MinioClient;
+
+/**
+ * 针对选定端点客户端执行的MinIO调用
+ *
+ * 调用应在返回前完成全部网络交互（例如将listObjects的结果读取到列表中），
+ * 以便准确统计端点的并发请求数与延迟；
+ * 遇到可重试错误时调用会被再次执行，上传所用的输入流应在调用内部创建
+ */
+@FunctionalInterface
+public interface MinioCallable<T> {
+    T call(MinioClient client) throws Exception;
+}
@@ -0,0 +1,144 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.CRC32C;
+
+/**
+ * 上传校验和
+ *
+ * 按 minio.uploadChecksumAlgorithm 计算 SHA-256 或 CRC32C，结果与S3附加校验和的格式一致（Base64编码），
+ * 可直接作为 x-amz-checksum-sha256 / x-amz-checksum-crc32c 请求头，也用于与MinIO返回的校验和比较
+ */
+public final class MinioChecksum {
+    public static final String SHA256 = "SHA256";
+    public static final String CRC32C_ALGORITHM = "CRC32C";
+    public static final String NONE = "NONE";
+
+    private final String algorithm;
+    private final MessageDigest sha256;
+    private final CRC32C crc32c;
+
+    private MinioChecksum(String algorithm) {
+        this.algorithm = algorithm;
+        if (SHA256.equals(algorithm)) {
+            try {
+                this.sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 不可用", e);
+            }
+            this.crc32c = null;
+        } else {
+            this.sha256 = null;
+            this.crc32c = new CRC32C();
+        }
+    }
+
+    /**
+     * 创建校验和计算器
+     *
+     * @return 计算器；算法为 NONE 或为空时返回null
+     */
+    public static MinioChecksum create(String algorithm) {
+        if (algorithm == null || NONE.equals(algorithm)) return null;
+        if (!SHA256.equals(algorithm) && !CRC32C_ALGORITHM.equals(algorithm)) {
+            throw new IllegalArgumentException("不支持的校验和算法: " + algorithm);
+        }
+        return new MinioChecksum(algorithm);
+    }
+
+    /**
+     * 计算内存中数据的校验和
+     *
+     * @return Base64编码的校验和；算法为 NONE 时返回null
+     */
+    public static String compute(String algorithm, byte[] data, int offset, int length) {
+        MinioChecksum checksum = create(algorithm);
+        if (checksum == null) return null;
+        checksum.update(data, offset, length);
+        return checksum.getValue();
+    }
+
+    public String getAlgorithm() { return algorithm; }
+
+    /**
+     * S3附加校验和请求头名称
+     */
+    public String getHeaderName() {
+        return SHA256.equals(algorithm) ? "x-amz-checksum-sha256" : "x-amz-checksum-crc32c";
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        if (sha256 != null) sha256.update(data, offset, length);
+        else crc32c.update(data, offset, length);
+    }
+
+    /**
+     * Base64编码的校验和（SHA-256为32字节摘要，CRC32C为4字节大端值）；调用后不能继续更新
+     */
+    public String getValue() {
+        byte[] value = sha256 != null ? sha256.digest()
+                : ByteBuffer.allocate(4).putInt((int) crc32c.getValue()).array();
+        return Base64.getEncoder().encodeToString(value);
+    }
+
+    /**
+     * 读取时计算校验和的输入流，数据只读取一次
+     */
+    static final class ChecksumInputStream extends FilterInputStream {
+        private final MinioChecksum checksum;
+
+        ChecksumInputStream(InputStream in, MinioChecksum checksum) {
+            super(in);
+            this.checksum = checksum;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) checksum.update(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) checksum.update(buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // 跳过的字节也要计入校验和
+            byte[] buffer = new byte[(int) Math.min(8192L, Math.max(n, 0L))];
+            long skipped = 0L;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个MinIO端点的熔断器
+ *
+ * CLOSED：正常放行，连续失败达到阈值后转为OPEN；
+ * OPEN：直接拒绝调用（快速失败），超过熔断时长后转为HALF_OPEN；
+ * HALF_OPEN：仅放行一个试探调用，成功则CLOSED，失败则重新OPEN；
+ * 试探调用超过熔断时长仍未记录结果（调用方抛出Error等）时由下一个调用接替试探，避免端点永久停留在HALF_OPEN
+ */
+public class MinioCircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(MinioCircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationMs;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    /** 进行中的试探调用的开始时间，没有试探调用时为0 */
+    private final AtomicLong trialStartedTime = new AtomicLong();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> transitionCounts = new ConcurrentHashMap<>();
+    private volatile long openedTime = 0L;
+
+    public MinioCircuitBreaker(String name, int failureThreshold, long openDurationMs) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDurationMs = openDurationMs;
+    }
+
+    /**
+     * 是否可能放行调用（不改变状态，用于端点选择）
+     */
+    public boolean isCallPermitted() {
+        switch (state.get()) {
+            case CLOSED: return true;
+            case OPEN: return System.currentTimeMillis() - openedTime >= openDurationMs;
+            default:
+                long trialStarted = trialStartedTime.get();
+                return trialStarted == 0L || System.currentTimeMillis() - trialStarted >= openDurationMs;
+        }
+    }
+
+    /**
+     * 申请执行一次调用；返回false时调用方应快速失败
+     */
+    public boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) return true;
+        if (current == State.OPEN) {
+            if (System.currentTimeMillis() - openedTime < openDurationMs) {
+                rejectedCount.increment();
+                return false;
+            }
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+        // HALF_OPEN：仅允许一个试探调用，超时未完成的试探由本次调用接替
+        if (state.get() == State.HALF_OPEN) {
+            long now = System.currentTimeMillis();
+            long trialStarted = trialStartedTime.get();
+            if ((trialStarted == 0L || now - trialStarted >= openDurationMs) && trialStartedTime.compareAndSet(trialStarted, now)) {
+                return true;
+            }
+        }
+        if (state.get() == State.CLOSED) return true;
+        rejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * 记录端点正常响应（包括对象不存在等业务错误）
+     */
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+        if (state.get() == State.HALF_OPEN) {
+            transition(State.HALF_OPEN, State.CLOSED);
+            trialStartedTime.set(0L);
+        }
+    }
+
+    /**
+     * 记录端点故障（连接失败、超时、服务端过载等）
+     */
+    public void recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            // 先记录打开时间，避免其他线程看到OPEN状态时使用过期的时间立即转为HALF_OPEN
+            openedTime = System.currentTimeMillis();
+            transition(State.HALF_OPEN, State.OPEN);
+            trialStartedTime.set(0L);
+        } else if (current == State.CLOSED && failures >= failureThreshold) {
+            openedTime = System.currentTimeMillis();
+            transition(State.CLOSED, State.OPEN);
+        }
+    }
+
+    /**
+     * 健康探测确认端点已恢复时强制闭合
+     */
+    public void reset() {
+        consecutiveFailures.set(0);
+        State current = state.get();
+        if (current != State.CLOSED) transition(current, State.CLOSED);
+        trialStartedTime.set(0L);
+    }
+
+    /**
+     * 调用以非端点原因异常结束（Error等）、无法判断端点状态时释放试探许可，由下一个调用重新试探
+     */
+    public void releaseTrial() {
+        if (state.get() == State.HALF_OPEN) trialStartedTime.set(0L);
+    }
+
+    /**
+     * HALF_OPEN状态下试探调用是否已超过熔断时长仍未完成
+     */
+    public boolean isTrialStale() {
+        long trialStarted = trialStartedTime.get();
+        return state.get() == State.HALF_OPEN && trialStarted != 0L
+                && System.currentTimeMillis() - trialStarted >= openDurationMs;
+    }
+
+    private void transition(State from, State to) {
+        if (!state.compareAndSet(from, to)) return;
+        transitionCounts.computeIfAbsent(from + "->" + to, key -> new LongAdder()).increment();
+        if (to == State.OPEN) {
+            logger.warn("MinIO熔断器打开: {} (连续失败{}次，{}ms后试探)", name, consecutiveFailures.get(), openDurationMs);
+        } else {
+            logger.info("MinIO熔断器状态变化: {} {} -> {}", name, from, to);
+        }
+    }
+
+    public State getState() { return state.get(); }
+    public int getConsecutiveFailures() { return consecutiveFailures.get(); }
+    public long getOpenedTime() { return openedTime; }
+    public long getRejectedCount() { return rejectedCount.sum(); }
+
+    /**
+     * 获取各状态转换的累计次数，如 CLOSED->OPEN
+     */
+    public Map<String, Long> getTransitionCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : transitionCounts.entrySet()) counts.put(entry.getKey(), entry.getValue().sum());
+        return counts;
+    }
+}
@@ -13,12 +13,32 @@
  */
 package org.moqui.impl.service.minio;
 
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import org.moqui.context.ExecutionContextFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * MinIO客户端构建工厂
@@ -29,6 +49,16 @@ import java.time.Duration;
 public class MinioClientFactory {
     private static final Logger logger = LoggerFactory.getLogger(MinioClientFactory.class);
 
+    // 每个客户端对应的HTTP传输层，用于统计连接池利用率和关闭时释放资源
+    private static final Map<MinioClient, HttpTransport> transports = new ConcurrentHashMap<>();
+
+    // 已停止分配、等待进行中的调用结束后关闭的传输层及其停用时间
+    private static final Map<HttpTransport, Long> retiringTransports = new ConcurrentHashMap<>();
+    // 停用客户端的检查间隔与最长等待时间（长时间的事件订阅等调用在宽限期后被中断，由调用方重新获取客户端）
+    private static final long RETIRE_CHECK_INTERVAL_MS = 5000L;
+    private static final long RETIRE_GRACE_MS = 5 * 60 * 1000L;
+    private static volatile ScheduledFuture<?> retireTask;
+
     /**
      * 创建MinIO客户端实例
      *
@@ -45,9 +75,12 @@ public class MinioClientFactory {
         try {
             logger.debug("Creating MinIO client with config: {}", config.toMaskedString());
 
+            HttpTransport transport = new HttpTransport(config);
+
             MinioClient.Builder builder = MinioClient.builder()
                     .endpoint(config.getEndpoint())
-                    .credentials(config.getAccessKey(), config.getSecretKey());
+                    .credentials(config.getAccessKey(), config.getSecretKey())
+                    .httpClient(transport.httpClient);
 
             // 设置区域（如果指定）
             if (config.getRegion() != null && !config.getRegion().trim().isEmpty()) {
@@ -55,9 +88,7 @@ public class MinioClientFactory {
             }
 
             MinioClient client = builder.build();
-
-            // 设置超时配置
-            configureTimeouts(client, config);
+            transports.put(client, transport);
 
             logger.info("MinIO client created successfully for endpoint: {}", config.getEndpoint());
             return client;
@@ -71,6 +102,31 @@ public class MinioClientFactory {
         }
     }
 
+    /**
+     * 为已创建的同步客户端创建对应的异步客户端
+     *
+     * 两者共享同一个OkHttp客户端，异步调用复用同步客户端的连接池与Dispatcher并发上限
+     *
+     * @param config MinIO配置对象
+     * @param client 同一配置创建的同步客户端
+     * @return 异步客户端
+     */
+    public static MinioExtendedAsyncClient createAsyncClient(MinioConfig config, MinioClient client) {
+        HttpTransport transport = transports.get(client);
+        OkHttpClient httpClient = transport != null ? transport.httpClient : createHttpClient(config);
+
+        MinioAsyncClient.Builder builder = MinioAsyncClient.builder()
+                .endpoint(config.getEndpoint())
+                .credentials(config.getAccessKey(), config.getSecretKey())
+                .httpClient(httpClient);
+        if (config.getRegion() != null && !config.getRegion().trim().isEmpty()) {
+            builder.region(config.getRegion());
+        }
+
+        logger.debug("MinIO async client created for endpoint: {}", config.getEndpoint());
+        return new MinioExtendedAsyncClient(builder.build());
+    }
+
     /**
      * 使用ExecutionContextFactory创建MinIO客户端
      *
@@ -85,8 +141,7 @@ public class MinioClientFactory {
         }
 
         try {
-            MinioConfig config = new MinioConfig(ecf);
-            return createClient(config);
+            return createClient(MinioConfig.getInstance(ecf));
         } catch (Exception e) {
             logger.error("Failed to create MinIO client using ExecutionContextFactory", e);
             throw new RuntimeException("Failed to create MinIO client: " + e.getMessage(), e);
@@ -104,27 +159,16 @@ public class MinioClientFactory {
     }
 
     /**
-     * 配置客户端超时设置
-     */
-    private static void configureTimeouts(MinioClient client, MinioConfig config) {
-        try {
-            // 注意：MinIO Java SDK 8.x 版本的超时设置方式
-            // 这里使用反射来设置超时，因为不同版本的API可能有差异
-            configureHttpClient(client, config);
-        } catch (Exception e) {
-            logger.warn("Failed to configure timeouts for MinIO client: {}", e.getMessage());
-            // 不抛出异常，因为超时配置失败不应该阻止客户端创建
-        }
-    }
-
-    /**
-     * 配置HTTP客户端设置
+     * 根据配置构建OkHttp客户端
+     *
+     * 应用连接/读/写超时、连接池大小与保活时间、Dispatcher并发上限，
+     * 对https端点启用HTTP/2（通过ALPN协商，不支持时自动回退到HTTP/1.1）
+     *
+     * @param config MinIO配置对象
+     * @return 配置好的OkHttp客户端
      */
-    private static void configureHttpClient(MinioClient client, MinioConfig config) {
-        // 这里可以根据需要添加HTTP客户端的具体配置
-        // 例如：连接池设置、重试机制等
-        logger.debug("HTTP client configured with timeouts - connection: {}ms, read: {}ms, write: {}ms",
-                config.getConnectionTimeout(), config.getReadTimeout(), config.getWriteTimeout());
+    public static OkHttpClient createHttpClient(MinioConfig config) {
+        return new HttpTransport(config).httpClient;
     }
 
     /**
@@ -154,18 +198,174 @@ public class MinioClientFactory {
     }
 
     /**
-     * 安全地关闭MinIO客户端连接
+     * 立即关闭MinIO客户端连接，只在确定没有其他线程使用该客户端时调用（如停止时）；
+     * 连接池淘汰与配置重新加载使用 {@link #retireClient(MinioClient)}
      *
      * @param client 要关闭的客户端实例
      */
     public static void closeClient(MinioClient client) {
         if (client != null) {
-            try {
-                // MinIO客户端通常不需要显式关闭，但我们可以在这里添加清理逻辑
-                logger.debug("MinIO client closed successfully");
-            } catch (Exception e) {
-                logger.warn("Error while closing MinIO client: {}", e.getMessage());
+            HttpTransport transport = transports.remove(client);
+            if (transport != null) closeTransport(transport);
+        }
+    }
+
+    /**
+     * 停用MinIO客户端：调用方已停止分配该客户端，其他线程仍可能持有并正在使用，
+     * 在没有进行中与排队的调用后关闭，最长等待 {@link #RETIRE_GRACE_MS}
+     *
+     * @param client 要停用的客户端实例
+     */
+    public static void retireClient(MinioClient client) {
+        if (client == null) return;
+        HttpTransport transport = transports.remove(client);
+        if (transport == null) return;
+        retiringTransports.put(transport, System.currentTimeMillis());
+        try {
+            ensureRetireTaskScheduled();
+        } catch (Exception e) {
+            // 调度器已停止（正在停止）时直接关闭
+            retiringTransports.remove(transport);
+            closeTransport(transport);
+        }
+    }
+
+    /**
+     * 关闭所有等待中的停用客户端（停止时调用）
+     */
+    public static void closeRetiredClients() {
+        for (HttpTransport transport : retiringTransports.keySet()) {
+            if (retiringTransports.remove(transport) != null) closeTransport(transport);
+        }
+    }
+
+    private static void ensureRetireTaskScheduled() {
+        ScheduledFuture<?> task = retireTask;
+        if (task != null && !task.isDone()) return;
+        synchronized (MinioClientFactory.class) {
+            task = retireTask;
+            if (task == null || task.isDone()) {
+                retireTask = MinioScheduler.scheduleWithFixedDelay("client-retire",
+                        MinioClientFactory::closeIdleRetiredClients, RETIRE_CHECK_INTERVAL_MS);
+            }
+        }
+    }
+
+    /**
+     * 关闭已没有进行中调用或超过宽限期的停用客户端
+     */
+    static void closeIdleRetiredClients() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<HttpTransport, Long> entry : retiringTransports.entrySet()) {
+            HttpTransport transport = entry.getKey();
+            Dispatcher dispatcher = transport.httpClient.dispatcher();
+            boolean idle = dispatcher.runningCallsCount() == 0 && dispatcher.queuedCallsCount() == 0;
+            boolean expired = now - entry.getValue() > RETIRE_GRACE_MS;
+            if ((idle || expired) && retiringTransports.remove(transport, entry.getValue())) {
+                if (!idle) logger.info("停用的MinIO客户端超过宽限期仍有 {} 个调用，强制关闭: {}",
+                        dispatcher.runningCallsCount(), transport.endpoint);
+                closeTransport(transport);
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 释放客户端独占的连接池与Dispatcher线程
+     */
+    private static void closeTransport(HttpTransport transport) {
+        try {
+            if (transport.httpClient.dispatcher().runningCallsCount() > 0) transport.httpClient.dispatcher().cancelAll();
+            transport.httpClient.dispatcher().executorService().shutdown();
+            transport.httpClient.connectionPool().evictAll();
+            logger.debug("MinIO client closed successfully: {}", transport.endpoint);
+        } catch (Exception e) {
+            logger.warn("Error while closing MinIO client: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 获取所有活动客户端的HTTP连接池利用率统计
+     *
+     * @return 每个端点一条统计记录
+     */
+    public static List<Map<String, Object>> getHttpClientStats() {
+        List<Map<String, Object>> statsList = new ArrayList<>();
+        for (HttpTransport transport : transports.values()) {
+            statsList.add(transport.getStats());
+        }
+        return statsList;
+    }
+
+    /**
+     * 单个客户端的HTTP传输层：OkHttp客户端及其利用率计数器
+     */
+    private static class HttpTransport extends EventListener {
+        final String endpoint;
+        final OkHttpClient httpClient;
+        final LongAdder callsStarted = new LongAdder();
+        final LongAdder callsFailed = new LongAdder();
+        final LongAdder connectionsOpened = new LongAdder();
+        final LongAdder connectionsAcquired = new LongAdder();
+
+        HttpTransport(MinioConfig config) {
+            this.endpoint = config.getEndpoint();
+
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(config.getMaxRequests());
+            dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+
+            ConnectionPool connectionPool = new ConnectionPool(config.getMaxIdleConnections(),
+                    config.getKeepAliveDuration(), TimeUnit.MILLISECONDS);
+
+            // HTTP/2仅能通过TLS的ALPN协商，明文端点保持HTTP/1.1
+            List<Protocol> protocols = config.isHttp2Enabled() && config.getEndpoint().startsWith("https://") ?
+                    Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1);
+
+            this.httpClient = new OkHttpClient.Builder()
+                    .connectTimeout(config.getConnectionTimeout(), TimeUnit.MILLISECONDS)
+                    .readTimeout(config.getReadTimeout(), TimeUnit.MILLISECONDS)
+                    .writeTimeout(config.getWriteTimeout(), TimeUnit.MILLISECONDS)
+                    .dispatcher(dispatcher)
+                    .connectionPool(connectionPool)
+                    .protocols(protocols)
+                    .retryOnConnectionFailure(true)
+                    .eventListener(this)
+                    .build();
+
+            logger.debug("HTTP client configured for {} - timeouts: {}/{}/{}ms, pool: {} idle/{}ms, dispatcher: {}/{} per host, protocols: {}",
+                    endpoint, config.getConnectionTimeout(), config.getReadTimeout(), config.getWriteTimeout(),
+                    config.getMaxIdleConnections(), config.getKeepAliveDuration(),
+                    config.getMaxRequests(), config.getMaxRequestsPerHost(), protocols);
+        }
+
+        @Override
+        public void callStart(Call call) { callsStarted.increment(); }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) { callsFailed.increment(); }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) { connectionsOpened.increment(); }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) { connectionsAcquired.increment(); }
+
+        Map<String, Object> getStats() {
+            Dispatcher dispatcher = httpClient.dispatcher();
+            ConnectionPool connectionPool = httpClient.connectionPool();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("endpoint", endpoint);
+            stats.put("connectionCount", connectionPool.connectionCount());
+            stats.put("idleConnectionCount", connectionPool.idleConnectionCount());
+            stats.put("runningCalls", dispatcher.runningCallsCount());
+            stats.put("queuedCalls", dispatcher.queuedCallsCount());
+            stats.put("maxRequests", dispatcher.getMaxRequests());
+            stats.put("maxRequestsPerHost", dispatcher.getMaxRequestsPerHost());
+            stats.put("callsStarted", callsStarted.sum());
+            stats.put("callsFailed", callsFailed.sum());
+            stats.put("connectionsOpened", connectionsOpened.sum());
+            stats.put("connectionsAcquired", connectionsAcquired.sum());
+            return stats;
+        }
+    }
+}
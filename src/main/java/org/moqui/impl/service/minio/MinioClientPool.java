@@ -18,27 +18,75 @@ import org.moqui.context.ExecutionContextFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * MinIO客户端连接池
  *
  * 管理MinIO客户端实例的生命周期，提供连接复用和性能优化
  * 基于配置哈希值缓存客户端实例，避免重复创建
+ *
+ * 获取客户端不使用全局锁：缓存未命中时通过computeIfAbsent创建（不涉及网络调用），
+ * 连接验证在后台异步执行，过期清理与LRU淘汰由后台维护任务完成；
+ * 被淘汰的客户端从缓存移除后不再分配，其他线程仍在使用时等待进行中的调用结束再关闭
+ *
+ * 配置多个端点时，每个端点拥有独立的池化客户端，由 {@link MinioEndpointBalancer} 在端点间分配调用
  */
 public class MinioClientPool {
     private static final Logger logger = LoggerFactory.getLogger(MinioClientPool.class);
 
-    private static final ConcurrentHashMap<String, MinioClient> clientCache = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, Long> lastAccessTime = new ConcurrentHashMap<>();
-    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final ConcurrentHashMap<String, PooledClient> clientCache = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, MinioEndpointBalancer> balancers = new ConcurrentHashMap<>();
 
     // 缓存过期时间：30分钟
     private static final long CACHE_EXPIRY_MS = 30 * 60 * 1000;
-    // 最大缓存客户端数量
+    // 最大缓存客户端数量（由后台维护任务执行淘汰）
     private static final int MAX_CACHED_CLIENTS = 10;
+    // 后台维护任务间隔：1分钟
+    private static final long MAINTENANCE_INTERVAL_MS = 60 * 1000;
+    // 访问时间记录粒度：1秒内的重复访问不再写入
+    private static final long ACCESS_TIME_GRANULARITY_MS = 1000;
+
+    private static volatile ScheduledFuture<?> maintenanceTask;
+    private static volatile ScheduledFuture<?> healthProbeTask;
+
+    /**
+     * 客户端验证状态
+     */
+    public enum ValidationState { PENDING, VALID, FAILED }
+
+    /**
+     * 池化的客户端条目
+     */
+    private static final class PooledClient {
+        final String configHash;
+        final MinioClient client;
+        // 与同步客户端共享HTTP连接池的异步客户端
+        final MinioExtendedAsyncClient asyncClient;
+        volatile long lastAccessTime;
+        volatile ValidationState validationState = ValidationState.PENDING;
+
+        PooledClient(String configHash, MinioClient client, MinioExtendedAsyncClient asyncClient) {
+            this.configHash = configHash;
+            this.client = client;
+            this.asyncClient = asyncClient;
+            this.lastAccessTime = System.currentTimeMillis();
+        }
+
+        void touch() {
+            long now = System.currentTimeMillis();
+            // 降低高并发读取时对同一缓存行的写入
+            if (now - lastAccessTime > ACCESS_TIME_GRANULARITY_MS) lastAccessTime = now;
+        }
+    }
 
     /**
      * 获取或创建MinIO客户端实例
@@ -47,8 +95,71 @@ public class MinioClientPool {
      * @return MinIO客户端实例
      */
     public static MinioClient getClient(ExecutionContextFactory ecf) {
-        MinioConfig config = new MinioConfig(ecf);
-        return getClient(config);
+        return getBalancer(MinioConfig.getInstance(ecf)).selectClient();
+    }
+
+    /**
+     * 在负载均衡选定的端点上执行MinIO调用
+     *
+     * @param ecf ExecutionContextFactory
+     * @param operation 操作名称（用于统计和日志）
+     * @param callable 调用
+     * @return 调用结果
+     */
+    public static <T> T execute(ExecutionContextFactory ecf, String operation, MinioCallable<T> callable) throws Exception {
+        return execute(ecf, operation, null, callable);
+    }
+
+    /**
+     * 在负载均衡选定的端点上执行针对指定存储桶的MinIO调用，指标按存储桶分别记录
+     *
+     * @param ecf ExecutionContextFactory
+     * @param operation 操作名称（用于统计和日志）
+     * @param bucket 存储桶名称
+     * @param callable 调用
+     * @return 调用结果
+     */
+    public static <T> T execute(ExecutionContextFactory ecf, String operation, String bucket, MinioCallable<T> callable) throws Exception {
+        return getBalancer(MinioConfig.getInstance(ecf)).execute(operation, bucket, callable);
+    }
+
+    /**
+     * 在负载均衡选定的端点上执行一次MinIO调用，失败不重试（输入流只能读取一次的流式上传）
+     *
+     * @param ecf ExecutionContextFactory
+     * @param operation 操作名称（用于统计和日志）
+     * @param bucket 存储桶名称
+     * @param callable 调用
+     * @return 调用结果
+     */
+    public static <T> T executeWithoutRetry(ExecutionContextFactory ecf, String operation, String bucket, MinioCallable<T> callable) throws Exception {
+        return getBalancer(MinioConfig.getInstance(ecf)).executeWithoutRetry(operation, bucket, callable);
+    }
+
+    /**
+     * 在负载均衡选定的端点上异步执行MinIO调用，不阻塞调用线程
+     *
+     * @param ecf ExecutionContextFactory
+     * @param operation 操作名称（用于统计和日志）
+     * @param bucket 存储桶名称，可为null
+     * @param callable 异步调用
+     * @return 调用结果的future
+     */
+    public static <T> CompletableFuture<T> executeAsync(ExecutionContextFactory ecf, String operation, String bucket, MinioAsyncCallable<T> callable) {
+        return getBalancer(MinioConfig.getInstance(ecf)).executeAsync(operation, bucket, callable);
+    }
+
+    /**
+     * 获取配置对应的多端点负载均衡器
+     */
+    public static MinioEndpointBalancer getBalancer(MinioConfig config) {
+        String balancerKey = generateBalancerKey(config);
+        MinioEndpointBalancer balancer = balancers.get(balancerKey);
+        if (balancer == null) {
+            balancer = balancers.computeIfAbsent(balancerKey, key -> new MinioEndpointBalancer(config));
+            if (config.getEndpoints().size() > 1) ensureHealthProbeScheduled(config.getHealthCheckInterval());
+        }
+        return balancer;
     }
 
     /**
@@ -58,69 +169,134 @@ public class MinioClientPool {
      * @return MinIO客户端实例
      */
     public static MinioClient getClient(MinioConfig config) {
+        return getPooledClient(config).client;
+    }
+
+    /**
+     * 获取或创建MinIO异步客户端实例（与同一配置的同步客户端共用池条目和连接池）
+     *
+     * @param config MinIO配置
+     * @return MinIO异步客户端实例
+     */
+    public static MinioExtendedAsyncClient getAsyncClient(MinioConfig config) {
+        return getPooledClient(config).asyncClient;
+    }
+
+    private static PooledClient getPooledClient(MinioConfig config) {
         String configHash = generateConfigHash(config);
 
-        // 首先尝试从缓存获取
-        lock.readLock().lock();
-        try {
-            MinioClient cachedClient = clientCache.get(configHash);
-            if (cachedClient != null) {
-                // 更新访问时间
-                lastAccessTime.put(configHash, System.currentTimeMillis());
-                logger.debug("返回缓存的MinIO客户端: {}", configHash);
-                return cachedClient;
-            }
-        } finally {
-            lock.readLock().unlock();
+        PooledClient pooledClient = clientCache.get(configHash);
+        if (pooledClient == null) {
+            pooledClient = clientCache.computeIfAbsent(configHash, hash -> createPooledClient(hash, config));
         }
+        pooledClient.touch();
+        return pooledClient;
+    }
 
-        // 缓存中没有，需要创建新的客户端
-        lock.writeLock().lock();
-        try {
-            // 双重检查锁定模式
-            MinioClient cachedClient = clientCache.get(configHash);
-            if (cachedClient != null) {
-                lastAccessTime.put(configHash, System.currentTimeMillis());
-                return cachedClient;
-            }
+    /**
+     * 创建新的池化客户端，并在后台异步验证连接
+     */
+    private static PooledClient createPooledClient(String configHash, MinioConfig config) {
+        logger.debug("创建新的MinIO客户端: {}", configHash);
+        MinioClient client = MinioClientFactory.createClient(config);
+        PooledClient pooledClient = new PooledClient(configHash, client, MinioClientFactory.createAsyncClient(config, client));
+        validateAsync(pooledClient);
+        ensureMaintenanceScheduled();
+        logger.info("新MinIO客户端已缓存: {}", configHash);
+        return pooledClient;
+    }
 
-            // 清理过期的客户端
-            cleanupExpiredClients();
+    /**
+     * 异步验证连接，慢速或不可用的MinIO不会阻塞调用者；
+     * 验证调用listBuckets会阻塞，在任务执行器上运行，不占用调度器的定时任务线程
+     */
+    private static void validateAsync(PooledClient pooledClient) {
+        MinioTaskExecutor.submit(() -> MinioClientFactory.validateConnection(pooledClient.client))
+                .whenComplete((valid, error) -> {
+                    pooledClient.validationState = Boolean.TRUE.equals(valid) ? ValidationState.VALID : ValidationState.FAILED;
+                    if (pooledClient.validationState == ValidationState.FAILED) {
+                        logger.warn("MinIO客户端连接验证失败，将在后台重试: {}", pooledClient.configHash);
+                    }
+                });
+    }
 
-            // 检查缓存大小限制
-            if (clientCache.size() >= MAX_CACHED_CLIENTS) {
-                evictOldestClient();
+    private static void ensureMaintenanceScheduled() {
+        ScheduledFuture<?> task = maintenanceTask;
+        if (task != null && !task.isDone()) return;
+        synchronized (MinioClientPool.class) {
+            task = maintenanceTask;
+            if (task == null || task.isDone()) {
+                maintenanceTask = MinioScheduler.scheduleWithFixedDelay("client-pool-maintenance",
+                        MinioClientPool::runMaintenance, MAINTENANCE_INTERVAL_MS);
             }
+        }
+    }
 
-            // 创建新客户端
-            logger.debug("创建新的MinIO客户端: {}", configHash);
-            MinioClient newClient = MinioClientFactory.createClient(config);
-
-            // 验证连接
-            if (MinioClientFactory.validateConnection(newClient)) {
-                clientCache.put(configHash, newClient);
-                lastAccessTime.put(configHash, System.currentTimeMillis());
-                logger.info("新MinIO客户端已缓存: {}", configHash);
-                return newClient;
-            } else {
-                logger.warn("MinIO客户端连接验证失败，不缓存: {}", configHash);
-                return newClient; // 即使验证失败也返回客户端，让调用者处理
+    private static void ensureHealthProbeScheduled(long intervalMs) {
+        ScheduledFuture<?> task = healthProbeTask;
+        if (task != null && !task.isDone()) return;
+        synchronized (MinioClientPool.class) {
+            task = healthProbeTask;
+            if (task == null || task.isDone()) {
+                healthProbeTask = MinioScheduler.scheduleWithFixedDelay("endpoint-health-probe", () -> {
+                    for (MinioEndpointBalancer balancer : balancers.values()) balancer.probeOpenEndpoints();
+                }, intervalMs);
             }
+        }
+    }
 
-        } finally {
-            lock.writeLock().unlock();
+    /**
+     * 后台维护：清理过期客户端、按LRU淘汰超出上限的客户端、重新验证失败的客户端
+     */
+    static void runMaintenance() {
+        cleanupExpiredClients();
+        evictLeastRecentlyUsed();
+
+        for (PooledClient pooledClient : clientCache.values()) {
+            if (pooledClient.validationState == ValidationState.FAILED) validateAsync(pooledClient);
         }
     }
 
     /**
-     * 生成配置的哈希值
+     * 生成配置的哈希值：端点与所有影响客户端构建的设置（密钥以摘要参与），任一变化都对应新的客户端
      */
     private static String generateConfigHash(MinioConfig config) {
-        return String.format("%s:%s:%s:%s",
-                config.getEndpoint(),
+        return config.getEndpoint() + ":" + clientSettingsKey(config);
+    }
+
+    /**
+     * 生成负载均衡器的键：端点列表、客户端设置与重试、熔断、健康探测设置
+     */
+    private static String generateBalancerKey(MinioConfig config) {
+        return String.format("%s:%s:%d:%d:%d:%s:%d:%d:%d",
+                String.join(",", config.getEndpoints()),
+                clientSettingsKey(config),
+                config.getMaxRetries(),
+                config.getRetryBaseDelay(),
+                config.getRetryMaxDelay(),
+                config.getRetryBudgetRatio(),
+                config.getMaxConsecutiveFailures(),
+                config.getCircuitBreakerOpenDuration(),
+                config.getHealthCheckInterval());
+    }
+
+    /**
+     * 影响单个客户端构建的设置：认证、区域、协议、超时与连接池参数
+     */
+    private static String clientSettingsKey(MinioConfig config) {
+        return String.format("%s:%s:%s:%s:%d:%d:%d:%d:%d:%d:%d:%s",
                 config.getAccessKey(),
+                config.getSecretKeyDigest(),
                 config.getRegion() != null ? config.getRegion() : "default",
-                config.isSecure());
+                config.isSecure(),
+                config.getConnectionTimeout(),
+                config.getReadTimeout(),
+                config.getWriteTimeout(),
+                config.getMaxIdleConnections(),
+                config.getKeepAliveDuration(),
+                config.getMaxRequests(),
+                config.getMaxRequestsPerHost(),
+                config.isHttp2Enabled());
     }
 
     /**
@@ -130,17 +306,12 @@ public class MinioClientPool {
         long currentTime = System.currentTimeMillis();
         int cleanedCount = 0;
 
-        // 创建一个副本来避免并发修改异常
-        for (String configHash : clientCache.keySet()) {
-            Long lastAccess = lastAccessTime.get(configHash);
-            if (lastAccess != null && (currentTime - lastAccess) > CACHE_EXPIRY_MS) {
-                MinioClient client = clientCache.remove(configHash);
-                lastAccessTime.remove(configHash);
-                if (client != null) {
-                    MinioClientFactory.closeClient(client);
-                    cleanedCount++;
-                    logger.debug("清理过期的MinIO客户端: {}", configHash);
-                }
+        for (PooledClient pooledClient : clientCache.values()) {
+            if ((currentTime - pooledClient.lastAccessTime) > CACHE_EXPIRY_MS &&
+                    clientCache.remove(pooledClient.configHash, pooledClient)) {
+                MinioClientFactory.retireClient(pooledClient.client);
+                cleanedCount++;
+                logger.debug("清理过期的MinIO客户端: {}", pooledClient.configHash);
             }
         }
 
@@ -150,26 +321,19 @@ public class MinioClientPool {
     }
 
     /**
-     * 移除最旧的客户端
+     * 超出缓存上限时移除最久未使用的客户端
      */
-    private static void evictOldestClient() {
-        String oldestConfigHash = null;
-        long oldestTime = Long.MAX_VALUE;
-
-        for (String configHash : lastAccessTime.keySet()) {
-            Long accessTime = lastAccessTime.get(configHash);
-            if (accessTime != null && accessTime < oldestTime) {
-                oldestTime = accessTime;
-                oldestConfigHash = configHash;
-            }
-        }
+    private static void evictLeastRecentlyUsed() {
+        int excess = clientCache.size() - MAX_CACHED_CLIENTS;
+        if (excess <= 0) return;
 
-        if (oldestConfigHash != null) {
-            MinioClient client = clientCache.remove(oldestConfigHash);
-            lastAccessTime.remove(oldestConfigHash);
-            if (client != null) {
-                MinioClientFactory.closeClient(client);
-                logger.info("移除最旧的MinIO客户端: {}", oldestConfigHash);
+        List<PooledClient> pooledClients = new ArrayList<>(clientCache.values());
+        pooledClients.sort(Comparator.comparingLong(pooledClient -> pooledClient.lastAccessTime));
+        for (int i = 0; i < excess && i < pooledClients.size(); i++) {
+            PooledClient pooledClient = pooledClients.get(i);
+            if (clientCache.remove(pooledClient.configHash, pooledClient)) {
+                MinioClientFactory.retireClient(pooledClient.client);
+                logger.info("移除最旧的MinIO客户端: {}", pooledClient.configHash);
             }
         }
     }
@@ -178,41 +342,116 @@ public class MinioClientPool {
      * 获取缓存统计信息
      */
     public static String getCacheStats() {
-        lock.readLock().lock();
-        try {
-            int cacheSize = clientCache.size();
-            long currentTime = System.currentTimeMillis();
-            int activeConnections = 0;
-
-            for (Long lastAccess : lastAccessTime.values()) {
-                if (lastAccess != null && (currentTime - lastAccess) <= CACHE_EXPIRY_MS) {
-                    activeConnections++;
-                }
-            }
+        long currentTime = System.currentTimeMillis();
+        int cacheSize = 0;
+        int activeConnections = 0;
+        int failedValidations = 0;
 
-            return String.format("MinIO客户端缓存统计: 总计=%d, 活跃=%d, 最大=%d",
-                    cacheSize, activeConnections, MAX_CACHED_CLIENTS);
-        } finally {
-            lock.readLock().unlock();
+        for (PooledClient pooledClient : clientCache.values()) {
+            cacheSize++;
+            if ((currentTime - pooledClient.lastAccessTime) <= CACHE_EXPIRY_MS) activeConnections++;
+            if (pooledClient.validationState == ValidationState.FAILED) failedValidations++;
         }
+
+        return String.format("MinIO客户端缓存统计: 总计=%d, 活跃=%d, 最大=%d, 验证失败=%d",
+                cacheSize, activeConnections, MAX_CACHED_CLIENTS, failedValidations);
+    }
+
+    /**
+     * 获取指定配置客户端的验证状态
+     *
+     * @return 验证状态，客户端尚未创建时返回null
+     */
+    public static ValidationState getValidationState(MinioConfig config) {
+        PooledClient pooledClient = clientCache.get(generateConfigHash(config));
+        return pooledClient != null ? pooledClient.validationState : null;
+    }
+
+    /**
+     * 移除指定配置对应的缓存客户端（配置重新加载后淘汰旧客户端）
+     */
+    public static void removeClient(MinioConfig config) {
+        String configHash = generateConfigHash(config);
+        PooledClient pooledClient = clientCache.remove(configHash);
+        if (pooledClient != null) {
+            MinioClientFactory.retireClient(pooledClient.client);
+            logger.info("移除旧配置的MinIO客户端: {}", configHash);
+        }
+    }
+
+    /**
+     * 配置重新加载后淘汰旧配置的负载均衡器与客户端
+     *
+     * 只移除键与新配置不同的条目：新配置仍使用的客户端保留复用；被移除的客户端不再分配，
+     * 由 {@link MinioClientFactory#retireClient} 在进行中的调用结束或宽限期后关闭
+     */
+    public static void retireConfig(MinioConfig oldConfig, MinioConfig newConfig) {
+        String oldBalancerKey = generateBalancerKey(oldConfig);
+        if (!oldBalancerKey.equals(generateBalancerKey(newConfig))) balancers.remove(oldBalancerKey);
+
+        Set<String> retainedHashes = new HashSet<>();
+        for (String endpoint : newConfig.getEndpoints()) {
+            retainedHashes.add(generateConfigHash(newConfig.forEndpoint(endpoint)));
+        }
+        for (String endpoint : oldConfig.getEndpoints()) {
+            MinioConfig endpointConfig = oldConfig.forEndpoint(endpoint);
+            if (!retainedHashes.contains(generateConfigHash(endpointConfig))) removeClient(endpointConfig);
+        }
+    }
+
+    /**
+     * 获取所有负载均衡器的端点统计
+     */
+    public static List<Map<String, Object>> getEndpointStats() {
+        List<Map<String, Object>> statsList = new ArrayList<>();
+        for (MinioEndpointBalancer balancer : balancers.values()) statsList.addAll(balancer.getEndpointStats());
+        return statsList;
+    }
+
+    /**
+     * 获取所有负载均衡器的各操作重试统计
+     */
+    public static List<Map<String, Object>> getRetryStats() {
+        List<Map<String, Object>> statsList = new ArrayList<>();
+        for (MinioEndpointBalancer balancer : balancers.values()) statsList.addAll(balancer.getRetryStats());
+        return statsList;
     }
 
     /**
      * 强制清理所有缓存的客户端
      */
     public static void clearCache() {
-        lock.writeLock().lock();
-        try {
-            int clearedCount = clientCache.size();
-            for (MinioClient client : clientCache.values()) {
-                MinioClientFactory.closeClient(client);
+        balancers.clear();
+        int clearedCount = 0;
+        for (Map.Entry<String, PooledClient> entry : clientCache.entrySet()) {
+            if (clientCache.remove(entry.getKey(), entry.getValue())) {
+                MinioClientFactory.retireClient(entry.getValue().client);
+                clearedCount++;
+            }
+        }
+        logger.info("清理了所有缓存的MinIO客户端: {}", clearedCount);
+    }
+
+    /**
+     * 停止时清空连接池：取消维护与健康探测任务，移除所有负载均衡器，
+     * 立即关闭所有池化客户端的Dispatcher线程与连接池（静态缓存在同一JVM内重新初始化时不会沿用旧客户端）
+     */
+    public static void shutdown() {
+        synchronized (MinioClientPool.class) {
+            if (maintenanceTask != null) maintenanceTask.cancel(false);
+            if (healthProbeTask != null) healthProbeTask.cancel(false);
+            maintenanceTask = null;
+            healthProbeTask = null;
+        }
+        balancers.clear();
+        int closedCount = 0;
+        for (Map.Entry<String, PooledClient> entry : clientCache.entrySet()) {
+            if (clientCache.remove(entry.getKey(), entry.getValue())) {
+                MinioClientFactory.closeClient(entry.getValue().client);
+                closedCount++;
             }
-            clientCache.clear();
-            lastAccessTime.clear();
-            logger.info("清理了所有缓存的MinIO客户端: {}", clearedCount);
-        } finally {
-            lock.writeLock().unlock();
         }
+        logger.info("MinIO连接池已关闭，关闭客户端: {}", closedCount);
     }
 
     /**
@@ -229,4 +468,4 @@ public class MinioClientPool {
             logger.warn("MinIO连接池预热失败: {}", e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,277 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.GetObjectResponse;
+import io.minio.RemoveObjectArgs;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 可压缩内容的透明压缩
+ *
+ * 存储桶的 BucketConfig 中 compression.enabled 为 true 时，长度已知且不小于 minio.compressionMinSize 的文本类内容
+ * （按内容类型或扩展名判断）先取开头样本试压缩，压缩后不超过原大小的 minio.compressionMaxRatio 时边读取边以gzip压缩上传，
+ * 对象设置 Content-Encoding: gzip，用户元数据 compression-codec 与 original-size 记录编码与原始大小。
+ * 预签名下载由浏览器按 Content-Encoding 解压，文件管理器读取时按响应头解压；台账与使用量按压缩后的实际大小记录
+ */
+public class MinioCompression {
+    private static final Logger logger = LoggerFactory.getLogger(MinioCompression.class);
+
+    /** BucketConfig 中启用压缩的配置键 */
+    public static final String CONFIG_KEY = "compression.enabled";
+    /** BucketConfig 中的压缩编码，默认gzip */
+    public static final String CONFIG_CODEC = "compression.codec";
+    public static final String CODEC_GZIP = "gzip";
+
+    public static final String METADATA_CODEC = "compression-codec";
+    public static final String METADATA_ORIGINAL_SIZE = "original-size";
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<>(Arrays.asList(
+            "application/json", "application/x-ndjson", "application/xml", "application/csv",
+            "application/javascript", "application/x-yaml", "application/yaml", "application/sql"));
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "json", "ndjson", "jsonl", "xml", "csv", "tsv", "log", "txt", "yaml", "yml", "sql", "html", "htm", "js", "css", "md"));
+
+    /** 已提示过不支持的编码的存储桶，避免每次上传重复告警 */
+    private static final Set<String> warnedBuckets = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 存储桶是否启用压缩
+     */
+    public static boolean isEnabled(ExecutionContext ec, String bucketId) {
+        try {
+            MinioBucketCache.BucketMetadata metadata = MinioBucketCache.get(ec, bucketId);
+            return metadata != null && "true".equalsIgnoreCase(metadata.getConfig().get(CONFIG_KEY));
+        } catch (Exception e) {
+            logger.warn("读取存储桶压缩配置失败: " + bucketId, MinioExceptionUtils.unwrap(e));
+            return false;
+        }
+    }
+
+    /**
+     * 确定上传使用的压缩编码
+     *
+     * @param size 长度，未知时为-1（用户元数据在请求开始时发送，长度未知时不压缩）
+     * @return 压缩编码；存储桶未启用、长度未知或过小、内容类型不可压缩时返回null
+     */
+    public static String resolveCodec(ExecutionContext ec, String bucketId, String objectName, String contentType, long size) {
+        if (size < 0 || size < MinioConfig.getInstance(ec.getFactory()).getCompressionMinSize()) return null;
+        if (!isCompressible(objectName, contentType)) return null;
+        Map<String, String> config;
+        try {
+            MinioBucketCache.BucketMetadata metadata = MinioBucketCache.get(ec, bucketId);
+            if (metadata == null) return null;
+            config = metadata.getConfig();
+        } catch (Exception e) {
+            logger.warn("读取存储桶压缩配置失败: " + bucketId, MinioExceptionUtils.unwrap(e));
+            return null;
+        }
+        if (!"true".equalsIgnoreCase(config.get(CONFIG_KEY))) return null;
+        String codec = config.get(CONFIG_CODEC);
+        if (codec != null && !codec.isEmpty() && !CODEC_GZIP.equalsIgnoreCase(codec) && warnedBuckets.add(bucketId)) {
+            logger.warn("存储桶 {} 配置的压缩编码 {} 不受支持，使用gzip", bucketId, codec);
+        }
+        return CODEC_GZIP;
+    }
+
+    /**
+     * 按内容类型判断，内容类型为空或为通用二进制类型时按扩展名判断
+     */
+    static boolean isCompressible(String objectName, String contentType) {
+        if (contentType != null && !contentType.isEmpty()) {
+            String type = contentType.toLowerCase(Locale.ROOT);
+            int semicolon = type.indexOf(';');
+            if (semicolon >= 0) type = type.substring(0, semicolon).trim();
+            if (type.startsWith("text/") || type.endsWith("+json") || type.endsWith("+xml") || COMPRESSIBLE_TYPES.contains(type)) return true;
+            if (!"application/octet-stream".equals(type)) return false;
+        }
+        int dot = objectName.lastIndexOf('.');
+        return dot >= 0 && dot > objectName.lastIndexOf('/')
+                && COMPRESSIBLE_EXTENSIONS.contains(objectName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 上传输入流：样本压缩率达标时gzip压缩上传，否则原样上传，调用方负责关闭输入流
+     *
+     * @param size 长度（必须已知）
+     * @param codec {@link #resolveCodec} 返回的编码
+     */
+    public static MinioObjectUploader.UploadResult putStream(ExecutionContextFactory ecf, String bucketId, String objectName,
+                                                             InputStream stream, long size, String contentType,
+                                                             String codec) throws Exception {
+        MinioConfig config = MinioConfig.getInstance(ecf);
+        byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, size)];
+        int sampled = stream.readNBytes(sample, 0, sample.length);
+        InputStream whole = new SequenceInputStream(new ByteArrayInputStream(sample, 0, sampled), stream);
+        if (sampled == 0 || compressedRatio(sample, sampled) > config.getCompressionMaxRatio()) {
+            return MinioObjectUploader.putStream(ecf, bucketId, objectName, whole, size, contentType);
+        }
+
+        Map<String, String> userMetadata = new HashMap<>();
+        userMetadata.put(METADATA_CODEC, codec);
+        userMetadata.put(METADATA_ORIGINAL_SIZE, String.valueOf(size));
+        MinioObjectUploader.CountingInputStream original = new MinioObjectUploader.CountingInputStream(whole);
+        MinioObjectUploader.UploadResult stored;
+        InputStream gzipped = gzip(original);
+        try {
+            stored = MinioObjectUploader.putStream(ecf, bucketId, objectName, gzipped, -1L, contentType,
+                    config.getUploadChecksumAlgorithm(), userMetadata, Collections.singletonMap("Content-Encoding", CODEC_GZIP));
+        } finally {
+            // 上传中断时压缩流未读到尾部，关闭以释放压缩器的本地内存
+            gzipped.close();
+        }
+        if (original.getCount() != size) {
+            // original-size 元数据已随请求发送，内容长度不一致时删除对象
+            MinioClientPool.execute(ecf, "removeObject", bucketId, client -> {
+                client.removeObject(RemoveObjectArgs.builder().bucket(bucketId).object(objectName).build());
+                return null;
+            });
+            throw new IOException("内容长度 " + original.getCount() + " 与声明的长度 " + size + " 不一致: " + objectName);
+        }
+        return new MinioObjectUploader.UploadResult(objectName, stored.getSize(), stored.getEtag(), stored.getVersionId(),
+                stored.getChecksumAlgorithm(), stored.getChecksum(), codec, size);
+    }
+
+    /**
+     * 显示给用户的对象大小：压缩存储的对象返回 original-size 元数据记录的原始大小
+     *
+     * @param userMetadata statObject或列举（includeUserMetadata）返回的用户元数据，可为null；
+     *                     列举结果的键带 X-Amz-Meta- 前缀，大小写因来源而异
+     * @param storedSize 存储的对象大小
+     */
+    public static long displaySize(Map<String, String> userMetadata, long storedSize) {
+        if (userMetadata == null || userMetadata.isEmpty()) return storedSize;
+        for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+            String key = entry.getKey().toLowerCase(Locale.ROOT);
+            if (key.startsWith("x-amz-meta-")) key = key.substring("x-amz-meta-".length());
+            if (!METADATA_ORIGINAL_SIZE.equals(key)) continue;
+            try {
+                return Long.parseLong(entry.getValue().trim());
+            } catch (RuntimeException e) {
+                return storedSize;
+            }
+        }
+        return storedSize;
+    }
+
+    /**
+     * 读取对象内容：响应带 Content-Encoding: gzip 且HTTP客户端未自动解压时解压
+     */
+    public static InputStream decodingStream(GetObjectResponse response) throws IOException {
+        String encoding = response.headers().get("Content-Encoding");
+        if (encoding != null && encoding.toLowerCase(Locale.ROOT).contains(CODEC_GZIP)) {
+            return new GZIPInputStream(response, BUFFER_SIZE);
+        }
+        return response;
+    }
+
+    /**
+     * 样本压缩后与原大小之比
+     */
+    static double compressedRatio(byte[] sample, int length) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long compressed = 0L;
+            while (!deflater.finished()) compressed += deflater.deflate(buffer);
+            return (double) compressed / length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 读取时gzip压缩的输入流：文件头、deflate数据，读完原内容后生成CRC32与长度尾部；
+     * 关闭时释放压缩器的本地内存（不关闭原输入流）
+     */
+    static InputStream gzip(InputStream source) {
+        CRC32 crc = new CRC32();
+        MinioObjectUploader.CountingInputStream counted =
+                new MinioObjectUploader.CountingInputStream(new CheckedInputStream(source, crc));
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] header = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+        InputStream gzipped = new SequenceInputStream(new Enumeration<InputStream>() {
+            private int part = 0;
+
+            @Override
+            public boolean hasMoreElements() { return part < 3; }
+
+            @Override
+            public InputStream nextElement() {
+                switch (part++) {
+                    case 0: return new ByteArrayInputStream(header);
+                    case 1: return new DeflaterInputStream(counted, deflater, BUFFER_SIZE);
+                    case 2:
+                        // 前一部分读完时原内容已全部读取
+                        deflater.end();
+                        return new ByteArrayInputStream(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                                .putInt((int) crc.getValue()).putInt((int) counted.getCount()).array());
+                    default: throw new NoSuchElementException();
+                }
+            }
+        });
+        return new FilterInputStream(gzipped) {
+            private boolean closed = false;
+
+            @Override
+            public int read() throws IOException {
+                if (closed) throw new IOException("Stream closed");
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (closed) throw new IOException("Stream closed");
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                deflater.end();
+            }
+        };
+    }
+}
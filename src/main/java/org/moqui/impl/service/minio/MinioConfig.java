@@ -14,20 +14,38 @@
 package org.moqui.impl.service.minio;
 
 import org.moqui.context.ExecutionContextFactory;
+import org.moqui.impl.context.ExecutionContextFactoryImpl;
+import org.moqui.util.MNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * MinIO配置管理类
  *
  * 负责管理MinIO连接相关的所有配置参数，提供统一的配置访问接口
  * 支持多种配置来源：系统属性、环境变量、Moqui配置文件
+ *
+ * 运行时通过 {@link #getInstance(ExecutionContextFactory)} 获取进程级的不可变配置快照，
+ * 配置变化时由 {@link #reload(ExecutionContextFactory)} 原子替换快照并淘汰旧的池化客户端
  */
 public class MinioConfig {
     private static final Logger logger = LoggerFactory.getLogger(MinioConfig.class);
 
     // 配置键常量
     public static final String PROP_ENDPOINT = "minio.endpoint";
+    public static final String PROP_ENDPOINTS = "minio.endpoints";
     public static final String PROP_ACCESS_KEY = "minio.accessKey";
     public static final String PROP_SECRET_KEY = "minio.secretKey";
     public static final String PROP_REGION = "minio.region";
@@ -35,6 +53,38 @@ public class MinioConfig {
     public static final String PROP_CONNECTION_TIMEOUT = "minio.connectionTimeout";
     public static final String PROP_READ_TIMEOUT = "minio.readTimeout";
     public static final String PROP_WRITE_TIMEOUT = "minio.writeTimeout";
+    public static final String PROP_MAX_IDLE_CONNECTIONS = "minio.maxIdleConnections";
+    public static final String PROP_KEEP_ALIVE_DURATION = "minio.keepAliveDuration";
+    public static final String PROP_MAX_REQUESTS = "minio.maxRequests";
+    public static final String PROP_MAX_REQUESTS_PER_HOST = "minio.maxRequestsPerHost";
+    public static final String PROP_HTTP2_ENABLED = "minio.http2Enabled";
+    public static final String PROP_CONFIG_REFRESH_INTERVAL = "minio.configRefreshInterval";
+    public static final String PROP_MAX_CONSECUTIVE_FAILURES = "minio.maxConsecutiveFailures";
+    public static final String PROP_HEALTH_CHECK_INTERVAL = "minio.healthCheckInterval";
+    public static final String PROP_CIRCUIT_BREAKER_OPEN_DURATION = "minio.circuitBreakerOpenDuration";
+    public static final String PROP_MAX_RETRIES = "minio.maxRetries";
+    public static final String PROP_RETRY_BASE_DELAY = "minio.retryBaseDelay";
+    public static final String PROP_RETRY_MAX_DELAY = "minio.retryMaxDelay";
+    public static final String PROP_RETRY_BUDGET_RATIO = "minio.retryBudgetRatio";
+    public static final String PROP_TASK_CONCURRENCY = "minio.taskConcurrency";
+    public static final String PROP_VIRTUAL_THREADS_ENABLED = "minio.virtualThreadsEnabled";
+    public static final String PROP_BUCKET_CHECK_PARALLELISM = "minio.bucketCheckParallelism";
+    public static final String PROP_BUCKET_CHECK_TIMEOUT = "minio.bucketCheckTimeout";
+    public static final String PROP_NOTIFICATION_SOURCE = "minio.notificationSource";
+    public static final String PROP_NOTIFICATION_FLUSH_INTERVAL = "minio.notificationFlushInterval";
+    public static final String PROP_NOTIFICATION_SUBSCRIBE_INTERVAL = "minio.notificationSubscribeInterval";
+    public static final String PROP_NOTIFICATION_WEBHOOK_TOKEN = "minio.notificationWebhookToken";
+    public static final String PROP_NOTIFICATION_MAX_SUBSCRIPTIONS = "minio.notificationMaxSubscriptions";
+    public static final String PROP_UPLOAD_PART_SIZE = "minio.uploadPartSize";
+    public static final String PROP_MULTIPART_MAX_PART_SIZE = "minio.multipartMaxPartSize";
+    public static final String PROP_MULTIPART_STALE_AGE = "minio.multipartStaleAge";
+    public static final String PROP_PRESIGNED_UPLOAD_EXPIRY = "minio.presignedUploadExpiry";
+    public static final String PROP_ELFINDER_UPLOAD_PARALLELISM = "minio.elfinderUploadParallelism";
+    public static final String PROP_USAGE_FLUSH_INTERVAL = "minio.usageFlushInterval";
+    public static final String PROP_UPLOAD_CHECKSUM_ALGORITHM = "minio.uploadChecksumAlgorithm";
+    public static final String PROP_DEDUP_BLOB_GRACE_PERIOD = "minio.dedupBlobGracePeriod";
+    public static final String PROP_COMPRESSION_MIN_SIZE = "minio.compressionMinSize";
+    public static final String PROP_COMPRESSION_MAX_RATIO = "minio.compressionMaxRatio";
 
     // 默认值常量
     public static final String DEFAULT_ENDPOINT = "http://localhost:9000";
@@ -45,8 +95,44 @@ public class MinioConfig {
     public static final int DEFAULT_CONNECTION_TIMEOUT = 10000; // 10秒
     public static final int DEFAULT_READ_TIMEOUT = 10000; // 10秒
     public static final int DEFAULT_WRITE_TIMEOUT = 10000; // 10秒
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 32;
+    public static final long DEFAULT_KEEP_ALIVE_DURATION = 5 * 60 * 1000; // 5分钟
+    public static final int DEFAULT_MAX_REQUESTS = 256;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 128;
+    public static final boolean DEFAULT_HTTP2_ENABLED = true;
+    public static final long DEFAULT_CONFIG_REFRESH_INTERVAL = 30000; // 30秒，0表示不监听
+    public static final int DEFAULT_MAX_CONSECUTIVE_FAILURES = 3;
+    public static final long DEFAULT_HEALTH_CHECK_INTERVAL = 10000; // 10秒
+    public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30000; // 30秒
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_RETRY_BASE_DELAY = 100; // 100毫秒
+    public static final long DEFAULT_RETRY_MAX_DELAY = 2000; // 2秒
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.2; // 重试量不超过正常请求量的20%
+    public static final int DEFAULT_TASK_CONCURRENCY = 64;
+    public static final boolean DEFAULT_VIRTUAL_THREADS_ENABLED = true;
+    public static final int DEFAULT_BUCKET_CHECK_PARALLELISM = 16;
+    public static final long DEFAULT_BUCKET_CHECK_TIMEOUT = 3000; // 3秒
+    public static final String DEFAULT_NOTIFICATION_SOURCE = "none"; // none | listen | webhook
+    public static final long DEFAULT_NOTIFICATION_FLUSH_INTERVAL = 2000L;
+    public static final long DEFAULT_NOTIFICATION_SUBSCRIBE_INTERVAL = 60000L;
+    public static final String DEFAULT_NOTIFICATION_WEBHOOK_TOKEN = "";
+    public static final int DEFAULT_NOTIFICATION_MAX_SUBSCRIPTIONS = 500;
+    public static final long DEFAULT_UPLOAD_PART_SIZE = 16L * 1024 * 1024;
+    public static final long DEFAULT_MULTIPART_MAX_PART_SIZE = 64L * 1024 * 1024;
+    public static final long DEFAULT_MULTIPART_STALE_AGE = 24L * 60 * 60 * 1000;
+    public static final int DEFAULT_PRESIGNED_UPLOAD_EXPIRY = 900;
+    public static final int DEFAULT_ELFINDER_UPLOAD_PARALLELISM = 4;
+    public static final long DEFAULT_USAGE_FLUSH_INTERVAL = 1000L; // 毫秒
+    public static final String DEFAULT_UPLOAD_CHECKSUM_ALGORITHM = "SHA256"; // SHA256、CRC32C 或 NONE
+    public static final long DEFAULT_DEDUP_BLOB_GRACE_PERIOD = 60L * 60 * 1000;
+    public static final long DEFAULT_COMPRESSION_MIN_SIZE = 4096L;
+    public static final double DEFAULT_COMPRESSION_MAX_RATIO = 0.9; // 样本压缩后不超过原大小的90%才压缩
+
+    // 进程级配置快照
+    private static final AtomicReference<MinioConfig> current = new AtomicReference<>();
 
     private final String endpoint;
+    private final List<String> endpoints;
     private final String accessKey;
     private final String secretKey;
     private final String region;
@@ -54,19 +140,91 @@ public class MinioConfig {
     private final int connectionTimeout;
     private final int readTimeout;
     private final int writeTimeout;
+    private final int maxIdleConnections;
+    private final long keepAliveDuration;
+    private final int maxRequests;
+    private final int maxRequestsPerHost;
+    private final boolean http2Enabled;
+    private final long configRefreshInterval;
+    private final int maxConsecutiveFailures;
+    private final long healthCheckInterval;
+    private final long circuitBreakerOpenDuration;
+    private final int maxRetries;
+    private final long retryBaseDelay;
+    private final long retryMaxDelay;
+    private final double retryBudgetRatio;
+    private final int taskConcurrency;
+    private final boolean virtualThreadsEnabled;
+    private final int bucketCheckParallelism;
+    private final long bucketCheckTimeout;
+    private final String notificationSource;
+    private final long notificationFlushInterval;
+    private final long notificationSubscribeInterval;
+    private final String notificationWebhookToken;
+    private final int notificationMaxSubscriptions;
+    private final long uploadPartSize;
+    private final long multipartMaxPartSize;
+    private final long multipartStaleAge;
+    private final int presignedUploadExpiry;
+    private final int elfinderUploadParallelism;
+    private final long usageFlushInterval;
+    private final String uploadChecksumAlgorithm;
+    private final long dedupBlobGracePeriod;
+    private final long compressionMinSize;
+    private final double compressionMaxRatio;
+
+    // 解析时各配置键的原始来源值（未套用默认值），用于检测配置是否变化
+    private final Map<String, String> sourceValues = new LinkedHashMap<>();
+    // secretKey的摘要，用于客户端池键，首次使用时计算
+    private volatile String secretKeyDigest;
 
     /**
      * 从ExecutionContextFactory创建配置
      */
     public MinioConfig(ExecutionContextFactory ecf) {
-        this.endpoint = getConfigValue(ecf, PROP_ENDPOINT, DEFAULT_ENDPOINT);
-        this.accessKey = getConfigValue(ecf, PROP_ACCESS_KEY, DEFAULT_ACCESS_KEY);
-        this.secretKey = getConfigValue(ecf, PROP_SECRET_KEY, DEFAULT_SECRET_KEY);
-        this.region = getConfigValue(ecf, PROP_REGION, DEFAULT_REGION);
-        this.secure = Boolean.parseBoolean(getConfigValue(ecf, PROP_SECURE, String.valueOf(DEFAULT_SECURE)));
-        this.connectionTimeout = Integer.parseInt(getConfigValue(ecf, PROP_CONNECTION_TIMEOUT, String.valueOf(DEFAULT_CONNECTION_TIMEOUT)));
-        this.readTimeout = Integer.parseInt(getConfigValue(ecf, PROP_READ_TIMEOUT, String.valueOf(DEFAULT_READ_TIMEOUT)));
-        this.writeTimeout = Integer.parseInt(getConfigValue(ecf, PROP_WRITE_TIMEOUT, String.valueOf(DEFAULT_WRITE_TIMEOUT)));
+        Map<String, String> confDefaults = loadConfDefaults(ecf);
+        this.endpoints = parseEndpoints(getConfigValue(confDefaults, PROP_ENDPOINTS, null),
+                getConfigValue(confDefaults, PROP_ENDPOINT, DEFAULT_ENDPOINT));
+        this.endpoint = endpoints.get(0);
+        this.accessKey = getConfigValue(confDefaults, PROP_ACCESS_KEY, DEFAULT_ACCESS_KEY);
+        this.secretKey = getConfigValue(confDefaults, PROP_SECRET_KEY, DEFAULT_SECRET_KEY);
+        this.region = getConfigValue(confDefaults, PROP_REGION, DEFAULT_REGION);
+        this.secure = Boolean.parseBoolean(getConfigValue(confDefaults, PROP_SECURE, String.valueOf(DEFAULT_SECURE)));
+        this.connectionTimeout = Integer.parseInt(getConfigValue(confDefaults, PROP_CONNECTION_TIMEOUT, String.valueOf(DEFAULT_CONNECTION_TIMEOUT)));
+        this.readTimeout = Integer.parseInt(getConfigValue(confDefaults, PROP_READ_TIMEOUT, String.valueOf(DEFAULT_READ_TIMEOUT)));
+        this.writeTimeout = Integer.parseInt(getConfigValue(confDefaults, PROP_WRITE_TIMEOUT, String.valueOf(DEFAULT_WRITE_TIMEOUT)));
+        this.maxIdleConnections = Integer.parseInt(getConfigValue(confDefaults, PROP_MAX_IDLE_CONNECTIONS, String.valueOf(DEFAULT_MAX_IDLE_CONNECTIONS)));
+        this.keepAliveDuration = Long.parseLong(getConfigValue(confDefaults, PROP_KEEP_ALIVE_DURATION, String.valueOf(DEFAULT_KEEP_ALIVE_DURATION)));
+        this.maxRequests = Integer.parseInt(getConfigValue(confDefaults, PROP_MAX_REQUESTS, String.valueOf(DEFAULT_MAX_REQUESTS)));
+        this.maxRequestsPerHost = Integer.parseInt(getConfigValue(confDefaults, PROP_MAX_REQUESTS_PER_HOST, String.valueOf(DEFAULT_MAX_REQUESTS_PER_HOST)));
+        this.http2Enabled = Boolean.parseBoolean(getConfigValue(confDefaults, PROP_HTTP2_ENABLED, String.valueOf(DEFAULT_HTTP2_ENABLED)));
+        this.configRefreshInterval = Long.parseLong(getConfigValue(confDefaults, PROP_CONFIG_REFRESH_INTERVAL, String.valueOf(DEFAULT_CONFIG_REFRESH_INTERVAL)));
+        this.maxConsecutiveFailures = Integer.parseInt(getConfigValue(confDefaults, PROP_MAX_CONSECUTIVE_FAILURES, String.valueOf(DEFAULT_MAX_CONSECUTIVE_FAILURES)));
+        this.healthCheckInterval = Long.parseLong(getConfigValue(confDefaults, PROP_HEALTH_CHECK_INTERVAL, String.valueOf(DEFAULT_HEALTH_CHECK_INTERVAL)));
+        this.circuitBreakerOpenDuration = Long.parseLong(getConfigValue(confDefaults, PROP_CIRCUIT_BREAKER_OPEN_DURATION, String.valueOf(DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION)));
+        this.maxRetries = Integer.parseInt(getConfigValue(confDefaults, PROP_MAX_RETRIES, String.valueOf(DEFAULT_MAX_RETRIES)));
+        this.retryBaseDelay = Long.parseLong(getConfigValue(confDefaults, PROP_RETRY_BASE_DELAY, String.valueOf(DEFAULT_RETRY_BASE_DELAY)));
+        this.retryMaxDelay = Long.parseLong(getConfigValue(confDefaults, PROP_RETRY_MAX_DELAY, String.valueOf(DEFAULT_RETRY_MAX_DELAY)));
+        this.retryBudgetRatio = Double.parseDouble(getConfigValue(confDefaults, PROP_RETRY_BUDGET_RATIO, String.valueOf(DEFAULT_RETRY_BUDGET_RATIO)));
+        this.taskConcurrency = Integer.parseInt(getConfigValue(confDefaults, PROP_TASK_CONCURRENCY, String.valueOf(DEFAULT_TASK_CONCURRENCY)));
+        this.virtualThreadsEnabled = Boolean.parseBoolean(getConfigValue(confDefaults, PROP_VIRTUAL_THREADS_ENABLED, String.valueOf(DEFAULT_VIRTUAL_THREADS_ENABLED)));
+        this.bucketCheckParallelism = Integer.parseInt(getConfigValue(confDefaults, PROP_BUCKET_CHECK_PARALLELISM, String.valueOf(DEFAULT_BUCKET_CHECK_PARALLELISM)));
+        this.bucketCheckTimeout = Long.parseLong(getConfigValue(confDefaults, PROP_BUCKET_CHECK_TIMEOUT, String.valueOf(DEFAULT_BUCKET_CHECK_TIMEOUT)));
+        this.notificationSource = getConfigValue(confDefaults, PROP_NOTIFICATION_SOURCE, DEFAULT_NOTIFICATION_SOURCE);
+        this.notificationFlushInterval = Long.parseLong(getConfigValue(confDefaults, PROP_NOTIFICATION_FLUSH_INTERVAL, String.valueOf(DEFAULT_NOTIFICATION_FLUSH_INTERVAL)));
+        this.notificationSubscribeInterval = Long.parseLong(getConfigValue(confDefaults, PROP_NOTIFICATION_SUBSCRIBE_INTERVAL, String.valueOf(DEFAULT_NOTIFICATION_SUBSCRIBE_INTERVAL)));
+        this.notificationWebhookToken = getConfigValue(confDefaults, PROP_NOTIFICATION_WEBHOOK_TOKEN, DEFAULT_NOTIFICATION_WEBHOOK_TOKEN);
+        this.notificationMaxSubscriptions = Integer.parseInt(getConfigValue(confDefaults, PROP_NOTIFICATION_MAX_SUBSCRIPTIONS, String.valueOf(DEFAULT_NOTIFICATION_MAX_SUBSCRIPTIONS)));
+        this.uploadPartSize = Long.parseLong(getConfigValue(confDefaults, PROP_UPLOAD_PART_SIZE, String.valueOf(DEFAULT_UPLOAD_PART_SIZE)));
+        this.multipartMaxPartSize = Long.parseLong(getConfigValue(confDefaults, PROP_MULTIPART_MAX_PART_SIZE, String.valueOf(DEFAULT_MULTIPART_MAX_PART_SIZE)));
+        this.multipartStaleAge = Long.parseLong(getConfigValue(confDefaults, PROP_MULTIPART_STALE_AGE, String.valueOf(DEFAULT_MULTIPART_STALE_AGE)));
+        this.presignedUploadExpiry = Integer.parseInt(getConfigValue(confDefaults, PROP_PRESIGNED_UPLOAD_EXPIRY, String.valueOf(DEFAULT_PRESIGNED_UPLOAD_EXPIRY)));
+        this.elfinderUploadParallelism = Integer.parseInt(getConfigValue(confDefaults, PROP_ELFINDER_UPLOAD_PARALLELISM, String.valueOf(DEFAULT_ELFINDER_UPLOAD_PARALLELISM)));
+        this.usageFlushInterval = Long.parseLong(getConfigValue(confDefaults, PROP_USAGE_FLUSH_INTERVAL, String.valueOf(DEFAULT_USAGE_FLUSH_INTERVAL)));
+        this.uploadChecksumAlgorithm = getConfigValue(confDefaults, PROP_UPLOAD_CHECKSUM_ALGORITHM, DEFAULT_UPLOAD_CHECKSUM_ALGORITHM);
+        this.dedupBlobGracePeriod = Long.parseLong(getConfigValue(confDefaults, PROP_DEDUP_BLOB_GRACE_PERIOD, String.valueOf(DEFAULT_DEDUP_BLOB_GRACE_PERIOD)));
+        this.compressionMinSize = Long.parseLong(getConfigValue(confDefaults, PROP_COMPRESSION_MIN_SIZE, String.valueOf(DEFAULT_COMPRESSION_MIN_SIZE)));
+        this.compressionMaxRatio = Double.parseDouble(getConfigValue(confDefaults, PROP_COMPRESSION_MAX_RATIO, String.valueOf(DEFAULT_COMPRESSION_MAX_RATIO)));
 
         validateConfiguration();
         logConfiguration();
@@ -77,6 +235,7 @@ public class MinioConfig {
      */
     public MinioConfig() {
         this.endpoint = DEFAULT_ENDPOINT;
+        this.endpoints = Collections.singletonList(DEFAULT_ENDPOINT);
         this.accessKey = DEFAULT_ACCESS_KEY;
         this.secretKey = DEFAULT_SECRET_KEY;
         this.region = DEFAULT_REGION;
@@ -84,38 +243,223 @@ public class MinioConfig {
         this.connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
         this.readTimeout = DEFAULT_READ_TIMEOUT;
         this.writeTimeout = DEFAULT_WRITE_TIMEOUT;
+        this.maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        this.keepAliveDuration = DEFAULT_KEEP_ALIVE_DURATION;
+        this.maxRequests = DEFAULT_MAX_REQUESTS;
+        this.maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+        this.http2Enabled = DEFAULT_HTTP2_ENABLED;
+        this.configRefreshInterval = DEFAULT_CONFIG_REFRESH_INTERVAL;
+        this.maxConsecutiveFailures = DEFAULT_MAX_CONSECUTIVE_FAILURES;
+        this.healthCheckInterval = DEFAULT_HEALTH_CHECK_INTERVAL;
+        this.circuitBreakerOpenDuration = DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION;
+        this.maxRetries = DEFAULT_MAX_RETRIES;
+        this.retryBaseDelay = DEFAULT_RETRY_BASE_DELAY;
+        this.retryMaxDelay = DEFAULT_RETRY_MAX_DELAY;
+        this.retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+        this.taskConcurrency = DEFAULT_TASK_CONCURRENCY;
+        this.virtualThreadsEnabled = DEFAULT_VIRTUAL_THREADS_ENABLED;
+        this.bucketCheckParallelism = DEFAULT_BUCKET_CHECK_PARALLELISM;
+        this.bucketCheckTimeout = DEFAULT_BUCKET_CHECK_TIMEOUT;
+        this.notificationSource = DEFAULT_NOTIFICATION_SOURCE;
+        this.notificationFlushInterval = DEFAULT_NOTIFICATION_FLUSH_INTERVAL;
+        this.notificationSubscribeInterval = DEFAULT_NOTIFICATION_SUBSCRIBE_INTERVAL;
+        this.notificationWebhookToken = DEFAULT_NOTIFICATION_WEBHOOK_TOKEN;
+        this.notificationMaxSubscriptions = DEFAULT_NOTIFICATION_MAX_SUBSCRIPTIONS;
+        this.uploadPartSize = DEFAULT_UPLOAD_PART_SIZE;
+        this.multipartMaxPartSize = DEFAULT_MULTIPART_MAX_PART_SIZE;
+        this.multipartStaleAge = DEFAULT_MULTIPART_STALE_AGE;
+        this.presignedUploadExpiry = DEFAULT_PRESIGNED_UPLOAD_EXPIRY;
+        this.elfinderUploadParallelism = DEFAULT_ELFINDER_UPLOAD_PARALLELISM;
+        this.usageFlushInterval = DEFAULT_USAGE_FLUSH_INTERVAL;
+        this.uploadChecksumAlgorithm = DEFAULT_UPLOAD_CHECKSUM_ALGORITHM;
+        this.dedupBlobGracePeriod = DEFAULT_DEDUP_BLOB_GRACE_PERIOD;
+        this.compressionMinSize = DEFAULT_COMPRESSION_MIN_SIZE;
+        this.compressionMaxRatio = DEFAULT_COMPRESSION_MAX_RATIO;
 
         validateConfiguration();
         logConfiguration();
     }
 
     /**
-     * 获取配置值，优先级：系统属性 > 环境变量 > Moqui配置 > 默认值
+     * 复制配置并替换为单个端点（多端点部署中为每个节点创建独立客户端）
      */
-    private String getConfigValue(ExecutionContextFactory ecf, String key, String defaultValue) {
-        // 1. 检查系统属性
-        String value = System.getProperty(key);
-        if (value != null && !value.trim().isEmpty()) {
-            logger.debug("Found config {} from system property: {}", key, value);
-            return value.trim();
+    private MinioConfig(MinioConfig source, String endpoint) {
+        this.endpoint = endpoint;
+        this.endpoints = Collections.singletonList(endpoint);
+        this.accessKey = source.accessKey;
+        this.secretKey = source.secretKey;
+        this.region = source.region;
+        this.secure = source.secure;
+        this.connectionTimeout = source.connectionTimeout;
+        this.readTimeout = source.readTimeout;
+        this.writeTimeout = source.writeTimeout;
+        this.maxIdleConnections = source.maxIdleConnections;
+        this.keepAliveDuration = source.keepAliveDuration;
+        this.maxRequests = source.maxRequests;
+        this.maxRequestsPerHost = source.maxRequestsPerHost;
+        this.http2Enabled = source.http2Enabled;
+        this.configRefreshInterval = source.configRefreshInterval;
+        this.maxConsecutiveFailures = source.maxConsecutiveFailures;
+        this.healthCheckInterval = source.healthCheckInterval;
+        this.circuitBreakerOpenDuration = source.circuitBreakerOpenDuration;
+        this.maxRetries = source.maxRetries;
+        this.retryBaseDelay = source.retryBaseDelay;
+        this.retryMaxDelay = source.retryMaxDelay;
+        this.retryBudgetRatio = source.retryBudgetRatio;
+        this.taskConcurrency = source.taskConcurrency;
+        this.virtualThreadsEnabled = source.virtualThreadsEnabled;
+        this.bucketCheckParallelism = source.bucketCheckParallelism;
+        this.bucketCheckTimeout = source.bucketCheckTimeout;
+        this.notificationSource = source.notificationSource;
+        this.notificationFlushInterval = source.notificationFlushInterval;
+        this.notificationSubscribeInterval = source.notificationSubscribeInterval;
+        this.notificationWebhookToken = source.notificationWebhookToken;
+        this.notificationMaxSubscriptions = source.notificationMaxSubscriptions;
+        this.uploadPartSize = source.uploadPartSize;
+        this.multipartMaxPartSize = source.multipartMaxPartSize;
+        this.multipartStaleAge = source.multipartStaleAge;
+        this.presignedUploadExpiry = source.presignedUploadExpiry;
+        this.elfinderUploadParallelism = source.elfinderUploadParallelism;
+        this.usageFlushInterval = source.usageFlushInterval;
+        this.uploadChecksumAlgorithm = source.uploadChecksumAlgorithm;
+        this.dedupBlobGracePeriod = source.dedupBlobGracePeriod;
+        this.compressionMinSize = source.compressionMinSize;
+        this.compressionMaxRatio = source.compressionMaxRatio;
+        this.sourceValues.putAll(source.sourceValues);
+    }
+
+    /**
+     * 获取仅包含指定端点的配置副本
+     *
+     * @param endpoint 端点地址，必须是本配置的端点之一
+     * @return 单端点配置
+     */
+    public MinioConfig forEndpoint(String endpoint) {
+        if (endpoints.size() == 1 && endpoints.get(0).equals(endpoint)) return this;
+        return new MinioConfig(this, endpoint);
+    }
+
+    /**
+     * 解析端点列表：minio.endpoints为逗号分隔的多个端点，未配置时使用minio.endpoint
+     */
+    private static List<String> parseEndpoints(String endpointsValue, String endpointValue) {
+        List<String> endpointList = new ArrayList<>();
+        if (endpointsValue != null) {
+            for (String item : endpointsValue.split(",")) {
+                if (!item.trim().isEmpty()) endpointList.add(item.trim());
+            }
         }
+        if (endpointList.isEmpty()) endpointList.add(endpointValue);
+        return Collections.unmodifiableList(endpointList);
+    }
 
-        // 2. 检查环境变量（将点号替换为下划线并转大写）
-        String envKey = key.replace('.', '_').toUpperCase();
-        value = System.getenv(envKey);
-        if (value != null && !value.trim().isEmpty()) {
-            logger.debug("Found config {} from environment variable {}: {}", key, envKey, value);
-            return value.trim();
+    /**
+     * 获取进程级配置快照，首次调用时解析并缓存
+     *
+     * @param ecf Moqui执行上下文工厂
+     * @return 当前生效的配置
+     */
+    public static MinioConfig getInstance(ExecutionContextFactory ecf) {
+        MinioConfig config = current.get();
+        if (config == null) {
+            synchronized (MinioConfig.class) {
+                config = current.get();
+                if (config == null) {
+                    config = new MinioConfig(ecf);
+                    current.set(config);
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * 重新解析配置，如有变化则原子替换快照并淘汰旧配置对应的池化客户端
+     *
+     * @param ecf Moqui执行上下文工厂
+     * @return true如果配置发生变化并已替换
+     * @throws IllegalArgumentException 如果新配置无效（此时保留旧快照）
+     */
+    public static boolean reload(ExecutionContextFactory ecf) {
+        synchronized (MinioConfig.class) {
+            MinioConfig oldConfig = current.get();
+            if (oldConfig != null && !oldConfig.hasChanged(ecf)) return false;
+
+            MinioConfig newConfig = new MinioConfig(ecf);
+            current.set(newConfig);
+            if (oldConfig != null) {
+                MinioClientPool.retireConfig(oldConfig, newConfig);
+                if (oldConfig.taskConcurrency != newConfig.taskConcurrency ||
+                        oldConfig.virtualThreadsEnabled != newConfig.virtualThreadsEnabled) {
+                    MinioTaskExecutor.configure(newConfig);
+                }
+                logger.info("MinIO configuration reloaded: {}", newConfig.toMaskedString());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 检查配置来源中的值是否与本快照解析时不同
+     */
+    public boolean hasChanged(ExecutionContextFactory ecf) {
+        Map<String, String> confDefaults = loadConfDefaults(ecf);
+        for (Map.Entry<String, String> entry : sourceValues.entrySet()) {
+            if (!Objects.equals(resolveConfigValue(confDefaults, entry.getKey()), entry.getValue())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 读取MoquiConf.xml中minio.*的default-property
+     */
+    private static Map<String, String> loadConfDefaults(ExecutionContextFactory ecf) {
+        if (!(ecf instanceof ExecutionContextFactoryImpl)) return Collections.emptyMap();
+        MNode confXmlRoot = ((ExecutionContextFactoryImpl) ecf).getConfXmlRoot();
+        if (confXmlRoot == null) return Collections.emptyMap();
+
+        Map<String, String> confDefaults = new HashMap<>();
+        for (MNode propertyNode : confXmlRoot.children("default-property")) {
+            String name = propertyNode.attribute("name");
+            if (name != null && name.startsWith("minio.")) confDefaults.put(name, propertyNode.attribute("value"));
         }
+        return confDefaults;
+    }
 
-        // 3. TODO: 在后续版本中可以添加Moqui配置文件支持
-        // 目前跳过Moqui配置访问以避免API兼容性问题
+    /**
+     * 获取配置值，优先级：系统属性 > 环境变量 > Moqui配置 > 默认值
+     */
+    private String getConfigValue(Map<String, String> confDefaults, String key, String defaultValue) {
+        String value = resolveConfigValue(confDefaults, key);
+        sourceValues.put(key, value);
+        if (value != null) {
+            logger.debug("Found config {}: {}", key, value);
+            return value;
+        }
 
-        // 4. 返回默认值
         logger.debug("Using default value for {}: {}", key, defaultValue);
         return defaultValue;
     }
 
+    /**
+     * 按优先级解析配置来源中的值，未配置时返回null
+     */
+    private static String resolveConfigValue(Map<String, String> confDefaults, String key) {
+        // 1. 检查系统属性
+        String value = System.getProperty(key);
+        if (value != null && !value.trim().isEmpty()) return value.trim();
+
+        // 2. 检查环境变量（将点号替换为下划线并转大写）
+        value = System.getenv(key.replace('.', '_').toUpperCase());
+        if (value != null && !value.trim().isEmpty()) return value.trim();
+
+        // 3. 检查MoquiConf.xml中的default-property
+        value = confDefaults.get(key);
+        if (value != null && !value.trim().isEmpty()) return value.trim();
+
+        return null;
+    }
+
     /**
      * 验证配置有效性
      */
@@ -144,9 +488,111 @@ public class MinioConfig {
             throw new IllegalArgumentException("Write timeout must be non-negative");
         }
 
+        if (maxIdleConnections < 0) {
+            throw new IllegalArgumentException("Max idle connections must be non-negative");
+        }
+
+        if (keepAliveDuration <= 0) {
+            throw new IllegalArgumentException("Keep-alive duration must be positive");
+        }
+
+        if (maxRequests < 1 || maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("Max requests and max requests per host must be at least 1");
+        }
+
+        if (maxConsecutiveFailures < 1) {
+            throw new IllegalArgumentException("Max consecutive failures must be at least 1");
+        }
+
+        if (healthCheckInterval <= 0) {
+            throw new IllegalArgumentException("Health check interval must be positive");
+        }
+
+        if (circuitBreakerOpenDuration <= 0) {
+            throw new IllegalArgumentException("Circuit breaker open duration must be positive");
+        }
+
+        if (maxRetries < 0 || retryBaseDelay < 0 || retryMaxDelay < retryBaseDelay) {
+            throw new IllegalArgumentException("Retry settings must be non-negative and retry max delay must not be less than base delay");
+        }
+
+        if (retryBudgetRatio < 0) {
+            throw new IllegalArgumentException("Retry budget ratio must be non-negative");
+        }
+
+        if (taskConcurrency < 1) {
+            throw new IllegalArgumentException("Task concurrency must be at least 1");
+        }
+
+        if (bucketCheckParallelism < 1) {
+            throw new IllegalArgumentException("Bucket check parallelism must be at least 1");
+        }
+
+        if (bucketCheckTimeout <= 0) {
+            throw new IllegalArgumentException("Bucket check timeout must be positive");
+        }
+
+        if (!"none".equals(notificationSource) && !"listen".equals(notificationSource) && !"webhook".equals(notificationSource)) {
+            throw new IllegalArgumentException("Notification source must be one of none, listen, webhook");
+        }
+
+        if (notificationFlushInterval <= 0) {
+            throw new IllegalArgumentException("Notification flush interval must be positive");
+        }
+
+        if (notificationSubscribeInterval <= 0) {
+            throw new IllegalArgumentException("Notification subscribe interval must be positive");
+        }
+
+        if (notificationMaxSubscriptions <= 0) {
+            throw new IllegalArgumentException("Notification max subscriptions must be positive");
+        }
+
+        if (uploadPartSize < 5L * 1024 * 1024 || uploadPartSize > 5L * 1024 * 1024 * 1024) {
+            throw new IllegalArgumentException("Upload part size must be between 5 MiB and 5 GiB");
+        }
+
+        if (multipartMaxPartSize < 5L * 1024 * 1024 || multipartMaxPartSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Multipart max part size must be between 5 MiB and 2 GiB");
+        }
+
+        if (multipartStaleAge <= 0) {
+            throw new IllegalArgumentException("Multipart stale age must be positive");
+        }
+
+        if (presignedUploadExpiry < 1 || presignedUploadExpiry > 604800) {
+            throw new IllegalArgumentException("Presigned upload expiry must be between 1 and 604800 seconds");
+        }
+
+        if (elfinderUploadParallelism < 1) {
+            throw new IllegalArgumentException("elFinder upload parallelism must be at least 1");
+        }
+
+        if (usageFlushInterval < 100) {
+            throw new IllegalArgumentException("Usage flush interval must be at least 100ms");
+        }
+
+        if (!"SHA256".equals(uploadChecksumAlgorithm) && !"CRC32C".equals(uploadChecksumAlgorithm) && !"NONE".equals(uploadChecksumAlgorithm)) {
+            throw new IllegalArgumentException("Upload checksum algorithm must be one of SHA256, CRC32C, NONE");
+        }
+
+        if (dedupBlobGracePeriod < 0) {
+            throw new IllegalArgumentException("minio.dedupBlobGracePeriod must not be negative");
+        }
+
+        if (compressionMinSize < 0) {
+            throw new IllegalArgumentException("minio.compressionMinSize must not be negative");
+        }
+
+        if (compressionMaxRatio <= 0 || compressionMaxRatio > 1) {
+            throw new IllegalArgumentException("minio.compressionMaxRatio must be in (0, 1]");
+        }
+
         // 验证endpoint格式
-        if (!endpoint.startsWith("http://") && !endpoint.startsWith("https://")) {
-            throw new IllegalArgumentException("MinIO endpoint must start with http:// or https://");
+        for (String item : endpoints) {
+            if (!item.startsWith("http://") && !item.startsWith("https://")) {
+                throw new IllegalArgumentException("MinIO endpoint must start with http:// or https://: " + item);
+            }
         }
     }
 
@@ -155,34 +601,103 @@ public class MinioConfig {
      */
     private void logConfiguration() {
         logger.info("MinIO Configuration initialized:");
-        logger.info("  Endpoint: {}", endpoint);
+        logger.info("  Endpoint: {}", endpoints.size() > 1 ? endpoints : endpoint);
         logger.info("  Access Key: {}***", accessKey.length() > 3 ? accessKey.substring(0, 3) : "***");
         logger.info("  Region: {}", region);
         logger.info("  Secure: {}", secure);
         logger.info("  Connection Timeout: {}ms", connectionTimeout);
         logger.info("  Read Timeout: {}ms", readTimeout);
         logger.info("  Write Timeout: {}ms", writeTimeout);
+        logger.info("  Connection Pool: maxIdle={}, keepAlive={}ms", maxIdleConnections, keepAliveDuration);
+        logger.info("  Dispatcher: maxRequests={}, maxRequestsPerHost={}, http2={}", maxRequests, maxRequestsPerHost, http2Enabled);
+        logger.info("  Circuit Breaker: maxConsecutiveFailures={}, openDuration={}ms", maxConsecutiveFailures, circuitBreakerOpenDuration);
+        logger.info("  Retry: maxRetries={}, baseDelay={}ms, maxDelay={}ms, budgetRatio={}", maxRetries, retryBaseDelay, retryMaxDelay, retryBudgetRatio);
+        logger.info("  Task Executor: concurrency={}, virtualThreads={}", taskConcurrency, virtualThreadsEnabled);
+        logger.info("  Bucket Check: parallelism={}, timeout={}ms", bucketCheckParallelism, bucketCheckTimeout);
+        logger.info("  elFinder: uploadParallelism={}", elfinderUploadParallelism);
+        logger.info("  Notifications: source={}, flushInterval={}ms, subscribeInterval={}ms, maxSubscriptions={}", notificationSource, notificationFlushInterval, notificationSubscribeInterval, notificationMaxSubscriptions);
+        logger.info("  Usage: flushInterval={}ms", usageFlushInterval);
+        logger.info("  Upload: partSize={}, multipartMaxPartSize={}, multipartStaleAge={}ms, presignedExpiry={}s, checksum={}, dedupBlobGracePeriod={}ms, compressionMinSize={}, compressionMaxRatio={}", uploadPartSize, multipartMaxPartSize, multipartStaleAge, presignedUploadExpiry, uploadChecksumAlgorithm, dedupBlobGracePeriod, compressionMinSize, compressionMaxRatio);
+        if (endpoints.size() > 1) {
+            logger.info("  Failover: healthCheckInterval={}ms", healthCheckInterval);
+        }
     }
 
     // Getter方法
     public String getEndpoint() { return endpoint; }
+    public List<String> getEndpoints() { return endpoints; }
     public String getAccessKey() { return accessKey; }
     public String getSecretKey() { return secretKey; }
+
+    /**
+     * secretKey的SHA-256摘要前16位十六进制，用于区分密钥不同的池化客户端而不在键中保存明文
+     */
+    public String getSecretKeyDigest() {
+        String digest = secretKeyDigest;
+        if (digest == null) {
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256")
+                        .digest((secretKey != null ? secretKey : "").getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder();
+                for (int i = 0; i < 8; i++) hex.append(String.format("%02x", hash[i]));
+                digest = hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+            secretKeyDigest = digest;
+        }
+        return digest;
+    }
     public String getRegion() { return region; }
     public boolean isSecure() { return secure; }
     public int getConnectionTimeout() { return connectionTimeout; }
     public int getReadTimeout() { return readTimeout; }
     public int getWriteTimeout() { return writeTimeout; }
+    public int getMaxIdleConnections() { return maxIdleConnections; }
+    public long getKeepAliveDuration() { return keepAliveDuration; }
+    public int getMaxRequests() { return maxRequests; }
+    public int getMaxRequestsPerHost() { return maxRequestsPerHost; }
+    public boolean isHttp2Enabled() { return http2Enabled; }
+    public long getConfigRefreshInterval() { return configRefreshInterval; }
+    public int getMaxConsecutiveFailures() { return maxConsecutiveFailures; }
+    public long getHealthCheckInterval() { return healthCheckInterval; }
+    public long getCircuitBreakerOpenDuration() { return circuitBreakerOpenDuration; }
+    public int getMaxRetries() { return maxRetries; }
+    public long getRetryBaseDelay() { return retryBaseDelay; }
+    public long getRetryMaxDelay() { return retryMaxDelay; }
+    public double getRetryBudgetRatio() { return retryBudgetRatio; }
+    public int getTaskConcurrency() { return taskConcurrency; }
+    public boolean isVirtualThreadsEnabled() { return virtualThreadsEnabled; }
+    public int getBucketCheckParallelism() { return bucketCheckParallelism; }
+    public long getBucketCheckTimeout() { return bucketCheckTimeout; }
+    public String getNotificationSource() { return notificationSource; }
+    public long getNotificationFlushInterval() { return notificationFlushInterval; }
+    public long getNotificationSubscribeInterval() { return notificationSubscribeInterval; }
+    public String getNotificationWebhookToken() { return notificationWebhookToken; }
+    public int getNotificationMaxSubscriptions() { return notificationMaxSubscriptions; }
+    public boolean isNotificationsEnabled() { return !"none".equals(notificationSource); }
+    public long getUploadPartSize() { return uploadPartSize; }
+    public long getMultipartMaxPartSize() { return multipartMaxPartSize; }
+    public long getMultipartStaleAge() { return multipartStaleAge; }
+    public int getPresignedUploadExpiry() { return presignedUploadExpiry; }
+    public int getElfinderUploadParallelism() { return elfinderUploadParallelism; }
+    public long getUsageFlushInterval() { return usageFlushInterval; }
+    public String getUploadChecksumAlgorithm() { return uploadChecksumAlgorithm; }
+    public long getDedupBlobGracePeriod() { return dedupBlobGracePeriod; }
+    public long getCompressionMinSize() { return compressionMinSize; }
+    public double getCompressionMaxRatio() { return compressionMaxRatio; }
 
     /**
      * 获取掩码后的配置字符串（用于日志记录）
      */
     public String toMaskedString() {
-        return String.format("MinioConfig{endpoint='%s', accessKey='%s***', region='%s', secure=%s, " +
-                "connectionTimeout=%d, readTimeout=%d, writeTimeout=%d}",
-                endpoint,
+        return String.format("MinioConfig{endpoints=%s, accessKey='%s***', region='%s', secure=%s, " +
+                "connectionTimeout=%d, readTimeout=%d, writeTimeout=%d, maxIdleConnections=%d, keepAliveDuration=%d, " +
+                "maxRequests=%d, maxRequestsPerHost=%d, http2Enabled=%s}",
+                endpoints,
                 accessKey.length() > 3 ? accessKey.substring(0, 3) : "***",
-                region, secure, connectionTimeout, readTimeout, writeTimeout);
+                region, secure, connectionTimeout, readTimeout, writeTimeout, maxIdleConnections, keepAliveDuration,
+                maxRequests, maxRequestsPerHost, http2Enabled);
     }
 
     @Override
@@ -0,0 +1,469 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
+import io.minio.RemoveObjectArgs;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 按内容寻址的去重存储
+ *
+ * 存储桶的 BucketConfig 中 dedup.enabled 为 true 时，上传内容按 SHA-256 存放在 .dedup/sha256/&lt;digest&gt;，
+ * 对象名称处只写入一个空的占位对象（用户元数据 dedup-sha256 记录摘要），台账记录 dedupDigest；
+ * 每个内容块在 moqui.minio.DedupBlob 中维护引用计数，删除、覆盖或重命名覆盖引用时减一，
+ * 计数归零的内容块由定时任务在宽限期后删除，期间再次上传相同内容可直接复用。
+ * 可重复读取的内容（fileBytes、FileItem、资源）先在本地计算摘要，内容块已存在时不向MinIO传输数据；
+ * 只能读取一次的输入流先上传到暂存位置并同时计算摘要，再在MinIO服务端复制为内容块
+ */
+public class MinioDedupStore {
+    private static final Logger logger = LoggerFactory.getLogger(MinioDedupStore.class);
+
+    /** BucketConfig 中启用去重的配置键 */
+    public static final String CONFIG_KEY = "dedup.enabled";
+    /** 内容块与暂存对象所在的内部前缀，文件管理器列举时隐藏 */
+    public static final String INTERNAL_PREFIX = ".dedup/";
+    public static final String BLOB_PREFIX = INTERNAL_PREFIX + "sha256/";
+    static final String STAGING_PREFIX = INTERNAL_PREFIX + "staging/";
+    /** 占位对象中记录摘要的用户元数据 */
+    public static final String METADATA_DIGEST = "dedup-sha256";
+
+    /** 按摘要查找或创建内容块时使用的本节点分段锁；集群中其他节点同时登记时由主键冲突检测 */
+    private static final Object[] digestLocks = new Object[64];
+    static {
+        for (int i = 0; i < digestLocks.length; i++) digestLocks[i] = new Object();
+    }
+
+    /**
+     * 可重复打开的内容
+     */
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * 去重上传结果
+     */
+    public static final class DedupResult {
+        private final String objectName;
+        private final long size;
+        private final String etag;
+        private final String digest;
+        private final String checksum;
+        private final boolean transferSkipped;
+
+        DedupResult(String objectName, long size, String etag, String digest, String checksum, boolean transferSkipped) {
+            this.objectName = objectName;
+            this.size = size;
+            this.etag = etag;
+            this.digest = digest;
+            this.checksum = checksum;
+            this.transferSkipped = transferSkipped;
+        }
+
+        public String getObjectName() { return objectName; }
+        /** 内容大小 */
+        public long getSize() { return size; }
+        /** 占位对象的ETag */
+        public String getEtag() { return etag; }
+        /** 十六进制SHA-256 */
+        public String getDigest() { return digest; }
+        /** Base64编码的SHA-256（S3附加校验和格式） */
+        public String getChecksum() { return checksum; }
+        /** 内容块已存在，未向MinIO传输内容 */
+        public boolean isTransferSkipped() { return transferSkipped; }
+    }
+
+    /**
+     * 存储桶是否启用去重
+     */
+    public static boolean isEnabled(ExecutionContext ec, String bucketId) {
+        try {
+            MinioBucketCache.BucketMetadata metadata = MinioBucketCache.get(ec, bucketId);
+            return metadata != null && "true".equalsIgnoreCase(metadata.getConfig().get(CONFIG_KEY));
+        } catch (Exception e) {
+            logger.warn("读取存储桶去重配置失败: " + bucketId, MinioExceptionUtils.unwrap(e));
+            return false;
+        }
+    }
+
+    public static String blobKey(String digest) {
+        return BLOB_PREFIX + digest;
+    }
+
+    /**
+     * 上传可重复读取的内容：先计算摘要，内容块已存在时只增加引用计数并写入占位对象
+     *
+     * @param size 长度，未知时为-1
+     */
+    public static DedupResult upload(ExecutionContext ec, String bucketId, String objectName, ContentSource source,
+                                     long size, String contentType) throws Exception {
+        MinioChecksum checksum = MinioChecksum.create(MinioChecksum.SHA256);
+        long contentSize = 0L;
+        try (InputStream in = source.open()) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                checksum.update(buffer, 0, n);
+                contentSize += n;
+            }
+        }
+        String checksumValue = checksum.getValue();
+        String digest = toHex(checksumValue);
+
+        boolean transferSkipped = acquireExisting(ec, bucketId, digest);
+        if (!transferSkipped) {
+            MinioObjectUploader.UploadResult blob;
+            try (InputStream in = source.open()) {
+                blob = MinioObjectUploader.putStream(ec.getFactory(), bucketId, blobKey(digest), in, contentSize,
+                        contentType, MinioChecksum.SHA256, null);
+            }
+            if (!checksumValue.equals(blob.getChecksum())) {
+                throw new IOException("上传过程中内容发生变化: " + objectName);
+            }
+            acquireOrCreate(ec, bucketId, digest, blob);
+        }
+        return writeReference(ec, bucketId, objectName, contentType, digest, checksumValue, contentSize, transferSkipped);
+    }
+
+    /**
+     * 上传只能读取一次的输入流：上传到暂存位置并同时计算摘要，内容块已存在时删除暂存对象，否则服务端复制为内容块
+     *
+     * @param size 长度，未知时为-1
+     */
+    public static DedupResult uploadStream(ExecutionContext ec, String bucketId, String objectName, InputStream stream,
+                                           long size, String contentType) throws Exception {
+        String stagingKey = STAGING_PREFIX + UUID.randomUUID();
+        MinioObjectUploader.UploadResult staged = MinioObjectUploader.putStream(ec.getFactory(), bucketId, stagingKey,
+                stream, size, contentType, MinioChecksum.SHA256, null);
+        String digest = toHex(staged.getChecksum());
+        try {
+            if (!acquireExisting(ec, bucketId, digest)) {
+                MinioClientPool.execute(ec.getFactory(), "composeObject", bucketId, client -> client.composeObject(
+                        ComposeObjectArgs.builder()
+                                .bucket(bucketId)
+                                .object(blobKey(digest))
+                                .sources(Collections.singletonList(ComposeSource.builder().bucket(bucketId).object(stagingKey).build()))
+                                .build()));
+                acquireOrCreate(ec, bucketId, digest, staged);
+            }
+        } finally {
+            removeQuietly(ec, bucketId, stagingKey);
+        }
+        return writeReference(ec, bucketId, objectName, contentType, digest, staged.getChecksum(), staged.getSize(), false);
+    }
+
+    /**
+     * 写入占位对象与台账；引用已在独立事务中提交，写入失败或调用方事务回滚时释放刚获得的引用
+     */
+    private static DedupResult writeReference(ExecutionContext ec, String bucketId, String objectName, String contentType,
+                                              String digest, String checksumValue, long contentSize,
+                                              boolean transferSkipped) throws Exception {
+        MinioObjectUploader.UploadResult placeholder;
+        boolean recorded = false;
+        try {
+            long priorSize = MinioObjectLedger.resolvePriorSize(ec, bucketId, objectName);
+            placeholder = MinioObjectUploader.putBytes(ec.getFactory(), bucketId, objectName, new byte[0], contentType,
+                    Collections.singletonMap(METADATA_DIGEST, digest));
+            MinioObjectLedger.recordUpload(ec, bucketId, objectName, 0L, placeholder.getEtag(),
+                    MinioChecksum.SHA256, checksumValue, digest, priorSize);
+            recorded = true;
+        } finally {
+            if (!recorded) releaseInNewTransaction(ec, bucketId, digest);
+        }
+        releaseOnRollback(ec, bucketId, digest);
+        return new DedupResult(objectName, contentSize, placeholder.getEtag(), digest, checksumValue, transferSkipped);
+    }
+
+    /**
+     * 在独立事务中释放引用，不随调用方事务回滚
+     */
+    private static void releaseInNewTransaction(ExecutionContext ec, String bucketId, String digest) {
+        try {
+            MinioMultipartUploads.runInNewTransaction(ec, "释放内容块引用失败", () -> {
+                release(ec, bucketId, digest);
+                return null;
+            });
+        } catch (Exception e) {
+            logger.warn("释放内容块引用失败: " + bucketId + "/" + digest, e);
+        }
+    }
+
+    /**
+     * 调用方事务回滚时台账中的引用记录随之撤销，在任务执行器上以新的执行上下文释放引用
+     */
+    private static void releaseOnRollback(ExecutionContext ec, String bucketId, String digest) {
+        TransactionFacade tf = ec.getTransaction();
+        if (!tf.isTransactionInPlace()) return;
+        ExecutionContextFactory ecf = ec.getFactory();
+        tf.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() { }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) return;
+                MinioTaskExecutor.submit(() -> {
+                    ExecutionContext releaseEc = ecf.getExecutionContext();
+                    try {
+                        releaseInNewTransaction(releaseEc, bucketId, digest);
+                    } finally {
+                        releaseEc.destroy();
+                    }
+                    return null;
+                });
+            }
+        });
+    }
+
+    /**
+     * 内容块已存在时增加引用计数（独立事务提交）
+     *
+     * @return 内容块是否已存在
+     */
+    static boolean acquireExisting(ExecutionContext ec, String bucketId, String digest) throws Exception {
+        synchronized (lockFor(bucketId, digest)) {
+            return MinioMultipartUploads.runInNewTransaction(ec, "增加内容块引用失败", () -> {
+                EntityValue blob = findBlob(ec, bucketId, digest, true);
+                if (blob == null) return false;
+                addReference(blob, 1L);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * 内容块上传后登记：其他请求已登记时只增加引用计数（独立事务提交）；
+     * 其他节点同时上传相同内容时后登记的一方主键冲突，按已存在的内容块重新增加引用
+     */
+    private static void acquireOrCreate(ExecutionContext ec, String bucketId, String digest,
+                                        MinioObjectUploader.UploadResult uploaded) throws Exception {
+        synchronized (lockFor(bucketId, digest)) {
+            try {
+                createBlob(ec, bucketId, digest, uploaded);
+            } catch (Exception e) {
+                if (acquireExisting(ec, bucketId, digest)) {
+                    logger.debug("内容块已由其他节点登记，增加引用: {}/{}", bucketId, digest);
+                    return;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void createBlob(ExecutionContext ec, String bucketId, String digest,
+                                   MinioObjectUploader.UploadResult uploaded) throws Exception {
+        MinioMultipartUploads.runInNewTransaction(ec, "登记内容块失败", () -> {
+            EntityValue blob = findBlob(ec, bucketId, digest, true);
+            if (blob != null) {
+                addReference(blob, 1L);
+                return null;
+            }
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            ec.getEntity().makeValue("moqui.minio.DedupBlob")
+                    .set("bucketId", bucketId)
+                    .set("digest", digest)
+                    .set("blobSize", uploaded.getSize())
+                    .set("referenceCount", 1L)
+                    .set("createdDate", now)
+                    .set("lastUpdatedDate", now)
+                    .create();
+            MinioObjectLedger.recordUpload(ec, bucketId, blobKey(digest), uploaded.getSize(), uploaded.getEtag(),
+                    MinioChecksum.SHA256, uploaded.getChecksum());
+            return null;
+        });
+    }
+
+    /**
+     * 释放一个引用（在调用方事务中），计数归零的内容块由 {@link #removeUnreferenced} 删除
+     */
+    public static void release(ExecutionContext ec, String bucketId, String digest) {
+        EntityValue blob = findBlob(ec, bucketId, digest, true);
+        if (blob == null) {
+            logger.warn("释放引用时内容块不存在: {}/{}", bucketId, digest);
+            return;
+        }
+        addReference(blob, -1L);
+    }
+
+    /**
+     * 读取对象内容时使用的对象名称：去重引用返回内容块名称，否则返回原名称
+     */
+    public static String resolveReadKey(ExecutionContext ec, String bucketId, String objectName) throws Exception {
+        EntityValue entry = MinioObjectLedger.find(ec, bucketId, objectName);
+        if (entry != null) {
+            String digest = entry.getString("dedupDigest");
+            return digest != null ? blobKey(digest) : objectName;
+        }
+        // 台账中没有的对象：去重存储桶中检查占位对象的元数据
+        if (!isEnabled(ec, bucketId)) return objectName;
+        try {
+            StatObjectResponse stat = MinioClientPool.execute(ec.getFactory(), "statObject", bucketId, client -> client.statObject(
+                    StatObjectArgs.builder().bucket(bucketId).object(objectName).build()));
+            String digest = stat.userMetadata().get(METADATA_DIGEST);
+            return digest != null && stat.size() == 0L ? blobKey(digest) : objectName;
+        } catch (Exception e) {
+            if (MinioExceptionUtils.isNotFound(e)) return objectName;
+            throw e;
+        }
+    }
+
+    /**
+     * 去重占位对象的内容大小：按台账中的内容摘要批量查询内容块大小
+     *
+     * @return 对象名称到内容大小；不是去重引用或台账中没有的对象不包含在内
+     */
+    public static Map<String, Long> contentSizes(ExecutionContext ec, String bucketId, Collection<String> objectNames) {
+        Map<String, String> digests = new HashMap<>();
+        for (EntityValue entry : ec.getEntity().find("moqui.minio.BucketObject")
+                .condition("bucketId", bucketId)
+                .condition("objectName", "in", objectNames)
+                .selectField("objectName").selectField("dedupDigest").disableAuthz().list()) {
+            String digest = entry.getString("dedupDigest");
+            if (digest != null) digests.put(entry.getString("objectName"), digest);
+        }
+        if (digests.isEmpty()) return Collections.emptyMap();
+
+        Map<String, Long> blobSizes = new HashMap<>();
+        for (EntityValue blob : ec.getEntity().find("moqui.minio.DedupBlob")
+                .condition("bucketId", bucketId)
+                .condition("digest", "in", new HashSet<>(digests.values()))
+                .selectField("digest").selectField("blobSize").disableAuthz().list()) {
+            Long blobSize = blob.getLong("blobSize");
+            if (blobSize != null) blobSizes.put(blob.getString("digest"), blobSize);
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            Long blobSize = blobSizes.get(entry.getValue());
+            if (blobSize != null) sizes.put(entry.getKey(), blobSize);
+        }
+        return sizes;
+    }
+
+    /**
+     * 内容块的大小：优先使用内容块记录，没有记录时statObject
+     *
+     * @return 内容大小；内容块不存在时返回0
+     */
+    public static long contentSize(ExecutionContext ec, String bucketId, String digest) throws Exception {
+        EntityValue blob = findBlob(ec, bucketId, digest, false);
+        if (blob != null && blob.getLong("blobSize") != null) return blob.getLong("blobSize");
+        try {
+            return MinioClientPool.execute(ec.getFactory(), "statObject", bucketId, client -> client.statObject(
+                    StatObjectArgs.builder().bucket(bucketId).object(blobKey(digest)).build()).size());
+        } catch (Exception e) {
+            if (MinioExceptionUtils.isNotFound(e)) return 0L;
+            throw e;
+        }
+    }
+
+    /**
+     * 删除引用计数为零且超过宽限期未更新的内容块
+     *
+     * @return [已删除数, 失败数]
+     */
+    public static int[] removeUnreferenced(ExecutionContext ec, long graceMs) {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - graceMs);
+        int removed = 0;
+        int failed = 0;
+        for (EntityValue candidate : ec.getEntity().find("moqui.minio.DedupBlob")
+                .condition("referenceCount", "<=", 0L)
+                .condition("lastUpdatedDate", "<", before)
+                .disableAuthz().list()) {
+            String bucketId = candidate.getString("bucketId");
+            String digest = candidate.getString("digest");
+            try {
+                synchronized (lockFor(bucketId, digest)) {
+                    boolean deleted = MinioMultipartUploads.runInNewTransaction(ec, "删除内容块失败", () -> {
+                        // 加锁后重新检查，期间可能被再次引用
+                        EntityValue blob = findBlob(ec, bucketId, digest, true);
+                        if (blob == null || blob.getLong("referenceCount") > 0L) return false;
+                        MinioClientPool.execute(ec.getFactory(), "removeObject", bucketId, client -> {
+                            client.removeObject(RemoveObjectArgs.builder().bucket(bucketId).object(blobKey(digest)).build());
+                            return null;
+                        });
+                        MinioObjectLedger.recordDelete(ec, bucketId, blobKey(digest), blob.getLong("blobSize"));
+                        blob.delete();
+                        return true;
+                    });
+                    if (deleted) removed++;
+                }
+            } catch (Exception e) {
+                failed++;
+                logger.warn("删除内容块失败: " + bucketId + "/" + digest, MinioExceptionUtils.unwrap(e));
+            }
+        }
+        if (removed > 0 || failed > 0) logger.info("去重内容块清理完成: 删除{}个，失败{}个", removed, failed);
+        return new int[] { removed, failed };
+    }
+
+    private static EntityValue findBlob(ExecutionContext ec, String bucketId, String digest, boolean forUpdate) {
+        return ec.getEntity().find("moqui.minio.DedupBlob")
+                .condition("bucketId", bucketId)
+                .condition("digest", digest).forUpdate(forUpdate).disableAuthz().one();
+    }
+
+    private static void addReference(EntityValue blob, long delta) {
+        Long count = blob.getLong("referenceCount");
+        blob.set("referenceCount", Math.max(0L, (count != null ? count : 0L) + delta));
+        blob.set("lastUpdatedDate", new Timestamp(System.currentTimeMillis()));
+        blob.update();
+    }
+
+    private static void removeQuietly(ExecutionContext ec, String bucketId, String objectName) {
+        try {
+            MinioClientPool.execute(ec.getFactory(), "removeObject", bucketId, client -> {
+                client.removeObject(RemoveObjectArgs.builder().bucket(bucketId).object(objectName).build());
+                return null;
+            });
+        } catch (Exception e) {
+            logger.warn("删除暂存对象失败: " + bucketId + "/" + objectName, MinioExceptionUtils.unwrap(e));
+        }
+    }
+
+    private static Object lockFor(String bucketId, String digest) {
+        String key = bucketId + "/" + digest;
+        return digestLocks[(key.hashCode() & 0x7fffffff) % digestLocks.length];
+    }
+
+    static String toHex(String base64) {
+        byte[] bytes = Base64.getDecoder().decode(base64);
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -15,10 +15,13 @@ package org.moqui.impl.service.minio;
 
 import org.apache.commons.fileupload.FileItem;
 import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.entity.EntityValue;
 import org.moqui.resource.ResourceReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
 import io.minio.Result;
 import io.minio.messages.Item;
 import io.minio.StatObjectResponse;
@@ -34,10 +37,16 @@ import io.minio.CopyObjectArgs;
 import io.minio.CopySource;
 import io.minio.errors.MinioException;
 
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.*;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.time.ZonedDateTime;
 
 /**
@@ -49,15 +58,83 @@ import java.time.ZonedDateTime;
 public class MinioElFinderConnector {
     protected final static Logger logger = LoggerFactory.getLogger(MinioElFinderConnector.class);
 
+    /** BucketConfig 中单次上传请求大小上限的配置键，值格式同elFinder（如 32M、1G） */
+    public static final String UPL_MAX_SIZE_CONFIG_KEY = "elfinder.uplMaxSize";
+    static final String DEFAULT_UPL_MAX_SIZE = "32M";
+    /** elFinder分块大小为 uplMaxSize - 8190，S3 除最后一个分片外不小于5MiB，上限低于6M时分块无法合并 */
+    static final long MIN_UPL_MAX_SIZE = 6L * 1024 * 1024;
+    /** elFinder分块名称：文件名.序号_最后序号.part */
+    static final Pattern CHUNK_NAME_PATTERN = Pattern.compile("^(.+)\\.(\\d+)_(\\d+)\\.part$");
+
     ExecutionContext ec;
+    // 任务执行器线程上的MinIO调用只使用ecf，不访问当前线程的ExecutionContext
+    ExecutionContextFactory ecf;
     String bucketName;
-    MinioClient minioClient;
 
     public MinioElFinderConnector(ExecutionContext ec, String bucketName) {
         this.ec = ec;
+        this.ecf = ec.getFactory();
+        this.bucketName = bucketName;
+    }
+
+    /**
+     * 不依赖ExecutionContext创建（用于基准测试中的hash与列举结果转换等纯计算路径）
+     */
+    MinioElFinderConnector(ExecutionContextFactory ecf, String bucketName) {
+        this.ecf = ecf;
         this.bucketName = bucketName;
-        // 使用连接池获取MinIO客户端实例以提升性能
-        this.minioClient = MinioClientPool.getClient(ec.getFactory());
+    }
+
+    /**
+     * 通过连接池在负载均衡选定的端点上执行MinIO调用
+     */
+    private <T> T execute(String operation, MinioCallable<T> callable) throws Exception {
+        return MinioClientPool.execute(ecf, operation, bucketName, callable);
+    }
+
+    /**
+     * 列出指定前缀下的对象，在调用内读取完整结果
+     */
+    private List<Item> listItems(String prefix, boolean recursive) throws Exception {
+        // 压缩存储桶列举时带回用户元数据，按原始大小显示压缩存储的对象
+        boolean includeUserMetadata = MinioCompression.isEnabled(ec, bucketName);
+        return execute("listObjects", client -> {
+            List<Item> items = new ArrayList<>();
+            for (Result<Item> result : client.listObjects(ListObjectsArgs.builder()
+                    .bucket(bucketName)
+                    .prefix(prefix)
+                    .recursive(recursive)
+                    .includeUserMetadata(includeUserMetadata)
+                    .build())) {
+                Item item = result.get();
+                // 去重内容块不作为文件显示
+                if (item.objectName().startsWith(MinioDedupStore.INTERNAL_PREFIX)) continue;
+                items.add(item);
+            }
+            return items;
+        });
+    }
+
+    /**
+     * 将对象内容直接写入HTTP响应，压缩存储的对象解压后输出；已开始输出后不能重试，使用不重试的调用
+     *
+     * @param readKey 读取内容的对象名称
+     * @param objectName 文件名与内容类型依据的对象名称
+     */
+    void sendObject(String readKey, String objectName, boolean inline) throws Exception {
+        String fileName = objectName.substring(objectName.lastIndexOf('/') + 1);
+        String contentType = ec.getResource().getContentType(fileName);
+        long sent = MinioClientPool.executeWithoutRetry(ecf, "getObject", bucketName, client -> {
+            try (GetObjectResponse in = client.getObject(GetObjectArgs.builder().bucket(bucketName).object(readKey).build())) {
+                ec.getWeb().getResponse().setContentType(contentType != null ? contentType : "application/octet-stream");
+                ec.getWeb().getResponse().setHeader("Content-Disposition", (inline ? "inline" : "attachment")
+                        + "; filename*=UTF-8''" + URLEncoder.encode(fileName, "UTF-8").replace("+", "%20"));
+                try (InputStream decoded = MinioCompression.decodingStream(in)) {
+                    return decoded.transferTo(ec.getWeb().getResponse().getOutputStream());
+                }
+            }
+        });
+        MinioMetrics.recordBytesIn("getObject", bucketName, sent);
     }
 
     public String hash(String str) {
@@ -166,7 +243,9 @@ public class MinioElFinderConnector {
                 return info;
             } else {
                 // 处理文件 - 尝试获取对象信息
-                StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder().bucket(bucketName).object(objectName).build());
+                String statName = objectName;
+                StatObjectResponse stat = execute("statObject", client ->
+                        client.statObject(StatObjectArgs.builder().bucket(bucketName).object(statName).build()));
 
                 Map<String, Object> info = new HashMap<>();
                 String name = objectName.contains("/") ? objectName.substring(objectName.lastIndexOf("/") + 1) : objectName;
@@ -178,7 +257,10 @@ public class MinioElFinderConnector {
 
                 info.put("mime", "application/octet-stream");
                 info.put("ts", stat.lastModified().toInstant().toEpochMilli());
-                info.put("size", stat.size());
+                // 去重占位对象显示内容块的大小，压缩存储的对象显示原始大小
+                String digest = stat.size() == 0L ? stat.userMetadata().get(MinioDedupStore.METADATA_DIGEST) : null;
+                info.put("size", digest != null ? MinioDedupStore.contentSize(ec, bucketName, digest)
+                        : MinioCompression.displaySize(stat.userMetadata(), stat.size()));
                 info.put("dirs", 0);
                 info.put("read", 1);
                 info.put("write", 1);
@@ -194,19 +276,21 @@ public class MinioElFinderConnector {
 
     public boolean hasChildDirectories(String objectName) {
         try {
-            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
-                .bucket(bucketName)
-                .prefix(objectName.endsWith("/") ? objectName : objectName + "/")
-                .recursive(false)
-                .build());
-            
-            for (Result<Item> result : results) {
-                Item item = result.get();
-                if (item.objectName().endsWith("/")) {
-                    return true;
+            return execute("listObjects", client -> {
+                Iterable<Result<Item>> results = client.listObjects(ListObjectsArgs.builder()
+                    .bucket(bucketName)
+                    .prefix(objectName.endsWith("/") ? objectName : objectName + "/")
+                    .recursive(false)
+                    .build());
+
+                for (Result<Item> result : results) {
+                    Item item = result.get();
+                    if (item.objectName().endsWith("/") && !item.objectName().startsWith(MinioDedupStore.INTERNAL_PREFIX)) {
+                        return true;
+                    }
                 }
-            }
-            return false;
+                return false;
+            });
         } catch (Exception e) {
             logger.error("Error checking child directories for " + objectName, e);
             return false;
@@ -221,19 +305,50 @@ public class MinioElFinderConnector {
         String objectName = location.substring(("minio://" + bucketName + "/").length());
         logger.info("location: " + location + ", objectName: " + objectName);
         
+        String listPrefix;
         if (objectName.equals("") || objectName.equals("root")) {
             // 获取根目录下的所有对象
             files.add(getLocationInfo("minio://" + bucketName + "/"));
-            
-            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
-                .bucket(bucketName)
-                .prefix("")
-                .recursive(false)
-                .build());
-            
-            for (Result<Item> result : results) {
-                try {
-                    Item item = result.get();
+            listPrefix = "";
+        } else {
+            // 获取指定目录下的所有对象
+            files.add(getLocationInfo(location));
+            listPrefix = objectName.endsWith("/") ? objectName : objectName + "/";
+        }
+        
+        List<Item> items;
+        try {
+            items = listItems(listPrefix, false);
+        } catch (Exception e) {
+            logger.error("Error listing " + (listPrefix.isEmpty() ? "root" : objectName) + " in bucket " + bucketName, e);
+            return files;
+        }
+        
+        // 子目录是否还有下级目录需要逐个列举，收集后并发检查
+        List<Map<String, Object>> pendingDirInfos = new ArrayList<>();
+        List<String> pendingDirPrefixes = new ArrayList<>();
+        addItemInfos(objectName, items, files, pendingDirInfos, pendingDirPrefixes);
+        fillChildDirectoryFlags(pendingDirInfos, pendingDirPrefixes);
+        return files;
+    }
+
+    /**
+     * 将列举结果转换为elFinder文件信息，目录的dirs属性留待调用方填充
+     *
+     * @param objectName 当前目录（根目录为空或root）
+     * @param items 当前目录下的列举结果
+     * @param files 输出的文件信息
+     * @param pendingDirInfos 输出：待检查子目录的目录信息
+     * @param pendingDirPrefixes 输出：与pendingDirInfos对应的目录前缀
+     */
+    void addItemInfos(String objectName, List<Item> items, List<Map<String, Object>> files,
+                      List<Map<String, Object>> pendingDirInfos, List<String> pendingDirPrefixes) {
+        boolean root = objectName.equals("") || objectName.equals("root");
+        // 长度为0的文件可能是去重占位对象，列举后按台账批量替换为内容大小
+        Map<String, Map<String, Object>> emptyFileInfos = new HashMap<>();
+        for (Item item : items) {
+            try {
+                if (root) {
                     String itemName = item.objectName();
                     logger.info("Processing item: " + itemName + " (isDir: " + item.isDir() + ")");
                     if (!itemName.contains("/")) {
@@ -254,7 +369,8 @@ public class MinioElFinderConnector {
                             logger.warn("Could not get lastModified for file " + itemName + ": " + tsException.getMessage());
                             info.put("ts", System.currentTimeMillis());
                         }
-                        info.put("size", item.size());
+                        info.put("size", MinioCompression.displaySize(item.userMetadata(), item.size()));
+                        if (item.size() == 0L) emptyFileInfos.put(itemName, info);
                         info.put("dirs", 0);
                         info.put("read", 1);
                         info.put("write", 1);
@@ -281,32 +397,17 @@ public class MinioElFinderConnector {
                             info.put("ts", System.currentTimeMillis());
                         }
                         info.put("size", item.size());
-                        info.put("dirs", hasChildDirectories(dirName + "/") ? 1 : 0);
+                        pendingDirInfos.add(info);
+                        pendingDirPrefixes.add(dirName + "/");
                         info.put("read", 1);
                         info.put("write", 1);
                         info.put("locked", 0);
                         files.add(info);
                     }
-                } catch (Exception e) {
-                    logger.error("Error processing item", e);
-                }
-            }
-        } else {
-            // 获取指定目录下的所有对象
-            files.add(getLocationInfo(location));
-            
-            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
-                .bucket(bucketName)
-                .prefix(objectName.endsWith("/") ? objectName : objectName + "/")
-                .recursive(false)
-                .build());
-            
-            for (Result<Item> result : results) {
-                try {
-                    Item item = result.get();
+                } else {
                     String itemName = item.objectName();
                     String relativeName = itemName.substring(objectName.length() + (objectName.endsWith("/") ? 0 : 1));
-                    
+                
                     if (!relativeName.contains("/")) {
                         // 当前目录下的文件
                         Map<String, Object> info = new HashMap<>();
@@ -325,7 +426,8 @@ public class MinioElFinderConnector {
                             logger.warn("Could not get lastModified for item: " + tsException.getMessage());
                             info.put("ts", System.currentTimeMillis());
                         }
-                        info.put("size", item.size());
+                        info.put("size", MinioCompression.displaySize(item.userMetadata(), item.size()));
+                        if (item.size() == 0L) emptyFileInfos.put(itemName, info);
                         info.put("dirs", 0);
                         info.put("read", 1);
                         info.put("write", 1);
@@ -351,19 +453,42 @@ public class MinioElFinderConnector {
                             info.put("ts", System.currentTimeMillis());
                         }
                         info.put("size", item.size());
-                        info.put("dirs", hasChildDirectories(itemName) ? 1 : 0);
+                        pendingDirInfos.add(info);
+                        pendingDirPrefixes.add(itemName);
                         info.put("read", 1);
                         info.put("write", 1);
                         info.put("locked", 0);
                         files.add(info);
                     }
-                } catch (Exception e) {
-                    logger.error("Error processing item", e);
                 }
+            } catch (Exception e) {
+                logger.error("Error processing item", e);
             }
         }
-        
-        return files;
+        if (!emptyFileInfos.isEmpty() && MinioDedupStore.isEnabled(ec, bucketName)) {
+            for (Map.Entry<String, Long> entry : MinioDedupStore.contentSizes(ec, bucketName, emptyFileInfos.keySet()).entrySet()) {
+                emptyFileInfos.get(entry.getKey()).put("size", entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 通过任务执行器并发检查各目录是否包含子目录，并写入dirs属性
+     */
+    private void fillChildDirectoryFlags(List<Map<String, Object>> dirInfos, List<String> dirPrefixes) {
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (String dirPrefix : dirPrefixes) tasks.add(() -> hasChildDirectories(dirPrefix));
+        List<CompletableFuture<Boolean>> futures = MinioTaskExecutor.submitAll(tasks);
+        for (int i = 0; i < dirInfos.size(); i++) {
+            boolean hasChildren;
+            try {
+                hasChildren = futures.get(i).join();
+            } catch (Exception e) {
+                logger.error("Error checking child directories for " + dirPrefixes.get(i), e);
+                hasChildren = false;
+            }
+            dirInfos.get(i).put("dirs", hasChildren ? 1 : 0);
+        }
     }
 
     public List<Map<String, Object>> getTree(String location, int deep) { 
@@ -389,12 +514,182 @@ public class MinioElFinderConnector {
         return options;
     }
 
+    /**
+     * 单次上传请求大小上限，取存储桶 BucketConfig 的 elfinder.uplMaxSize，未配置或无效时使用默认值
+     */
+    public String getUploadMaxSize() {
+        String configured = null;
+        try {
+            MinioBucketCache.BucketMetadata metadata = MinioBucketCache.get(ec, bucketName);
+            if (metadata != null) configured = metadata.getConfig().get(UPL_MAX_SIZE_CONFIG_KEY);
+        } catch (Exception e) {
+            logger.warn("读取存储桶上传大小配置失败: " + bucketName, MinioExceptionUtils.unwrap(e));
+        }
+        if (configured == null || configured.trim().isEmpty()) return DEFAULT_UPL_MAX_SIZE;
+
+        String uplMaxSize = configured.trim();
+        long bytes = parseSize(uplMaxSize);
+        if (bytes < 0) {
+            logger.warn("存储桶 {} 的 {} 配置无效: {}，使用默认值 {}", bucketName, UPL_MAX_SIZE_CONFIG_KEY, uplMaxSize, DEFAULT_UPL_MAX_SIZE);
+            return DEFAULT_UPL_MAX_SIZE;
+        }
+        if (bytes < MIN_UPL_MAX_SIZE) {
+            logger.warn("存储桶 {} 的 {} 配置 {} 小于分块上传下限，使用 6M", bucketName, UPL_MAX_SIZE_CONFIG_KEY, uplMaxSize);
+            return "6M";
+        }
+        return uplMaxSize;
+    }
+
+    /**
+     * 解析elFinder格式的大小（数字加可选的K/M/G/T后缀）
+     *
+     * @return 字节数；格式无效时返回-1
+     */
+    static long parseSize(String size) {
+        Matcher matcher = Pattern.compile("^(\\d+)\\s*([KMGT]?)B?$", Pattern.CASE_INSENSITIVE).matcher(size.trim());
+        if (!matcher.matches()) return -1L;
+        try {
+            long value = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2).toUpperCase()) {
+                case "K": return value * 1024L;
+                case "M": return value * 1024L * 1024L;
+                case "G": return value * 1024L * 1024L * 1024L;
+                case "T": return value * 1024L * 1024L * 1024L * 1024L;
+                default: return value;
+            }
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private Map<String, Object> uploadedFileInfo(String name, String newObjectName, String dirObjectName, long size) {
+        Map<String, Object> newInfo = new HashMap<>();
+        newInfo.put("name", name);
+        newInfo.put("hash", hash(newObjectName));
+        newInfo.put("phash", hash(dirObjectName));
+        newInfo.put("mime", "application/octet-stream");
+        newInfo.put("size", size);
+        newInfo.put("dirs", 0);
+        newInfo.put("read", 1);
+        newInfo.put("write", 1);
+        newInfo.put("locked", 0);
+        return newInfo;
+    }
+
+    /**
+     * elFinder分块上传
+     *
+     * 每个分块（chunk=文件名.序号_最后序号.part，range=起始,长度,文件大小）作为一个S3分片直接上传到MinIO，
+     * 会话按 cid 与文件大小关联到 moqui.minio.MultipartUpload；所有分块都已上传时返回 _chunkmerged，
+     * 客户端随后发送合并请求（chunk=_chunkmerged 的值，upload[]=文件名），由MinIO完成分片合并，
+     * 当前分块从上传的临时文件流式写入分片请求体，不在磁盘或堆中拼接整个文件
+     */
+    @SuppressWarnings("unchecked")
+    void uploadChunk(String dirObjectName, String chunk, Map<String, Object> otherParameters, Map<String, Object> responseMap) {
+        String dirPrefix = dirObjectName + (dirObjectName.endsWith("/") ? "" : "/");
+        List<FileItem> fileUploadList = (List<FileItem>) otherParameters.get("_fileUploadList");
+        FileItem item = fileUploadList != null && !fileUploadList.isEmpty() ? fileUploadList.get(0) : null;
+        Matcher matcher = CHUNK_NAME_PATTERN.matcher(chunk);
+        String userId = ec.getUser().getUserId();
+
+        if (matcher.matches()) {
+            String fileName = matcher.group(1);
+            String newObjectName = dirPrefix + fileName;
+            String cid = otherParameters.get("cid") != null ? otherParameters.get("cid").toString() : "";
+            String[] range = otherParameters.get("range") != null ? otherParameters.get("range").toString().split(",") : new String[0];
+            String clientUploadKey = "elfinder:" + cid + ":" + (range.length == 3 ? range[2].trim() : "");
+            try {
+                if (item == null) {
+                    // 客户端分块上传失败时发送不带文件的请求（upload[]=chunkfail），取消对应会话
+                    EntityValue session = MinioMultipartUploads.findByClientKey(ec, bucketName, newObjectName, userId, clientUploadKey);
+                    if (session != null) MinioMultipartUploads.abort(ec, session);
+                    responseMap.put("added", new ArrayList<>());
+                    return;
+                }
+
+                int partNumber = Integer.parseInt(matcher.group(2)) + 1;
+                int partCount = Integer.parseInt(matcher.group(3)) + 1;
+                if (partNumber > partCount || partCount > MinioMultipartUploads.MAX_PART_NUMBER) {
+                    throw new IllegalArgumentException("分块序号无效: " + chunk);
+                }
+                long maxPartSize = MinioConfig.getInstance(ecf).getMultipartMaxPartSize();
+                if (item.getSize() > maxPartSize) {
+                    throw new IllegalArgumentException("分块大小 " + item.getSize() + " 超过上限 " + maxPartSize);
+                }
+
+                EntityValue session = MinioMultipartUploads.findOrInitiate(ec, bucketName, newObjectName,
+                        item.getContentType(), userId, clientUploadKey);
+                // 分块内容从上传的临时文件直接写入分片请求体
+                MinioMultipartUploads.runInNewTransaction(ec, "上传分块失败",
+                        () -> MinioMultipartUploads.uploadPart(ec, session, partNumber, item::getInputStream, item.getSize()));
+
+                String uploadSessionId = session.getString("uploadSessionId");
+                responseMap.put("added", new ArrayList<>());
+                if (MinioMultipartUploads.countParts(ec, uploadSessionId) >= partCount) {
+                    responseMap.put("_chunkmerged", uploadSessionId);
+                    responseMap.put("_name", fileName);
+                }
+            } catch (Exception e) {
+                Throwable cause = MinioExceptionUtils.unwrap(e);
+                logger.error("Error uploading chunk " + chunk + " to " + newObjectName, cause);
+                responseMap.clear();
+                responseMap.put("error", Arrays.asList("errUploadFile", fileName, MinioExceptionUtils.getUserFriendlyMessage(cause)));
+            }
+            return;
+        }
+
+        // 合并请求：chunk 为分块阶段返回的会话ID
+        Object uploadName = otherParameters.get("upload[]");
+        if (uploadName == null) uploadName = otherParameters.get("upload");
+        if (uploadName instanceof List) uploadName = ((List<Object>) uploadName).isEmpty() ? null : ((List<Object>) uploadName).get(0);
+        String fileName = uploadName != null ? uploadName.toString() : "";
+        String newObjectName = dirPrefix + fileName;
+        try {
+            EntityValue session = MinioMultipartUploads.findSession(ec, chunk);
+            if (session == null || !bucketName.equals(session.getString("bucketId"))
+                    || !newObjectName.equals(session.getString("objectName"))
+                    || (session.getString("userId") != null && !session.getString("userId").equals(userId))) {
+                responseMap.clear();
+                responseMap.put("error", Arrays.asList("errUploadFile", fileName, "errUploadNoFiles"));
+                return;
+            }
+
+            long size;
+            String status = session.getString("status");
+            if (MinioMultipartUploads.STATUS_COMPLETED.equals(status)) {
+                // 重复的合并请求
+                size = session.getLong("totalSize");
+            } else if (MinioMultipartUploads.STATUS_IN_PROGRESS.equals(status)) {
+                long priorSize = MinioObjectLedger.resolvePriorSize(ec, bucketName, newObjectName);
+                size = MinioMultipartUploads.complete(ec, session);
+                MinioObjectLedger.recordUpload(ec, bucketName, newObjectName, size, session.getString("etag"),
+                        null, null, null, priorSize);
+            } else {
+                responseMap.clear();
+                responseMap.put("error", Arrays.asList("errUploadFile", fileName, "errUploadNoFiles"));
+                return;
+            }
+
+            List<Map<String, Object>> added = new ArrayList<>();
+            added.add(uploadedFileInfo(fileName, newObjectName, dirObjectName, size));
+            responseMap.put("added", added);
+        } catch (Exception e) {
+            Throwable cause = MinioExceptionUtils.unwrap(e);
+            logger.error("Error merging chunked upload " + newObjectName, cause);
+            responseMap.clear();
+            responseMap.put("error", Arrays.asList("errUploadFile", fileName, MinioExceptionUtils.getUserFriendlyMessage(cause)));
+        }
+    }
+
     public List<String> delete(String location) {
         List<String> deleted = new ArrayList<>();
         String objectName = location.substring(("minio://" + bucketName + "/").length());
         
         try {
-            minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucketName).object(objectName).build());
+            execute("removeObject", client -> {
+                client.removeObject(RemoveObjectArgs.builder().bucket(bucketName).object(objectName).build());
+                return null;
+            });
             deleted.add(hash(objectName));
         } catch (Exception e) {
             logger.error("Error deleting object " + objectName, e);
@@ -413,8 +708,23 @@ public class MinioElFinderConnector {
         ec.getContext().put("responseMap", responseMap);
 
         if ("file".equals(cmd)) {
-            ec.getContext().put("fileLocation", getLocation(target));
-            ec.getContext().put("fileInline", !"1".equals(otherParameters.get("download")));
+            String location = getLocation(target);
+            String objectName = location.substring(("minio://" + bucketName + "/").length());
+            boolean inline = !"1".equals(otherParameters.get("download"));
+            try {
+                String readKey = MinioDedupStore.resolveReadKey(ec, bucketName, objectName);
+                if (readKey.equals(objectName) && !MinioCompression.isEnabled(ec, bucketName)) {
+                    ec.getContext().put("fileLocation", location);
+                    ec.getContext().put("fileInline", inline);
+                } else {
+                    // 去重占位对象从内容块读取，压缩存储的对象边读取边解压，文件名与类型仍按对象名称
+                    sendObject(readKey, objectName, inline);
+                    ec.getContext().put("fileSent", true);
+                }
+            } catch (Exception e) {
+                logger.error("Error sending object " + objectName, e);
+                responseMap.put("error", "File not found");
+            }
         } else if ("open".equals(cmd)) {
             boolean init = "1".equals(otherParameters.get("init"));
             boolean tree = "1".equals(otherParameters.get("tree"));
@@ -430,7 +740,7 @@ public class MinioElFinderConnector {
                 return;
             }
 
-            responseMap.put("uplMaxSize", "32M");
+            responseMap.put("uplMaxSize", getUploadMaxSize());
 
             responseMap.put("cwd", getLocationInfo(getLocation(target)));
             responseMap.put("files", getFiles(target, tree));
@@ -459,21 +769,14 @@ public class MinioElFinderConnector {
             String location = getLocation(target);
             String objectName = location.substring(("minio://" + bucketName + "/").length());
             
-            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
-                .bucket(bucketName)
-                .prefix(objectName.endsWith("/") ? objectName : objectName + "/")
-                .recursive(false)
-                .build());
-            
-            for (Result<Item> result : results) {
-                try {
-                    Item item = result.get();
+            try {
+                for (Item item : listItems(objectName.endsWith("/") ? objectName : objectName + "/", false)) {
                     String itemName = item.objectName();
                     String relativeName = itemName.substring(objectName.length() + (objectName.endsWith("/") ? 0 : 1));
                     fileList.add(relativeName);
-                } catch (Exception e) {
-                    logger.error("Error processing item", e);
                 }
+            } catch (Exception e) {
+                logger.error("Error listing " + objectName, e);
             }
             responseMap.put("list", fileList);
         } else if ("mkdir".equals(cmd)) {
@@ -495,11 +798,11 @@ public class MinioElFinderConnector {
             
             try {
                 // 创建一个空对象来表示目录
-                minioClient.putObject(PutObjectArgs.builder()
+                execute("putObject", client -> client.putObject(PutObjectArgs.builder()
                     .bucket(bucketName)
                     .object(newObjectName)
                     .stream(new ByteArrayInputStream(new byte[0]), 0, -1)
-                    .build());
+                    .build()));
                 
                 Map<String, Object> newInfo = new HashMap<>();
                 newInfo.put("name", name);
@@ -537,11 +840,10 @@ public class MinioElFinderConnector {
             
             try {
                 // 创建一个空文件
-                minioClient.putObject(PutObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(newObjectName)
-                    .stream(new ByteArrayInputStream(new byte[0]), 0, -1)
-                    .build());
+                long priorSize = MinioObjectLedger.resolvePriorSize(ec, bucketName, newObjectName);
+                MinioObjectUploader.UploadResult uploaded = MinioObjectUploader.putBytes(ecf, bucketName, newObjectName, new byte[0], null);
+                MinioObjectLedger.recordUpload(ec, bucketName, newObjectName, 0L, uploaded.getEtag(),
+                        uploaded.getChecksumAlgorithm(), uploaded.getChecksum(), null, priorSize);
                 
                 Map<String, Object> newInfo = new HashMap<>();
                 newInfo.put("name", name);
@@ -564,11 +866,30 @@ public class MinioElFinderConnector {
             Object targetsObj = otherParameters.get("targets");
             if (targetsObj == null) targetsObj = otherParameters.get("targets[]");
             List<String> targets = targetsObj instanceof List ? (List<String>) targetsObj : Arrays.asList((String) targetsObj);
-            List<String> removed = new ArrayList<>();
+            // 各目标的删除相互独立，并发执行；删除前按对象台账确定大小，删除后在当前线程更新台账
+            List<Callable<List<String>>> deleteTasks = new ArrayList<>();
+            List<String> rmObjectNames = new ArrayList<>();
+            List<Long> rmSizes = new ArrayList<>();
             for (String curTarget : targets) {
                 String rmLocation = getLocation(curTarget);
                 logger.info("Minio elFinder rm " + rmLocation);
-                removed.addAll(delete(rmLocation));
+                String rmObjectName = rmLocation.substring(("minio://" + bucketName + "/").length());
+                rmObjectNames.add(rmObjectName);
+                rmSizes.add(MinioObjectLedger.peekSize(ec, bucketName, rmObjectName));
+                deleteTasks.add(() -> delete(rmLocation));
+            }
+            List<String> removed = new ArrayList<>();
+            List<CompletableFuture<List<String>>> deletes = MinioTaskExecutor.submitAll(deleteTasks);
+            for (int i = 0; i < deletes.size(); i++) {
+                try {
+                    List<String> deletedHashes = deletes.get(i).join();
+                    if (!deletedHashes.isEmpty()) {
+                        MinioObjectLedger.recordDelete(ec, bucketName, rmObjectNames.get(i), rmSizes.get(i));
+                    }
+                    removed.addAll(deletedHashes);
+                } catch (Exception e) {
+                    logger.error("Error deleting elFinder target", e);
+                }
             }
             responseMap.put("removed", removed);
         } else if ("rename".equals(cmd)) {
@@ -590,13 +911,17 @@ public class MinioElFinderConnector {
 
             try {
                 // MinIO不支持直接重命名，需要复制对象然后删除原对象
-                minioClient.copyObject(CopyObjectArgs.builder()
+                ObjectWriteResponse copied = execute("copyObject", client -> client.copyObject(CopyObjectArgs.builder()
                     .bucket(bucketName)
                     .object(newObjectName)
                     .source(CopySource.builder().bucket(bucketName).object(objectName).build())
-                    .build());
+                    .build()));
                 
-                minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucketName).object(objectName).build());
+                execute("removeObject", client -> {
+                    client.removeObject(RemoveObjectArgs.builder().bucket(bucketName).object(objectName).build());
+                    return null;
+                });
+                MinioObjectLedger.recordRename(ec, bucketName, objectName, newObjectName, copied.etag());
 
                 Map<String, Object> newInfo = getLocationInfo("minio://" + bucketName + "/" + newObjectName);
                 List<Map<String, Object>> added = new ArrayList<>();
@@ -618,49 +943,121 @@ public class MinioElFinderConnector {
             }
             String location = getLocation(target);
             String objectName = location.substring(("minio://" + bucketName + "/").length());
+
+            String chunk = otherParameters.get("chunk") != null ? otherParameters.get("chunk").toString() : null;
+            if (chunk != null && !chunk.isEmpty()) {
+                uploadChunk(objectName, chunk, otherParameters, responseMap);
+                return;
+            }
             
             List<Map<String, Object>> added = new ArrayList<>();
+            List<List<String>> warnings = new ArrayList<>();
             List<FileItem> fileUploadList = (List<FileItem>) otherParameters.get("_fileUploadList");
-            if (fileUploadList != null) {
+            if (fileUploadList != null && MinioDedupStore.isEnabled(ec, bucketName)) {
+                // 去重存储桶：摘要计算、内容块引用与台账需要数据库操作，在请求线程上逐个上传（FileItem可重复读取）
                 for (FileItem item : fileUploadList) {
                     logger.info("Minio elFinder upload " + item.getName() + " to " + location);
                     String newObjectName = objectName + (objectName.endsWith("/") ? "" : "/") + item.getName();
-                    
                     try {
-                        minioClient.putObject(PutObjectArgs.builder()
-                            .bucket(bucketName)
-                            .object(newObjectName)
-                            .stream(item.getInputStream(), item.getSize(), -1)
-                            .build());
-                        
-                        Map<String, Object> newInfo = new HashMap<>();
-                        newInfo.put("name", item.getName());
-                        newInfo.put("hash", hash(newObjectName));
-                        newInfo.put("phash", hash(objectName));
-                        newInfo.put("mime", "application/octet-stream");
-                        newInfo.put("size", item.getSize());
-                        newInfo.put("dirs", 0);
-                        newInfo.put("read", 1);
-                        newInfo.put("write", 1);
-                        newInfo.put("locked", 0);
-                        added.add(newInfo);
+                        MinioDedupStore.DedupResult uploaded = MinioDedupStore.upload(ec, bucketName, newObjectName,
+                                item::getInputStream, item.getSize(), item.getContentType());
+                        added.add(uploadedFileInfo(item.getName(), newObjectName, objectName, uploaded.getSize()));
                     } catch (Exception e) {
-                        logger.error("Error uploading file " + item.getName(), e);
+                        Throwable cause = MinioExceptionUtils.unwrap(e);
+                        logger.error("Error uploading file " + item.getName(), cause);
+                        warnings.add(Arrays.asList("errUploadFile", item.getName(), MinioExceptionUtils.getUserFriendlyMessage(cause)));
+                    }
+                }
+            } else if (fileUploadList != null) {
+                // 各文件的上传相互独立，按每请求并发上限并发执行，单个文件失败不影响其他文件
+                // 上传时边发送边计算校验和，重试时从FileItem重新读取并重新计算
+                // 压缩存储桶中可压缩的文件边读取边压缩，压缩上传不重试
+                String checksumAlgorithm = MinioConfig.getInstance(ecf).getUploadChecksumAlgorithm();
+                List<Callable<MinioObjectUploader.UploadResult>> uploadTasks = new ArrayList<>();
+                long[] priorSizes = new long[fileUploadList.size()];
+                for (int i = 0; i < fileUploadList.size(); i++) {
+                    FileItem item = fileUploadList.get(i);
+                    logger.info("Minio elFinder upload " + item.getName() + " to " + location);
+                    String newObjectName = objectName + (objectName.endsWith("/") ? "" : "/") + item.getName();
+                    try {
+                        priorSizes[i] = MinioObjectLedger.resolvePriorSize(ec, bucketName, newObjectName);
+                    } catch (Exception e) {
+                        // 未能确定时按新增对象计入，使用量由定期扫描校正
+                        logger.warn("Error resolving size of existing object " + newObjectName, MinioExceptionUtils.unwrap(e));
+                        priorSizes[i] = -1L;
+                    }
+                    String codec = MinioCompression.resolveCodec(ec, bucketName, newObjectName, item.getContentType(), item.getSize());
+                    uploadTasks.add(() -> {
+                        if (codec != null) {
+                            try (InputStream in = item.getInputStream()) {
+                                return MinioCompression.putStream(ecf, bucketName, newObjectName, in, item.getSize(),
+                                        item.getContentType(), codec);
+                            }
+                        }
+                        MinioChecksum[] checksum = new MinioChecksum[1];
+                        ObjectWriteResponse response = execute("putObject", client -> {
+                            checksum[0] = MinioChecksum.create(checksumAlgorithm);
+                            InputStream in = checksum[0] != null
+                                    ? new MinioChecksum.ChecksumInputStream(item.getInputStream(), checksum[0]) : item.getInputStream();
+                            try {
+                                return client.putObject(PutObjectArgs.builder()
+                                    .bucket(bucketName)
+                                    .object(newObjectName)
+                                    .stream(in, item.getSize(), -1)
+                                    .build());
+                            } finally {
+                                in.close();
+                            }
+                        });
+                        MinioMetrics.recordBytesOut("putObject", bucketName, item.getSize());
+                        return new MinioObjectUploader.UploadResult(newObjectName, item.getSize(), response.etag(), response.versionId(),
+                                checksum[0] != null ? checksumAlgorithm : null, checksum[0] != null ? checksum[0].getValue() : null);
+                    });
+                }
+                List<CompletableFuture<MinioObjectUploader.UploadResult>> uploads = MinioTaskExecutor.submitAll(uploadTasks,
+                        MinioConfig.getInstance(ecf).getElfinderUploadParallelism());
+
+                for (int i = 0; i < fileUploadList.size(); i++) {
+                    FileItem item = fileUploadList.get(i);
+                    String newObjectName = objectName + (objectName.endsWith("/") ? "" : "/") + item.getName();
+                    try {
+                        MinioObjectUploader.UploadResult uploaded = uploads.get(i).join();
+                        MinioObjectLedger.recordUpload(ec, bucketName, newObjectName, uploaded.getSize(), uploaded.getEtag(),
+                                uploaded.getChecksumAlgorithm(), uploaded.getChecksum(), null, priorSizes[i]);
+                        added.add(uploadedFileInfo(item.getName(), newObjectName, objectName, item.getSize()));
+                    } catch (Exception e) {
+                        Throwable cause = MinioExceptionUtils.unwrap(e);
+                        logger.error("Error uploading file " + item.getName(), cause);
+                        warnings.add(Arrays.asList("errUploadFile", item.getName(), MinioExceptionUtils.getUserFriendlyMessage(cause)));
                     }
                 }
             }
+            // 部分文件失败时以warning返回，全部失败时返回error
+            if (!warnings.isEmpty()) {
+                if (added.isEmpty()) {
+                    responseMap.clear();
+                    responseMap.put("error", warnings.size() == 1 ? warnings.get(0) : warnings);
+                    return;
+                }
+                responseMap.put("warning", warnings);
+            }
             responseMap.put("added", added);
         } else if ("get".equals(cmd)) {
             String location = getLocation(target);
             String objectName = location.substring(("minio://" + bucketName + "/").length());
             
             try {
+                String readKey = MinioDedupStore.resolveReadKey(ec, bucketName, objectName);
                 // getObject方法返回的是GetObjectResponse，而不是ByteArrayInputStream
-                io.minio.GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(objectName).build());
-                // 读取流的内容到字符串
-                Scanner scanner = new Scanner(response).useDelimiter("\\A");
-                String content = scanner.hasNext() ? scanner.next() : "";
-                scanner.close();
+                String content = execute("getObject", client -> {
+                    io.minio.GetObjectResponse response = client.getObject(GetObjectArgs.builder().bucket(bucketName).object(readKey).build());
+                    // 读取流的内容到字符串，压缩存储的对象边读取边解压
+                    Scanner scanner = new Scanner(MinioCompression.decodingStream(response), "UTF-8").useDelimiter("\\A");
+                    String text = scanner.hasNext() ? scanner.next() : "";
+                    scanner.close();
+                    return text;
+                });
+                MinioMetrics.recordBytesIn("getObject", bucketName, content.getBytes(StandardCharsets.UTF_8).length);
                 responseMap.put("content", content);
             } catch (Exception e) {
                 logger.error("Error getting object " + objectName, e);
@@ -673,11 +1070,20 @@ public class MinioElFinderConnector {
             String objectName = location.substring(("minio://" + bucketName + "/").length());
             
             try {
-                minioClient.putObject(PutObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(objectName)
-                    .stream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), content.length(), -1)
-                    .build());
+                // 内容已在内存中，校验和随请求发送由MinIO校验；压缩存储桶中按扩展名判断是否压缩
+                byte[] data = content.getBytes(StandardCharsets.UTF_8);
+                if (MinioDedupStore.isEnabled(ec, bucketName)) {
+                    // 去重存储桶：内容相同的文件共用内容块，占位对象与台账由去重存储写入
+                    MinioDedupStore.upload(ec, bucketName, objectName, () -> new ByteArrayInputStream(data), data.length, null);
+                } else {
+                    long priorSize = MinioObjectLedger.resolvePriorSize(ec, bucketName, objectName);
+                    String codec = MinioCompression.resolveCodec(ec, bucketName, objectName, null, data.length);
+                    MinioObjectUploader.UploadResult uploaded = codec != null
+                            ? MinioCompression.putStream(ecf, bucketName, objectName, new ByteArrayInputStream(data), data.length, null, codec)
+                            : MinioObjectUploader.putBytes(ecf, bucketName, objectName, data, null);
+                    MinioObjectLedger.recordUpload(ec, bucketName, objectName, uploaded.getSize(), uploaded.getEtag(),
+                            uploaded.getChecksumAlgorithm(), uploaded.getChecksum(), null, priorSize);
+                }
                 
                 Map<String, Object> newInfo = getLocationInfo(location);
                 List<Map<String, Object>> changed = new ArrayList<>();
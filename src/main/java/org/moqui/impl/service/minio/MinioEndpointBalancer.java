@@ -0,0 +1,351 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.MinioClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MinIO多端点负载均衡器
+ *
+ * 按最少未完成请求数（least outstanding requests）在各端点间分配调用，
+ * 每个端点由独立的 {@link MinioCircuitBreaker} 保护：连续失败达到阈值后熔断并快速失败，
+ * 熔断时长过后放行试探调用，多端点时后台健康探测也会在端点恢复后提前闭合熔断器；
+ * 可重试的错误按 {@link MinioRetryPolicy} 退避后重新选择端点重试
+ */
+public class MinioEndpointBalancer {
+    private static final Logger logger = LoggerFactory.getLogger(MinioEndpointBalancer.class);
+
+    private final MinioConfig config;
+    private final List<EndpointState> endpointStates;
+    private final MinioRetryPolicy retryPolicy;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * 单个端点的状态与统计
+     */
+    static final class EndpointState {
+        final int index;
+        final String endpoint;
+        final MinioConfig endpointConfig;
+        final MinioCircuitBreaker circuitBreaker;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAdder requestCount = new LongAdder();
+        final LongAdder errorCount = new LongAdder();
+        final LongAdder totalLatencyNanos = new LongAdder();
+        volatile String lastError;
+
+        EndpointState(int index, MinioConfig endpointConfig) {
+            this.index = index;
+            this.endpoint = endpointConfig.getEndpoint();
+            this.endpointConfig = endpointConfig;
+            this.circuitBreaker = new MinioCircuitBreaker(endpoint, endpointConfig.getMaxConsecutiveFailures(),
+                    endpointConfig.getCircuitBreakerOpenDuration());
+        }
+
+        MinioClient getClient() { return MinioClientPool.getClient(endpointConfig); }
+        MinioExtendedAsyncClient getAsyncClient() { return MinioClientPool.getAsyncClient(endpointConfig); }
+    }
+
+    public MinioEndpointBalancer(MinioConfig config) {
+        this.config = config;
+        List<EndpointState> states = new ArrayList<>();
+        for (String endpoint : config.getEndpoints()) {
+            states.add(new EndpointState(states.size(), config.forEndpoint(endpoint)));
+        }
+        this.endpointStates = Collections.unmodifiableList(states);
+        this.retryPolicy = new MinioRetryPolicy(config);
+    }
+
+    public MinioConfig getConfig() { return config; }
+
+    /**
+     * 选择熔断器允许调用且未完成请求最少的端点，所有端点都处于熔断时返回null
+     */
+    EndpointState select() {
+        return select(null);
+    }
+
+    /**
+     * @param excluded 按端点序号排除已尝试的端点，可为null
+     */
+    private EndpointState select(boolean[] excluded) {
+        int size = endpointStates.size();
+        if (size == 1) {
+            EndpointState state = endpointStates.get(0);
+            return (excluded == null || !excluded[0]) && state.circuitBreaker.isCallPermitted() ? state : null;
+        }
+
+        // 从轮转位置开始扫描，使并发数相同的端点之间均匀分布
+        int start = Math.floorMod(nextIndex.getAndIncrement(), size);
+        EndpointState selected = null;
+        for (int i = 0; i < size; i++) {
+            EndpointState state = endpointStates.get((start + i) % size);
+            if (excluded != null && excluded[state.index]) continue;
+            if (!state.circuitBreaker.isCallPermitted()) continue;
+            if (selected == null || state.inFlight.get() < selected.inFlight.get()) selected = state;
+        }
+        return selected;
+    }
+
+    /**
+     * 选择一个端点的客户端（不跟踪请求，供无法包装调用的场景使用）；
+     * 所有端点都处于熔断时仍返回首个端点，由调用方自行处理失败
+     */
+    public MinioClient selectClient() {
+        EndpointState state = select();
+        return (state != null ? state : endpointStates.get(0)).getClient();
+    }
+
+    /**
+     * 选择端点并申请熔断器许可；选中端点的许可被并发调用抢先（如HALF_OPEN的唯一试探）时改选次优端点，
+     * 所有端点都已尝试仍无许可时快速失败
+     */
+    private EndpointState acquire(String operation) throws MinioException {
+        boolean[] tried = null;
+        while (true) {
+            EndpointState state = select(tried);
+            if (state == null) {
+                throw new MinioException(MinioException.ErrorType.CONNECTION_ERROR, operation,
+                        "MinIO端点熔断中，请稍后重试: " + config.getEndpoints());
+            }
+            if (state.circuitBreaker.tryAcquire()) return state;
+            if (tried == null) tried = new boolean[endpointStates.size()];
+            tried[state.index] = true;
+        }
+    }
+
+    /**
+     * 在选定的端点上执行调用，可重试的错误按退避策略重新选择端点重试
+     *
+     * 调用可能被执行多次，上传等操作的输入流必须在调用内部创建
+     *
+     * @param operation 操作名称
+     * @param bucket 存储桶（用于指标），可为null
+     * @param callable 调用
+     * @return 调用结果
+     */
+    public <T> T execute(String operation, String bucket, MinioCallable<T> callable) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            T result = executeWithRetry(operation, callable);
+            MinioMetrics.recordCall(operation, bucket, System.nanoTime() - startNanos, null);
+            return result;
+        } catch (Exception e) {
+            MinioMetrics.recordCall(operation, bucket, System.nanoTime() - startNanos, e);
+            throw e;
+        }
+    }
+
+    /**
+     * 在选定的端点上只执行一次调用，不重试；用于输入流只能读取一次的流式上传
+     *
+     * @param operation 操作名称
+     * @param bucket 存储桶（用于指标），可为null
+     * @param callable 调用
+     * @return 调用结果
+     */
+    public <T> T executeWithoutRetry(String operation, String bucket, MinioCallable<T> callable) throws Exception {
+        long startNanos = System.nanoTime();
+        retryPolicy.recordCall(operation);
+        try {
+            T result = executeOnce(acquire(operation), operation, callable);
+            MinioMetrics.recordCall(operation, bucket, System.nanoTime() - startNanos, null);
+            return result;
+        } catch (Exception e) {
+            MinioMetrics.recordCall(operation, bucket, System.nanoTime() - startNanos, e);
+            throw e;
+        }
+    }
+
+    private <T> T executeWithRetry(String operation, MinioCallable<T> callable) throws Exception {
+        retryPolicy.recordCall(operation);
+        int attempt = 0;
+        while (true) {
+            EndpointState state = acquire(operation);
+            try {
+                return executeOnce(state, operation, callable);
+            } catch (Exception e) {
+                if (!retryPolicy.shouldRetry(operation, attempt, e)) throw e;
+                long delay = retryPolicy.backoffDelay(attempt);
+                attempt++;
+                logger.debug("MinIO操作 {} 在 {} 上失败，{}ms后第{}次重试: {}", operation, state.endpoint, delay, attempt, e.getMessage());
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 在指定端点上执行一次调用，并记录并发数、延迟与失败情况
+     */
+    private <T> T executeOnce(EndpointState state, String operation, MinioCallable<T> callable) throws Exception {
+        state.inFlight.incrementAndGet();
+        long startNanos = System.nanoTime();
+        try {
+            T result = callable.call(state.getClient());
+            state.circuitBreaker.recordSuccess();
+            return result;
+        } catch (Throwable t) {
+            // Error 也需记录结果，否则HALF_OPEN状态的试探许可不会释放
+            recordError(state, operation, t);
+            throw t;
+        } finally {
+            state.inFlight.decrementAndGet();
+            state.requestCount.increment();
+            state.totalLatencyNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 在选定的端点上异步执行调用，可重试的错误在退避时间后由延迟执行器重新发起，不阻塞任何线程
+     *
+     * @param operation 操作名称
+     * @param bucket 存储桶（用于指标），可为null
+     * @param callable 异步调用
+     * @return 调用结果的future
+     */
+    public <T> CompletableFuture<T> executeAsync(String operation, String bucket, MinioAsyncCallable<T> callable) {
+        retryPolicy.recordCall(operation);
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.whenComplete((value, error) -> MinioMetrics.recordCall(operation, bucket, System.nanoTime() - startNanos, error));
+        attemptAsync(operation, callable, 0, result);
+        return result;
+    }
+
+    private <T> void attemptAsync(String operation, MinioAsyncCallable<T> callable, int attempt, CompletableFuture<T> result) {
+        EndpointState state;
+        try {
+            state = acquire(operation);
+        } catch (MinioException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        state.inFlight.incrementAndGet();
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = callable.call(state.getAsyncClient());
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+
+        future.whenComplete((value, error) -> {
+            state.inFlight.decrementAndGet();
+            state.requestCount.increment();
+            state.totalLatencyNanos.add(System.nanoTime() - startNanos);
+
+            if (error == null) {
+                state.circuitBreaker.recordSuccess();
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = MinioExceptionUtils.unwrap(error);
+            recordError(state, operation, cause);
+            if (cause instanceof Exception && retryPolicy.shouldRetry(operation, attempt, (Exception) cause)) {
+                long delay = retryPolicy.backoffDelay(attempt);
+                logger.debug("MinIO异步操作 {} 在 {} 上失败，{}ms后第{}次重试: {}", operation, state.endpoint, delay, attempt + 1, cause.getMessage());
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                        .execute(() -> attemptAsync(operation, callable, attempt + 1, result));
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /**
+     * 记录调用失败：端点故障计入熔断器，业务错误说明端点已正常响应，
+     * Error（内存不足、栈溢出等）无法判断端点状态，只释放试探许可
+     */
+    private void recordError(EndpointState state, String operation, Throwable e) {
+        if (!(e instanceof Exception)) {
+            state.circuitBreaker.releaseTrial();
+        } else if (MinioExceptionUtils.isEndpointFailure(e)) {
+            state.errorCount.increment();
+            state.lastError = operation + ": " + e.getClass().getSimpleName() + " - " + e.getMessage();
+            state.circuitBreaker.recordFailure();
+        } else {
+            // 端点已正常响应（如对象不存在），不计为端点故障
+            state.circuitBreaker.recordSuccess();
+        }
+    }
+
+    /**
+     * 健康探测：对熔断中或试探调用超时未完成的端点验证连接，恢复后闭合熔断器
+     */
+    void probeOpenEndpoints() {
+        for (EndpointState state : endpointStates) {
+            if (state.circuitBreaker.getState() != MinioCircuitBreaker.State.OPEN && !state.circuitBreaker.isTrialStale()) continue;
+            if (MinioClientFactory.validateConnection(state.getClient())) {
+                state.circuitBreaker.reset();
+                logger.info("MinIO端点健康探测成功，重新加入: {}", state.endpoint);
+            }
+        }
+    }
+
+    /**
+     * 获取各端点的负载与错误统计，用于观察负载是否均衡
+     */
+    public List<Map<String, Object>> getEndpointStats() {
+        List<Map<String, Object>> statsList = new ArrayList<>();
+        for (EndpointState state : endpointStates) {
+            long requests = state.requestCount.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            MinioCircuitBreaker circuitBreaker = state.circuitBreaker;
+            MinioCircuitBreaker.State circuitState = circuitBreaker.getState();
+            stats.put("endpoint", state.endpoint);
+            stats.put("available", circuitState != MinioCircuitBreaker.State.OPEN);
+            stats.put("circuitState", circuitState.name());
+            stats.put("circuitOpenedTime", circuitState != MinioCircuitBreaker.State.CLOSED ? circuitBreaker.getOpenedTime() : null);
+            stats.put("circuitTransitions", circuitBreaker.getTransitionCounts());
+            stats.put("rejectedCount", circuitBreaker.getRejectedCount());
+            stats.put("inFlight", state.inFlight.get());
+            stats.put("requestCount", requests);
+            stats.put("errorCount", state.errorCount.sum());
+            stats.put("consecutiveFailures", circuitBreaker.getConsecutiveFailures());
+            stats.put("avgLatencyMs", requests > 0 ? state.totalLatencyNanos.sum() / requests / 1_000_000.0 : 0.0);
+            stats.put("lastError", state.lastError);
+            statsList.add(stats);
+        }
+        return statsList;
+    }
+
+    /**
+     * 获取各操作的重试统计
+     */
+    public List<Map<String, Object>> getRetryStats() {
+        return retryPolicy.getRetryStats();
+    }
+}
@@ -143,6 +143,41 @@ public class MinioExceptionUtils {
                exception instanceof InternalException;
     }
 
+    /**
+     * 检查异常是否说明端点本身不可用或过载（用于端点故障剔除）
+     *
+     * 业务层错误（如对象不存在、权限不足）说明端点已正常响应，不计为端点故障
+     */
+    public static boolean isEndpointFailure(Throwable exception) {
+        return exception instanceof java.io.IOException ||
+               exception instanceof ServerException ||
+               isTemporaryException(exception) ||
+               isRetryableException(exception);
+    }
+
+    /**
+     * 检查异常是否表示对象、存储桶或分片上传不存在
+     */
+    public static boolean isNotFound(Throwable exception) {
+        Throwable cause = unwrap(exception);
+        if (!(cause instanceof ErrorResponseException)) return false;
+        String errorCode = ((ErrorResponseException) cause).errorResponse().code();
+        return "NoSuchKey".equals(errorCode) || "NoSuchBucket".equals(errorCode) || "NoSuchObject".equals(errorCode)
+                || "NoSuchUpload".equals(errorCode);
+    }
+
+    /**
+     * 去除异步调用包装的CompletionException/ExecutionException，返回实际异常
+     */
+    public static Throwable unwrap(Throwable exception) {
+        Throwable cause = exception;
+        while ((cause instanceof java.util.concurrent.CompletionException ||
+                cause instanceof java.util.concurrent.ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
     /**
      * 获取用户友好的错误消息
      */
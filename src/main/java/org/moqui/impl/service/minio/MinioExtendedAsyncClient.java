@@ -0,0 +1,294 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.ListObjectsV2Response;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.Signer;
+import io.minio.Time;
+import io.minio.Xml;
+import io.minio.credentials.Credentials;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.XmlParserException;
+import io.minio.http.Method;
+import io.minio.messages.ErrorResponse;
+import io.minio.messages.Item;
+import io.minio.messages.ListBucketResultV2;
+import io.minio.messages.ListPartsResult;
+import io.minio.messages.Part;
+import io.minio.messages.Prefix;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 扩展的MinIO异步客户端
+ *
+ * SDK的 {@link MinioAsyncClient#listObjects} 返回惰性迭代器，迭代时在调用线程上阻塞分页请求；
+ * 这里通过SDK的受保护分页方法逐页异步列举，整个列举过程不占用调用线程；
+ * 同时公开SDK受保护的分片上传方法，供可续传的分片上传会话按分片逐个调用；
+ * SDK的分片上传只接受内存中的字节数组，另提供按长度从输入流直接写入请求体的分片上传
+ */
+public class MinioExtendedAsyncClient extends MinioAsyncClient {
+    // 单页最大对象数（S3协议上限）
+    private static final int LIST_PAGE_SIZE = 1000;
+    // 单页最大分片数（S3协议上限）
+    private static final int LIST_PARTS_PAGE_SIZE = 1000;
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    // 流式请求体不预先计算SHA-256
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+    public MinioExtendedAsyncClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    /**
+     * 异步列举对象
+     *
+     * @param bucketName 存储桶名称
+     * @param prefix 对象前缀，可为null
+     * @param recursive 是否递归列举；非递归时子目录以目录条目返回
+     * @return 全部对象
+     */
+    public CompletableFuture<List<Item>> listAllObjects(String bucketName, String prefix, boolean recursive) {
+        return listPage(bucketName, prefix, recursive ? null : "/", null, new ArrayList<>());
+    }
+
+    private CompletableFuture<List<Item>> listPage(String bucketName, String prefix, String delimiter,
+                                                   String continuationToken, List<Item> items) {
+        CompletableFuture<ListObjectsV2Response> pageFuture;
+        try {
+            pageFuture = listObjectsV2Async(bucketName, null, delimiter, null, null, LIST_PAGE_SIZE,
+                    prefix, continuationToken, false, false, null, null);
+        } catch (Exception e) {
+            return failed(e);
+        }
+
+        return pageFuture.thenCompose(response -> {
+            ListBucketResultV2 page = response.result();
+            items.addAll(page.contents());
+            for (Prefix commonPrefix : page.commonPrefixes()) items.add(commonPrefix.toItem());
+            if (page.isTruncated() && page.nextContinuationToken() != null) {
+                return listPage(bucketName, prefix, delimiter, page.nextContinuationToken(), items);
+            }
+            return CompletableFuture.completedFuture(items);
+        });
+    }
+
+    /**
+     * 创建分片上传
+     *
+     * @param contentType 内容类型，可为null
+     * @return MinIO分片上传ID
+     */
+    public CompletableFuture<String> createMultipartUpload(String bucketName, String objectName, String contentType) {
+        Multimap<String, String> headers = HashMultimap.create();
+        if (contentType != null && !contentType.isEmpty()) headers.put("Content-Type", contentType);
+        try {
+            return createMultipartUploadAsync(bucketName, null, objectName, headers, null)
+                    .thenApply(response -> response.result().uploadId());
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 上传一个分片
+     *
+     * @param partNumber 分片序号（1~10000）
+     * @return 分片ETag
+     */
+    public CompletableFuture<String> uploadPart(String bucketName, String objectName, String uploadId,
+                                                int partNumber, byte[] data, int length) {
+        try {
+            return uploadPartAsync(bucketName, null, objectName, data, length, uploadId, partNumber, null, null)
+                    .thenApply(response -> response.etag());
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 从输入流上传一个分片：请求体按长度边读边写，不在堆中缓存整个分片
+     *
+     * @param source 分片内容，每次发送请求体时重新打开（连接失败重试时可能发送多次）
+     * @param length 分片长度，内容不足时请求失败
+     * @return 分片ETag
+     */
+    public CompletableFuture<String> uploadPart(String bucketName, String objectName, String uploadId,
+                                                int partNumber, MinioDedupStore.ContentSource source, long length) {
+        Multimap<String, String> queryParams = HashMultimap.create();
+        queryParams.put("uploadId", uploadId);
+        queryParams.put("partNumber", Integer.toString(partNumber));
+        try {
+            return getRegionAsync(bucketName, null).thenCompose(location -> {
+                try {
+                    HttpUrl url = buildUrl(Method.PUT, bucketName, objectName, location, queryParams);
+                    return send(signedRequest(url, location, streamBody(source, length)))
+                            .thenApply(response -> {
+                                String etag = response.header("ETag");
+                                return etag != null ? etag.replace("\"", "") : null;
+                            });
+                } catch (Exception e) {
+                    return failed(e);
+                }
+            });
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 按SDK的方式设置Host、x-amz-date等请求头并签名，请求体不参与签名
+     */
+    private Request signedRequest(HttpUrl url, String location, RequestBody body) throws Exception {
+        String host = url.host();
+        if (url.port() != HttpUrl.defaultPort(url.scheme())) host += ":" + url.port();
+        Request.Builder builder = new Request.Builder().url(url).put(body)
+                .header("Host", host)
+                .header("Accept-Encoding", "identity")
+                .header("x-amz-content-sha256", UNSIGNED_PAYLOAD)
+                .header("x-amz-date", ZonedDateTime.now().withZoneSameInstant(Time.UTC).format(Time.AMZ_DATE_FORMAT));
+        Credentials credentials = provider != null ? provider.fetch() : null;
+        if (credentials == null) return builder.build();
+        if (credentials.sessionToken() != null) builder.header("X-Amz-Security-Token", credentials.sessionToken());
+        return Signer.signV4S3(builder.build(), location, credentials.accessKey(), credentials.secretKey(), UNSIGNED_PAYLOAD);
+    }
+
+    private CompletableFuture<Response> send(Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (response.isSuccessful()) {
+                        future.complete(response);
+                        return;
+                    }
+                    String text = body != null ? body.string() : "";
+                    future.completeExceptionally(new ErrorResponseException(errorResponse(response, text), response, text));
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private static ErrorResponse errorResponse(Response response, String text) {
+        if (!text.isEmpty()) {
+            try {
+                return Xml.unmarshal(ErrorResponse.class, text);
+            } catch (XmlParserException e) {
+                // 不是S3错误响应，按状态码生成
+            }
+        }
+        HttpUrl url = response.request().url();
+        return new ErrorResponse("HTTP" + response.code(), response.message(), null, null, url.encodedPath(),
+                response.header("x-amz-request-id"), response.header("x-amz-id-2"));
+    }
+
+    private static RequestBody streamBody(MinioDedupStore.ContentSource source, long length) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() { return OCTET_STREAM; }
+
+            @Override
+            public long contentLength() { return length; }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                try (Source in = Okio.source(source.open())) {
+                    sink.write(in, length);
+                }
+            }
+        };
+    }
+
+    /**
+     * 列举已上传的分片（自动翻页）
+     */
+    public CompletableFuture<List<Part>> listParts(String bucketName, String objectName, String uploadId) {
+        return listPartsPage(bucketName, objectName, uploadId, null, new ArrayList<>());
+    }
+
+    private CompletableFuture<List<Part>> listPartsPage(String bucketName, String objectName, String uploadId,
+                                                        Integer partNumberMarker, List<Part> parts) {
+        try {
+            return listPartsAsync(bucketName, null, objectName, LIST_PARTS_PAGE_SIZE, partNumberMarker, uploadId, null, null)
+                    .thenCompose(response -> {
+                        ListPartsResult page = response.result();
+                        parts.addAll(page.partList());
+                        if (page.isTruncated() && page.nextPartNumberMarker() > 0) {
+                            return listPartsPage(bucketName, objectName, uploadId, page.nextPartNumberMarker(), parts);
+                        }
+                        return CompletableFuture.completedFuture(parts);
+                    });
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 按分片序号合并已上传的分片，完成分片上传
+     */
+    public CompletableFuture<ObjectWriteResponse> completeMultipartUpload(String bucketName, String objectName,
+                                                                         String uploadId, Part[] parts) {
+        try {
+            return completeMultipartUploadAsync(bucketName, null, objectName, uploadId, parts, null, null);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 取消分片上传，释放已上传的分片
+     */
+    public CompletableFuture<Void> abortMultipartUpload(String bucketName, String objectName, String uploadId) {
+        try {
+            return abortMultipartUploadAsync(bucketName, null, objectName, uploadId, null, null)
+                    .thenApply(response -> null);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * 列表游标（键集分页）
+ *
+ * 记录上一页最后一条记录的 (createdDate, id)，编码为URL安全的Base64字符串，对调用方不透明；
+ * 下一页按 createdDate DESC, id DESC 排序并只取该位置之后的记录，查询代价与页码无关。
+ * createdDate 为空的记录排在最前，游标中以 {@value #NULL_DATE} 显式编码空值
+ */
+public final class MinioListCursor {
+    private static final String VERSION = "1";
+    private static final String NULL_DATE = "N";
+
+    private final Timestamp createdDate;
+    private final String id;
+
+    public MinioListCursor(Timestamp createdDate, String id) {
+        if (id == null) throw new IllegalArgumentException("游标位置不能为空");
+        this.createdDate = createdDate;
+        this.id = id;
+    }
+
+    /** 上一页最后一条记录的创建时间，为 null 表示仍处于 createdDate 为空的记录段 */
+    public Timestamp getCreatedDate() { return createdDate; }
+    public String getId() { return id; }
+
+    /**
+     * 编码为不透明的游标字符串
+     */
+    public String encode() {
+        String raw = VERSION + ":" + (createdDate != null ? String.valueOf(createdDate.getTime()) : NULL_DATE) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标字符串
+     *
+     * @throws IllegalArgumentException 游标格式无效
+     */
+    public static MinioListCursor decode(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+        String[] parts = raw.split(":", 3);
+        if (parts.length != 3 || !VERSION.equals(parts[0]) || parts[2].isEmpty()) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        try {
+            Timestamp createdDate = NULL_DATE.equals(parts[1]) ? null : new Timestamp(Long.parseLong(parts[1]));
+            return new MinioListCursor(createdDate, parts[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MinioListCursor{createdDate=" + createdDate + ", id=" + id + "}";
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MinIO调用指标
+ *
+ * 按操作与存储桶记录调用次数、上传/下载字节数，以及按 {@link MinioException.ErrorType} 分类的错误数；
+ * 延迟直方图只按操作记录（每个直方图有数百个桶，按存储桶细分时序列数随存储桶数量无限增长）。
+ * 所有计数均为LongAdder或原子数组，记录路径不加锁。
+ * 通过 get#Metrics 服务、Prometheus文本格式与JMX（org.moqui.minio:type=Metrics）读取
+ */
+public class MinioMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(MinioMetrics.class);
+    public static final String MBEAN_NAME = "org.moqui.minio:type=Metrics";
+    private static final String NO_BUCKET = "-";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final ConcurrentHashMap<String, OperationMetrics> metrics = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, MinioLatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * 单个操作+存储桶的计数
+     */
+    static final class OperationMetrics {
+        final String operation;
+        final String bucket;
+        final LongAdder callCount = new LongAdder();
+        final LongAdder errorCount = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final Map<MinioException.ErrorType, LongAdder> errorsByType = new EnumMap<>(MinioException.ErrorType.class);
+
+        OperationMetrics(String operation, String bucket) {
+            this.operation = operation;
+            this.bucket = bucket;
+            // 预先创建全部错误类型的计数器，记录时只读访问EnumMap
+            for (MinioException.ErrorType errorType : MinioException.ErrorType.values()) errorsByType.put(errorType, new LongAdder());
+        }
+    }
+
+    private static OperationMetrics get(String operation, String bucket) {
+        String bucketLabel = bucket != null && !bucket.isEmpty() ? bucket : NO_BUCKET;
+        String key = operation + "|" + bucketLabel;
+        OperationMetrics operationMetrics = metrics.get(key);
+        if (operationMetrics == null) {
+            operationMetrics = metrics.computeIfAbsent(key, k -> new OperationMetrics(operation, bucketLabel));
+        }
+        return operationMetrics;
+    }
+
+    private static MinioLatencyHistogram latency(String operation) {
+        MinioLatencyHistogram latency = latencies.get(operation);
+        if (latency == null) latency = latencies.computeIfAbsent(operation, k -> new MinioLatencyHistogram());
+        return latency;
+    }
+
+    /**
+     * 记录一次逻辑调用（包含重试在内的总耗时）
+     *
+     * @param operation 操作名称
+     * @param bucket 存储桶，可为null
+     * @param nanos 耗时（纳秒）
+     * @param error 失败时的异常，成功为null
+     */
+    public static void recordCall(String operation, String bucket, long nanos, Throwable error) {
+        OperationMetrics operationMetrics = get(operation, bucket);
+        operationMetrics.callCount.increment();
+        latency(operation).record(nanos);
+        if (error != null) {
+            operationMetrics.errorCount.increment();
+            operationMetrics.errorsByType.get(classify(operation, error)).increment();
+        }
+    }
+
+    /**
+     * 记录从MinIO下载的字节数
+     */
+    public static void recordBytesIn(String operation, String bucket, long bytes) {
+        if (bytes > 0) get(operation, bucket).bytesIn.add(bytes);
+    }
+
+    /**
+     * 记录上传到MinIO的字节数
+     */
+    public static void recordBytesOut(String operation, String bucket, long bytes) {
+        if (bytes > 0) get(operation, bucket).bytesOut.add(bytes);
+    }
+
+    private static MinioException.ErrorType classify(String operation, Throwable error) {
+        Throwable cause = MinioExceptionUtils.unwrap(error);
+        if (cause instanceof MinioException) return ((MinioException) cause).getErrorType();
+        try {
+            return MinioExceptionUtils.convertException(operation, cause).getErrorType();
+        } catch (RuntimeException e) {
+            return MinioException.ErrorType.UNKNOWN_ERROR;
+        }
+    }
+
+    /**
+     * 获取全部计数，每个操作+存储桶一条记录
+     */
+    public static List<Map<String, Object>> getMetrics() {
+        List<Map<String, Object>> metricsList = new ArrayList<>();
+        for (OperationMetrics operationMetrics : new TreeMap<>(metrics).values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("operation", operationMetrics.operation);
+            entry.put("bucket", operationMetrics.bucket);
+            entry.put("callCount", operationMetrics.callCount.sum());
+            entry.put("errorCount", operationMetrics.errorCount.sum());
+            Map<String, Long> errorsByType = new LinkedHashMap<>();
+            for (Map.Entry<MinioException.ErrorType, LongAdder> errorEntry : operationMetrics.errorsByType.entrySet()) {
+                long count = errorEntry.getValue().sum();
+                if (count > 0) errorsByType.put(errorEntry.getKey().name(), count);
+            }
+            entry.put("errorsByType", errorsByType);
+            entry.put("bytesIn", operationMetrics.bytesIn.sum());
+            entry.put("bytesOut", operationMetrics.bytesOut.sum());
+            metricsList.add(entry);
+        }
+        return metricsList;
+    }
+
+    /**
+     * 获取各操作（不分存储桶）的延迟统计，单位为毫秒
+     */
+    public static List<Map<String, Object>> getLatencyMetrics() {
+        List<Map<String, Object>> latencyList = new ArrayList<>();
+        for (Map.Entry<String, MinioLatencyHistogram> latencyEntry : new TreeMap<>(latencies).entrySet()) {
+            MinioLatencyHistogram latency = latencyEntry.getValue();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("operation", latencyEntry.getKey());
+            entry.put("count", latency.getCount());
+            entry.put("meanMs", latency.getMeanMicros() / 1000.0);
+            entry.put("p50Ms", latency.getPercentileMicros(50) / 1000.0);
+            entry.put("p90Ms", latency.getPercentileMicros(90) / 1000.0);
+            entry.put("p99Ms", latency.getPercentileMicros(99) / 1000.0);
+            entry.put("maxMs", latency.getMaxMicros() / 1000.0);
+            latencyList.add(entry);
+        }
+        return latencyList;
+    }
+
+    /**
+     * 以Prometheus文本格式输出全部指标
+     */
+    public static String getPrometheusText() {
+        Map<String, OperationMetrics> sorted = new TreeMap<>(metrics);
+        StringBuilder sb = new StringBuilder(4096);
+
+        appendHeader(sb, "minio_client_requests_total", "counter", "MinIO SDK calls including retries as one call");
+        for (OperationMetrics m : sorted.values()) appendSample(sb, "minio_client_requests_total", labels(m), m.callCount.sum());
+
+        appendHeader(sb, "minio_client_errors_total", "counter", "Failed MinIO SDK calls by error type");
+        for (OperationMetrics m : sorted.values()) {
+            for (Map.Entry<MinioException.ErrorType, LongAdder> errorEntry : m.errorsByType.entrySet()) {
+                long count = errorEntry.getValue().sum();
+                if (count > 0) appendSample(sb, "minio_client_errors_total", labels(m) + ",error_type=\"" + errorEntry.getKey().name() + "\"", count);
+            }
+        }
+
+        appendHeader(sb, "minio_client_bytes_in_total", "counter", "Bytes downloaded from MinIO");
+        for (OperationMetrics m : sorted.values()) appendSample(sb, "minio_client_bytes_in_total", labels(m), m.bytesIn.sum());
+
+        appendHeader(sb, "minio_client_bytes_out_total", "counter", "Bytes uploaded to MinIO");
+        for (OperationMetrics m : sorted.values()) appendSample(sb, "minio_client_bytes_out_total", labels(m), m.bytesOut.sum());
+
+        appendHeader(sb, "minio_client_latency_seconds", "summary", "MinIO SDK call latency across all buckets");
+        for (Map.Entry<String, MinioLatencyHistogram> latencyEntry : new TreeMap<>(latencies).entrySet()) {
+            String labels = "operation=\"" + escape(latencyEntry.getKey()) + "\"";
+            MinioLatencyHistogram latency = latencyEntry.getValue();
+            for (double quantile : QUANTILES) {
+                appendSample(sb, "minio_client_latency_seconds", labels + ",quantile=\"" + quantile + "\"",
+                        latency.getPercentileMicros(quantile * 100) / 1_000_000.0);
+            }
+            appendSample(sb, "minio_client_latency_seconds_sum", labels, latency.getTotalMicros() / 1_000_000.0);
+            appendSample(sb, "minio_client_latency_seconds_count", labels, latency.getCount());
+        }
+        return sb.toString();
+    }
+
+    private static void appendHeader(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append('{').append(labels).append("} ");
+        if (value == Math.rint(value) && !Double.isInfinite(value)) sb.append((long) value);
+        else sb.append(String.format(Locale.ROOT, "%.6f", value));
+        sb.append('\n');
+    }
+
+    private static String labels(OperationMetrics m) {
+        return "operation=\"" + escape(m.operation) + "\",bucket=\"" + escape(m.bucket) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * 清空全部指标
+     */
+    public static void reset() {
+        metrics.clear();
+        latencies.clear();
+    }
+
+    /**
+     * 注册JMX MBean
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (!mBeanServer.isRegistered(objectName)) mBeanServer.registerMBean(new MBean(), objectName);
+        } catch (Exception e) {
+            logger.warn("Failed to register MinIO metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 注销JMX MBean
+     */
+    public static void unregisterMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+        } catch (Exception e) {
+            logger.warn("Failed to unregister MinIO metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * JMX视图
+     */
+    static final class MBean implements MinioMetricsMXBean {
+        @Override
+        public long getTotalCalls() {
+            long total = 0;
+            for (OperationMetrics m : metrics.values()) total += m.callCount.sum();
+            return total;
+        }
+
+        @Override
+        public long getTotalErrors() {
+            long total = 0;
+            for (OperationMetrics m : metrics.values()) total += m.errorCount.sum();
+            return total;
+        }
+
+        @Override
+        public long getTotalBytesIn() {
+            long total = 0;
+            for (OperationMetrics m : metrics.values()) total += m.bytesIn.sum();
+            return total;
+        }
+
+        @Override
+        public long getTotalBytesOut() {
+            long total = 0;
+            for (OperationMetrics m : metrics.values()) total += m.bytesOut.sum();
+            return total;
+        }
+
+        @Override
+        public String[] getOperationKeys() {
+            return new TreeMap<>(metrics).keySet().toArray(new String[0]);
+        }
+
+        @Override
+        public String getPrometheusText() {
+            return MinioMetrics.getPrometheusText();
+        }
+
+        @Override
+        public void reset() {
+            MinioMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+/**
+ * MinIO调用指标的JMX接口，注册名为 org.moqui.minio:type=Metrics
+ */
+public interface MinioMetricsMXBean {
+    long getTotalCalls();
+    long getTotalErrors();
+    long getTotalBytesIn();
+    long getTotalBytesOut();
+    String[] getOperationKeys();
+    String getPrometheusText();
+    void reset();
+}
@@ -0,0 +1,346 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.ObjectWriteResponse;
+import io.minio.messages.Part;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 可续传的分片上传会话
+ *
+ * 会话（moqui.minio.MultipartUpload）与已上传分片的ETag（moqui.minio.MultipartUploadPart）持久化在数据库中，
+ * 客户端断线后或请求落到其他集群节点时都可以查询已上传分片并继续上传；
+ * 已上传分片以MinIO的ListParts为准，合并时按MinIO中的分片完成，数据库记录只用于续传查询与过期清理
+ */
+public class MinioMultipartUploads {
+    private static final Logger logger = LoggerFactory.getLogger(MinioMultipartUploads.class);
+
+    public static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_ABORTED = "ABORTED";
+
+    /** S3 分片序号上限 */
+    public static final int MAX_PART_NUMBER = 10000;
+
+    /** 按客户端上传标识查找或创建会话时使用的本节点分段锁 */
+    private static final Object[] clientKeyLocks = new Object[64];
+    static {
+        for (int i = 0; i < clientKeyLocks.length; i++) clientKeyLocks[i] = new Object();
+    }
+
+    /**
+     * 查询会话
+     *
+     * @return 会话；不存在时返回null
+     */
+    public static EntityValue findSession(ExecutionContext ec, String uploadSessionId) {
+        return ec.getEntity().find("moqui.minio.MultipartUpload")
+                .condition("uploadSessionId", uploadSessionId).disableAuthz().one();
+    }
+
+    /**
+     * 在MinIO中创建分片上传并保存会话
+     */
+    public static EntityValue initiate(ExecutionContext ec, String bucketId, String objectName,
+                                       String contentType, String userId) throws Exception {
+        return initiate(ec, bucketId, objectName, contentType, userId, null);
+    }
+
+    /**
+     * 在MinIO中创建分片上传并保存会话，记录客户端上传标识
+     */
+    public static EntityValue initiate(ExecutionContext ec, String bucketId, String objectName,
+                                       String contentType, String userId, String clientUploadKey) throws Exception {
+        String minioUploadId = await(MinioClientPool.executeAsync(ec.getFactory(), "createMultipartUpload", bucketId,
+                client -> client.createMultipartUpload(bucketId, objectName, contentType)));
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        EntityValue session = ec.getEntity().makeValue("moqui.minio.MultipartUpload")
+                .set("uploadSessionId", UUID.randomUUID().toString())
+                .set("bucketId", bucketId)
+                .set("objectName", objectName)
+                .set("minioUploadId", minioUploadId)
+                .set("userId", userId)
+                .set("contentType", contentType)
+                .set("clientUploadKey", clientUploadKey)
+                .set("status", STATUS_IN_PROGRESS)
+                .set("createdDate", now)
+                .set("lastUpdatedDate", now);
+        session.create();
+        return session;
+    }
+
+    /**
+     * 按客户端上传标识查找进行中的会话，不存在时创建
+     *
+     * 同一文件的多个分片可能被并发上传，会话在独立事务中创建并提交，本节点上同一标识的查找与创建串行执行，
+     * 其他并发请求可以立即看到已创建的会话
+     */
+    public static EntityValue findOrInitiate(ExecutionContext ec, String bucketId, String objectName, String contentType,
+                                             String userId, String clientUploadKey) throws Exception {
+        String lockKey = bucketId + "/" + objectName + "#" + clientUploadKey;
+        synchronized (clientKeyLocks[(lockKey.hashCode() & 0x7fffffff) % clientKeyLocks.length]) {
+            return runInNewTransaction(ec, "创建分片上传会话失败", () -> {
+                EntityValue session = findByClientKey(ec, bucketId, objectName, userId, clientUploadKey);
+                return session != null ? session : initiate(ec, bucketId, objectName, contentType, userId, clientUploadKey);
+            });
+        }
+    }
+
+    /**
+     * 按客户端上传标识查询进行中的会话
+     *
+     * @return 会话；不存在时返回null
+     */
+    public static EntityValue findByClientKey(ExecutionContext ec, String bucketId, String objectName,
+                                              String userId, String clientUploadKey) {
+        return ec.getEntity().find("moqui.minio.MultipartUpload")
+                .condition("bucketId", bucketId)
+                .condition("clientUploadKey", clientUploadKey)
+                .condition("objectName", objectName)
+                .condition("userId", userId)
+                .condition("status", STATUS_IN_PROGRESS)
+                .orderBy("-createdDate").disableAuthz().list().getFirst();
+    }
+
+    /**
+     * 统计数据库中已记录的分片数
+     */
+    public static long countParts(ExecutionContext ec, String uploadSessionId) {
+        return ec.getEntity().find("moqui.minio.MultipartUploadPart")
+                .condition("uploadSessionId", uploadSessionId).disableAuthz().count();
+    }
+
+    /**
+     * 上传一个分片并记录ETag；同一序号重复上传时覆盖之前的分片
+     *
+     * @return 分片ETag
+     */
+    public static String uploadPart(ExecutionContext ec, EntityValue session, int partNumber, byte[] data, int length) throws Exception {
+        String bucketId = session.getString("bucketId");
+        String objectName = session.getString("objectName");
+        String minioUploadId = session.getString("minioUploadId");
+        String etag = await(MinioClientPool.executeAsync(ec.getFactory(), "uploadPart", bucketId,
+                client -> client.uploadPart(bucketId, objectName, minioUploadId, partNumber, data, length)));
+        MinioMetrics.recordBytesOut("uploadPart", bucketId, length);
+        recordPart(ec, session, partNumber, etag, length);
+        return etag;
+    }
+
+    /**
+     * 从可重复打开的内容（如上传的FileItem）上传一个分片并记录ETag，内容按长度直接写入请求体，不读入内存
+     *
+     * @return 分片ETag
+     */
+    public static String uploadPart(ExecutionContext ec, EntityValue session, int partNumber,
+                                    MinioDedupStore.ContentSource source, long length) throws Exception {
+        String bucketId = session.getString("bucketId");
+        String objectName = session.getString("objectName");
+        String minioUploadId = session.getString("minioUploadId");
+        String etag = await(MinioClientPool.executeAsync(ec.getFactory(), "uploadPart", bucketId,
+                client -> client.uploadPart(bucketId, objectName, minioUploadId, partNumber, source, length)));
+        MinioMetrics.recordBytesOut("uploadPart", bucketId, length);
+        recordPart(ec, session, partNumber, etag, length);
+        return etag;
+    }
+
+    private static void recordPart(ExecutionContext ec, EntityValue session, int partNumber, String etag, long length) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        ec.getEntity().makeValue("moqui.minio.MultipartUploadPart")
+                .set("uploadSessionId", session.getString("uploadSessionId"))
+                .set("partNumber", (long) partNumber)
+                .set("etag", etag)
+                .set("partSize", length)
+                .set("uploadedDate", now)
+                .createOrUpdate();
+        session.set("lastUpdatedDate", now);
+        session.update();
+    }
+
+    /**
+     * 列举MinIO中已上传的分片，并补齐数据库中缺少的分片记录（分片上传成功但记录未保存时）
+     *
+     * @return 各分片的 partNumber、etag、partSize、lastModified
+     */
+    public static List<Map<String, Object>> listParts(ExecutionContext ec, EntityValue session) throws Exception {
+        List<Part> parts = listMinioParts(ec.getFactory(), session);
+        String uploadSessionId = session.getString("uploadSessionId");
+        List<Map<String, Object>> partList = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            Map<String, Object> partInfo = new LinkedHashMap<>();
+            partInfo.put("partNumber", part.partNumber());
+            partInfo.put("etag", part.etag());
+            partInfo.put("partSize", part.partSize());
+            partInfo.put("lastModified", part.lastModified() != null ? Timestamp.from(part.lastModified().toInstant()) : null);
+            partList.add(partInfo);
+
+            EntityValue partRecord = ec.getEntity().find("moqui.minio.MultipartUploadPart")
+                    .condition("uploadSessionId", uploadSessionId)
+                    .condition("partNumber", (long) part.partNumber()).disableAuthz().one();
+            if (partRecord == null || !part.etag().equals(partRecord.getString("etag"))) {
+                ec.getEntity().makeValue("moqui.minio.MultipartUploadPart")
+                        .set("uploadSessionId", uploadSessionId)
+                        .set("partNumber", (long) part.partNumber())
+                        .set("etag", part.etag())
+                        .set("partSize", part.partSize())
+                        .set("uploadedDate", partInfo.get("lastModified"))
+                        .createOrUpdate();
+            }
+        }
+        return partList;
+    }
+
+    /**
+     * 按MinIO中已上传的分片完成上传，删除分片记录
+     *
+     * @return 对象总大小
+     */
+    public static long complete(ExecutionContext ec, EntityValue session) throws Exception {
+        String bucketId = session.getString("bucketId");
+        String objectName = session.getString("objectName");
+        String minioUploadId = session.getString("minioUploadId");
+
+        List<Part> uploadedParts = listMinioParts(ec.getFactory(), session);
+        if (uploadedParts.isEmpty()) throw new IllegalStateException("分片上传没有已上传的分片: " + session.getString("uploadSessionId"));
+        Part[] parts = new Part[uploadedParts.size()];
+        long totalSize = 0L;
+        for (int i = 0; i < parts.length; i++) {
+            Part uploadedPart = uploadedParts.get(i);
+            parts[i] = new Part(uploadedPart.partNumber(), uploadedPart.etag());
+            totalSize += uploadedPart.partSize();
+        }
+
+        ObjectWriteResponse response = await(MinioClientPool.executeAsync(ec.getFactory(), "completeMultipartUpload", bucketId,
+                client -> client.completeMultipartUpload(bucketId, objectName, minioUploadId, parts)));
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        session.set("status", STATUS_COMPLETED);
+        session.set("totalSize", totalSize);
+        session.set("etag", response.etag());
+        session.set("completedDate", now);
+        session.set("lastUpdatedDate", now);
+        session.update();
+        deleteParts(ec, session.getString("uploadSessionId"));
+        return totalSize;
+    }
+
+    /**
+     * 取消上传并释放MinIO中已上传的分片；MinIO中已不存在的上传视为已取消
+     */
+    public static void abort(ExecutionContext ec, EntityValue session) throws Exception {
+        String bucketId = session.getString("bucketId");
+        String objectName = session.getString("objectName");
+        String minioUploadId = session.getString("minioUploadId");
+        try {
+            await(MinioClientPool.executeAsync(ec.getFactory(), "abortMultipartUpload", bucketId,
+                    client -> client.abortMultipartUpload(bucketId, objectName, minioUploadId)));
+        } catch (Exception e) {
+            if (!MinioExceptionUtils.isNotFound(e)) throw e;
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        session.set("status", STATUS_ABORTED);
+        session.set("completedDate", now);
+        session.set("lastUpdatedDate", now);
+        session.update();
+        deleteParts(ec, session.getString("uploadSessionId"));
+    }
+
+    /**
+     * 取消超过staleAgeMs未更新的进行中会话
+     *
+     * @return [已取消数, 失败数]
+     */
+    public static int[] abortStale(ExecutionContext ec, long staleAgeMs) {
+        Timestamp staleBefore = new Timestamp(System.currentTimeMillis() - staleAgeMs);
+        int aborted = 0;
+        int failed = 0;
+        for (EntityValue session : ec.getEntity().find("moqui.minio.MultipartUpload")
+                .condition("status", STATUS_IN_PROGRESS)
+                .condition("lastUpdatedDate", "<", staleBefore)
+                .orderBy("lastUpdatedDate").disableAuthz().list()) {
+            try {
+                abort(ec, session);
+                aborted++;
+            } catch (Exception e) {
+                failed++;
+                logger.warn("取消过期分片上传失败: " + session.getString("uploadSessionId"), MinioExceptionUtils.unwrap(e));
+            }
+        }
+        if (aborted > 0 || failed > 0) logger.info("过期分片上传清理完成: 取消{}个，失败{}个", aborted, failed);
+        return new int[] { aborted, failed };
+    }
+
+    private static List<Part> listMinioParts(ExecutionContextFactory ecf, EntityValue session) throws Exception {
+        String bucketId = session.getString("bucketId");
+        String objectName = session.getString("objectName");
+        String minioUploadId = session.getString("minioUploadId");
+        return await(MinioClientPool.executeAsync(ecf, "listParts", bucketId,
+                client -> client.listParts(bucketId, objectName, minioUploadId)));
+    }
+
+    private static void deleteParts(ExecutionContext ec, String uploadSessionId) {
+        ec.getEntity().find("moqui.minio.MultipartUploadPart")
+                .condition("uploadSessionId", uploadSessionId).disableAuthz().deleteAll();
+    }
+
+    /**
+     * 在独立事务中执行并提交，调用方所在事务在执行期间挂起，使并发请求可以立即看到写入的记录
+     */
+    static <T> T runInNewTransaction(ExecutionContext ec, String rollbackMessage, Callable<T> work) throws Exception {
+        TransactionFacade tf = ec.getTransaction();
+        boolean suspended = tf.isTransactionInPlace() && tf.suspend();
+        try {
+            boolean beganTransaction = tf.begin(null);
+            try {
+                T result = work.call();
+                tf.commit(beganTransaction);
+                return result;
+            } catch (Exception e) {
+                tf.rollback(beganTransaction, rollbackMessage, e);
+                throw e;
+            }
+        } finally {
+            if (suspended) tf.resume();
+        }
+    }
+
+    /**
+     * 等待异步调用完成，抛出实际异常
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (RuntimeException e) {
+            Throwable cause = MinioExceptionUtils.unwrap(e);
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.ListObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.messages.Item;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对象大小台账
+ *
+ * moqui.minio.BucketObject 按 (bucketId, objectName) 记录对象大小、ETag、最后修改时间与上传时计算的校验和，
+ * 所有上传路径写入台账，删除、重命名与覆盖时按台账计算使用量变化，不需要在删除前statObject。
+ * 台账中没有的对象回退为statObject；存储桶台账未建立（ledgerRebuiltDate为空）时在后台按列举结果重建。
+ * 启用事件通知时本组件的写入仍按台账记录使用量，通知消费者按台账识别并跳过这些写入，只计入其他来源的变更
+ * （见 {@link #applyCreatedEvent}、{@link #applyRemovedEvent}）。
+ * 去重存储桶中的占位对象记录 dedupDigest，删除或覆盖时释放内容块引用（见 {@link MinioDedupStore}）
+ */
+public class MinioObjectLedger {
+    private static final Logger logger = LoggerFactory.getLogger(MinioObjectLedger.class);
+
+    static final int REBUILD_PAGE_SIZE = 1000;
+
+    /** 本节点正在重建台账的存储桶 */
+    private static final Set<String> rebuildingBuckets = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 查询台账记录
+     *
+     * @return 台账记录；不存在时返回null
+     */
+    public static EntityValue find(ExecutionContext ec, String bucketId, String objectName) {
+        return ec.getEntity().find("moqui.minio.BucketObject")
+                .condition("bucketId", bucketId)
+                .condition("objectName", objectName).disableAuthz().one();
+    }
+
+    /**
+     * 记录上传（新增或覆盖同名对象），按台账中原对象大小计算使用量变化
+     */
+    public static void recordUpload(ExecutionContext ec, String bucketId, String objectName, long size, String etag) {
+        recordUpload(ec, bucketId, objectName, size, etag, null, null);
+    }
+
+    /**
+     * 记录上传并保存上传时计算的校验和
+     *
+     * @param checksumAlgorithm 校验和算法，未计算时为null
+     * @param checksum Base64编码的校验和，未计算时为null
+     */
+    public static void recordUpload(ExecutionContext ec, String bucketId, String objectName, long size, String etag,
+                                    String checksumAlgorithm, String checksum) {
+        recordUpload(ec, bucketId, objectName, size, etag, checksumAlgorithm, checksum, null);
+    }
+
+    /**
+     * 记录上传；覆盖去重引用时释放原内容块的引用
+     *
+     * @param dedupDigest 去重占位对象引用的内容摘要，普通对象为null
+     */
+    public static void recordUpload(ExecutionContext ec, String bucketId, String objectName, long size, String etag,
+                                    String checksumAlgorithm, String checksum, String dedupDigest) {
+        recordUpload(ec, bucketId, objectName, size, etag, checksumAlgorithm, checksum, dedupDigest, -1L);
+    }
+
+    /**
+     * 记录上传；台账中没有原对象记录时按上传前确定的原对象大小计算使用量变化
+     *
+     * @param priorSize 上传前由 {@link #resolvePriorSize} 确定的原对象大小，原对象不存在或未确定时为-1
+     */
+    public static void recordUpload(ExecutionContext ec, String bucketId, String objectName, long size, String etag,
+                                    String checksumAlgorithm, String checksum, String dedupDigest, long priorSize) {
+        EntityValue existing = find(ec, bucketId, objectName);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        ec.getEntity().makeValue("moqui.minio.BucketObject")
+                .set("bucketId", bucketId)
+                .set("objectName", objectName)
+                .set("objectSize", size)
+                .set("etag", etag)
+                .set("lastModified", now)
+                .set("checksumAlgorithm", checksumAlgorithm)
+                .set("checksum", checksum)
+                .set("dedupDigest", dedupDigest)
+                .set("verifiedDate", now)
+                .createOrUpdate();
+        if (existing != null) releaseDigest(ec, bucketId, existing);
+
+        if (existing == null) {
+            requestRebuildIfMissing(ec, bucketId);
+            // 覆盖台账建立前已有的对象：文件数不变
+            if (priorSize >= 0L) recordUsage(bucketId, objectName, 0L, size - priorSize);
+            else recordUsage(bucketId, objectName, 1L, size);
+        } else {
+            recordUsage(bucketId, objectName, 0L, size - sizeOf(existing));
+        }
+    }
+
+    /**
+     * 上传前确定同名原对象的大小，上传后传给 {@link #recordUpload}：
+     * 存储桶台账已建立时台账中没有记录即表示原对象不存在，返回-1而不statObject；
+     * 台账未建立时按 {@link #resolveSize} 确定，避免覆盖台账建立前已有的对象被计为新增对象
+     *
+     * @return 原对象大小；原对象不存在或可按台账确定时返回-1
+     */
+    public static long resolvePriorSize(ExecutionContext ec, String bucketId, String objectName) throws Exception {
+        MinioBucketCache.BucketMetadata metadata = MinioBucketCache.get(ec, bucketId);
+        if (metadata == null || metadata.get("ledgerRebuiltDate") != null) return -1L;
+        return resolveSize(ec, bucketId, objectName);
+    }
+
+    /**
+     * 删除前确定对象大小：优先使用台账，台账中没有时statObject
+     *
+     * @return 对象大小；对象不存在时返回-1
+     */
+    public static long resolveSize(ExecutionContext ec, String bucketId, String objectName) throws Exception {
+        EntityValue entry = find(ec, bucketId, objectName);
+        if (entry != null) return sizeOf(entry);
+
+        requestRebuildIfMissing(ec, bucketId);
+        try {
+            return MinioClientPool.execute(ec.getFactory(), "statObject", bucketId, client -> client.statObject(
+                    StatObjectArgs.builder().bucket(bucketId).object(objectName).build()).size());
+        } catch (Exception e) {
+            if (MinioExceptionUtils.isNotFound(e)) return -1L;
+            throw e;
+        }
+    }
+
+    /**
+     * 只按台账确定对象大小（批量删除时不逐个statObject）
+     *
+     * @return 对象大小；台账中没有时返回-1
+     */
+    public static long peekSize(ExecutionContext ec, String bucketId, String objectName) {
+        EntityValue entry = find(ec, bucketId, objectName);
+        if (entry != null) return sizeOf(entry);
+        requestRebuildIfMissing(ec, bucketId);
+        return -1L;
+    }
+
+    /**
+     * 记录删除，删除台账记录
+     *
+     * @param size 删除前确定的对象大小，未知时为-1（不调整使用量）
+     */
+    public static void recordDelete(ExecutionContext ec, String bucketId, String objectName, long size) {
+        EntityValue existing = find(ec, bucketId, objectName);
+        if (existing != null) releaseDigest(ec, bucketId, existing);
+        long deleted = ec.getEntity().find("moqui.minio.BucketObject")
+                .condition("bucketId", bucketId)
+                .condition("objectName", objectName).disableAuthz().deleteAll();
+        // 启用事件通知时台账记录已不存在表示删除事件已由通知消费者计入
+        if (size >= 0L && (deleted > 0 || !MinioBucketNotificationConsumer.isActive())) {
+            recordUsage(bucketId, objectName, -1L, -size);
+        }
+    }
+
+    /**
+     * 按对象创建事件调整台账：台账记录的ETag与事件一致表示由本组件写入，使用量已在写入时记录；
+     * 否则为其他来源的写入，更新台账并按原记录计算使用量变化（覆盖时文件数不变，扣除原大小）
+     *
+     * @param etag 事件中的ETag，webhook事件未提供时为null（按大小判断）
+     * @return 使用量变化；已由本组件记录时返回null
+     */
+    static MinioBucketUsageAggregator.ObjectChange applyCreatedEvent(ExecutionContext ec, String bucketId, String objectName,
+                                                                     long size, String etag) {
+        EntityValue existing = find(ec, bucketId, objectName);
+        if (existing != null && (etag != null
+                ? Objects.equals(normalizeEtag(existing.getString("etag")), normalizeEtag(etag))
+                : sizeOf(existing) == size)) {
+            return null;
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        ec.getEntity().makeValue("moqui.minio.BucketObject")
+                .set("bucketId", bucketId)
+                .set("objectName", objectName)
+                .set("objectSize", size)
+                .set("etag", normalizeEtag(etag))
+                .set("lastModified", now)
+                .set("checksumAlgorithm", null)
+                .set("checksum", null)
+                .set("dedupDigest", null)
+                .set("verifiedDate", now)
+                .createOrUpdate();
+        if (existing == null) return new MinioBucketUsageAggregator.ObjectChange(objectName, 1L, size);
+        releaseDigest(ec, bucketId, existing);
+        return new MinioBucketUsageAggregator.ObjectChange(objectName, 0L, size - sizeOf(existing));
+    }
+
+    /**
+     * 按对象删除事件调整台账：台账中没有记录表示已由本组件删除并记录使用量（或大小未知，由后台聚合扫描校准）；
+     * 否则为其他来源的删除，删除台账记录并按记录的大小扣除
+     *
+     * @return 使用量变化；无需调整时返回null
+     */
+    static MinioBucketUsageAggregator.ObjectChange applyRemovedEvent(ExecutionContext ec, String bucketId, String objectName) {
+        EntityValue existing = find(ec, bucketId, objectName);
+        if (existing == null) return null;
+        releaseDigest(ec, bucketId, existing);
+        existing.delete();
+        return new MinioBucketUsageAggregator.ObjectChange(objectName, -1L, -sizeOf(existing));
+    }
+
+    /**
+     * 记录重命名（复制后删除原对象）：台账记录移到新名称，被覆盖的目标对象从使用量中扣除
+     *
+     * @param etag 新对象的ETag
+     */
+    public static void recordRename(ExecutionContext ec, String bucketId, String fromObjectName, String toObjectName,
+                                    String etag) throws Exception {
+        EntityValue source = find(ec, bucketId, fromObjectName);
+        long size = source != null ? sizeOf(source) : resolveSize(ec, bucketId, toObjectName);
+        if (size < 0L) size = 0L;
+
+        EntityValue overwritten = find(ec, bucketId, toObjectName);
+        if (overwritten != null) {
+            recordUsage(bucketId, toObjectName, -1L, -sizeOf(overwritten));
+            releaseDigest(ec, bucketId, overwritten);
+        }
+        ec.getEntity().find("moqui.minio.BucketObject")
+                .condition("bucketId", bucketId)
+                .condition("objectName", fromObjectName).disableAuthz().deleteAll();
+
+        // 复制不改变内容，沿用原对象的校验和与去重引用
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        ec.getEntity().makeValue("moqui.minio.BucketObject")
+                .set("bucketId", bucketId)
+                .set("objectName", toObjectName)
+                .set("objectSize", size)
+                .set("etag", etag)
+                .set("lastModified", now)
+                .set("checksumAlgorithm", source != null ? source.getString("checksumAlgorithm") : null)
+                .set("checksum", source != null ? source.getString("checksum") : null)
+                .set("dedupDigest", source != null ? source.getString("dedupDigest") : null)
+                .set("verifiedDate", now)
+                .createOrUpdate();
+    }
+
+    /**
+     * 存储桶台账未建立时在后台重建，同一存储桶在本节点只有一个重建任务
+     */
+    static void requestRebuildIfMissing(ExecutionContext ec, String bucketId) {
+        if (rebuildingBuckets.contains(bucketId)) return;
+        EntityValue bucket = ec.getEntity().find("moqui.minio.Bucket")
+                .condition("bucketId", bucketId)
+                .selectField("ledgerRebuiltDate").useCache(false).disableAuthz().one();
+        if (bucket == null || bucket.getTimestamp("ledgerRebuiltDate") != null) return;
+
+        ExecutionContextFactory ecf = ec.getFactory();
+        if (!rebuildingBuckets.add(bucketId)) return;
+        // 重建需要分页列举，在任务执行器上运行，不占用调度器的定时任务线程
+        MinioTaskExecutor.submit(() -> {
+            ExecutionContext rebuildEc = ecf.getExecutionContext();
+            try {
+                rebuild(rebuildEc, bucketId);
+            } catch (Exception e) {
+                logger.warn("重建存储桶对象台账失败: " + bucketId, MinioExceptionUtils.unwrap(e));
+            } finally {
+                rebuildingBuckets.remove(bucketId);
+                rebuildEc.destroy();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 按存储桶列举结果重建台账：分页写入每个对象，完成后删除重建期间未确认的记录并记录 ledgerRebuiltDate
+     * 需在事务外调用，每页单独提交
+     *
+     * @return 列举的对象数
+     */
+    public static long rebuild(ExecutionContext ec, String bucketId) throws Exception {
+        Timestamp rebuildStarted = new Timestamp(System.currentTimeMillis());
+        long listed = 0L;
+        String startAfter = null;
+        while (true) {
+            String pageStartAfter = startAfter;
+            List<Item> page = MinioClientPool.execute(ec.getFactory(), "listObjects", bucketId, client -> {
+                ListObjectsArgs.Builder builder = ListObjectsArgs.builder()
+                        .bucket(bucketId)
+                        .recursive(true)
+                        .maxKeys(REBUILD_PAGE_SIZE);
+                if (pageStartAfter != null) builder.startAfter(pageStartAfter);
+                List<Item> items = new ArrayList<>(REBUILD_PAGE_SIZE);
+                // 只读取一页，避免迭代器继续请求下一页
+                Iterator<Result<Item>> iterator = client.listObjects(builder.build()).iterator();
+                while (items.size() < REBUILD_PAGE_SIZE && iterator.hasNext()) items.add(iterator.next().get());
+                return items;
+            });
+
+            MinioBucketUsageAggregator.runInTransaction(ec, "写入存储桶对象台账失败", () -> {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                for (Item item : page) {
+                    if (item.isDir()) continue;
+                    EntityValue entry = ec.getEntity().makeValue("moqui.minio.BucketObject")
+                            .set("bucketId", bucketId)
+                            .set("objectName", item.objectName())
+                            .set("objectSize", item.size())
+                            .set("etag", normalizeEtag(item.etag()))
+                            .set("lastModified", item.lastModified() != null ? Timestamp.from(item.lastModified().toInstant()) : null)
+                            .set("verifiedDate", now);
+                    // 列举结果不含校验和：ETag不变时保留上传时记录的校验和，对象已被替换时清除
+                    EntityValue existing = find(ec, bucketId, item.objectName());
+                    if (existing != null && !Objects.equals(normalizeEtag(existing.getString("etag")), normalizeEtag(item.etag()))) {
+                        entry.set("checksumAlgorithm", null).set("checksum", null);
+                    }
+                    entry.createOrUpdate();
+                }
+            });
+            listed += page.size();
+            if (page.size() < REBUILD_PAGE_SIZE) break;
+            startAfter = page.get(page.size() - 1).objectName();
+        }
+
+        MinioBucketUsageAggregator.runInTransaction(ec, "完成存储桶对象台账重建失败", () -> {
+            ec.getEntity().find("moqui.minio.BucketObject")
+                    .condition("bucketId", bucketId)
+                    .condition("verifiedDate", "<", rebuildStarted).disableAuthz().deleteAll();
+            ec.getEntity().find("moqui.minio.Bucket")
+                    .condition("bucketId", bucketId).disableAuthz()
+                    .updateAll(Collections.singletonMap("ledgerRebuiltDate", new Timestamp(System.currentTimeMillis())));
+        });
+        MinioBucketCache.invalidate(ec.getFactory(), bucketId);
+        logger.info("存储桶 {} 对象台账重建完成: 对象{}个", bucketId, listed);
+        return listed;
+    }
+
+    private static void releaseDigest(ExecutionContext ec, String bucketId, EntityValue entry) {
+        String digest = entry.getString("dedupDigest");
+        if (digest != null) MinioDedupStore.release(ec, bucketId, digest);
+    }
+
+    private static void recordUsage(String bucketId, String objectName, long fileDelta, long sizeDelta) {
+        MinioBucketUsageAccumulator.record(bucketId, objectName, fileDelta, sizeDelta);
+    }
+
+    /**
+     * 去掉ETag两端的引号（列举结果与写入响应的格式不同）
+     */
+    static String normalizeEtag(String etag) {
+        return etag != null ? etag.replace("\"", "") : null;
+    }
+
+    private static long sizeOf(EntityValue entry) {
+        Long size = entry.getLong("objectSize");
+        return size != null ? size : 0L;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.ObjectWriteArgs;
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import org.moqui.context.ExecutionContextFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 流式对象上传
+ *
+ * 输入流直接交给SDK分片上传，不在堆中缓存整个文件：长度未知时按 minio.uploadPartSize 分片，
+ * 每个上传最多占用一到两个分片大小的缓冲。输入流只能读取一次，上传失败不重试。
+ * 发送的同时按 minio.uploadChecksumAlgorithm 计算校验和；内容已在内存中时先计算校验和并作为请求头发送，由MinIO校验
+ */
+public class MinioObjectUploader {
+    /** S3 分片上传的最大分片数 */
+    static final long MAX_PARTS = 10000L;
+
+    /**
+     * 上传结果
+     */
+    public static final class UploadResult {
+        private final String objectName;
+        private final long size;
+        private final String etag;
+        private final String versionId;
+        private final String checksumAlgorithm;
+        private final String checksum;
+        private final String codec;
+        private final long originalSize;
+
+        UploadResult(String objectName, long size, String etag, String versionId, String checksumAlgorithm, String checksum) {
+            this(objectName, size, etag, versionId, checksumAlgorithm, checksum, null, size);
+        }
+
+        UploadResult(String objectName, long size, String etag, String versionId, String checksumAlgorithm, String checksum,
+                     String codec, long originalSize) {
+            this.objectName = objectName;
+            this.size = size;
+            this.etag = etag;
+            this.versionId = versionId;
+            this.checksumAlgorithm = checksumAlgorithm;
+            this.checksum = checksum;
+            this.codec = codec;
+            this.originalSize = originalSize;
+        }
+
+        public String getObjectName() { return objectName; }
+        public long getSize() { return size; }
+        public String getEtag() { return etag; }
+        public String getVersionId() { return versionId; }
+        /** 校验和算法，未计算时为null */
+        public String getChecksumAlgorithm() { return checksumAlgorithm; }
+        /** Base64编码的校验和（按存储的字节计算），未计算时为null */
+        public String getChecksum() { return checksum; }
+        /** 压缩编码，未压缩时为null；压缩时size为压缩后大小 */
+        public String getCodec() { return codec; }
+        /** 压缩前的大小，未压缩时与size相同 */
+        public long getOriginalSize() { return originalSize; }
+    }
+
+    /**
+     * 上传输入流，调用方负责关闭输入流
+     *
+     * @param size 长度，未知时为-1
+     * @param contentType 内容类型，可为null
+     * @return 上传结果，size为实际读取的字节数
+     */
+    public static UploadResult putStream(ExecutionContextFactory ecf, String bucketId, String objectName,
+                                         InputStream stream, long size, String contentType) throws Exception {
+        return putStream(ecf, bucketId, objectName, stream, size, contentType,
+                MinioConfig.getInstance(ecf).getUploadChecksumAlgorithm(), null);
+    }
+
+    /**
+     * 上传输入流，指定校验和算法与用户元数据
+     *
+     * @param checksumAlgorithm 校验和算法，NONE或null时不计算
+     * @param userMetadata 用户元数据（x-amz-meta-*），可为null
+     */
+    public static UploadResult putStream(ExecutionContextFactory ecf, String bucketId, String objectName, InputStream stream,
+                                         long size, String contentType, String checksumAlgorithm,
+                                         Map<String, String> userMetadata) throws Exception {
+        return putStream(ecf, bucketId, objectName, stream, size, contentType, checksumAlgorithm, userMetadata, null);
+    }
+
+    /**
+     * 上传输入流，指定校验和算法、用户元数据与请求头
+     *
+     * @param headers 随请求发送的对象请求头（如 Content-Encoding），可为null
+     */
+    public static UploadResult putStream(ExecutionContextFactory ecf, String bucketId, String objectName, InputStream stream,
+                                         long size, String contentType, String checksumAlgorithm,
+                                         Map<String, String> userMetadata, Map<String, String> headers) throws Exception {
+        MinioConfig config = MinioConfig.getInstance(ecf);
+        long partSize = resolvePartSize(config.getUploadPartSize(), size);
+        MinioChecksum checksum = MinioChecksum.create(checksumAlgorithm);
+        CountingInputStream countingStream = new CountingInputStream(
+                checksum != null ? new MinioChecksum.ChecksumInputStream(stream, checksum) : stream);
+        ObjectWriteResponse response = MinioClientPool.executeWithoutRetry(ecf, "putObject", bucketId, client -> {
+            PutObjectArgs.Builder builder = PutObjectArgs.builder()
+                    .bucket(bucketId)
+                    .object(objectName)
+                    .stream(countingStream, size, partSize);
+            if (contentType != null && !contentType.isEmpty()) builder.contentType(contentType);
+            if (userMetadata != null && !userMetadata.isEmpty()) builder.userMetadata(userMetadata);
+            if (headers != null && !headers.isEmpty()) builder.headers(headers);
+            return client.putObject(builder.build());
+        });
+        MinioMetrics.recordBytesOut("putObject", bucketId, countingStream.getCount());
+        return new UploadResult(objectName, countingStream.getCount(), response.etag(), response.versionId(),
+                checksum != null ? checksum.getAlgorithm() : null, checksum != null ? checksum.getValue() : null);
+    }
+
+    /**
+     * 上传内存中的内容：先计算校验和并作为 x-amz-checksum-* 请求头发送，MinIO校验不一致时拒绝上传
+     *
+     * @param contentType 内容类型，可为null
+     */
+    public static UploadResult putBytes(ExecutionContextFactory ecf, String bucketId, String objectName,
+                                        byte[] data, String contentType) throws Exception {
+        return putBytes(ecf, bucketId, objectName, data, contentType, null);
+    }
+
+    /**
+     * 上传内存中的内容并设置用户元数据
+     *
+     * @param userMetadata 用户元数据（x-amz-meta-*），可为null
+     */
+    public static UploadResult putBytes(ExecutionContextFactory ecf, String bucketId, String objectName,
+                                        byte[] data, String contentType, Map<String, String> userMetadata) throws Exception {
+        MinioChecksum checksum = MinioChecksum.create(MinioConfig.getInstance(ecf).getUploadChecksumAlgorithm());
+        String checksumValue = null;
+        if (checksum != null) {
+            checksum.update(data, 0, data.length);
+            checksumValue = checksum.getValue();
+        }
+        String headerValue = checksumValue;
+        ObjectWriteResponse response = MinioClientPool.execute(ecf, "putObject", bucketId, client -> {
+            PutObjectArgs.Builder builder = PutObjectArgs.builder()
+                    .bucket(bucketId)
+                    .object(objectName)
+                    // 分片大小不小于内容长度，保证单次PUT发送，校验和请求头作用于整个对象
+                    .stream(new ByteArrayInputStream(data), data.length, Math.max(data.length, ObjectWriteArgs.MIN_MULTIPART_SIZE));
+            if (contentType != null && !contentType.isEmpty()) builder.contentType(contentType);
+            if (checksum != null) builder.headers(Collections.singletonMap(checksum.getHeaderName(), headerValue));
+            if (userMetadata != null && !userMetadata.isEmpty()) builder.userMetadata(userMetadata);
+            return client.putObject(builder.build());
+        });
+        MinioMetrics.recordBytesOut("putObject", bucketId, data.length);
+        return new UploadResult(objectName, data.length, response.etag(), response.versionId(),
+                checksum != null ? checksum.getAlgorithm() : null, checksumValue);
+    }
+
+    /**
+     * 长度未知时使用配置的分片大小；长度已知但按配置分片超过最大分片数时由SDK计算分片大小
+     */
+    static long resolvePartSize(long configuredPartSize, long size) {
+        if (size < 0) return configuredPartSize;
+        return size > configuredPartSize * MAX_PARTS ? -1L : configuredPartSize;
+    }
+
+    /**
+     * 统计已读取字节数的输入流
+     */
+    static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        long getCount() { return count; }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import io.minio.GetPresignedObjectUrlArgs;
+import io.minio.PostPolicy;
+import io.minio.RemoveObjectArgs;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.http.Method;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 浏览器直传MinIO的预签名上传
+ *
+ * 签发预签名PUT地址或POST策略表单，上传数据不经过应用服务器；
+ * 大小上限取声明的长度与存储桶剩余配额（quotaLimit - usedStorage - 尚未完成的签发的maxSize）中较小者，
+ * POST策略通过content-length-range由MinIO强制限制，PUT地址无法限制请求体大小，在完成回调中校验，超出上限的对象被删除。
+ * 签发记录保存在 moqui.minio.PresignedUpload，完成回调通过statObject确认对象后记录使用量；
+ * 过期仍未回调的签发由定时任务statObject确认：已上传的按同样规则删除超限对象或记入台账，未上传的标记为EXPIRED
+ */
+public class MinioPresignedUploads {
+    private static final Logger logger = LoggerFactory.getLogger(MinioPresignedUploads.class);
+
+    public static final String METHOD_PUT = "PUT";
+    public static final String METHOD_POST = "POST";
+
+    public static final String STATUS_ISSUED = "ISSUED";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_REJECTED = "REJECTED";
+    public static final String STATUS_EXPIRED = "EXPIRED";
+
+    /** S3 单次 PUT/POST 上传的对象大小上限 */
+    public static final long MAX_SINGLE_UPLOAD_SIZE = 5L * 1024 * 1024 * 1024;
+
+    /**
+     * 计算允许上传的最大字节数，已签发尚未完成的上传按其maxSize预留配额
+     *
+     * @param bucket 存储桶记录（应已锁定，使并发签发依次预留）
+     * @param contentLength 声明的长度，可为null
+     * @return 最大字节数；配额已用完或声明长度超出时返回负数
+     */
+    public static long resolveMaxSize(ExecutionContext ec, EntityValue bucket, Long contentLength) {
+        long maxSize = MAX_SINGLE_UPLOAD_SIZE;
+        Long quotaLimit = bucket.getLong("quotaLimit");
+        if (quotaLimit != null && quotaLimit > 0) {
+            String bucketId = bucket.getString("bucketId");
+            long usedStorage = MinioBucketUsageAccumulator.getUsedStorage(bucketId, bucket.getLong("usedStorage"));
+            maxSize = Math.min(maxSize, quotaLimit - usedStorage - reservedSize(ec, bucketId));
+        }
+        if (contentLength != null) {
+            if (contentLength > maxSize) return -1L;
+            maxSize = contentLength;
+        }
+        return maxSize;
+    }
+
+    /**
+     * 已签发尚未完成的上传预留的字节数
+     */
+    static long reservedSize(ExecutionContext ec, String bucketId) {
+        long reserved = 0L;
+        for (EntityValue issued : ec.getEntity().find("moqui.minio.PresignedUpload")
+                .condition("bucketId", bucketId)
+                .condition("status", STATUS_ISSUED)
+                .selectField("maxSize").disableAuthz().list()) {
+            Long maxSize = issued.getLong("maxSize");
+            if (maxSize != null) reserved += maxSize;
+        }
+        return reserved;
+    }
+
+    /**
+     * 签发预签名上传
+     *
+     * @param uploadMethod PUT 或 POST
+     * @param maxSize 允许的最大字节数
+     * @return presignedUploadId、uploadMethod、uploadUrl、formData（POST时）、maxSize、expireDate
+     */
+    public static Map<String, Object> issue(ExecutionContext ec, String bucketId, String objectName, String contentType,
+                                            String uploadMethod, long maxSize, String userId) throws Exception {
+        int expirySeconds = MinioConfig.getInstance(ec.getFactory()).getPresignedUploadExpiry();
+        ZonedDateTime expiration = ZonedDateTime.now().plusSeconds(expirySeconds);
+
+        Map<String, Object> issued = new LinkedHashMap<>();
+        if (METHOD_POST.equals(uploadMethod)) {
+            PostPolicy policy = new PostPolicy(bucketId, expiration);
+            policy.addEqualsCondition("key", objectName);
+            policy.addContentLengthRangeCondition(0L, maxSize);
+            if (contentType != null && !contentType.isEmpty()) policy.addEqualsCondition("Content-Type", contentType);
+            Map<String, String> formData = MinioClientPool.execute(ec.getFactory(), "getPresignedPostFormData", bucketId,
+                    client -> client.getPresignedPostFormData(policy));
+            Map<String, String> fields = new LinkedHashMap<>(formData);
+            fields.put("key", objectName);
+            if (contentType != null && !contentType.isEmpty()) fields.put("Content-Type", contentType);
+            String endpoint = MinioConfig.getInstance(ec.getFactory()).getEndpoint();
+            issued.put("uploadUrl", (endpoint.endsWith("/") ? endpoint : endpoint + "/") + bucketId);
+            issued.put("formData", fields);
+        } else {
+            Map<String, String> headers = new HashMap<>();
+            if (contentType != null && !contentType.isEmpty()) headers.put("Content-Type", contentType);
+            String url = MinioClientPool.execute(ec.getFactory(), "getPresignedObjectUrl", bucketId,
+                    client -> client.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                            .method(Method.PUT)
+                            .bucket(bucketId)
+                            .object(objectName)
+                            .extraHeaders(headers)
+                            .expiry(expirySeconds)
+                            .build()));
+            issued.put("uploadUrl", url);
+        }
+
+        String presignedUploadId = UUID.randomUUID().toString();
+        Timestamp expireDate = Timestamp.from(expiration.toInstant());
+        ec.getEntity().makeValue("moqui.minio.PresignedUpload")
+                .set("presignedUploadId", presignedUploadId)
+                .set("bucketId", bucketId)
+                .set("objectName", objectName)
+                .set("userId", userId)
+                .set("uploadMethod", uploadMethod)
+                .set("maxSize", maxSize)
+                .set("status", STATUS_ISSUED)
+                .set("createdDate", new Timestamp(System.currentTimeMillis()))
+                .set("expireDate", expireDate)
+                .create();
+
+        issued.put("presignedUploadId", presignedUploadId);
+        issued.put("uploadMethod", uploadMethod);
+        issued.put("maxSize", maxSize);
+        issued.put("expireDate", expireDate);
+        return issued;
+    }
+
+    /**
+     * 完成回调：确认对象已上传且不超过大小上限；超出上限的对象从MinIO删除并标记为REJECTED
+     * （REJECTED在独立事务中提交，不随抛出异常后的回滚撤销）
+     *
+     * @return 对象信息；对象不存在时返回null（签发记录保持ISSUED，可在有效期内重试）
+     * @throws IllegalStateException 对象超出大小上限，或签发记录已由定时任务处理
+     */
+    public static StatObjectResponse complete(ExecutionContext ec, EntityValue presignedUpload) throws Exception {
+        String bucketId = presignedUpload.getString("bucketId");
+        String objectName = presignedUpload.getString("objectName");
+        StatObjectResponse stat = statUploaded(ec, bucketId, objectName);
+        if (stat == null) return null;
+
+        long maxSize = presignedUpload.getLong("maxSize");
+        if (stat.size() > maxSize) {
+            reject(ec, presignedUpload, stat);
+            throw new IllegalStateException("上传对象大小 " + stat.size() + " 超过上限 " + maxSize + "，已删除");
+        }
+        // 按状态条件更新，与过期处理任务并发时只有一方记录使用量
+        if (!transition(ec, presignedUpload, STATUS_COMPLETED, stat)) {
+            throw new IllegalStateException("预签名上传已处理: " + presignedUpload.getString("presignedUploadId"));
+        }
+        return stat;
+    }
+
+    /**
+     * 处理已过期且未完成的签发记录：statObject确认对象，未上传的标记为EXPIRED，
+     * 超出大小上限的删除并标记为REJECTED，其余标记为COMPLETED并记入台账。
+     * 需在事务外调用（服务定义transaction="ignore"），每条记录单独提交
+     *
+     * @return [标记为EXPIRED的数量, COMPLETED的数量, REJECTED的数量]
+     */
+    public static long[] expireIssued(ExecutionContext ec) {
+        long[] counts = new long[3];
+        EntityList expiredList = ec.getEntity().find("moqui.minio.PresignedUpload")
+                .condition("status", STATUS_ISSUED)
+                .condition("expireDate", "<", new Timestamp(System.currentTimeMillis()))
+                .disableAuthz().list();
+        for (EntityValue presignedUpload : expiredList) {
+            String bucketId = presignedUpload.getString("bucketId");
+            String objectName = presignedUpload.getString("objectName");
+            try {
+                StatObjectResponse stat = statUploaded(ec, bucketId, objectName);
+                // 签发前已存在且之后未被覆盖的同名对象不是本次上传
+                Timestamp createdDate = presignedUpload.getTimestamp("createdDate");
+                if (stat != null && createdDate != null && stat.lastModified() != null
+                        && stat.lastModified().toInstant().isBefore(createdDate.toInstant().minusSeconds(1))) {
+                    stat = null;
+                }
+                if (stat == null) {
+                    MinioBucketUsageAggregator.runInTransaction(ec, "标记预签名上传过期失败", () -> {
+                        if (transition(ec, presignedUpload, STATUS_EXPIRED, null)) counts[0]++;
+                    });
+                } else if (stat.size() > presignedUpload.getLong("maxSize")) {
+                    reject(ec, presignedUpload, stat);
+                    counts[2]++;
+                } else {
+                    StatObjectResponse uploaded = stat;
+                    MinioBucketUsageAggregator.runInTransaction(ec, "记录过期的预签名上传失败", () -> {
+                        if (!transition(ec, presignedUpload, STATUS_COMPLETED, uploaded)) return;
+                        MinioObjectLedger.recordUpload(ec, bucketId, objectName, uploaded.size(), uploaded.etag());
+                        counts[1]++;
+                    });
+                }
+            } catch (Exception e) {
+                logger.warn("处理过期的预签名上传失败: " + presignedUpload.getString("presignedUploadId"), MinioExceptionUtils.unwrap(e));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return 对象信息；对象不存在时返回null
+     */
+    private static StatObjectResponse statUploaded(ExecutionContext ec, String bucketId, String objectName) throws Exception {
+        try {
+            return MinioClientPool.execute(ec.getFactory(), "statObject", bucketId, client -> client.statObject(
+                    StatObjectArgs.builder().bucket(bucketId).object(objectName).build()));
+        } catch (Exception e) {
+            if (MinioExceptionUtils.isNotFound(e)) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * 删除超出大小上限的对象，在独立事务中标记为REJECTED
+     */
+    private static void reject(ExecutionContext ec, EntityValue presignedUpload, StatObjectResponse stat) throws Exception {
+        String bucketId = presignedUpload.getString("bucketId");
+        String objectName = presignedUpload.getString("objectName");
+        MinioClientPool.execute(ec.getFactory(), "removeObject", bucketId, client -> {
+            client.removeObject(RemoveObjectArgs.builder().bucket(bucketId).object(objectName).build());
+            return null;
+        });
+        MinioMultipartUploads.runInNewTransaction(ec, "标记预签名上传拒绝失败",
+                () -> transition(ec, presignedUpload, STATUS_REJECTED, stat));
+        logger.warn("预签名上传超出大小上限已删除: {}/{} size={} maxSize={}", bucketId, objectName, stat.size(),
+                presignedUpload.getLong("maxSize"));
+    }
+
+    /**
+     * 将仍为ISSUED或EXPIRED的签发记录更新为指定状态
+     *
+     * @param stat 对象信息，未上传时为null
+     * @return 是否更新（记录已被其他请求处理时返回false）
+     */
+    private static boolean transition(ExecutionContext ec, EntityValue presignedUpload, String status, StatObjectResponse stat) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("status", status);
+        if (stat != null) {
+            fields.put("objectSize", stat.size());
+            fields.put("etag", stat.etag());
+            fields.put("completedDate", new Timestamp(System.currentTimeMillis()));
+        }
+        boolean updated = ec.getEntity().find("moqui.minio.PresignedUpload")
+                .condition("presignedUploadId", presignedUpload.getString("presignedUploadId"))
+                .condition("status", "in", Arrays.asList(STATUS_ISSUED, STATUS_EXPIRED))
+                .disableAuthz().updateAll(fields) > 0;
+        if (updated) presignedUpload.setAll(fields);
+        return updated;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MinIO调用重试策略
+ *
+ * 仅对 {@link MinioExceptionUtils} 判定为可重试或临时性的错误重试，
+ * 退避时间为带上限的指数退避加全抖动（full jitter）；
+ * 每个操作拥有独立的重试预算：每次首次调用存入一定比例的令牌，每次重试消耗一个令牌，
+ * 服务端持续过载时重试量被限制在正常请求量的固定比例内，避免重试放大负载
+ */
+public class MinioRetryPolicy {
+    // 令牌以千分之一为单位存储，避免浮点并发更新
+    private static final long TOKEN_SCALE = 1000;
+    // 每个操作的初始/最低保留重试次数，保证低流量时也能重试
+    private static final long RESERVE_RETRIES = 10;
+
+    private final int maxRetries;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long depositPerCall;
+    private final long maxTokens;
+    private final ConcurrentHashMap<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+
+    /**
+     * 单个操作的重试预算与统计
+     */
+    static final class RetryBudget {
+        final AtomicLong tokens;
+        final LongAdder callCount = new LongAdder();
+        final LongAdder retryCount = new LongAdder();
+        final LongAdder budgetExhaustedCount = new LongAdder();
+
+        RetryBudget(long initialTokens) {
+            this.tokens = new AtomicLong(initialTokens);
+        }
+    }
+
+    public MinioRetryPolicy(MinioConfig config) {
+        this.maxRetries = config.getMaxRetries();
+        this.baseDelayMs = config.getRetryBaseDelay();
+        this.maxDelayMs = config.getRetryMaxDelay();
+        this.depositPerCall = Math.round(config.getRetryBudgetRatio() * TOKEN_SCALE);
+        this.maxTokens = Math.max(RESERVE_RETRIES * TOKEN_SCALE, depositPerCall * 100);
+    }
+
+    private RetryBudget getBudget(String operation) {
+        return budgets.computeIfAbsent(operation, key -> new RetryBudget(RESERVE_RETRIES * TOKEN_SCALE));
+    }
+
+    /**
+     * 记录一次首次调用，向该操作的重试预算存入令牌
+     */
+    void recordCall(String operation) {
+        RetryBudget budget = getBudget(operation);
+        budget.callCount.increment();
+        if (depositPerCall <= 0) return;
+        long current;
+        do {
+            current = budget.tokens.get();
+            if (current >= maxTokens) return;
+        } while (!budget.tokens.compareAndSet(current, Math.min(maxTokens, current + depositPerCall)));
+    }
+
+    /**
+     * 判断是否应重试，允许时从预算中扣除一次重试
+     *
+     * @param operation 操作名称
+     * @param attempt 已完成的重试次数（首次调用失败时为0）
+     * @param e 本次调用的异常
+     * @return true如果应重试
+     */
+    boolean shouldRetry(String operation, int attempt, Exception e) {
+        if (attempt >= maxRetries) return false;
+        if (!MinioExceptionUtils.isRetryableException(e) && !MinioExceptionUtils.isTemporaryException(e)) return false;
+
+        RetryBudget budget = getBudget(operation);
+        long current;
+        do {
+            current = budget.tokens.get();
+            if (current < TOKEN_SCALE) {
+                budget.budgetExhaustedCount.increment();
+                return false;
+            }
+        } while (!budget.tokens.compareAndSet(current, current - TOKEN_SCALE));
+        budget.retryCount.increment();
+        return true;
+    }
+
+    /**
+     * 计算第attempt次重试前的退避时间：[0, min(maxDelay, baseDelay * 2^attempt)] 内随机
+     */
+    long backoffDelay(int attempt) {
+        long cap = baseDelayMs << Math.min(attempt, 20);
+        if (cap <= 0 || cap > maxDelayMs) cap = maxDelayMs;
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * 获取各操作的调用、重试与预算耗尽统计
+     */
+    public List<Map<String, Object>> getRetryStats() {
+        List<Map<String, Object>> statsList = new ArrayList<>();
+        for (Map.Entry<String, RetryBudget> entry : budgets.entrySet()) {
+            RetryBudget budget = entry.getValue();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("operation", entry.getKey());
+            stats.put("callCount", budget.callCount.sum());
+            stats.put("retryCount", budget.retryCount.sum());
+            stats.put("budgetExhaustedCount", budget.budgetExhaustedCount.sum());
+            stats.put("availableRetries", budget.tokens.get() / TOKEN_SCALE);
+            statsList.add(stats);
+        }
+        return statsList;
+    }
+}
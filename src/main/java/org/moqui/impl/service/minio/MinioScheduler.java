@@ -0,0 +1,87 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MinIO组件后台调度器
+ *
+ * 为配置监听、连接池维护等组件内部的周期任务提供共享的守护线程，
+ * 本节点本地执行，与Moqui的集群级ServiceJob互不影响；
+ * 线程只用于定时触发，需要阻塞的一次性任务提交到 {@link MinioTaskExecutor}
+ */
+public class MinioScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(MinioScheduler.class);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static volatile ScheduledExecutorService scheduler;
+
+    private static ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService localScheduler = scheduler;
+        if (localScheduler == null) {
+            synchronized (MinioScheduler.class) {
+                localScheduler = scheduler;
+                if (localScheduler == null) {
+                    localScheduler = Executors.newScheduledThreadPool(2, runnable -> {
+                        Thread thread = new Thread(runnable, "MinioScheduler-" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    scheduler = localScheduler;
+                }
+            }
+        }
+        return localScheduler;
+    }
+
+    /**
+     * 以固定间隔执行周期任务，任务异常只记录日志，不会终止后续调度
+     *
+     * @param name 任务名称（用于日志）
+     * @param task 任务
+     * @param intervalMs 执行间隔（毫秒）
+     * @return 调度句柄
+     */
+    public static ScheduledFuture<?> scheduleWithFixedDelay(String name, Runnable task, long intervalMs) {
+        logger.info("Scheduling MinIO background task {} every {}ms", name, intervalMs);
+        return getScheduler().scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("MinIO background task {} failed: {}", name, t.getMessage(), t);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止所有后台任务
+     */
+    public static void shutdown() {
+        synchronized (MinioScheduler.class) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+                logger.info("MinIO background scheduler stopped");
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MinIO批量任务执行器
+ *
+ * 供批量统计、批量删除等需要发起大量相互独立的阻塞SDK调用的场景并发执行，
+ * 使总耗时接近最慢的单个调用而不是所有调用之和；
+ * JVM支持时使用虚拟线程（每个任务一个虚拟线程），否则回退到固定大小的平台线程池，
+ * 两种模式下同时执行的任务数都受全局并发上限（minio.taskConcurrency）限制
+ *
+ * 任务在其他线程上执行，不能使用当前线程的ExecutionContext（实体、事务、用户等），
+ * 应只进行MinIO调用，结果返回后再在请求线程上处理数据库操作
+ */
+public class MinioTaskExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(MinioTaskExecutor.class);
+
+    private static volatile MinioTaskExecutor instance;
+
+    private final ExecutorService executorService;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final boolean virtualThreads;
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final LongAdder submittedTasks = new LongAdder();
+    private final LongAdder failedTasks = new LongAdder();
+
+    private MinioTaskExecutor(int maxConcurrency, boolean useVirtualThreads) {
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+
+        ExecutorService virtualExecutor = useVirtualThreads ? createVirtualThreadExecutor() : null;
+        this.virtualThreads = virtualExecutor != null;
+        if (virtualExecutor != null) {
+            this.executorService = virtualExecutor;
+        } else {
+            AtomicInteger threadCounter = new AtomicInteger();
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "MinioTask-" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            threadPool.allowCoreThreadTimeOut(true);
+            this.executorService = threadPool;
+        }
+        logger.info("MinIO task executor started: {} threads, max concurrency {}", virtualThreads ? "virtual" : "platform", maxConcurrency);
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器，使组件仍可在不支持虚拟线程的JDK上编译和运行
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.info("Virtual threads not available ({}), using platform threads for MinIO tasks", e.getClass().getSimpleName());
+            return null;
+        }
+    }
+
+    /**
+     * 按配置初始化执行器，替换已有执行器（已提交的任务继续执行完毕）
+     */
+    public static void configure(MinioConfig config) {
+        synchronized (MinioTaskExecutor.class) {
+            MinioTaskExecutor old = instance;
+            instance = new MinioTaskExecutor(config.getTaskConcurrency(), config.isVirtualThreadsEnabled());
+            if (old != null) old.executorService.shutdown();
+        }
+    }
+
+    private static MinioTaskExecutor getInstance() {
+        MinioTaskExecutor localInstance = instance;
+        if (localInstance == null) {
+            synchronized (MinioTaskExecutor.class) {
+                localInstance = instance;
+                if (localInstance == null) {
+                    localInstance = new MinioTaskExecutor(MinioConfig.DEFAULT_TASK_CONCURRENCY, MinioConfig.DEFAULT_VIRTUAL_THREADS_ENABLED);
+                    instance = localInstance;
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    /**
+     * 提交一个任务
+     *
+     * @param task 任务，只应进行MinIO调用
+     * @return 任务结果
+     */
+    public static <T> CompletableFuture<T> submit(Callable<T> task) {
+        return getInstance().doSubmit(task);
+    }
+
+    /**
+     * 提交一组任务，返回的future与任务一一对应
+     *
+     * @param tasks 任务
+     * @return 各任务结果
+     */
+    public static <T> List<CompletableFuture<T>> submitAll(Collection<? extends Callable<T>> tasks) {
+        MinioTaskExecutor executor = getInstance();
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) futures.add(executor.doSubmit(task));
+        return futures;
+    }
+
+    /**
+     * 提交一组任务，同时执行的任务数不超过maxParallel（在全局并发上限之内再限制本批任务）
+     *
+     * 由maxParallel个工作任务依次领取执行；调用方取消（cancel）的future对应的任务如尚未开始则不再执行
+     *
+     * @param tasks 任务
+     * @param maxParallel 本批任务的并发上限
+     * @return 各任务结果，与任务一一对应
+     */
+    public static <T> List<CompletableFuture<T>> submitAll(List<? extends Callable<T>> tasks, int maxParallel) {
+        if (maxParallel <= 0 || maxParallel >= tasks.size()) return submitAll(tasks);
+
+        MinioTaskExecutor executor = getInstance();
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) futures.add(new CompletableFuture<>());
+        AtomicInteger nextIndex = new AtomicInteger();
+        for (int worker = 0; worker < maxParallel; worker++) {
+            executor.doSubmit(() -> {
+                int index;
+                while ((index = nextIndex.getAndIncrement()) < tasks.size()) {
+                    CompletableFuture<T> future = futures.get(index);
+                    if (future.isDone()) continue;
+                    try {
+                        future.complete(tasks.get(index).call());
+                    } catch (Throwable t) {
+                        executor.failedTasks.increment();
+                        future.completeExceptionally(t);
+                    }
+                }
+                return null;
+            }).whenComplete((ignored, error) -> {
+                // 工作任务未能执行（执行器已停止等）时，结束尚未领取的任务
+                if (error == null) return;
+                for (CompletableFuture<T> future : futures) future.completeExceptionally(error);
+            });
+        }
+        return futures;
+    }
+
+    /**
+     * 启动长时间运行的任务（如事件订阅的长轮询）：虚拟线程模式下在执行器上运行，否则使用独立的守护线程；
+     * 不占用全局并发许可，避免长期阻塞的任务耗尽批量任务的并发额度
+     *
+     * @param name 线程名称
+     */
+    public static void startLongRunning(String name, Runnable task) {
+        MinioTaskExecutor executor = getInstance();
+        if (executor.virtualThreads) {
+            executor.executorService.execute(() -> {
+                Thread.currentThread().setName(name);
+                task.run();
+            });
+        } else {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private <T> CompletableFuture<T> doSubmit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        submittedTasks.increment();
+        try {
+            executorService.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failedTasks.increment();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                activeTasks.incrementAndGet();
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    failedTasks.increment();
+                    future.completeExceptionally(t);
+                } finally {
+                    activeTasks.decrementAndGet();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failedTasks.increment();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 停止执行器
+     */
+    public static void shutdown() {
+        synchronized (MinioTaskExecutor.class) {
+            if (instance != null) {
+                instance.executorService.shutdown();
+                instance = null;
+                logger.info("MinIO task executor stopped");
+            }
+        }
+    }
+
+    /**
+     * 获取执行器统计
+     */
+    public static Map<String, Object> getStats() {
+        MinioTaskExecutor executor = getInstance();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threadMode", executor.virtualThreads ? "virtual" : "platform");
+        stats.put("maxConcurrency", executor.maxConcurrency);
+        stats.put("activeTasks", executor.activeTasks.get());
+        stats.put("waitingTasks", executor.permits.getQueueLength());
+        stats.put("submittedTasks", executor.submittedTasks.sum());
+        stats.put("failedTasks", executor.failedTasks.sum());
+        return stats;
+    }
+}
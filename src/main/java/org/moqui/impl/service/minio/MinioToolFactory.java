@@ -34,12 +34,30 @@ public class MinioToolFactory implements ToolFactory<MinioClient> {
         try {
             logger.info("Initializing MinIO Tool Factory");
 
-            // 创建配置
-            this.config = new MinioConfig(ecf);
+            // 解析进程级配置快照
+            this.config = MinioConfig.getInstance(ecf);
 
             // 创建客户端
             this.minioClient = MinioClientPool.getClient(ecf);
 
+            // 批量任务执行器
+            MinioTaskExecutor.configure(config);
+
+            // 调用指标JMX视图
+            MinioMetrics.registerMBean();
+
+            // 监听配置变化，变化时原子替换配置快照与池化客户端
+            if (config.getConfigRefreshInterval() > 0) {
+                MinioScheduler.scheduleWithFixedDelay("config-watch", () -> MinioConfig.reload(ecf),
+                        config.getConfigRefreshInterval());
+            }
+
+            // 存储桶使用量增量定时批量写入
+            MinioBucketUsageAccumulator.start(ecf, config);
+
+            // 存储桶事件通知消费者（minio.notificationSource 为 none 时不启动）
+            MinioBucketNotificationConsumer.start(ecf, config);
+
             // 验证连接
             if (MinioClientFactory.validateConnection(minioClient)) {
                 logger.info("MinIO Tool Factory initialized successfully");
@@ -63,7 +81,8 @@ public class MinioToolFactory implements ToolFactory<MinioClient> {
         if (minioClient == null) {
             throw new IllegalStateException("MinioToolFactory not initialized properly");
         }
-        return minioClient;
+        // 从连接池获取，保证配置重新加载后返回新客户端
+        return MinioClientPool.getClient(ecf);
     }
 
     @Override
@@ -71,10 +90,16 @@ public class MinioToolFactory implements ToolFactory<MinioClient> {
         try {
             logger.info("Destroying MinIO Tool Factory");
 
-            if (minioClient != null) {
-                MinioClientFactory.closeClient(minioClient);
-                minioClient = null;
-            }
+            MinioBucketNotificationConsumer.stop();
+            MinioBucketUsageAccumulator.stop();
+            MinioScheduler.shutdown();
+            MinioTaskExecutor.shutdown();
+            MinioMetrics.unregisterMBean();
+
+            // 池化客户端（含 minioClient）与负载均衡器为静态缓存，停止时全部清空并关闭
+            MinioClientPool.shutdown();
+            minioClient = null;
+            MinioClientFactory.closeRetiredClients();
 
             config = null;
             ecf = null;
@@ -92,7 +117,7 @@ public class MinioToolFactory implements ToolFactory<MinioClient> {
      * @return 当前的MinIO配置实例
      */
     public MinioConfig getConfig() {
-        return config;
+        return ecf != null ? MinioConfig.getInstance(ecf) : config;
     }
 
     /**
@@ -3,20 +3,55 @@ package org.moqui.impl.service.runner;
 import io.minio.*;
 import io.minio.http.Method;
 import io.minio.messages.Item;
+import org.apache.commons.fileupload.FileItem;
 import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
 import org.moqui.entity.EntityValue;
 import org.moqui.entity.EntityList;
 import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.impl.service.minio.MinioAsyncOperations;
+import org.moqui.impl.service.minio.MinioAsyncToolFactory;
+import org.moqui.impl.service.minio.MinioBucketCache;
+import org.moqui.impl.service.minio.MinioBucketNotificationConsumer;
+import org.moqui.impl.service.minio.MinioBucketUsageAccumulator;
+import org.moqui.impl.service.minio.MinioObjectLedger;
+import org.moqui.impl.service.minio.MinioBucketUsageAggregator;
+import org.moqui.impl.service.minio.MinioCallable;
 import org.moqui.impl.service.minio.MinioClientFactory;
+import org.moqui.impl.service.minio.MinioChecksum;
 import org.moqui.impl.service.minio.MinioClientPool;
+import org.moqui.impl.service.minio.MinioCompression;
+import org.moqui.impl.service.minio.MinioConfig;
+import org.moqui.impl.service.minio.MinioDedupStore;
+import org.moqui.impl.service.minio.MinioExceptionUtils;
+import org.moqui.impl.service.minio.MinioListCursor;
+import org.moqui.impl.service.minio.MinioMetrics;
+import org.moqui.impl.service.minio.MinioMultipartUploads;
+import org.moqui.impl.service.minio.MinioObjectUploader;
+import org.moqui.impl.service.minio.MinioPresignedUploads;
+import org.moqui.impl.service.minio.MinioTaskExecutor;
+import org.moqui.resource.ResourceReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.sql.Timestamp;
 
 /**
@@ -28,16 +63,11 @@ public class MinioServiceRunner {
     private static final Logger logger = LoggerFactory.getLogger(MinioServiceRunner.class);
 
     /**
-     * 创建MinIO客户端的辅助方法
-     * 使用连接池来提升性能和资源利用率
+     * 执行MinIO调用的辅助方法
+     * 通过连接池在负载均衡选定的端点上执行，提升性能和资源利用率，并按操作与存储桶记录指标
      */
-    private static MinioClient createMinioClient(ExecutionContext ec) {
-        try {
-            return MinioClientPool.getClient(ec.getFactory());
-        } catch (Exception e) {
-            logger.error("Failed to create MinIO client", e);
-            throw new RuntimeException("Failed to create MinIO client: " + e.getMessage(), e);
-        }
+    private static <T> T executeMinio(ExecutionContext ec, String operation, String bucketId, MinioCallable<T> callable) throws Exception {
+        return MinioClientPool.execute(ec.getFactory(), operation, bucketId, callable);
     }
 
     public static Map<String, Object> createBucket(ExecutionContext ec) {
@@ -84,15 +114,12 @@ public class MinioServiceRunner {
                 return result;
             }
 
-            // 获取 MinIO 客户端
-            MinioClient minioClient = createMinioClient(ec);
-
             // 检查 MinIO 中是否已存在同名 bucket
-            boolean bucketExists = minioClient.bucketExists(
+            boolean bucketExists = executeMinio(ec, "bucketExists", bucketId, client -> client.bucketExists(
                     BucketExistsArgs.builder()
                             .bucket(bucketId)
                             .build()
-            );
+            ));
 
             if (bucketExists) {
                 ec.getMessage().addError("MinIO 中已存在名为 '" + bucketId + "' 的 bucket");
@@ -100,11 +127,14 @@ public class MinioServiceRunner {
             }
 
             // 创建 MinIO bucket
-            minioClient.makeBucket(
-                    MakeBucketArgs.builder()
-                            .bucket(bucketId)
-                            .build()
-            );
+            executeMinio(ec, "makeBucket", bucketId, client -> {
+                client.makeBucket(
+                        MakeBucketArgs.builder()
+                                .bucket(bucketId)
+                                .build()
+                );
+                return null;
+            });
 
             Timestamp now = new Timestamp(System.currentTimeMillis());
 
@@ -133,6 +163,8 @@ public class MinioServiceRunner {
                     .set("grantedDate", now)
                     .set("grantedByUserId", ec.getUser().getUserId())
                     .create();
+            MinioBucketCache.invalidate(ec.getFactory(), bucketId);
+            MinioBucketCache.invalidateCounts(ec.getFactory());
 
             // 记录操作日志
             logBucketOperation(ec, bucketId, userId, "CREATE", null, 0L, "SUCCESS", null);
@@ -197,18 +229,14 @@ public class MinioServiceRunner {
 
             ec.getLogger().info("找到要删除的 bucket 记录: " + bucketId);
 
-            // 获取 MinIO 客户端
-            MinioClient minioClient = createMinioClient(ec);
-            ec.getLogger().info("成功创建 MinIO 客户端");
-
             // 检查并删除 MinIO bucket
             boolean bucketExists = false;
             try {
-                bucketExists = minioClient.bucketExists(
+                bucketExists = executeMinio(ec, "bucketExists", bucketId, client -> client.bucketExists(
                         BucketExistsArgs.builder()
                                 .bucket(bucketId)
                                 .build()
-                );
+                ));
                 ec.getLogger().info("检查 bucket 是否存在: " + bucketId + ", exists=" + bucketExists);
             } catch (Exception e) {
                 String errorMsg = "检查 MinIO bucket 状态失败: " + e.getMessage();
@@ -221,11 +249,14 @@ public class MinioServiceRunner {
             if (bucketExists) {
                 try {
                     ec.getLogger().info("开始删除 MinIO 中的 bucket: " + bucketId);
-                    minioClient.removeBucket(
-                            RemoveBucketArgs.builder()
-                                    .bucket(bucketId)
-                                    .build()
-                    );
+                    executeMinio(ec, "removeBucket", bucketId, client -> {
+                        client.removeBucket(
+                                RemoveBucketArgs.builder()
+                                        .bucket(bucketId)
+                                        .build()
+                        );
+                        return null;
+                    });
                     ec.getLogger().info("成功删除 MinIO 中的 bucket: " + bucketId);
                 } catch (Exception minioException) {
                     String errorMsg = "删除 MinIO bucket 失败，可能 bucket 不为空: " + minioException.getMessage();
@@ -243,6 +274,8 @@ public class MinioServiceRunner {
             bucketRecord.set("status", "DELETED");
             bucketRecord.set("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
             bucketRecord.update();
+            MinioBucketCache.invalidate(ec.getFactory(), bucketId);
+            MinioBucketCache.invalidateCounts(ec.getFactory());
             ec.getLogger().info("成功更新数据库中的 bucket 状态为 DELETED: " + bucketId);
 
             // 删除相关权限记录
@@ -313,6 +346,7 @@ public class MinioServiceRunner {
 
             bucketRecord.set("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
             bucketRecord.update();
+            MinioBucketCache.invalidate(ec.getFactory(), bucketId);
 
             // 暂不直接修改 MinIO bucket 属性（MinIO API 不支持 quota/tag 原生管理）
             logBucketOperation(ec, bucketId, userId, "UPDATE", null, 0L, "SUCCESS", null);
@@ -345,48 +379,46 @@ public class MinioServiceRunner {
                 return result;
             }
 
-            // 查找数据库中的 bucket
-            EntityValue bucketRecord = ec.getEntity().find("moqui.minio.Bucket")
-                    .condition("bucketId", bucketId)
-                    .condition("userId", userId)
-                    .one();
-            if (bucketRecord == null) {
+            // 从缓存获取 bucket 记录、MinIO 中的存在性与配置；MinIO 检查失败时只读取数据库
+            MinioBucketCache.BucketMetadata metadata = null;
+            Map<String, Object> bucketRecord;
+            Boolean existsInMinio = null;
+            try {
+                metadata = MinioBucketCache.get(ec, bucketId);
+            } catch (Exception e) {
+                ec.getLogger().warn("检查 MinIO bucket 状态失败: " + bucketId, e);
+            }
+            if (metadata != null) {
+                bucketRecord = metadata.getBucket();
+                existsInMinio = metadata.isExistsInMinio();
+            } else {
+                EntityValue bucketValue = ec.getEntity().find("moqui.minio.Bucket")
+                        .condition("bucketId", bucketId).one();
+                bucketRecord = bucketValue != null ? bucketValue.getMap() : null;
+            }
+            if (bucketRecord == null || !userId.equals(bucketRecord.get("userId"))) {
                 ec.getMessage().addError("未找到 bucketId=" + bucketId + " 的 bucket 或无权限访问");
                 return result;
             }
 
             Map<String, Object> bucketInfo = new HashMap<>();
-            bucketInfo.put("bucketId", bucketRecord.getString("bucketId"));
-            bucketInfo.put("userId", bucketRecord.getString("userId"));
-            bucketInfo.put("bucketName", bucketRecord.getString("bucketName"));
-            bucketInfo.put("description", bucketRecord.getString("description"));
-            bucketInfo.put("quotaLimit", bucketRecord.getLong("quotaLimit"));
-            bucketInfo.put("usedStorage", bucketRecord.getLong("usedStorage"));
-            bucketInfo.put("status", bucketRecord.getString("status"));
-            bucketInfo.put("isPublic", bucketRecord.getString("isPublic"));
-            bucketInfo.put("versioning", bucketRecord.getString("versioning"));
-            bucketInfo.put("encryption", bucketRecord.getString("encryption"));
-            bucketInfo.put("createdDate", bucketRecord.getTimestamp("createdDate"));
-            bucketInfo.put("lastModifiedDate", bucketRecord.getTimestamp("lastModifiedDate"));
-            bucketInfo.put("tags", bucketRecord.getString("tags"));
-
-            // 检查 MinIO 中的实际状态
-            boolean existsInMinio = false;
-            try {
-                MinioClient minioClient = createMinioClient(ec);
-                existsInMinio = minioClient.bucketExists(
-                        BucketExistsArgs.builder().bucket(bucketId).build()
-                );
-            } catch (Exception e) {
-                ec.getLogger().warn("检查 MinIO bucket 状态失败: " + bucketId, e);
+            for (String fieldName : new String[] { "bucketId", "userId", "bucketName", "description", "quotaLimit",
+                    "usedStorage", "fileCount", "status", "isPublic", "versioning", "encryption", "createdDate",
+                    "lastModifiedDate", "tags" }) {
+                bucketInfo.put(fieldName, bucketRecord.get(fieldName));
             }
-            bucketInfo.put("existsInMinio", existsInMinio);
+            bucketInfo.put("usedStorage", MinioBucketUsageAccumulator.getUsedStorage(bucketId, (Long) bucketRecord.get("usedStorage")));
+            bucketInfo.put("fileCount", MinioBucketUsageAccumulator.getFileCount(bucketId, (Long) bucketRecord.get("fileCount")));
+            bucketInfo.put("statsAsOf", bucketRecord.get("statsAsOfDate"));
+            bucketInfo.put("bucketConfig", metadata != null ? metadata.getConfig() : null);
+            bucketInfo.put("existsInMinio", existsInMinio != null ? existsInMinio : false);
 
             // 如果 MinIO 已删除但数据库是 ACTIVE，更新为 ERROR
-            if (!existsInMinio && "ACTIVE".equals(bucketRecord.getString("status"))) {
-                bucketRecord.set("status", "ERROR");
-                bucketRecord.set("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
-                bucketRecord.update();
+            if (Boolean.FALSE.equals(existsInMinio) && "ACTIVE".equals(bucketRecord.get("status"))) {
+                ec.getEntity().find("moqui.minio.Bucket")
+                        .condition("bucketId", bucketId)
+                        .updateAll(Map.of("status", "ERROR", "lastModifiedDate", new Timestamp(System.currentTimeMillis())));
+                MinioBucketCache.invalidate(ec.getFactory(), bucketId);
                 bucketInfo.put("status", "ERROR");
             }
 
@@ -452,10 +484,25 @@ public class MinioServiceRunner {
             Integer pageSize = (Integer) parameters.getOrDefault("pageSize", 20);
             int offset = pageIndex * pageSize;
 
+            // 游标模式：传入 cursor 或 useCursor=true 时按 (createdDate, bucketId) 键集分页，忽略 pageIndex，
+            // 不输出页码相关字段
+            String cursor = (String) parameters.get("cursor");
+            boolean cursorMode = Boolean.TRUE.equals(parameters.get("useCursor")) || (cursor != null && !cursor.trim().isEmpty());
+            MinioListCursor cursorPosition = null;
+            if (cursor != null && !cursor.trim().isEmpty()) {
+                try {
+                    cursorPosition = MinioListCursor.decode(cursor.trim());
+                } catch (IllegalArgumentException e) {
+                    ec.getMessage().addError(e.getMessage());
+                    result.put("success", false);
+                    return result;
+                }
+            }
+            boolean exactCount = Boolean.TRUE.equals(parameters.get("exactCount"));
+
             // 构建查询
             EntityFind bucketFind = ec.getEntity().find("moqui.minio.Bucket")
-                    .condition("status", "!=", "DELETED")
-                    .orderBy("createdDate");
+                    .condition("status", "!=", "DELETED");
 
             // 根据权限逻辑添加userId条件
             if (!viewAllUsers) {
@@ -479,22 +526,81 @@ public class MinioServiceRunner {
                 bucketFind.condition("isPublic", isPublic);
             }
 
-            // 先计算总数（clone 一份，避免 offset/limit 影响）
-            long totalCount = bucketFind.useClone(true).count();
+            // 总数：默认使用按查询条件缓存的近似值，exactCount=true 时执行精确 count 并刷新缓存
+            String countKey = (viewAllUsers ? "*" : queryUserId) + "|" + bucketId + "|" + bucketName + "|" +
+                    description + "|" + status + "|" + isPublic;
+            long totalCount;
+            if (exactCount) {
+                totalCount = bucketFind.useClone(true).count();
+                MinioBucketCache.putCount(ec.getFactory(), countKey, totalCount);
+            } else {
+                totalCount = MinioBucketCache.getApproximateCount(ec.getFactory(), countKey,
+                        () -> bucketFind.useClone(true).count());
+            }
 
-            EntityList bucketRecords = bucketFind.offset(offset).limit(pageSize).orderBy("createdDate DESC").list();
+            List<EntityValue> bucketRecords;
+            String nextCursor = null;
+            if (cursorMode) {
+                // createdDate 为空的记录排在最前：先取空值段，不足一页再取非空段；各段只取游标位置之后的记录，
+                // 非空段使用 BucketByCreatedDate 索引，代价与翻页深度无关；多取一条判断是否还有下一页
+                EntityConditionFactory conditionFactory = ec.getEntity().getConditionFactory();
+                EntityCondition filterCondition = bucketFind.getWhereEntityCondition();
+                bucketRecords = new ArrayList<>();
+                if (cursorPosition == null || cursorPosition.getCreatedDate() == null) {
+                    EntityFind nullDateFind = ec.getEntity().find("moqui.minio.Bucket")
+                            .condition(filterCondition).orderBy("bucketId DESC")
+                            .condition(conditionFactory.makeCondition("createdDate", EntityCondition.ComparisonOperator.IS_NULL, null));
+                    if (cursorPosition != null) {
+                        nullDateFind.condition("bucketId", EntityCondition.ComparisonOperator.LESS_THAN, cursorPosition.getId());
+                    }
+                    bucketRecords.addAll(nullDateFind.limit(pageSize + 1).list());
+                }
+                if (bucketRecords.size() <= pageSize) {
+                    EntityFind datedFind = ec.getEntity().find("moqui.minio.Bucket")
+                            .condition(filterCondition).orderBy("createdDate DESC").orderBy("bucketId DESC")
+                            .condition(conditionFactory.makeCondition("createdDate", EntityCondition.ComparisonOperator.IS_NOT_NULL, null));
+                    if (cursorPosition != null && cursorPosition.getCreatedDate() != null) {
+                        datedFind.condition(conditionFactory.makeCondition(
+                                conditionFactory.makeCondition("createdDate", EntityCondition.ComparisonOperator.LESS_THAN, cursorPosition.getCreatedDate()),
+                                EntityCondition.JoinOperator.OR,
+                                conditionFactory.makeCondition(
+                                        conditionFactory.makeCondition("createdDate", EntityCondition.ComparisonOperator.EQUALS, cursorPosition.getCreatedDate()),
+                                        EntityCondition.JoinOperator.AND,
+                                        conditionFactory.makeCondition("bucketId", EntityCondition.ComparisonOperator.LESS_THAN, cursorPosition.getId()))));
+                    }
+                    bucketRecords.addAll(datedFind.limit(pageSize + 1 - bucketRecords.size()).list());
+                }
+                if (bucketRecords.size() > pageSize) {
+                    bucketRecords = bucketRecords.subList(0, pageSize);
+                    EntityValue lastRecord = bucketRecords.get(pageSize - 1);
+                    nextCursor = new MinioListCursor(lastRecord.getTimestamp("createdDate"), lastRecord.getString("bucketId")).encode();
+                }
+            } else {
+                bucketRecords = bucketFind.orderBy("createdDate DESC").orderBy("bucketId DESC")
+                        .offset(offset).limit(pageSize).list();
+            }
 
             List<Map<String, Object>> bucketList = new ArrayList<>();
 
-            // 获取 MinIO 客户端
-            MinioClient minioClient = null;
-            try {
-                minioClient = createMinioClient(ec);
-            } catch (Exception e) {
-                ec.getLogger().warn("无法获取 MinIO 客户端，将跳过状态检查", e);
+            // 各存储桶在 MinIO 中的存在性检查相互独立，按并发上限并发执行，整体截止时间内未完成的显示为未知状态
+            // 文件数与占用空间使用后台聚合任务维护的存储值，不在此处扫描
+            ExecutionContextFactory ecf = ec.getFactory();
+            MinioConfig minioConfig = MinioConfig.getInstance(ecf);
+            List<Callable<Boolean>> probeTasks = new ArrayList<>();
+            for (EntityValue bucketRecord : bucketRecords) {
+                String probeBucketId = bucketRecord.getString("bucketId");
+                probeTasks.add(() -> {
+                    Boolean cachedExists = MinioBucketCache.peekExists(ecf, probeBucketId);
+                    return cachedExists != null ? cachedExists : probeBucket(ecf, probeBucketId);
+                });
             }
+            List<CompletableFuture<Boolean>> probes = MinioTaskExecutor.submitAll(probeTasks, minioConfig.getBucketCheckParallelism());
+            long probeDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(minioConfig.getBucketCheckTimeout());
+            // MinIO 中已不存在的 ACTIVE 存储桶，循环结束后一次性更新为 ERROR
+            List<String> missingBucketIds = new ArrayList<>();
 
-            for (EntityValue bucketRecord : bucketRecords) {
+            for (int bucketIndex = 0; bucketIndex < bucketRecords.size(); bucketIndex++) {
+                EntityValue bucketRecord = bucketRecords.get(bucketIndex);
                 Map<String, Object> bucketInfo = new HashMap<>();
                 String currentBucketId = bucketRecord.getString("bucketId");
 
@@ -504,10 +610,9 @@ public class MinioServiceRunner {
                 bucketInfo.put("bucketName", bucketRecord.getString("bucketName"));
                 bucketInfo.put("description", bucketRecord.getString("description"));
                 bucketInfo.put("quotaLimit", bucketRecord.getLong("quotaLimit"));
-
-                // 实时统计文件信息
-                long actualUsedStorage = 0L;
-                int fileCount = 0;
+                bucketInfo.put("usedStorage", MinioBucketUsageAccumulator.getUsedStorage(currentBucketId, bucketRecord.getLong("usedStorage")));
+                bucketInfo.put("fileCount", MinioBucketUsageAccumulator.getFileCount(currentBucketId, bucketRecord.getLong("fileCount")));
+                bucketInfo.put("statsAsOf", bucketRecord.getTimestamp("statsAsOfDate"));
                 bucketInfo.put("status", bucketRecord.getString("status"));
                 bucketInfo.put("isPublic", bucketRecord.getString("isPublic"));
                 bucketInfo.put("versioning", bucketRecord.getString("versioning"));
@@ -516,68 +621,46 @@ public class MinioServiceRunner {
                 bucketInfo.put("lastModifiedDate", bucketRecord.getTimestamp("lastModifiedDate"));
 
                 // 检查 MinIO 中的实际状态
-                if (minioClient != null) {
-                    try {
-                        boolean exists = minioClient.bucketExists(
-                                BucketExistsArgs.builder()
-                                        .bucket(currentBucketId)
-                                        .build()
-                        );
-                        bucketInfo.put("existsInMinio", exists);
-
-                        // 如果bucket存在，统计文件信息
-                        if (exists) {
-                            try {
-                                Iterable<Result<Item>> objects = minioClient.listObjects(
-                                        ListObjectsArgs.builder()
-                                                .bucket(currentBucketId)
-                                                .recursive(true)
-                                                .build()
-                                );
-
-                                for (Result<Item> objectResult : objects) {
-                                    Item item = objectResult.get();
-                                    if (!item.isDir()) {
-                                        fileCount++;
-                                        actualUsedStorage += item.size();
-                                    }
-                                }
-                            } catch (Exception e) {
-                                ec.getLogger().warn("获取bucket " + currentBucketId + " 文件统计失败", e);
-                            }
-                        }
-
-                        // 如果状态不一致，更新数据库记录
-                        if (!exists && "ACTIVE".equals(bucketRecord.getString("status"))) {
-                            bucketRecord.set("status", "ERROR");
-                            bucketRecord.set("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
-                            bucketRecord.update();
-                            bucketInfo.put("status", "ERROR");
-                        }
-
-                        // 更新数据库中的usedStorage（如果实际值与数据库不同）
-                        Long dbUsedStorage = bucketRecord.getLong("usedStorage");
-                        if (exists && dbUsedStorage != null && Math.abs(dbUsedStorage - actualUsedStorage) > 1024) { // 差异超过1KB才更新
-                            bucketRecord.set("usedStorage", actualUsedStorage);
-                            bucketRecord.set("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
-                            bucketRecord.update();
-                        }
-
-                    } catch (Exception e) {
-                        ec.getLogger().warn("检查 bucket 状态失败: " + currentBucketId, e);
-                        bucketInfo.put("existsInMinio", false);
+                CompletableFuture<Boolean> probe = probes.get(bucketIndex);
+                try {
+                    boolean exists = probe.get(Math.max(0L, probeDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    bucketInfo.put("existsInMinio", exists);
+                    bucketInfo.put("minioCheckStatus", exists ? "exists" : "missing");
+
+                    // 如果状态不一致，记录下来统一更新
+                    if (!exists && "ACTIVE".equals(bucketRecord.getString("status"))) {
+                        missingBucketIds.add(currentBucketId);
+                        bucketInfo.put("status", "ERROR");
                     }
-                } else {
+                } catch (TimeoutException e) {
+                    probe.cancel(false);
                     bucketInfo.put("existsInMinio", null);
+                    bucketInfo.put("minioCheckStatus", "unknown");
+                } catch (Exception e) {
+                    ec.getLogger().warn("检查 bucket 状态失败: " + currentBucketId, MinioExceptionUtils.unwrap(e));
+                    bucketInfo.put("existsInMinio", false);
+                    bucketInfo.put("minioCheckStatus", "error");
                 }
 
-                // 设置统计信息
-                bucketInfo.put("usedStorage", actualUsedStorage);
-                bucketInfo.put("fileCount", fileCount);
-
                 bucketList.add(bucketInfo);
             }
 
+            if (!missingBucketIds.isEmpty()) {
+                Map<String, Object> statusFields = new HashMap<>();
+                statusFields.put("status", "ERROR");
+                statusFields.put("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
+                ec.getEntity().find("moqui.minio.Bucket")
+                        .condition("bucketId", "in", missingBucketIds)
+                        .condition("status", "ACTIVE")
+                        .updateAll(statusFields);
+                for (String missingBucketId : missingBucketIds) MinioBucketCache.invalidate(ecf, missingBucketId);
+                ec.getLogger().warn("MinIO 中不存在的存储桶已标记为 ERROR: " + missingBucketIds);
+            }
+            long unknownCount = bucketList.stream().filter(info -> "unknown".equals(info.get("minioCheckStatus"))).count();
+            if (unknownCount > 0) {
+                ec.getLogger().warn("存储桶状态检查超时（" + minioConfig.getBucketCheckTimeout() + "ms），" + unknownCount + " 个存储桶状态未知");
+            }
+
             // 记录查询操作
             logBucketOperation(ec, null, queryUserId != null ? queryUserId : currentUserId, "LIST", null, 0L, "SUCCESS", null);
 
@@ -588,11 +671,16 @@ public class MinioServiceRunner {
             // 设置标准的分页输出参数
             result.put("bucketList", bucketList);
             result.put("bucketListCount", (int) totalCount);
-            result.put("bucketListPageIndex", pageIndex);
             result.put("bucketListPageSize", pageSize);
-            result.put("bucketListPageMaxIndex", pageSize > 0 ? (int) Math.ceil((double) totalCount / pageSize) - 1 : 0);
-            result.put("bucketListPageRangeLow", pageIndex * pageSize + 1);
-            result.put("bucketListPageRangeHigh", Math.min((pageIndex + 1) * pageSize, (int) totalCount));
+            if (!cursorMode) {
+                result.put("bucketListPageIndex", pageIndex);
+                result.put("bucketListPageMaxIndex", pageSize > 0 ? (int) Math.ceil((double) totalCount / pageSize) - 1 : 0);
+                result.put("bucketListPageRangeLow", pageIndex * pageSize + 1);
+                result.put("bucketListPageRangeHigh", Math.min((pageIndex + 1) * pageSize, (int) totalCount));
+            }
+            result.put("bucketListCountExact", exactCount);
+            result.put("nextCursor", nextCursor);
+            result.put("hasMore", cursorMode ? nextCursor != null : offset + bucketList.size() < totalCount);
             result.put("success", true);
 
         } catch (Exception e) {
@@ -605,6 +693,126 @@ public class MinioServiceRunner {
         return result;
     }
 
+    /**
+     * 检查存储桶在 MinIO 中是否存在（在任务执行器线程上运行，只进行 MinIO 调用）
+     */
+    private static boolean probeBucket(ExecutionContextFactory ecf, String bucketId) throws Exception {
+        return MinioClientPool.execute(ecf, "bucketExists", bucketId, client -> client.bucketExists(
+                BucketExistsArgs.builder()
+                        .bucket(bucketId)
+                        .build()
+        ));
+    }
+
+    /**
+     * 后台聚合任务：分页扫描各存储桶并校准 usedStorage 与 fileCount，断点续扫
+     */
+    public static Map<String, Object> aggregateBucketUsage(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> parameters = ec.getContext();
+
+        Integer maxObjectsPerBucket = (Integer) parameters.get("maxObjectsPerBucket");
+        Integer pageSize = (Integer) parameters.get("pageSize");
+        MinioBucketUsageAggregator.AggregateSummary summary = MinioBucketUsageAggregator.aggregate(ec,
+                maxObjectsPerBucket != null ? maxObjectsPerBucket : MinioBucketUsageAggregator.DEFAULT_MAX_OBJECTS_PER_BUCKET,
+                pageSize != null ? pageSize : MinioBucketUsageAggregator.DEFAULT_PAGE_SIZE);
+
+        result.put("scannedBuckets", summary.scannedBuckets);
+        result.put("completedBuckets", summary.completedBuckets);
+        result.put("failedBuckets", summary.failedBuckets);
+        result.put("scannedObjects", summary.scannedObjects);
+        result.put("success", summary.failedBuckets == 0);
+        return result;
+    }
+
+    /**
+     * 按存储桶列举结果重建对象大小台账（moqui.minio.BucketObject）
+     */
+    public static Map<String, Object> rebuildObjectLedger(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        String bucketId = (String) ec.getContext().get("bucketId");
+        try {
+            result.put("listedObjects", MinioObjectLedger.rebuild(ec, bucketId));
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("重建对象台账失败: " + MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+            ec.getLogger().error("Rebuild object ledger failed: " + bucketId, e);
+        }
+        return result;
+    }
+
+    /**
+     * 使存储桶元数据缓存失效，BucketConfig 创建、更新、删除时由 EECA 调用
+     */
+    public static Map<String, Object> invalidateBucketCache(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        MinioBucketCache.invalidateAfterCommit(ec, (String) ec.getContext().get("bucketId"));
+        result.put("success", true);
+        return result;
+    }
+
+    /**
+     * 接收 MinIO notify_webhook 推送的存储桶事件（S3 事件格式，Records 列表），加入通知消费者队列批量写入
+     */
+    public static Map<String, Object> ingestBucketNotification(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> parameters = ec.getContext();
+
+        if (!MinioBucketNotificationConsumer.acceptsWebhook()) {
+            ec.getMessage().addError("未启用 webhook 事件通知");
+            result.put("success", false);
+            return result;
+        }
+        if (!isValidWebhookToken(ec)) {
+            ec.getMessage().addError("事件通知令牌无效");
+            result.put("success", false);
+            return result;
+        }
+
+        int acceptedEvents = 0;
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> records = (List<Map<String, Object>>) parameters.get("Records");
+        if (records != null) {
+            for (Map<String, Object> record : records) {
+                Map<?, ?> s3 = (Map<?, ?>) record.get("s3");
+                if (s3 == null) continue;
+                Map<?, ?> bucket = (Map<?, ?>) s3.get("bucket");
+                Map<?, ?> object = (Map<?, ?>) s3.get("object");
+                if (bucket == null || object == null || object.get("key") == null) continue;
+                // S3 事件中的对象名称经过 URL 编码
+                String objectName = URLDecoder.decode(String.valueOf(object.get("key")), StandardCharsets.UTF_8);
+                Object size = object.get("size");
+                long objectSize = size instanceof Number ? ((Number) size).longValue() : 0L;
+                Object etag = object.get("eTag");
+                if (MinioBucketNotificationConsumer.enqueue((String) bucket.get("name"), objectName,
+                        (String) record.get("eventName"), objectSize, etag != null ? String.valueOf(etag) : null)) {
+                    acceptedEvents++;
+                }
+            }
+        }
+
+        result.put("acceptedEvents", acceptedEvents);
+        result.put("success", true);
+        return result;
+    }
+
+    /**
+     * 校验 webhook 请求的 Authorization 头（MinIO auth_token，支持 Bearer 前缀）；未配置令牌时拒绝所有请求
+     */
+    private static boolean isValidWebhookToken(ExecutionContext ec) {
+        String token = MinioConfig.getInstance(ec.getFactory()).getNotificationWebhookToken();
+        if (token == null || token.isEmpty() || ec.getWeb() == null) return false;
+        String authorization = ec.getWeb().getRequest().getHeader("Authorization");
+        if (authorization == null) return false;
+        if (authorization.startsWith("Bearer ")) authorization = authorization.substring("Bearer ".length());
+        return MessageDigest.isEqual(authorization.trim().getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 上传对象：支持 fileBytes、file（FileItem）、inputStream、resourceReference/resourceLocation 作为内容来源，
+     * 后三者以流的方式分片上传，不在堆中缓存整个文件
+     */
     public static Map<String, Object> uploadObject(ExecutionContext ec) {
         Map<String, Object> result = new HashMap<>();
         Map<String, Object> parameters = ec.getContext();
@@ -612,37 +820,91 @@ public class MinioServiceRunner {
         String bucketId = (String) parameters.get("bucketId");
         String userId = (String) parameters.get("userId");
         String objectName = (String) parameters.get("objectName");
-        byte[] fileBytes = (byte[]) parameters.get("fileBytes"); // Moqui 传输的文件内容
+        String contentType = (String) parameters.get("contentType");
 
+        InputStream uploadStream = null;
+        boolean closeStream = true;
         try {
-            MinioClient client = createMinioClient(ec);
-
             // 检查桶存在
-            if (!client.bucketExists(BucketExistsArgs.builder().bucket(bucketId).build())) {
+            if (!MinioBucketCache.bucketExists(ec, bucketId)) {
                 ec.getMessage().addError("Bucket 不存在: " + bucketId);
                 return result;
             }
 
-            // 上传文件
-            client.putObject(
-                    PutObjectArgs.builder()
-                            .bucket(bucketId)
-                            .object(objectName)
-                            .stream(new ByteArrayInputStream(fileBytes), fileBytes.length, -1)
-                            .build()
-            );
+            // 确定内容来源与长度（未知为 -1）
+            long contentLength;
+            byte[] fileBytes = (byte[]) parameters.get("fileBytes"); // Moqui 传输的文件内容
+            FileItem fileItem = (FileItem) parameters.get("file");
+            ResourceReference resourceReference = (ResourceReference) parameters.get("resourceReference");
+            String resourceLocation = (String) parameters.get("resourceLocation");
+            if (resourceReference == null && resourceLocation != null && !resourceLocation.isEmpty()) {
+                resourceReference = ec.getResource().getLocationReference(resourceLocation);
+            }
+            // 可重复读取的内容来源，未打开；去重时先读取一遍计算摘要
+            MinioDedupStore.ContentSource contentSource = null;
+            if (fileBytes != null) {
+                contentSource = () -> new ByteArrayInputStream(fileBytes);
+                contentLength = fileBytes.length;
+            } else if (fileItem != null) {
+                contentSource = fileItem::getInputStream;
+                contentLength = fileItem.getSize();
+                if (contentType == null) contentType = fileItem.getContentType();
+            } else if (parameters.get("inputStream") != null) {
+                // 调用方传入的输入流由调用方关闭
+                uploadStream = (InputStream) parameters.get("inputStream");
+                closeStream = false;
+                contentLength = -1L;
+            } else if (resourceReference != null) {
+                if (!resourceReference.getExists()) {
+                    ec.getMessage().addError("上传内容不存在: " + resourceReference.getLocation());
+                    return result;
+                }
+                contentSource = resourceReference::openStream;
+                contentLength = resourceReference.supportsSize() ? resourceReference.getSize() : -1L;
+                if (contentType == null) contentType = resourceReference.getContentType();
+            } else {
+                ec.getMessage().addError("未提供上传内容（fileBytes、file、inputStream 或 resourceReference）");
+                return result;
+            }
 
-            long fileSize = fileBytes.length;
+            if (MinioDedupStore.isEnabled(ec, bucketId)) {
+                // 去重存储桶：内容按摘要存放，对象名称处写入占位对象，内容块已存在时不传输
+                MinioDedupStore.DedupResult dedupResult = contentSource != null
+                        ? MinioDedupStore.upload(ec, bucketId, objectName, contentSource, contentLength, contentType)
+                        : MinioDedupStore.uploadStream(ec, bucketId, objectName, uploadStream, contentLength, contentType);
+                logBucketOperation(ec, bucketId, userId, "UPLOAD", objectName, dedupResult.getSize(), "SUCCESS", null);
+
+                result.put("success", true);
+                result.put("objectName", objectName);
+                result.put("objectSize", dedupResult.getSize());
+                result.put("etag", dedupResult.getEtag());
+                result.put("checksumAlgorithm", MinioChecksum.SHA256);
+                result.put("checksum", dedupResult.getChecksum());
+                result.put("dedupDigest", dedupResult.getDigest());
+                result.put("transferSkipped", dedupResult.isTransferSkipped());
+                return result;
+            }
 
-            // 更新数据库 usedStorage
-            EntityValue bucketRecord = ec.getEntity().find("moqui.minio.Bucket")
-                    .condition("bucketId", bucketId).one();
-            if (bucketRecord != null) {
-                long usedStorage = bucketRecord.getLong("usedStorage") != null ? bucketRecord.getLong("usedStorage") : 0L;
-                bucketRecord.set("usedStorage", usedStorage + fileSize);
-                bucketRecord.set("lastModifiedDate", new Timestamp(System.currentTimeMillis()));
-                bucketRecord.update();
+            // 上传文件：内存中的内容先计算校验和并随请求发送由MinIO校验，流式内容边发送边计算
+            // 压缩存储桶中可压缩的内容边读取边压缩，校验和按压缩后的内容计算
+            if (uploadStream == null && fileBytes == null) uploadStream = contentSource.open();
+            long priorSize = MinioObjectLedger.resolvePriorSize(ec, bucketId, objectName);
+            String codec = MinioCompression.resolveCodec(ec, bucketId, objectName, contentType, contentLength);
+            MinioObjectUploader.UploadResult uploadResult;
+            if (codec != null) {
+                uploadResult = MinioCompression.putStream(ec.getFactory(), bucketId, objectName,
+                        fileBytes != null ? new ByteArrayInputStream(fileBytes) : uploadStream, contentLength, contentType, codec);
+            } else if (fileBytes != null) {
+                uploadResult = MinioObjectUploader.putBytes(ec.getFactory(), bucketId, objectName, fileBytes, contentType);
+            } else {
+                uploadResult = MinioObjectUploader.putStream(ec.getFactory(), bucketId, objectName, uploadStream, contentLength, contentType);
             }
+            long fileSize = uploadResult.getOriginalSize();
+
+            // 写入对象台账并按存储的对象大小记录 usedStorage 与 fileCount 增量，由累加器批量写入
+            // 启用事件通知时通知消费者按台账中的ETag识别该对象的创建事件，不重复计入
+            MinioObjectLedger.recordUpload(ec, bucketId, objectName, uploadResult.getSize(), uploadResult.getEtag(),
+                    uploadResult.getChecksumAlgorithm(), uploadResult.getChecksum(), null, priorSize);
 
             // 写日志
             logBucketOperation(ec, bucketId, userId, "UPLOAD", objectName, fileSize, "SUCCESS", null);
@@ -650,45 +912,353 @@ public class MinioServiceRunner {
             result.put("success", true);
             result.put("objectName", objectName);
             result.put("objectSize", fileSize);
+            result.put("storedSize", uploadResult.getSize());
+            result.put("codec", uploadResult.getCodec());
+            result.put("etag", uploadResult.getEtag());
+            result.put("checksumAlgorithm", uploadResult.getChecksumAlgorithm());
+            result.put("checksum", uploadResult.getChecksum());
+            result.put("transferSkipped", false);
         } catch (Exception e) {
             logBucketOperation(ec, bucketId, userId, "UPLOAD", objectName, 0L, "FAILURE", e.getMessage());
             result.put("success", false);
             ec.getMessage().addError("上传对象失败: " + e.getMessage());
             ec.getLogger().error("Upload failed", e);
+        } finally {
+            if (uploadStream != null && closeStream) {
+                try {
+                    uploadStream.close();
+                } catch (IOException e) {
+                    ec.getLogger().warn("关闭上传输入流失败: " + objectName, e);
+                }
+            }
         }
         return result;
     }
 
-    public static Map<String, Object> deleteObject(ExecutionContext ec) {
+    /**
+     * 开始可续传的分片上传，返回上传会话ID
+     */
+    public static Map<String, Object> initiateMultipartUpload(ExecutionContext ec) {
         Map<String, Object> result = new HashMap<>();
         Map<String, Object> parameters = ec.getContext();
 
         String bucketId = (String) parameters.get("bucketId");
-        String userId = (String) parameters.get("userId");
         String objectName = (String) parameters.get("objectName");
+        String contentType = (String) parameters.get("contentType");
+        String userId = ec.getUser().getUserId();
 
         try {
-            MinioClient client = createMinioClient(ec);
+            if (!MinioBucketCache.bucketExists(ec, bucketId)) {
+                ec.getMessage().addError("Bucket 不存在: " + bucketId);
+                return result;
+            }
+            EntityValue session = MinioMultipartUploads.initiate(ec, bucketId, objectName, contentType, userId);
+            result.put("uploadSessionId", session.getString("uploadSessionId"));
+            result.put("maxPartSize", MinioConfig.getInstance(ec.getFactory()).getMultipartMaxPartSize());
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("开始分片上传失败: " + MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+            ec.getLogger().error("Initiate multipart upload failed", e);
+        }
+        return result;
+    }
 
-            client.removeObject(RemoveObjectArgs.builder()
-                    .bucket(bucketId)
-                    .object(objectName)
-                    .build());
+    /**
+     * 上传一个分片（file 或 partBytes），同一序号重复上传时覆盖
+     */
+    public static Map<String, Object> uploadMultipartPart(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> parameters = ec.getContext();
 
-            // ⚠️ 这里没有直接获取 objectSize，只能在上传时记录（可考虑扩展 ObjectMeta 表）
-            long fileSize = 0L;
+        Integer partNumber = (Integer) parameters.get("partNumber");
+        try {
+            EntityValue session = findMultipartSession(ec, (String) parameters.get("uploadSessionId"));
+            if (session == null) return result;
+            if (partNumber == null || partNumber < 1 || partNumber > MinioMultipartUploads.MAX_PART_NUMBER) {
+                ec.getMessage().addError("分片序号必须在 1 到 " + MinioMultipartUploads.MAX_PART_NUMBER + " 之间");
+                return result;
+            }
 
-            // 更新 usedStorage（如果能知道对象大小）
-            // TODO: 可在 BucketUsageLog 中查询最后一次 UPLOAD 记录获取 objectSize
-            EntityValue bucketRecord = ec.getEntity().find("moqui.minio.Bucket")
-                    .condition("bucketId", bucketId).one();
-            if (bucketRecord != null) {
-                Long usedStorage = bucketRecord.getLong("usedStorage");
-                if (usedStorage != null && usedStorage > fileSize) {
-                    bucketRecord.set("usedStorage", usedStorage - fileSize);
-                    bucketRecord.update();
-                }
+            // 分片大小受 minio.multipartMaxPartSize 限制；上传的文件直接写入请求体，partBytes 在内存中
+            long maxPartSize = MinioConfig.getInstance(ec.getFactory()).getMultipartMaxPartSize();
+            FileItem fileItem = (FileItem) parameters.get("file");
+            byte[] partBytes = (byte[]) parameters.get("partBytes");
+            long partSize = fileItem != null ? fileItem.getSize() : (partBytes != null ? partBytes.length : -1L);
+            if (partSize < 0) {
+                ec.getMessage().addError("未提供分片内容（file 或 partBytes）");
+                return result;
+            }
+            if (partSize > maxPartSize) {
+                ec.getMessage().addError("分片大小 " + partSize + " 超过上限 " + maxPartSize);
+                return result;
             }
+            String etag = fileItem != null
+                    ? MinioMultipartUploads.uploadPart(ec, session, partNumber, fileItem::getInputStream, partSize)
+                    : MinioMultipartUploads.uploadPart(ec, session, partNumber, partBytes, partBytes.length);
+            result.put("partNumber", partNumber);
+            result.put("etag", etag);
+            result.put("partSize", partSize);
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("上传分片失败: " + MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+            ec.getLogger().error("Upload multipart part " + partNumber + " failed", e);
+        }
+        return result;
+    }
+
+    /**
+     * 列举已上传的分片，客户端据此从断点继续上传
+     */
+    public static Map<String, Object> listMultipartUploadParts(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            EntityValue session = findMultipartSession(ec, (String) ec.getContext().get("uploadSessionId"));
+            if (session == null) return result;
+            result.put("bucketId", session.getString("bucketId"));
+            result.put("objectName", session.getString("objectName"));
+            result.put("status", session.getString("status"));
+            result.put("partList", MinioMultipartUploads.listParts(ec, session));
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("查询已上传分片失败: " + MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+        }
+        return result;
+    }
+
+    /**
+     * 合并已上传的分片完成上传，并更新使用量
+     */
+    public static Map<String, Object> completeMultipartUpload(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        EntityValue session = null;
+        try {
+            session = findMultipartSession(ec, (String) ec.getContext().get("uploadSessionId"));
+            if (session == null) return result;
+            String bucketId = session.getString("bucketId");
+            String objectName = session.getString("objectName");
+
+            long priorSize = MinioObjectLedger.resolvePriorSize(ec, bucketId, objectName);
+            long totalSize = MinioMultipartUploads.complete(ec, session);
+            MinioObjectLedger.recordUpload(ec, bucketId, objectName, totalSize, session.getString("etag"),
+                    null, null, null, priorSize);
+            logBucketOperation(ec, bucketId, session.getString("userId"), "UPLOAD", objectName, totalSize, "SUCCESS", null);
+
+            result.put("objectName", objectName);
+            result.put("objectSize", totalSize);
+            result.put("etag", session.getString("etag"));
+            result.put("success", true);
+        } catch (Exception e) {
+            String errorMessage = MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e));
+            if (session != null) {
+                logBucketOperation(ec, session.getString("bucketId"), session.getString("userId"), "UPLOAD",
+                        session.getString("objectName"), 0L, "FAILURE", errorMessage);
+            }
+            result.put("success", false);
+            ec.getMessage().addError("完成分片上传失败: " + errorMessage);
+            ec.getLogger().error("Complete multipart upload failed", e);
+        }
+        return result;
+    }
+
+    /**
+     * 取消分片上传，释放已上传的分片
+     */
+    public static Map<String, Object> abortMultipartUpload(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            EntityValue session = findMultipartSession(ec, (String) ec.getContext().get("uploadSessionId"));
+            if (session == null) return result;
+            MinioMultipartUploads.abort(ec, session);
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("取消分片上传失败: " + MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+        }
+        return result;
+    }
+
+    /**
+     * 定时任务：取消超过 minio.multipartStaleAge 未更新的分片上传
+     */
+    public static Map<String, Object> cleanupMultipartUploads(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Long staleAge = (Long) ec.getContext().get("staleAge");
+        if (staleAge == null) staleAge = MinioConfig.getInstance(ec.getFactory()).getMultipartStaleAge();
+        int[] counts = MinioMultipartUploads.abortStale(ec, staleAge);
+        result.put("abortedCount", counts[0]);
+        result.put("failedCount", counts[1]);
+        result.put("success", counts[1] == 0);
+        return result;
+    }
+
+    /**
+     * 删除引用计数为零且超过宽限期的去重内容块
+     */
+    public static Map<String, Object> cleanupDedupBlobs(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Long gracePeriod = (Long) ec.getContext().get("gracePeriod");
+        if (gracePeriod == null) gracePeriod = MinioConfig.getInstance(ec.getFactory()).getDedupBlobGracePeriod();
+        int[] counts = MinioDedupStore.removeUnreferenced(ec, gracePeriod);
+        result.put("removedCount", counts[0]);
+        result.put("failedCount", counts[1]);
+        result.put("success", counts[1] == 0);
+        return result;
+    }
+
+    /**
+     * 签发浏览器直传 MinIO 的预签名 PUT 地址或 POST 策略表单，大小上限来自存储桶剩余配额
+     */
+    public static Map<String, Object> createPresignedUpload(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> parameters = ec.getContext();
+
+        String bucketId = (String) parameters.get("bucketId");
+        String objectName = (String) parameters.get("objectName");
+        String contentType = (String) parameters.get("contentType");
+        Long contentLength = (Long) parameters.get("contentLength");
+        String uploadMethod = parameters.get("uploadMethod") != null ? ((String) parameters.get("uploadMethod")).toUpperCase() : MinioPresignedUploads.METHOD_PUT;
+
+        try {
+            if (!MinioPresignedUploads.METHOD_PUT.equals(uploadMethod) && !MinioPresignedUploads.METHOD_POST.equals(uploadMethod)) {
+                ec.getMessage().addError("上传方式必须为 PUT 或 POST: " + uploadMethod);
+                return result;
+            }
+            // 锁定存储桶记录，并发签发依次计算剩余配额与已签发的预留
+            EntityValue bucketRecord = ec.getEntity().find("moqui.minio.Bucket").condition("bucketId", bucketId)
+                    .forUpdate(true).one();
+            if (bucketRecord == null || "DELETED".equals(bucketRecord.getString("status"))) {
+                ec.getMessage().addError("Bucket 不存在: " + bucketId);
+                return result;
+            }
+            long maxSize = MinioPresignedUploads.resolveMaxSize(ec, bucketRecord, contentLength);
+            if (maxSize < 0) {
+                ec.getMessage().addError("上传大小超过存储桶剩余配额");
+                return result;
+            }
+
+            result.putAll(MinioPresignedUploads.issue(ec, bucketId, objectName, contentType, uploadMethod, maxSize,
+                    ec.getUser().getUserId()));
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("签发预签名上传失败: " + MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e)));
+            ec.getLogger().error("Create presigned upload failed", e);
+        }
+        return result;
+    }
+
+    /**
+     * 预签名上传完成回调：statObject 确认对象后记录使用量与 BucketUsageLog
+     */
+    public static Map<String, Object> completePresignedUpload(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        String presignedUploadId = (String) ec.getContext().get("presignedUploadId");
+
+        EntityValue presignedUpload = ec.getEntity().find("moqui.minio.PresignedUpload")
+                .condition("presignedUploadId", presignedUploadId).disableAuthz().one();
+        if (presignedUpload == null) {
+            ec.getMessage().addError("预签名上传不存在: " + presignedUploadId);
+            return result;
+        }
+        boolean isAdmin = ec.getUser().isInGroup("ADMIN") || ec.getUser().isInGroup("ADMIN_ADV");
+        if (!isAdmin && !ec.getUser().getUserId().equals(presignedUpload.getString("userId"))) {
+            ec.getMessage().addError("没有权限操作该预签名上传");
+            return result;
+        }
+        // 有效期内开始的上传可能在过期后才回调
+        String status = presignedUpload.getString("status");
+        if (!MinioPresignedUploads.STATUS_ISSUED.equals(status) && !MinioPresignedUploads.STATUS_EXPIRED.equals(status)) {
+            ec.getMessage().addError("预签名上传已处理: " + status);
+            return result;
+        }
+
+        String bucketId = presignedUpload.getString("bucketId");
+        String userId = presignedUpload.getString("userId");
+        String objectName = presignedUpload.getString("objectName");
+        try {
+            StatObjectResponse stat = MinioPresignedUploads.complete(ec, presignedUpload);
+            if (stat == null) {
+                ec.getMessage().addError("对象尚未上传: " + objectName);
+                return result;
+            }
+            MinioObjectLedger.recordUpload(ec, bucketId, objectName, stat.size(), stat.etag());
+            logBucketOperation(ec, bucketId, userId, "UPLOAD", objectName, stat.size(), "SUCCESS", null);
+
+            result.put("objectName", objectName);
+            result.put("objectSize", stat.size());
+            result.put("etag", stat.etag());
+            result.put("success", true);
+        } catch (Exception e) {
+            String errorMessage = MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e));
+            logBucketOperation(ec, bucketId, userId, "UPLOAD", objectName, 0L, "FAILURE", errorMessage);
+            result.put("success", false);
+            ec.getMessage().addError("完成预签名上传失败: " + errorMessage);
+        }
+        return result;
+    }
+
+    /**
+     * 定时任务：处理过期未回调的预签名上传，已上传的校验大小并记入台账，未上传的标记为 EXPIRED
+     */
+    public static Map<String, Object> expirePresignedUploads(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        long[] counts = MinioPresignedUploads.expireIssued(ec);
+        result.put("expiredCount", counts[0]);
+        result.put("completedCount", counts[1]);
+        result.put("rejectedCount", counts[2]);
+        result.put("success", true);
+        return result;
+    }
+
+    /**
+     * 查询进行中的分片上传会话，只有会话创建者或管理员可以操作
+     */
+    private static EntityValue findMultipartSession(ExecutionContext ec, String uploadSessionId) {
+        EntityValue session = uploadSessionId != null ? MinioMultipartUploads.findSession(ec, uploadSessionId) : null;
+        if (session == null) {
+            ec.getMessage().addError("分片上传会话不存在: " + uploadSessionId);
+            return null;
+        }
+        boolean isAdmin = ec.getUser().isInGroup("ADMIN") || ec.getUser().isInGroup("ADMIN_ADV");
+        if (!isAdmin && !ec.getUser().getUserId().equals(session.getString("userId"))) {
+            ec.getMessage().addError("没有权限操作该分片上传会话");
+            return null;
+        }
+        if (!MinioMultipartUploads.STATUS_IN_PROGRESS.equals(session.getString("status"))) {
+            ec.getMessage().addError("分片上传会话已结束: " + session.getString("status"));
+            return null;
+        }
+        return session;
+    }
+
+    public static Map<String, Object> deleteObject(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> parameters = ec.getContext();
+
+        String bucketId = (String) parameters.get("bucketId");
+        String userId = (String) parameters.get("userId");
+        String objectName = (String) parameters.get("objectName");
+
+        try {
+            // 删除前从对象台账获取对象大小用于增量更新统计，台账中没有时statObject，对象不存在时不调整；
+            // 启用事件通知时只按台账确定，台账中没有的对象删除事件也无法确定大小，由后台聚合扫描校准
+            long fileSize = MinioBucketNotificationConsumer.isActive()
+                    ? MinioObjectLedger.peekSize(ec, bucketId, objectName)
+                    : MinioObjectLedger.resolveSize(ec, bucketId, objectName);
+
+            executeMinio(ec, "removeObject", bucketId, client -> {
+                client.removeObject(RemoveObjectArgs.builder()
+                        .bucket(bucketId)
+                        .object(objectName)
+                        .build());
+                return null;
+            });
+
+            MinioObjectLedger.recordDelete(ec, bucketId, objectName, fileSize);
+            if (fileSize < 0L) fileSize = 0L;
 
             logBucketOperation(ec, bucketId, userId, "DELETE", objectName, fileSize, "SUCCESS", null);
 
@@ -701,6 +1271,59 @@ public class MinioServiceRunner {
         return result;
     }
 
+    /**
+     * 批量删除对象：所有删除请求通过异步客户端同时发起，等待全部完成后在当前线程记录日志
+     */
+    public static Map<String, Object> deleteObjects(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> parameters = ec.getContext();
+
+        String bucketId = (String) parameters.get("bucketId");
+        String userId = (String) parameters.get("userId");
+        @SuppressWarnings("unchecked")
+        List<String> objectNames = (List<String>) parameters.get("objectNames");
+
+        // 批量删除只按对象台账确定大小，台账中没有的对象不调整统计（由后台聚合任务校准）
+        Map<String, Long> objectSizes = new HashMap<>();
+        for (String objectName : objectNames) {
+            objectSizes.put(objectName, MinioObjectLedger.peekSize(ec, bucketId, objectName));
+        }
+
+        MinioAsyncOperations asyncOperations = ec.getTool(MinioAsyncToolFactory.TOOL_NAME, MinioAsyncOperations.class);
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (String objectName : objectNames) {
+            futures.put(objectName, asyncOperations.delete(bucketId, objectName));
+        }
+
+        List<String> deletedObjects = new ArrayList<>();
+        List<Map<String, Object>> failedObjects = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Void>> entry : futures.entrySet()) {
+            String objectName = entry.getKey();
+            try {
+                entry.getValue().join();
+                deletedObjects.add(objectName);
+                long fileSize = objectSizes.get(objectName);
+                MinioObjectLedger.recordDelete(ec, bucketId, objectName, fileSize);
+                logBucketOperation(ec, bucketId, userId, "DELETE", objectName, Math.max(0L, fileSize), "SUCCESS", null);
+            } catch (Exception e) {
+                String errorMessage = MinioExceptionUtils.getUserFriendlyMessage(MinioExceptionUtils.unwrap(e));
+                Map<String, Object> failed = new HashMap<>();
+                failed.put("objectName", objectName);
+                failed.put("errorMessage", errorMessage);
+                failedObjects.add(failed);
+                logBucketOperation(ec, bucketId, userId, "DELETE", objectName, 0L, "FAILURE", errorMessage);
+            }
+        }
+
+        if (!failedObjects.isEmpty()) {
+            ec.getMessage().addError("批量删除对象部分失败: " + failedObjects.size() + "/" + objectNames.size());
+        }
+        result.put("deletedObjects", deletedObjects);
+        result.put("failedObjects", failedObjects);
+        result.put("success", failedObjects.isEmpty());
+        return result;
+    }
+
     public static Map<String, Object> listObjects(ExecutionContext ec) {
         Map<String, Object> result = new HashMap<>();
         Map<String, Object> parameters = ec.getContext();
@@ -709,22 +1332,21 @@ public class MinioServiceRunner {
         String userId = (String) parameters.get("userId");
 
         try {
-            MinioClient client = createMinioClient(ec);
-            Iterable<Result<Item>> objects = client.listObjects(
-                    ListObjectsArgs.builder().bucket(bucketId).recursive(true).build()
-            );
-
-            List<Map<String, Object>> objectList = new ArrayList<>();
-            for (Result<Item> itemResult : objects) {
-                Item item = itemResult.get();
-                Map<String, Object> obj = new HashMap<>();
-                obj.put("objectName", item.objectName());
-                obj.put("size", item.size());
-                obj.put("lastModified", item.lastModified());
-                obj.put("etag", item.etag());
-                obj.put("isDir", item.isDir());
-                objectList.add(obj);
-            }
+            List<Map<String, Object>> objectList = executeMinio(ec, "listObjects", bucketId, client -> {
+                List<Map<String, Object>> objects = new ArrayList<>();
+                for (Result<Item> itemResult : client.listObjects(
+                        ListObjectsArgs.builder().bucket(bucketId).recursive(true).build())) {
+                    Item item = itemResult.get();
+                    Map<String, Object> obj = new HashMap<>();
+                    obj.put("objectName", item.objectName());
+                    obj.put("size", item.size());
+                    obj.put("lastModified", item.lastModified());
+                    obj.put("etag", item.etag());
+                    obj.put("isDir", item.isDir());
+                    objects.add(obj);
+                }
+                return objects;
+            });
 
             logBucketOperation(ec, bucketId, userId, "LIST", null, 0L, "SUCCESS", null);
 
@@ -747,17 +1369,25 @@ public class MinioServiceRunner {
         String objectName = (String) parameters.get("objectName");
 
         try {
-            MinioClient client = createMinioClient(ec);
+            // 去重占位对象签发内容块地址，下载文件名仍为对象名称
+            String readKey = MinioDedupStore.resolveReadKey(ec, bucketId, objectName);
+            Map<String, String> responseParams = new HashMap<>();
+            if (!readKey.equals(objectName)) {
+                String fileName = objectName.substring(objectName.lastIndexOf('/') + 1);
+                responseParams.put("response-content-disposition", "attachment; filename*=UTF-8''"
+                        + URLEncoder.encode(fileName, "UTF-8").replace("+", "%20"));
+            }
 
             // 生成预签名 URL（有效期1小时）
-            String url = client.getPresignedObjectUrl(
+            String url = executeMinio(ec, "getPresignedObjectUrl", bucketId, client -> client.getPresignedObjectUrl(
                     GetPresignedObjectUrlArgs.builder()
                             .method(Method.GET)
                             .bucket(bucketId)
-                            .object(objectName)
+                            .object(readKey)
+                            .extraQueryParams(responseParams)
                             .expiry(60 * 60) // 秒
                             .build()
-            );
+            ));
 
             logBucketOperation(ec, bucketId, userId, "DOWNLOAD", objectName, 0L, "SUCCESS", null);
 
@@ -771,6 +1401,58 @@ public class MinioServiceRunner {
         return result;
     }
 
+    public static Map<String, Object> getConnectionStats(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("clientCacheStats", MinioClientPool.getCacheStats());
+            result.put("httpClientStats", MinioClientFactory.getHttpClientStats());
+            result.put("endpointStats", MinioClientPool.getEndpointStats());
+            result.put("retryStats", MinioClientPool.getRetryStats());
+            result.put("taskExecutorStats", MinioTaskExecutor.getStats());
+            result.put("bucketCacheStats", MinioBucketCache.getStats());
+            result.put("notificationStats", MinioBucketNotificationConsumer.getStats());
+            result.put("usageStats", MinioBucketUsageAccumulator.getStats());
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("获取连接统计失败: " + e.getMessage());
+            ec.getLogger().error("Failed to get MinIO connection stats", e);
+        }
+        return result;
+    }
+
+    public static Map<String, Object> getMetrics(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("metrics", MinioMetrics.getMetrics());
+            result.put("latencyMetrics", MinioMetrics.getLatencyMetrics());
+            if (Boolean.TRUE.equals(ec.getContext().get("prometheusFormat"))) {
+                result.put("prometheusText", MinioMetrics.getPrometheusText());
+            }
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("获取 MinIO 指标失败: " + e.getMessage());
+            ec.getLogger().error("Failed to get MinIO metrics", e);
+        }
+        return result;
+    }
+
+    public static Map<String, Object> reloadConfig(ExecutionContext ec) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            boolean changed = MinioConfig.reload(ec.getFactory());
+            ec.getLogger().info("重新加载 MinIO 配置: changed=" + changed);
+            result.put("changed", changed);
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            ec.getMessage().addError("重新加载 MinIO 配置失败: " + e.getMessage());
+            ec.getLogger().error("Failed to reload MinIO configuration", e);
+        }
+        return result;
+    }
+
 
     // 辅助方法：记录操作日志
     private static void logBucketOperation(ExecutionContext ec, String bucketId, String userId,
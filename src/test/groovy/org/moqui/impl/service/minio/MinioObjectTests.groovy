@@ -0,0 +1,161 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio
+
+import org.apache.commons.fileupload.FileItem
+import org.moqui.Moqui
+import org.moqui.context.ExecutionContext
+import spock.lang.Shared
+import spock.lang.Specification
+
+import static org.moqui.impl.service.minio.MinioTestSupport.*
+
+/**
+ * 对象上传、覆盖、删除与台账/使用量，服务分片上传与elFinder分块上传合并
+ */
+class MinioObjectTests extends Specification {
+    static final int PART_SIZE = 5 * 1024 * 1024
+
+    @Shared ExecutionContext ec
+    @Shared EmbeddedS3Server server
+    @Shared String bucketId
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        ec.user.internalLoginUser("john.doe")
+        ec.artifactExecution.disableAuthz()
+        server = startServer(ec)
+        bucketId = createBucket(ec, "minio-object-test")
+    }
+
+    def cleanupSpec() {
+        stopServer(ec, server)
+        ec.artifactExecution.enableAuthz()
+        ec.user.logoutUser()
+        ec.destroy()
+    }
+
+    def "upload, overwrite and delete keep the ledger and bucket usage in step"() {
+        byte[] content = randomBytes(1000)
+        byte[] larger = randomBytes(2500)
+        String objectName = "docs/readme.bin"
+
+        when:
+        Map<String, Object> uploaded = call(ec, "upload#Object", [bucketId: bucketId, objectName: objectName,
+                userId: ec.user.userId, fileBytes: content])
+
+        then:
+        uploaded.success
+        uploaded.objectSize == content.length
+        Arrays.equals(server.getObjectData(bucketId, objectName), content)
+        ledger(ec, bucketId, objectName).getLong("objectSize") == content.length
+        usage(ec, bucketId) == [1L, (long) content.length]
+
+        when: "覆盖时文件数不变，占用空间按大小差调整"
+        call(ec, "upload#Object", [bucketId: bucketId, objectName: objectName, userId: ec.user.userId, fileBytes: larger])
+
+        then:
+        Arrays.equals(server.getObjectData(bucketId, objectName), larger)
+        ledger(ec, bucketId, objectName).getLong("objectSize") == larger.length
+        usage(ec, bucketId) == [1L, (long) larger.length]
+
+        when:
+        Map<String, Object> deleted = call(ec, "delete#Objects", [bucketId: bucketId, userId: ec.user.userId,
+                objectNames: [objectName]])
+
+        then:
+        deleted.success
+        deleted.failedObjects == null || deleted.failedObjects.isEmpty()
+        server.getObjectData(bucketId, objectName) == null
+        ledger(ec, bucketId, objectName) == null
+        usage(ec, bucketId) == [0L, 0L]
+    }
+
+    def "multipart upload completes through the services and is recorded in the ledger"() {
+        byte[] first = randomBytes(PART_SIZE)
+        byte[] second = randomBytes(12345)
+        String objectName = "video/clip.bin"
+
+        when:
+        Map<String, Object> initiated = call(ec, "initiate#MultipartUpload", [bucketId: bucketId, objectName: objectName,
+                contentType: "application/octet-stream"])
+        String uploadSessionId = initiated.uploadSessionId
+        Map<String, Object> part1 = call(ec, "upload#MultipartUploadPart", [uploadSessionId: uploadSessionId,
+                partNumber: 1, partBytes: first])
+        Map<String, Object> part2 = call(ec, "upload#MultipartUploadPart", [uploadSessionId: uploadSessionId,
+                partNumber: 2, partBytes: second])
+        Map<String, Object> parts = call(ec, "list#MultipartUploadParts", [uploadSessionId: uploadSessionId])
+        Map<String, Object> completed = call(ec, "complete#MultipartUpload", [uploadSessionId: uploadSessionId])
+
+        then:
+        uploadSessionId
+        part1.partSize == first.length
+        part2.partSize == second.length
+        parts.partList*.partNumber == [1, 2]
+        completed.success
+        completed.objectSize == first.length + second.length
+        Arrays.equals(server.getObjectData(bucketId, objectName), concat(first, second))
+        ledger(ec, bucketId, objectName).getLong("objectSize") == first.length + second.length
+        MinioMultipartUploads.findSession(ec, uploadSessionId).status == MinioMultipartUploads.STATUS_COMPLETED
+
+        cleanup:
+        call(ec, "delete#Objects", [bucketId: bucketId, userId: ec.user.userId, objectNames: [objectName]])
+    }
+
+    def "elFinder chunks are uploaded as parts and merged into one object"() {
+        byte[] chunk0 = randomBytes(PART_SIZE)
+        byte[] chunk1 = randomBytes(4321)
+        long total = chunk0.length + chunk1.length
+        String target = new MinioElFinderConnector(ec, bucketId).hash("uploads")
+        FileItem item0 = fileItem("blob", chunk0)
+        FileItem item1 = fileItem("blob", chunk1)
+
+        when:
+        Map<String, Object> response0 = runElFinder(ec, bucketId, "upload", target, [chunk: "big.bin.0_1.part",
+                cid: "4711", range: "0," + chunk0.length + "," + total, _fileUploadList: [item0]])
+        Map<String, Object> response1 = runElFinder(ec, bucketId, "upload", target, [chunk: "big.bin.1_1.part",
+                cid: "4711", range: chunk0.length + "," + chunk1.length + "," + total, _fileUploadList: [item1]])
+
+        then: "最后一个分块上传后返回合并用的会话ID，分块阶段不生成对象"
+        response0.error == null
+        response0._chunkmerged == null
+        response1.error == null
+        response1._chunkmerged
+        response1._name == "big.bin"
+        server.getObjectData(bucketId, "uploads/big.bin") == null
+
+        when:
+        Map<String, Object> merged = runElFinder(ec, bucketId, "upload", target, [chunk: response1._chunkmerged,
+                "upload[]": ["big.bin"]])
+
+        then:
+        merged.error == null
+        merged.added*.size == [total]
+        Arrays.equals(server.getObjectData(bucketId, "uploads/big.bin"), concat(chunk0, chunk1))
+        ledger(ec, bucketId, "uploads/big.bin").getLong("objectSize") == total
+
+        when: "重复的合并请求返回同一对象"
+        Map<String, Object> mergedAgain = runElFinder(ec, bucketId, "upload", target, [chunk: response1._chunkmerged,
+                "upload[]": ["big.bin"]])
+
+        then:
+        mergedAgain.error == null
+        mergedAgain.added*.size == [total]
+
+        cleanup:
+        item0.delete()
+        item1.delete()
+        call(ec, "delete#Objects", [bucketId: bucketId, userId: ec.user.userId, objectNames: ["uploads/big.bin"]])
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio
+
+import io.minio.GetObjectArgs
+import io.minio.GetObjectResponse
+import io.minio.StatObjectArgs
+import io.minio.StatObjectResponse
+import org.moqui.Moqui
+import org.moqui.context.ExecutionContext
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.zip.GZIPInputStream
+
+import static org.moqui.impl.service.minio.MinioTestSupport.*
+
+/**
+ * 去重存储的引用计数与gzip透明压缩的读写往返
+ */
+class MinioStorageTests extends Specification {
+    @Shared ExecutionContext ec
+    @Shared EmbeddedS3Server server
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        ec.user.internalLoginUser("john.doe")
+        ec.artifactExecution.disableAuthz()
+        server = startServer(ec)
+    }
+
+    def cleanupSpec() {
+        stopServer(ec, server)
+        ec.artifactExecution.enableAuthz()
+        ec.user.logoutUser()
+        ec.destroy()
+    }
+
+    def "identical content is stored once and reference counted"() {
+        String bucketId = createBucket(ec, "minio-dedup-test")
+        setBucketConfig(ec, bucketId, MinioDedupStore.CONFIG_KEY, "true")
+        byte[] content = randomBytes(20000)
+
+        when:
+        Map<String, Object> first = call(ec, "upload#Object", [bucketId: bucketId, objectName: "a.bin",
+                userId: ec.user.userId, fileBytes: content])
+        Map<String, Object> second = call(ec, "upload#Object", [bucketId: bucketId, objectName: "copies/b.bin",
+                userId: ec.user.userId, fileBytes: content])
+        String digest = first.dedupDigest
+
+        then: "第二次上传只增加引用计数，两个对象都是指向同一内容块的空占位对象"
+        digest
+        second.dedupDigest == digest
+        !first.transferSkipped
+        second.transferSkipped
+        first.objectSize == content.length
+        second.objectSize == content.length
+        dedupBlob(ec, bucketId, digest).getLong("referenceCount") == 2L
+        dedupBlob(ec, bucketId, digest).getLong("blobSize") == content.length
+        Arrays.equals(server.getObjectData(bucketId, MinioDedupStore.blobKey(digest)), content)
+        server.getObjectData(bucketId, "a.bin").length == 0
+        server.getObjectData(bucketId, "copies/b.bin").length == 0
+        ledger(ec, bucketId, "a.bin").dedupDigest == digest
+        ledger(ec, bucketId, "copies/b.bin").dedupDigest == digest
+
+        when:
+        call(ec, "delete#Objects", [bucketId: bucketId, userId: ec.user.userId, objectNames: ["a.bin"]])
+
+        then: "删除一个引用后内容块仍保留"
+        ledger(ec, bucketId, "a.bin") == null
+        dedupBlob(ec, bucketId, digest).getLong("referenceCount") == 1L
+        server.getObjectData(bucketId, MinioDedupStore.blobKey(digest)) != null
+
+        when:
+        call(ec, "delete#Objects", [bucketId: bucketId, userId: ec.user.userId, objectNames: ["copies/b.bin"]])
+
+        then: "引用计数归零的内容块由清理任务在宽限期后删除"
+        ledger(ec, bucketId, "copies/b.bin") == null
+        dedupBlob(ec, bucketId, digest).getLong("referenceCount") == 0L
+    }
+
+    def "compressible content is stored gzip encoded and read back unchanged"() {
+        String bucketId = createBucket(ec, "minio-gzip-test")
+        setBucketConfig(ec, bucketId, MinioCompression.CONFIG_KEY, "true")
+        StringBuilder json = new StringBuilder("[")
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) json.append(',')
+            json.append('{"id":').append(i).append(',"name":"item ').append(i).append('","status":"ACTIVE"}')
+        }
+        byte[] content = json.append(']').toString().getBytes(StandardCharsets.UTF_8)
+        String objectName = "data/records.json"
+
+        when:
+        Map<String, Object> uploaded = call(ec, "upload#Object", [bucketId: bucketId, objectName: objectName,
+                userId: ec.user.userId, contentType: "application/json", fileBytes: content])
+
+        then: "对象以gzip存储，台账与使用量按压缩后的大小记录"
+        uploaded.codec == MinioCompression.CODEC_GZIP
+        uploaded.objectSize == content.length
+        uploaded.storedSize < content.length
+        server.getContentEncoding(bucketId, objectName) == MinioCompression.CODEC_GZIP
+        server.getObjectData(bucketId, objectName).length == uploaded.storedSize
+        Arrays.equals(new GZIPInputStream(new ByteArrayInputStream(server.getObjectData(bucketId, objectName))).bytes, content)
+        ledger(ec, bucketId, objectName).getLong("objectSize") == uploaded.storedSize
+        usage(ec, bucketId) == [1L, (long) uploaded.storedSize]
+
+        when:
+        byte[] read = MinioClientPool.execute(ec.factory, "getObject", bucketId, { client ->
+            GetObjectResponse response = client.getObject(GetObjectArgs.builder().bucket(bucketId).object(objectName).build())
+            try {
+                return MinioCompression.decodingStream(response).bytes
+            } finally {
+                response.close()
+            }
+        } as MinioCallable)
+        StatObjectResponse stat = MinioClientPool.execute(ec.factory, "statObject", bucketId, { client ->
+            client.statObject(StatObjectArgs.builder().bucket(bucketId).object(objectName).build())
+        } as MinioCallable)
+
+        then: "读取时解压为原内容，元数据记录原始大小"
+        Arrays.equals(read, content)
+        MinioCompression.displaySize(stat.userMetadata(), stat.size()) == content.length
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio
+
+import org.apache.commons.fileupload.FileItem
+import org.apache.commons.fileupload.disk.DiskFileItemFactory
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityValue
+
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * 测试公用方法：将组件指向 EmbeddedS3Server，创建测试存储桶并读取台账与使用量
+ */
+class MinioTestSupport {
+    static final String SERVICE_PREFIX = "minio.MinioServices."
+
+    /** 启动内存S3服务并重新加载配置，所有MinIO调用都发往该服务 */
+    static EmbeddedS3Server startServer(ExecutionContext ec) {
+        EmbeddedS3Server server = new EmbeddedS3Server().start()
+        server.applySystemProperties()
+        MinioConfig.reload(ec.factory)
+        return server
+    }
+
+    /** 停止服务并恢复原有配置 */
+    static void stopServer(ExecutionContext ec, EmbeddedS3Server server) {
+        if (server == null) return
+        server.close()
+        server.clearSystemProperties()
+        MinioConfig.reload(ec.factory)
+    }
+
+    static Map<String, Object> call(ExecutionContext ec, String serviceName, Map<String, Object> parameters) {
+        Map<String, Object> result = ec.service.sync().name(SERVICE_PREFIX + serviceName).parameters(parameters).call()
+        if (ec.message.hasError()) {
+            String errors = ec.message.getErrorsString()
+            ec.message.clearErrors()
+            throw new AssertionError("Service " + serviceName + " failed: " + errors)
+        }
+        return result
+    }
+
+    /**
+     * 创建存储桶（每次运行使用新的名称）；标记台账已重建，避免首次上传触发后台重建与测试并发写台账
+     */
+    static String createBucket(ExecutionContext ec, String prefix) {
+        String bucketId = prefix + "-" + System.currentTimeMillis() + "-" + ThreadLocalRandom.current().nextInt(1000, 10000)
+        call(ec, "create#Bucket", [bucketId: bucketId, userId: ec.user.userId])
+        ec.entity.find("moqui.minio.Bucket").condition("bucketId", bucketId)
+                .updateAll([ledgerRebuiltDate: ec.user.nowTimestamp])
+        MinioBucketCache.invalidate(ec.factory, bucketId)
+        return bucketId
+    }
+
+    static void setBucketConfig(ExecutionContext ec, String bucketId, String configKey, String configValue) {
+        ec.entity.makeValue("moqui.minio.BucketConfig")
+                .setAll([bucketId: bucketId, configKey: configKey, configValue: configValue, configType: "BOOLEAN",
+                         lastModifiedDate: ec.user.nowTimestamp, modifiedByUserId: ec.user.userId])
+                .createOrUpdate()
+        MinioBucketCache.invalidate(ec.factory, bucketId)
+    }
+
+    static EntityValue ledger(ExecutionContext ec, String bucketId, String objectName) {
+        return ec.entity.find("moqui.minio.BucketObject").condition([bucketId: bucketId, objectName: objectName])
+                .useCache(false).one()
+    }
+
+    static EntityValue dedupBlob(ExecutionContext ec, String bucketId, String digest) {
+        return ec.entity.find("moqui.minio.DedupBlob").condition([bucketId: bucketId, digest: digest])
+                .useCache(false).one()
+    }
+
+    /** 写入累加器中的增量后返回 [fileCount, usedStorage] */
+    static List<Long> usage(ExecutionContext ec, String bucketId) {
+        MinioBucketUsageAccumulator.flush(ec, bucketId)
+        EntityValue bucket = ec.entity.find("moqui.minio.Bucket").condition("bucketId", bucketId).useCache(false).one()
+        return [bucket.getLong("fileCount"), bucket.getLong("usedStorage")]
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] data = new byte[length]
+        ThreadLocalRandom.current().nextBytes(data)
+        return data
+    }
+
+    static byte[] concat(byte[] first, byte[] second) {
+        byte[] combined = new byte[first.length + second.length]
+        System.arraycopy(first, 0, combined, 0, first.length)
+        System.arraycopy(second, 0, combined, first.length, second.length)
+        return combined
+    }
+
+    /** elFinder请求中的上传文件 */
+    static FileItem fileItem(String fileName, byte[] data) {
+        FileItem item = new DiskFileItemFactory().createItem("upload[]", "application/octet-stream", false, fileName)
+        item.outputStream.withStream { it.write(data) }
+        return item
+    }
+
+    /** 执行elFinder命令并返回 responseMap */
+    static Map<String, Object> runElFinder(ExecutionContext ec, String bucketId, String cmd, String target,
+                                           Map<String, Object> otherParameters) {
+        ec.context.push()
+        try {
+            ec.context.putAll([cmd: cmd, target: target, otherParameters: otherParameters])
+            new MinioElFinderConnector(ec, bucketId).runCommand()
+            return (Map<String, Object>) ec.context.get("responseMap")
+        } finally {
+            ec.context.pop()
+        }
+    }
+}
@@ -0,0 +1,956 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.minio;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.moqui.context.ExecutionContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内的S3兼容HTTP服务（测试用）
+ *
+ * 数据保存在内存中，支持组件用到的操作：存储桶创建/存在检查/删除/列举、对象上传/下载/元数据/复制/删除/批量删除、
+ * ListObjectsV2（前缀、分隔符、分页）、分片上传以及预签名URL和POST表单上传；不校验签名。
+ * 可配置每个请求的注入延迟，用于在没有真实MinIO的情况下对MinioServiceRunner等做吞吐量测试。
+ *
+ * <pre>
+ * try (EmbeddedS3Server server = new EmbeddedS3Server().start()) {
+ *     server.setLatency(5, 2);
+ *     server.applySystemProperties();
+ *     MinioConfig.reload(ecf);
+ *     ...
+ * }
+ * </pre>
+ */
+public class EmbeddedS3Server implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedS3Server.class);
+
+    public static final String ACCESS_KEY = "admin";
+    public static final String SECRET_KEY = "admin123";
+    public static final String REGION = "us-east-1";
+
+    private static final String S3_NS = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter ISO_DATE = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final Pattern PART_PATTERN = Pattern.compile(
+            "<Part>.*?<PartNumber>(\\d+)</PartNumber>.*?</Part>", Pattern.DOTALL);
+    private static final Pattern KEY_PATTERN = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+    private static final Pattern QUIET_PATTERN = Pattern.compile("<Quiet>\\s*true\\s*</Quiet>", Pattern.CASE_INSENSITIVE);
+    private static final String[] SYSTEM_PROPERTY_KEYS = { MinioConfig.PROP_ENDPOINT, MinioConfig.PROP_ACCESS_KEY,
+            MinioConfig.PROP_SECRET_KEY, MinioConfig.PROP_REGION, MinioConfig.PROP_SECURE };
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadSequence = new AtomicInteger();
+    private final int requestedPort;
+
+    private volatile long latencyMillis = 0L;
+    private volatile long latencyJitterMillis = 0L;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * 存储桶，对象按键名有序保存以支持列举分页
+     */
+    static final class Bucket {
+        final String name;
+        final Instant creationDate = Instant.now();
+        final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+
+        Bucket(String name) { this.name = name; }
+    }
+
+    /**
+     * 内存中的对象
+     */
+    static final class StoredObject {
+        final byte[] data;
+        final String etag;
+        final String contentType;
+        final String contentEncoding;
+        final Map<String, String> userMetadata;
+        final Instant lastModified = Instant.now();
+
+        StoredObject(byte[] data, String etag, String contentType, Map<String, String> userMetadata) {
+            this(data, etag, contentType, null, userMetadata);
+        }
+
+        StoredObject(byte[] data, String etag, String contentType, String contentEncoding, Map<String, String> userMetadata) {
+            this.data = data;
+            this.etag = etag;
+            this.contentType = contentType != null ? contentType : "application/octet-stream";
+            this.contentEncoding = contentEncoding;
+            this.userMetadata = userMetadata;
+        }
+    }
+
+    /**
+     * 进行中的分片上传
+     */
+    static final class MultipartUpload {
+        final String uploadId;
+        final String bucket;
+        final String key;
+        final String contentType;
+        final String contentEncoding;
+        final Map<String, String> userMetadata;
+        final Instant initiated = Instant.now();
+        final ConcurrentSkipListMap<Integer, StoredObject> parts = new ConcurrentSkipListMap<>();
+
+        MultipartUpload(String uploadId, String bucket, String key, String contentType, String contentEncoding,
+                        Map<String, String> userMetadata) {
+            this.uploadId = uploadId;
+            this.bucket = bucket;
+            this.key = key;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.userMetadata = userMetadata;
+        }
+    }
+
+    /**
+     * S3错误响应
+     */
+    static final class S3Error extends Exception {
+        final int status;
+        final String code;
+
+        S3Error(int status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+    }
+
+    /**
+     * 使用随机空闲端口创建
+     */
+    public EmbeddedS3Server() {
+        this(0);
+    }
+
+    /**
+     * 使用指定端口创建，0表示随机空闲端口
+     */
+    public EmbeddedS3Server(int port) {
+        this.requestedPort = port;
+    }
+
+    /**
+     * 启动服务，仅监听回环地址
+     */
+    public synchronized EmbeddedS3Server start() throws IOException {
+        if (server != null) return this;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort), 0);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "EmbeddedS3-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        logger.info("内嵌S3服务已启动: {}", getEndpoint());
+        return this;
+    }
+
+    /**
+     * 停止服务并清空数据
+     */
+    public synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+        buckets.clear();
+        uploads.clear();
+        logger.info("内嵌S3服务已停止");
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    public int getPort() {
+        if (server == null) throw new IllegalStateException("EmbeddedS3Server not started");
+        return server.getAddress().getPort();
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * 设置每个请求的注入延迟
+     *
+     * @param latencyMillis 固定延迟毫秒数
+     * @param jitterMillis 额外的随机延迟上限毫秒数
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = Math.max(0L, latencyMillis);
+        this.latencyJitterMillis = Math.max(0L, jitterMillis);
+    }
+
+    /**
+     * 将minio.*系统属性指向本服务（系统属性优先级最高），之后调用 {@link MinioConfig#reload(ExecutionContextFactory)} 生效
+     */
+    public void applySystemProperties() {
+        System.setProperty(MinioConfig.PROP_ENDPOINT, getEndpoint());
+        System.setProperty(MinioConfig.PROP_ACCESS_KEY, ACCESS_KEY);
+        System.setProperty(MinioConfig.PROP_SECRET_KEY, SECRET_KEY);
+        System.setProperty(MinioConfig.PROP_REGION, REGION);
+        System.setProperty(MinioConfig.PROP_SECURE, "false");
+    }
+
+    /**
+     * 清除 {@link #applySystemProperties()} 设置的系统属性
+     */
+    public void clearSystemProperties() {
+        for (String key : SYSTEM_PROPERTY_KEYS) System.clearProperty(key);
+    }
+
+    /**
+     * 创建指向本服务的配置（会设置系统属性）
+     */
+    public MinioConfig createConfig() {
+        applySystemProperties();
+        return new MinioConfig((ExecutionContextFactory) null);
+    }
+
+    /**
+     * 获取各操作的请求次数，如 PutObject、ListObjectsV2
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : requestCounts.entrySet()) counts.put(entry.getKey(), entry.getValue().sum());
+        return counts;
+    }
+
+    public void resetRequestCounts() {
+        requestCounts.clear();
+    }
+
+    /**
+     * 直接读取对象内容（用于断言），不存在时返回null
+     */
+    public byte[] getObjectData(String bucket, String key) {
+        Bucket b = buckets.get(bucket);
+        StoredObject object = b != null ? b.objects.get(key) : null;
+        return object != null ? object.data.clone() : null;
+    }
+
+    /**
+     * 对象的Content-Encoding（用于断言），不存在或未设置时返回null
+     */
+    public String getContentEncoding(String bucket, String key) {
+        Bucket b = buckets.get(bucket);
+        StoredObject object = b != null ? b.objects.get(key) : null;
+        return object != null ? object.contentEncoding : null;
+    }
+
+    public int getObjectCount(String bucket) {
+        Bucket b = buckets.get(bucket);
+        return b != null ? b.objects.size() : 0;
+    }
+
+    // ==================== 请求分发 ====================
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            injectLatency();
+            String rawPath = exchange.getRequestURI().getRawPath();
+            String path = decode(rawPath.startsWith("/") ? rawPath.substring(1) : rawPath);
+            int slash = path.indexOf('/');
+            String bucket = slash < 0 ? path : path.substring(0, slash);
+            String key = slash < 0 ? "" : path.substring(slash + 1);
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+
+            if (bucket.isEmpty()) {
+                if (!"GET".equals(method)) throw new S3Error(405, "MethodNotAllowed", "Method not allowed");
+                listBuckets(exchange);
+            } else if (key.isEmpty()) {
+                handleBucket(exchange, method, bucket, query);
+            } else {
+                handleObject(exchange, method, bucket, key, query);
+            }
+        } catch (S3Error e) {
+            sendError(exchange, e);
+        } catch (Exception e) {
+            logger.warn("内嵌S3服务处理请求失败: {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, new S3Error(500, "InternalError", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void injectLatency() throws InterruptedException {
+        long delay = latencyMillis;
+        long jitter = latencyJitterMillis;
+        if (jitter > 0) delay += ThreadLocalRandom.current().nextLong(jitter + 1);
+        if (delay > 0) TimeUnit.MILLISECONDS.sleep(delay);
+    }
+
+    private void handleBucket(HttpExchange exchange, String method, String bucket, Map<String, String> query) throws Exception {
+        switch (method) {
+            case "PUT":
+                count("MakeBucket");
+                if (buckets.putIfAbsent(bucket, new Bucket(bucket)) != null) {
+                    throw new S3Error(409, "BucketAlreadyOwnedByYou", "Your previous request to create the named bucket succeeded and you already own it.");
+                }
+                exchange.getResponseHeaders().set("Location", "/" + bucket);
+                sendEmpty(exchange, 200);
+                return;
+            case "HEAD":
+                count("BucketExists");
+                requireBucket(bucket);
+                sendEmpty(exchange, 200);
+                return;
+            case "DELETE":
+                count("RemoveBucket");
+                Bucket b = requireBucket(bucket);
+                if (!b.objects.isEmpty()) throw new S3Error(409, "BucketNotEmpty", "The bucket you tried to delete is not empty");
+                buckets.remove(bucket);
+                sendEmpty(exchange, 204);
+                return;
+            case "GET":
+                if (query.containsKey("location")) {
+                    count("GetBucketLocation");
+                    requireBucket(bucket);
+                    sendXml(exchange, 200, "<LocationConstraint xmlns=\"" + S3_NS + "\">" + REGION + "</LocationConstraint>");
+                } else if (query.containsKey("uploads")) {
+                    count("ListMultipartUploads");
+                    listMultipartUploads(exchange, requireBucket(bucket), query);
+                } else {
+                    count("ListObjectsV2");
+                    listObjectsV2(exchange, requireBucket(bucket), query);
+                }
+                return;
+            case "POST":
+                if (query.containsKey("delete")) {
+                    count("RemoveObjects");
+                    removeObjects(exchange, requireBucket(bucket));
+                } else {
+                    count("PostPolicy");
+                    postObject(exchange, requireBucket(bucket));
+                }
+                return;
+            default:
+                throw new S3Error(405, "MethodNotAllowed", "Method not allowed");
+        }
+    }
+
+    private void handleObject(HttpExchange exchange, String method, String bucket, String key, Map<String, String> query) throws Exception {
+        Bucket b = requireBucket(bucket);
+        String uploadId = query.get("uploadId");
+        switch (method) {
+            case "PUT":
+                if (uploadId != null) {
+                    uploadPart(exchange, uploadId, query);
+                } else if (exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+                    count("CopyObject");
+                    copyObject(exchange, b, key);
+                } else {
+                    count("PutObject");
+                    StoredObject object = newObject(readBody(exchange), exchange.getRequestHeaders());
+                    b.objects.put(key, object);
+                    exchange.getResponseHeaders().set("ETag", quote(object.etag));
+                    sendEmpty(exchange, 200);
+                }
+                return;
+            case "GET":
+                if (uploadId != null) {
+                    count("ListParts");
+                    listParts(exchange, requireUpload(uploadId));
+                } else {
+                    count("GetObject");
+                    getObject(exchange, requireObject(b, key));
+                }
+                return;
+            case "HEAD":
+                count("StatObject");
+                StoredObject object = requireObject(b, key);
+                setObjectHeaders(exchange.getResponseHeaders(), object);
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(object.data.length));
+                sendHeaders(exchange, 200, -1);
+                return;
+            case "DELETE":
+                if (uploadId != null) {
+                    count("AbortMultipartUpload");
+                    requireUpload(uploadId);
+                    uploads.remove(uploadId);
+                } else {
+                    count("RemoveObject");
+                    b.objects.remove(key);
+                }
+                sendEmpty(exchange, 204);
+                return;
+            case "POST":
+                if (query.containsKey("uploads")) {
+                    count("CreateMultipartUpload");
+                    String newUploadId = "upload-" + uploadSequence.incrementAndGet() + "-" + UUID.randomUUID();
+                    Headers headers = exchange.getRequestHeaders();
+                    uploads.put(newUploadId, new MultipartUpload(newUploadId, bucket, key,
+                            headers.getFirst("Content-Type"), contentEncoding(headers), userMetadata(headers)));
+                    sendXml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"" + S3_NS + "\"><Bucket>" + xml(bucket) +
+                            "</Bucket><Key>" + xml(key) + "</Key><UploadId>" + newUploadId + "</UploadId></InitiateMultipartUploadResult>");
+                } else if (uploadId != null) {
+                    count("CompleteMultipartUpload");
+                    completeMultipartUpload(exchange, b, key, requireUpload(uploadId));
+                } else {
+                    throw new S3Error(405, "MethodNotAllowed", "Method not allowed");
+                }
+                return;
+            default:
+                throw new S3Error(405, "MethodNotAllowed", "Method not allowed");
+        }
+    }
+
+    // ==================== 存储桶操作 ====================
+
+    private void listBuckets(HttpExchange exchange) throws IOException {
+        count("ListBuckets");
+        StringBuilder sb = new StringBuilder("<ListAllMyBucketsResult xmlns=\"" + S3_NS + "\">")
+                .append("<Owner><ID>embedded</ID><DisplayName>embedded</DisplayName></Owner><Buckets>");
+        for (Bucket b : new TreeMap<>(buckets).values()) {
+            sb.append("<Bucket><Name>").append(xml(b.name)).append("</Name><CreationDate>")
+                    .append(ISO_DATE.format(b.creationDate)).append("</CreationDate></Bucket>");
+        }
+        sb.append("</Buckets></ListAllMyBucketsResult>");
+        sendXml(exchange, 200, sb.toString());
+    }
+
+    private void listObjectsV2(HttpExchange exchange, Bucket b, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.getOrDefault("delimiter", "");
+        String continuationToken = query.get("continuation-token");
+        String startAfter = query.getOrDefault("start-after", "");
+        int maxKeys = Math.min(1000, Integer.parseInt(query.getOrDefault("max-keys", "1000")));
+        boolean fetchOwner = "true".equals(query.get("fetch-owner"));
+
+        String marker = continuationToken != null ? decodeToken(continuationToken) : startAfter;
+        NavigableMap<String, StoredObject> candidates = marker.isEmpty() ? b.objects.tailMap(prefix, true) : b.objects.tailMap(marker, false);
+
+        StringBuilder contents = new StringBuilder();
+        Set<String> commonPrefixes = new LinkedHashSet<>();
+        int keyCount = 0;
+        String lastKey = null;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                if (key.compareTo(prefix) > 0) break;
+                continue;
+            }
+            String commonPrefix = null;
+            if (!delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) commonPrefix = key.substring(0, index + delimiter.length());
+            }
+            if (commonPrefix != null && commonPrefixes.contains(commonPrefix)) continue;
+            if (keyCount >= maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+                // 下一页从该公共前缀之后开始，跳过前缀下的其余对象
+                lastKey = commonPrefix + Character.MAX_VALUE;
+            } else {
+                StoredObject object = entry.getValue();
+                contents.append("<Contents><Key>").append(xml(key)).append("</Key><LastModified>")
+                        .append(ISO_DATE.format(object.lastModified)).append("</LastModified><ETag>")
+                        .append(xml(quote(object.etag))).append("</ETag><Size>").append(object.data.length)
+                        .append("</Size>");
+                if (fetchOwner) contents.append("<Owner><ID>embedded</ID><DisplayName>embedded</DisplayName></Owner>");
+                contents.append("<StorageClass>STANDARD</StorageClass></Contents>");
+                lastKey = key;
+            }
+            keyCount++;
+        }
+
+        StringBuilder sb = new StringBuilder("<ListBucketResult xmlns=\"" + S3_NS + "\">")
+                .append("<Name>").append(xml(b.name)).append("</Name><Prefix>").append(xml(prefix)).append("</Prefix>")
+                .append("<KeyCount>").append(keyCount).append("</KeyCount><MaxKeys>").append(maxKeys).append("</MaxKeys>");
+        if (!delimiter.isEmpty()) sb.append("<Delimiter>").append(xml(delimiter)).append("</Delimiter>");
+        sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (continuationToken != null) sb.append("<ContinuationToken>").append(xml(continuationToken)).append("</ContinuationToken>");
+        if (truncated && lastKey != null) sb.append("<NextContinuationToken>").append(encodeToken(lastKey)).append("</NextContinuationToken>");
+        if (!startAfter.isEmpty()) sb.append("<StartAfter>").append(xml(startAfter)).append("</StartAfter>");
+        sb.append(contents);
+        for (String commonPrefix : commonPrefixes) sb.append("<CommonPrefixes><Prefix>").append(xml(commonPrefix)).append("</Prefix></CommonPrefixes>");
+        sb.append("</ListBucketResult>");
+        sendXml(exchange, 200, sb.toString());
+    }
+
+    private void listMultipartUploads(HttpExchange exchange, Bucket b, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        StringBuilder sb = new StringBuilder("<ListMultipartUploadsResult xmlns=\"" + S3_NS + "\">")
+                .append("<Bucket>").append(xml(b.name)).append("</Bucket><Prefix>").append(xml(prefix))
+                .append("</Prefix><MaxUploads>1000</MaxUploads><IsTruncated>false</IsTruncated>");
+        for (MultipartUpload upload : uploads.values()) {
+            if (!upload.bucket.equals(b.name) || !upload.key.startsWith(prefix)) continue;
+            sb.append("<Upload><Key>").append(xml(upload.key)).append("</Key><UploadId>").append(upload.uploadId)
+                    .append("</UploadId><Initiated>").append(ISO_DATE.format(upload.initiated))
+                    .append("</Initiated><StorageClass>STANDARD</StorageClass></Upload>");
+        }
+        sb.append("</ListMultipartUploadsResult>");
+        sendXml(exchange, 200, sb.toString());
+    }
+
+    private void removeObjects(HttpExchange exchange, Bucket b) throws IOException {
+        String body = new String(readRawBody(exchange), StandardCharsets.UTF_8);
+        boolean quiet = QUIET_PATTERN.matcher(body).find();
+        StringBuilder sb = new StringBuilder("<DeleteResult xmlns=\"" + S3_NS + "\">");
+        Matcher matcher = KEY_PATTERN.matcher(body);
+        while (matcher.find()) {
+            String key = unxml(matcher.group(1));
+            b.objects.remove(key);
+            if (!quiet) sb.append("<Deleted><Key>").append(xml(key)).append("</Key></Deleted>");
+        }
+        sb.append("</DeleteResult>");
+        sendXml(exchange, 200, sb.toString());
+    }
+
+    /**
+     * 预签名POST表单上传：解析multipart/form-data中的key字段与file字段
+     */
+    private void postObject(HttpExchange exchange, Bucket b) throws Exception {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null || !contentType.startsWith("multipart/form-data")) {
+            throw new S3Error(400, "InvalidRequest", "POST requires multipart/form-data");
+        }
+        int boundaryIndex = contentType.indexOf("boundary=");
+        if (boundaryIndex < 0) throw new S3Error(400, "MalformedPOSTRequest", "Missing multipart boundary");
+        String boundary = contentType.substring(boundaryIndex + "boundary=".length()).replace("\"", "").trim();
+
+        Map<String, String> fields = new HashMap<>();
+        byte[] fileData = null;
+        String fileContentType = null;
+        byte[] body = readRawBody(exchange);
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        int position = indexOf(body, delimiter, 0);
+        while (position >= 0) {
+            int partStart = position + delimiter.length;
+            if (partStart + 1 < body.length && body[partStart] == '-' && body[partStart + 1] == '-') break;
+            partStart += 2;
+            int headerEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), partStart);
+            int next = indexOf(body, delimiter, partStart);
+            if (headerEnd < 0 || next < 0) break;
+            String partHeaders = new String(body, partStart, headerEnd - partStart, StandardCharsets.UTF_8);
+            byte[] value = Arrays.copyOfRange(body, headerEnd + 4, next - 2);
+            String name = headerParam(partHeaders, "name");
+            if (name != null) {
+                if (headerParam(partHeaders, "filename") != null || "file".equals(name)) {
+                    fileData = value;
+                    for (String line : partHeaders.split("\r\n")) {
+                        if (line.toLowerCase(Locale.ROOT).startsWith("content-type:")) fileContentType = line.substring(13).trim();
+                    }
+                } else {
+                    fields.put(name.toLowerCase(Locale.ROOT), new String(value, StandardCharsets.UTF_8));
+                }
+            }
+            position = next;
+        }
+
+        String key = fields.get("key");
+        if (key == null || fileData == null) throw new S3Error(400, "MalformedPOSTRequest", "Missing key or file field");
+        if (fileContentType == null) fileContentType = fields.get("content-type");
+        StoredObject object = new StoredObject(fileData, md5Hex(fileData), fileContentType, new HashMap<>());
+        b.objects.put(key, object);
+        exchange.getResponseHeaders().set("ETag", quote(object.etag));
+        exchange.getResponseHeaders().set("Location", getEndpoint() + "/" + b.name + "/" + key);
+        sendEmpty(exchange, Integer.parseInt(fields.getOrDefault("success_action_status", "204")));
+    }
+
+    // ==================== 对象操作 ====================
+
+    private void getObject(HttpExchange exchange, StoredObject object) throws Exception {
+        Headers responseHeaders = exchange.getResponseHeaders();
+        setObjectHeaders(responseHeaders, object);
+        byte[] data = object.data;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            long[] bounds = parseRange(range.substring(6), data.length);
+            int start = (int) bounds[0];
+            int end = (int) bounds[1];
+            responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            sendBytes(exchange, 206, Arrays.copyOfRange(data, start, end + 1));
+        } else {
+            sendBytes(exchange, 200, data);
+        }
+    }
+
+    private void copyObject(HttpExchange exchange, Bucket target, String key) throws Exception {
+        Headers headers = exchange.getRequestHeaders();
+        StoredObject source = resolveCopySource(headers.getFirst("x-amz-copy-source"));
+        StoredObject copy;
+        if ("REPLACE".equalsIgnoreCase(headers.getFirst("x-amz-metadata-directive"))) {
+            copy = new StoredObject(source.data, source.etag, headers.getFirst("Content-Type"), source.contentEncoding,
+                    userMetadata(headers));
+        } else {
+            copy = new StoredObject(source.data, source.etag, source.contentType, source.contentEncoding, source.userMetadata);
+        }
+        target.objects.put(key, copy);
+        sendXml(exchange, 200, "<CopyObjectResult xmlns=\"" + S3_NS + "\"><LastModified>" + ISO_DATE.format(copy.lastModified) +
+                "</LastModified><ETag>" + xml(quote(copy.etag)) + "</ETag></CopyObjectResult>");
+    }
+
+    private void uploadPart(HttpExchange exchange, String uploadId, Map<String, String> query) throws Exception {
+        MultipartUpload upload = requireUpload(uploadId);
+        int partNumber;
+        try {
+            partNumber = Integer.parseInt(query.getOrDefault("partNumber", ""));
+        } catch (NumberFormatException e) {
+            throw new S3Error(400, "InvalidArgument", "Part number must be an integer");
+        }
+        if (partNumber < 1 || partNumber > 10000) throw new S3Error(400, "InvalidArgument", "Part number must be between 1 and 10000");
+
+        String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+        if (copySource != null) {
+            count("UploadPartCopy");
+            byte[] data = resolveCopySource(copySource).data;
+            String range = exchange.getRequestHeaders().getFirst("x-amz-copy-source-range");
+            if (range != null && range.startsWith("bytes=")) {
+                long[] bounds = parseRange(range.substring(6), data.length);
+                data = Arrays.copyOfRange(data, (int) bounds[0], (int) bounds[1] + 1);
+            }
+            StoredObject part = new StoredObject(data, md5Hex(data), null, null);
+            upload.parts.put(partNumber, part);
+            sendXml(exchange, 200, "<CopyPartResult xmlns=\"" + S3_NS + "\"><LastModified>" + ISO_DATE.format(part.lastModified) +
+                    "</LastModified><ETag>" + xml(quote(part.etag)) + "</ETag></CopyPartResult>");
+        } else {
+            count("UploadPart");
+            byte[] data = readBody(exchange);
+            StoredObject part = new StoredObject(data, md5Hex(data), null, null);
+            upload.parts.put(partNumber, part);
+            exchange.getResponseHeaders().set("ETag", quote(part.etag));
+            sendEmpty(exchange, 200);
+        }
+    }
+
+    private void listParts(HttpExchange exchange, MultipartUpload upload) throws IOException {
+        StringBuilder sb = new StringBuilder("<ListPartsResult xmlns=\"" + S3_NS + "\">")
+                .append("<Bucket>").append(xml(upload.bucket)).append("</Bucket><Key>").append(xml(upload.key))
+                .append("</Key><UploadId>").append(upload.uploadId).append("</UploadId>")
+                .append("<Initiator><ID>").append(ACCESS_KEY).append("</ID><DisplayName>").append(ACCESS_KEY)
+                .append("</DisplayName></Initiator><Owner><ID>").append(ACCESS_KEY).append("</ID><DisplayName>")
+                .append(ACCESS_KEY).append("</DisplayName></Owner>")
+                .append("<StorageClass>STANDARD</StorageClass><PartNumberMarker>0</PartNumberMarker>")
+                .append("<NextPartNumberMarker>").append(upload.parts.isEmpty() ? 0 : upload.parts.lastKey())
+                .append("</NextPartNumberMarker><MaxParts>10000</MaxParts><IsTruncated>false</IsTruncated>");
+        for (Map.Entry<Integer, StoredObject> entry : upload.parts.entrySet()) {
+            StoredObject part = entry.getValue();
+            sb.append("<Part><PartNumber>").append(entry.getKey()).append("</PartNumber><LastModified>")
+                    .append(ISO_DATE.format(part.lastModified)).append("</LastModified><ETag>").append(xml(quote(part.etag)))
+                    .append("</ETag><Size>").append(part.data.length).append("</Size></Part>");
+        }
+        sb.append("</ListPartsResult>");
+        sendXml(exchange, 200, sb.toString());
+    }
+
+    private void completeMultipartUpload(HttpExchange exchange, Bucket b, String key, MultipartUpload upload) throws Exception {
+        String body = new String(readRawBody(exchange), StandardCharsets.UTF_8);
+        ByteArrayOutputStream combined = new ByteArrayOutputStream();
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        int partCount = 0;
+        int lastPartNumber = 0;
+        Matcher matcher = PART_PATTERN.matcher(body);
+        while (matcher.find()) {
+            int partNumber = Integer.parseInt(matcher.group(1));
+            if (partNumber <= lastPartNumber) throw new S3Error(400, "InvalidPartOrder", "The list of parts was not in ascending order");
+            StoredObject part = upload.parts.get(partNumber);
+            if (part == null) throw new S3Error(400, "InvalidPart", "One or more of the specified parts could not be found");
+            combined.write(part.data);
+            digest.update(hexToBytes(part.etag));
+            lastPartNumber = partNumber;
+            partCount++;
+        }
+        if (partCount == 0) throw new S3Error(400, "MalformedXML", "The XML you provided was not well-formed");
+
+        String etag = toHex(digest.digest()) + "-" + partCount;
+        b.objects.put(key, new StoredObject(combined.toByteArray(), etag, upload.contentType, upload.contentEncoding, upload.userMetadata));
+        uploads.remove(upload.uploadId);
+        sendXml(exchange, 200, "<CompleteMultipartUploadResult xmlns=\"" + S3_NS + "\"><Location>" + xml(getEndpoint() + "/" + b.name + "/" + key) +
+                "</Location><Bucket>" + xml(b.name) + "</Bucket><Key>" + xml(key) + "</Key><ETag>" + xml(quote(etag)) +
+                "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private void count(String operation) {
+        requestCounts.computeIfAbsent(operation, key -> new LongAdder()).increment();
+    }
+
+    private Bucket requireBucket(String bucket) throws S3Error {
+        Bucket b = buckets.get(bucket);
+        if (b == null) throw new S3Error(404, "NoSuchBucket", "The specified bucket does not exist");
+        return b;
+    }
+
+    private static StoredObject requireObject(Bucket b, String key) throws S3Error {
+        StoredObject object = b.objects.get(key);
+        if (object == null) throw new S3Error(404, "NoSuchKey", "The specified key does not exist.");
+        return object;
+    }
+
+    private MultipartUpload requireUpload(String uploadId) throws S3Error {
+        MultipartUpload upload = uploads.get(uploadId);
+        if (upload == null) throw new S3Error(404, "NoSuchUpload", "The specified multipart upload does not exist.");
+        return upload;
+    }
+
+    private StoredObject resolveCopySource(String copySource) throws S3Error {
+        String source = decode(copySource);
+        int versionIndex = source.indexOf("?versionId=");
+        if (versionIndex >= 0) source = source.substring(0, versionIndex);
+        if (source.startsWith("/")) source = source.substring(1);
+        int slash = source.indexOf('/');
+        if (slash <= 0) throw new S3Error(400, "InvalidArgument", "Copy Source must mention the source bucket and key");
+        return requireObject(requireBucket(source.substring(0, slash)), source.substring(slash + 1));
+    }
+
+    private static StoredObject newObject(byte[] data, Headers headers) {
+        return new StoredObject(data, md5Hex(data), headers.getFirst("Content-Type"), contentEncoding(headers), userMetadata(headers));
+    }
+
+    /**
+     * 对象的Content-Encoding，去掉传输用的aws-chunked
+     */
+    private static String contentEncoding(Headers headers) {
+        String encoding = headers.getFirst("Content-Encoding");
+        if (encoding == null) return null;
+        StringJoiner kept = new StringJoiner(",");
+        for (String value : encoding.split(",")) {
+            value = value.trim();
+            if (!value.isEmpty() && !"aws-chunked".equalsIgnoreCase(value)) kept.add(value);
+        }
+        return kept.length() > 0 ? kept.toString() : null;
+    }
+
+    private static Map<String, String> userMetadata(Headers headers) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            if (name.startsWith("x-amz-meta-") && !entry.getValue().isEmpty()) metadata.put(name, entry.getValue().get(0));
+        }
+        return metadata;
+    }
+
+    private static void setObjectHeaders(Headers responseHeaders, StoredObject object) {
+        responseHeaders.set("ETag", quote(object.etag));
+        responseHeaders.set("Last-Modified", HTTP_DATE.format(object.lastModified));
+        responseHeaders.set("Content-Type", object.contentType);
+        if (object.contentEncoding != null) responseHeaders.set("Content-Encoding", object.contentEncoding);
+        responseHeaders.set("Accept-Ranges", "bytes");
+        for (Map.Entry<String, String> entry : object.userMetadata.entrySet()) responseHeaders.set(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * 读取请求体，处理aws-chunked流式签名编码
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        byte[] raw = readRawBody(exchange);
+        String contentSha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if (contentSha256 == null || !contentSha256.startsWith("STREAMING-")) return raw;
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(raw.length);
+        int position = 0;
+        while (position < raw.length) {
+            int lineEnd = indexOf(raw, "\r\n".getBytes(StandardCharsets.ISO_8859_1), position);
+            if (lineEnd < 0) break;
+            String header = new String(raw, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            int semicolon = header.indexOf(';');
+            int size = Integer.parseInt((semicolon >= 0 ? header.substring(0, semicolon) : header).trim(), 16);
+            if (size == 0) break;
+            decoded.write(raw, lineEnd + 2, size);
+            position = lineEnd + 2 + size + 2;
+        }
+        return decoded.toByteArray();
+    }
+
+    private static byte[] readRawBody(HttpExchange exchange) throws IOException {
+        // 请求体由 exchange.close() 关闭
+        return exchange.getRequestBody().readAllBytes();
+    }
+
+    private static long[] parseRange(String spec, long length) throws S3Error {
+        int dash = spec.indexOf('-');
+        if (dash < 0 || length == 0) throw new S3Error(416, "InvalidRange", "The requested range is not satisfiable");
+        String startText = spec.substring(0, dash).trim();
+        String endText = spec.substring(dash + 1).trim();
+        long start;
+        long end;
+        if (startText.isEmpty()) {
+            long suffix = Long.parseLong(endText);
+            start = Math.max(0, length - suffix);
+            end = length - 1;
+        } else {
+            start = Long.parseLong(startText);
+            end = endText.isEmpty() ? length - 1 : Math.min(Long.parseLong(endText), length - 1);
+        }
+        if (start >= length || start > end) throw new S3Error(416, "InvalidRange", "The requested range is not satisfiable");
+        return new long[] { start, end };
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return query;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            if (eq < 0) query.put(decode(pair), "");
+            else query.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+        }
+        return query;
+    }
+
+    // S3签名编码中'+'以%2B传输，字面'+'不表示空格
+    private static String decode(String value) {
+        return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+
+    private static String encodeToken(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeToken(String token) {
+        return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    }
+
+    private static String headerParam(String headers, String name) {
+        Matcher matcher = Pattern.compile("[;\\s]" + name + "=\"([^\"]*)\"").matcher(headers);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = Math.max(0, from); i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String md5Hex(byte[] data) {
+        try {
+            return toHex(MessageDigest.getInstance("MD5").digest(data));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        int dash = hex.indexOf('-');
+        if (dash >= 0) hex = hex.substring(0, dash);
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        return bytes;
+    }
+
+    private static String quote(String etag) {
+        return "\"" + etag + "\"";
+    }
+
+    private static String xml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unxml(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    /**
+     * 发送响应头前读完请求体：请求体未读到结尾时HttpServer在响应后关闭连接，客户端复用该连接的下一个请求会失败
+     */
+    private static void sendHeaders(HttpExchange exchange, int status, long length) throws IOException {
+        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+        exchange.sendResponseHeaders(status, length);
+    }
+
+    private static void sendEmpty(HttpExchange exchange, int status) throws IOException {
+        sendHeaders(exchange, status, -1);
+    }
+
+    private static void sendXml(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        sendBytes(exchange, status, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + body).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendBytes(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod()) || body.length == 0) {
+            sendHeaders(exchange, status, -1);
+            return;
+        }
+        sendHeaders(exchange, status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, S3Error error) {
+        try {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                sendHeaders(exchange, error.status, -1);
+                return;
+            }
+            sendXml(exchange, error.status, "<Error><Code>" + error.code + "</Code><Message>" + xml(error.getMessage()) +
+                    "</Message><Resource>" + xml(exchange.getRequestURI().getRawPath()) + "</Resource><RequestId>" +
+                    Long.toHexString(System.nanoTime()) + "</RequestId></Error>");
+        } catch (IOException e) {
+            logger.debug("发送错误响应失败", e);
+        }
+    }
+}